@@ -12,6 +12,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.euromoby.agent.model.AgentStatus;
+import com.euromoby.file.FileDigest;
 import com.euromoby.model.AgentId;
 import com.euromoby.ping.model.PingInfo;
 import com.euromoby.utils.StringUtils;
@@ -78,6 +79,23 @@ public class AgentManager implements InitializingBean {
 		return agentList;
 	}
 
+	/**
+	 * @param location
+	 *            file location relative to the files directory
+	 * @return active agents which may have the file according to their digest
+	 */
+	public synchronized List<AgentId> getActiveWithFile(String location) {
+		List<AgentId> agentList = new ArrayList<AgentId>();
+		for (Map.Entry<AgentId, AgentStatus> entry : agents.entrySet()) {
+			AgentId agentId = entry.getKey();
+			AgentStatus agentStatus = entry.getValue();
+			if (agentStatus.isActive() && agentStatus.mightHaveFile(location)) {
+				agentList.add(agentId);
+			}
+		}
+		return agentList;
+	}
+
 	public synchronized List<AgentId> getAllForPing() {
 		List<AgentId> agentList = new ArrayList<AgentId>();
 		for (Map.Entry<AgentId, AgentStatus> entry : agents.entrySet()) {
@@ -94,8 +112,11 @@ public class AgentManager implements InitializingBean {
 		if (pingInfo != null) {
 			AgentStatus status = getAgentStatus(pingInfo.getAgentId());
 			if (status != null) {
-				status.setLastPingReceived(System.currentTimeMillis());
+				long now = System.currentTimeMillis();
+				status.setLastPingReceived(now);
 				status.setFreeSpace(pingInfo.getFreeSpace());
+				status.setFileDigest(FileDigest.parse(pingInfo.getFileDigest()));
+				status.setFileDigestReceived(now);
 			}
 		}
 	}	
@@ -104,8 +125,11 @@ public class AgentManager implements InitializingBean {
 		if (pingInfo != null) {
 			AgentStatus status = getAgentStatus(pingInfo.getAgentId());
 			if (status != null) {
-				status.setLastPingSendSuccess(System.currentTimeMillis());
+				long now = System.currentTimeMillis();
+				status.setLastPingSendSuccess(now);
 				status.setFreeSpace(pingInfo.getFreeSpace());
+				status.setFileDigest(FileDigest.parse(pingInfo.getFileDigest()));
+				status.setFileDigestReceived(now);
 			}
 		}
 	}	
@@ -81,7 +81,7 @@ public class Config {
 	public static final String AGENT_HOST = "agent.host";
 
 	public static final String AUTORUN = "agent.autorun";
-	public static final String DEFAULT_AUTORUN = "rest,job,ping";
+	public static final String DEFAULT_AUTORUN = "rest,job,ping,fileindex";
 
 	public static final String AGENT_FRIENDS = "agent.friends";
 
@@ -95,6 +95,9 @@ public class Config {
 	public static final String AGENT_FILES_PATH = "agent.files.path";
 	public static final String DEFAULT_AGENT_FILES_PATH = "files";
 
+	public static final String AGENT_FILES_PRECOMPRESS = "agent.files.precompress";
+	public static final String DEFAULT_AGENT_FILES_PRECOMPRESS = "true";
+
 	public static final String AGENT_MAIL_PATH = "agent.mail.path";
 	public static final String DEFAULT_AGENT_MAIL_PATH = "mail";	
 	
@@ -116,6 +119,33 @@ public class Config {
 
 	public static final String DOWNLOAD_POOL_SIZE = "agent.download.pool.size";
 	public static final String DEFAULT_DOWNLOAD_POOL_SIZE = "4";	
+
+	// concurrent ranges of a file, 1 - single stream
+	public static final String DOWNLOAD_SEGMENTS = "agent.download.segments";
+	public static final String DEFAULT_DOWNLOAD_SEGMENTS = "4";
+
+	// files are split only into segments of at least this size
+	public static final String DOWNLOAD_SEGMENT_MIN = "agent.download.segment.min";
+	public static final String DEFAULT_DOWNLOAD_SEGMENT_MIN = String.valueOf(4 * 1024 * 1024);
+
+	// received bytes between the saves of the partial file state
+	public static final String DOWNLOAD_CHECKPOINT = "agent.download.checkpoint";
+	public static final String DEFAULT_DOWNLOAD_CHECKPOINT = String.valueOf(4 * 1024 * 1024);
+
+	// files of one host downloaded at the same time, 0 - unlimited
+	public static final String DOWNLOAD_HOST_MAX = "agent.download.host.max";
+	public static final String DEFAULT_DOWNLOAD_HOST_MAX = "2";
+
+	// failed attempts before a file goes to the dead state
+	public static final String DOWNLOAD_RETRY_MAX = "agent.download.retry.max";
+	public static final String DEFAULT_DOWNLOAD_RETRY_MAX = "8";
+
+	// delay after the first failed attempt, doubled after each next one
+	public static final String DOWNLOAD_RETRY_DELAY = "agent.download.retry.delay";
+	public static final String DEFAULT_DOWNLOAD_RETRY_DELAY = "10000";
+
+	public static final String DOWNLOAD_RETRY_DELAY_MAX = "agent.download.retry.delay.max";
+	public static final String DEFAULT_DOWNLOAD_RETRY_DELAY_MAX = "3600000";
 	
 	public static final String JOB_POOL_SIZE = "agent.job.pool.size";
 	public static final String DEFAULT_JOB_POOL_SIZE = "4";
@@ -123,20 +153,137 @@ public class Config {
 	public static final String PING_POOL_SIZE = "agent.ping.pool.size";
 	public static final String DEFAULT_PING_POOL_SIZE = "2";
 
-	public static final String CDN_POOL_SIZE = "agent.cdn.pool.size";
-	public static final String DEFAULT_CDN_POOL_SIZE = "4";
-
 	public static final String TWITTER_POOL_SIZE = "agent.twitter.pool.size";
 	public static final String DEFAULT_TWITTER_POOL_SIZE = "2";	
 	
 	public static final String CDN_TIMEOUT = "agent.cdn.timeout";
 	public static final String DEFAULT_CDN_TIMEOUT = "3000";
+
+	// the other agents are asked when the owner of a file has not answered in time
+	public static final String CDN_HEDGE_DELAY = "agent.cdn.hedge.delay";
+	public static final String DEFAULT_CDN_HEDGE_DELAY = "100";
+
+	public static final String CDN_LOCATION_CACHE_SIZE = "agent.cdn.location.cache.size";
+	public static final String DEFAULT_CDN_LOCATION_CACHE_SIZE = String.valueOf(4 * 1024 * 1024);
+
+	public static final String CDN_LOCATION_TTL = "agent.cdn.location.ttl";
+	public static final String DEFAULT_CDN_LOCATION_TTL = "300000";
+
+	public static final String CDN_LOCATION_NEGATIVE_TTL = "agent.cdn.location.negative.ttl";
+	public static final String DEFAULT_CDN_LOCATION_NEGATIVE_TTL = "5000";
+
+	public static final String CDN_PLACEMENT = "agent.cdn.placement";
+	public static final String DEFAULT_CDN_PLACEMENT = "rendezvous";
+
+	public static final String CDN_FILE_CACHE_SIZE = "agent.cdn.filecache.size";
+	public static final String DEFAULT_CDN_FILE_CACHE_SIZE = String.valueOf(64 * 1024 * 1024);
+
+	public static final String CDN_FILE_CACHE_FILE_MAX = "agent.cdn.filecache.file.max";
+	public static final String DEFAULT_CDN_FILE_CACHE_FILE_MAX = String.valueOf(64 * 1024);
+
+	public static final String CDN_FILE_CACHE_REVALIDATE = "agent.cdn.filecache.revalidate";
+	public static final String DEFAULT_CDN_FILE_CACHE_REVALIDATE = "1000";
+
+	public static final String CDN_PROXY_BUFFER = "agent.cdn.proxy.buffer";
+	public static final String DEFAULT_CDN_PROXY_BUFFER = "8388608";
+
+	// memory all the proxy flights together keep for the late joiners
+	public static final String CDN_PROXY_BUFFER_TOTAL = "agent.cdn.proxy.buffer.total";
+	public static final String DEFAULT_CDN_PROXY_BUFFER_TOTAL = "67108864";
+
+	// outgoing bytes per second of the cdn server, 0 - unlimited
+	public static final String CDN_SHAPING_TOTAL = "agent.cdn.shaping.total";
+	public static final String DEFAULT_CDN_SHAPING_TOTAL = "0";
+
+	// part of the total kept for the other agents
+	public static final String CDN_SHAPING_AGENTS_RESERVED = "agent.cdn.shaping.agents.reserved";
+	public static final String DEFAULT_CDN_SHAPING_AGENTS_RESERVED = "0";
+
+	// bytes per second of a client IP, 0 - fair share of the total only
+	public static final String CDN_SHAPING_CLIENT_MAX = "agent.cdn.shaping.client.max";
+	public static final String DEFAULT_CDN_SHAPING_CLIENT_MAX = "0";
+
+	public static final String CDN_SHAPING_INTERVAL = "agent.cdn.shaping.interval";
+	public static final String DEFAULT_CDN_SHAPING_INTERVAL = "1000";
 	
 	public static final String SERVER_TIMEOUT = "agent.server.timeout";
 	public static final String DEFAULT_SERVER_TIMEOUT = "30";
 
+	public static final String NETTY_TRANSPORT = "agent.netty.transport";
+	public static final String DEFAULT_NETTY_TRANSPORT = "auto";
+
+	public static final String NETTY_ALLOCATOR = "agent.netty.allocator";
+	public static final String DEFAULT_NETTY_ALLOCATOR = "pooled";
+
+	public static final String NETTY_ALLOCATOR_DIRECT = "agent.netty.allocator.direct";
+	public static final String DEFAULT_NETTY_ALLOCATOR_DIRECT = "true";
+
+	// 0 - 2 x cores, limited by the available memory
+	public static final String NETTY_ALLOCATOR_ARENAS = "agent.netty.allocator.arenas";
+	public static final String DEFAULT_NETTY_ALLOCATOR_ARENAS = "0";
+
+	// disabled, simple (sampled), advanced or paranoid
+	public static final String NETTY_LEAK_DETECTION = "agent.netty.leak.detection";
+	public static final String DEFAULT_NETTY_LEAK_DETECTION = "simple";
+
+	public static final String NETTY_BOSS_THREADS = "agent.netty.boss.threads";
+	public static final String DEFAULT_NETTY_BOSS_THREADS = "1";
+
+	// 0 - number of cores
+	public static final String NETTY_WORKER_THREADS = "agent.netty.worker.threads";
+	public static final String DEFAULT_NETTY_WORKER_THREADS = "0";
+
+	// services that never share worker loops with the blocking ones (rest, mail, telnet)
+	public static final String NETTY_ISOLATED_SERVICES = "agent.netty.isolated";
+	public static final String DEFAULT_NETTY_ISOLATED_SERVICES = "cdn";
+
+	// per service socket options, %s is the service name (rest, cdn, ...)
+	// 0 - shared worker loops
+	public static final String SERVER_THREADS = "agent.%s.threads";
+	public static final String DEFAULT_SERVER_THREADS = "0";
+
+	public static final String SERVER_ACCEPTORS = "agent.%s.acceptors";
+	public static final String DEFAULT_SERVER_ACCEPTORS = "1";
+
+	public static final String SERVER_BACKLOG = "agent.%s.backlog";
+	public static final String DEFAULT_SERVER_BACKLOG = "1024";
+
+	public static final String SERVER_TCP_NODELAY = "agent.%s.tcp.nodelay";
+	public static final String DEFAULT_SERVER_TCP_NODELAY = "true";
+
+	public static final String SERVER_KEEPALIVE = "agent.%s.keepalive";
+	public static final String DEFAULT_SERVER_KEEPALIVE = "false";
+
+	public static final String SERVER_RCVBUF = "agent.%s.rcvbuf";
+	public static final String SERVER_SNDBUF = "agent.%s.sndbuf";
+	// 0 - system default
+	public static final String DEFAULT_SERVER_BUFFER = "0";
+
 	public static final String HTTP_CLIENT_TIMEOUT = "agent.httpclient.timeout";
 	public static final String DEFAULT_HTTP_CLIENT_TIMEOUT = "5000";
+
+	// longest wait for a pooled connection when all of them are leased
+	public static final String HTTP_CLIENT_LEASE_TIMEOUT = "agent.httpclient.lease.timeout";
+	public static final String DEFAULT_HTTP_CLIENT_LEASE_TIMEOUT = "5000";
+
+	public static final String HTTP_CLIENT_MAX_TOTAL = "agent.httpclient.max.total";
+	public static final String DEFAULT_HTTP_CLIENT_MAX_TOTAL = "64";
+
+	// enough for the segments of agent.download.host.max files
+	public static final String HTTP_CLIENT_MAX_ROUTE = "agent.httpclient.max.route";
+	public static final String DEFAULT_HTTP_CLIENT_MAX_ROUTE = "8";
+
+	// idle pooled connections are closed after this time
+	public static final String HTTP_CLIENT_IDLE_TIMEOUT = "agent.httpclient.idle.timeout";
+	public static final String DEFAULT_HTTP_CLIENT_IDLE_TIMEOUT = "30000";
+
+	// pooled connections idle for longer are checked before they are leased
+	public static final String HTTP_CLIENT_VALIDATE_AFTER = "agent.httpclient.validate.after";
+	public static final String DEFAULT_HTTP_CLIENT_VALIDATE_AFTER = "2000";
+
+	// keep-alive of the connections without a Keep-Alive timeout, the longest one otherwise
+	public static final String HTTP_CLIENT_KEEPALIVE = "agent.httpclient.keepalive";
+	public static final String DEFAULT_HTTP_CLIENT_KEEPALIVE = "30000";
 	
 	public static final String TWITTER_SCHEDULER_INTERVAL = "agent.twitter.interval";
 	public static final String DEFAULT_TWITTER_SCHEDULER_INTERVAL = "10000";	
@@ -147,9 +294,6 @@ public class Config {
 	public static final String DOWNLOAD_SCHEDULER_INTERVAL = "agent.download.interval";
 	public static final String DEFAULT_DOWNLOAD_SCHEDULER_INTERVAL = "1000";	
 
-	public static final String DOWNLOAD_SCHEDULER_BATCH_SIZE = "agent.download.batch.size";
-	public static final String DEFAULT_DOWNLOAD_SCHEDULER_BATCH_SIZE  = "10";	
-	
 	public static final String DOWNLOAD_FREESPACE_MIN = "agent.download.freespace.min";
 	public static final String DEFAULT_DOWNLOAD_FREESPACE_MIN  = String.valueOf(500 * 1024 * 1024);	
 	
@@ -292,6 +436,10 @@ public class Config {
 		return agentFilesPath;
 	}
 
+	public boolean isAgentFilesPrecompress() {
+		return Boolean.valueOf(properties.getProperty(AGENT_FILES_PRECOMPRESS, DEFAULT_AGENT_FILES_PRECOMPRESS));
+	}
+
 	public String getAgentMailPath() {
 		String agentMailPath = properties.getProperty(AGENT_MAIL_PATH);
 		if (StringUtils.nullOrEmpty(agentMailPath)) {
@@ -319,6 +467,34 @@ public class Config {
 	public int getDownloadPoolSize() {
 		return Integer.parseInt(properties.getProperty(DOWNLOAD_POOL_SIZE, DEFAULT_DOWNLOAD_POOL_SIZE));
 	}	
+
+	public int getDownloadSegments() {
+		return Integer.parseInt(properties.getProperty(DOWNLOAD_SEGMENTS, DEFAULT_DOWNLOAD_SEGMENTS));
+	}
+
+	public long getDownloadSegmentMin() {
+		return Long.parseLong(properties.getProperty(DOWNLOAD_SEGMENT_MIN, DEFAULT_DOWNLOAD_SEGMENT_MIN));
+	}
+
+	public long getDownloadCheckpoint() {
+		return Long.parseLong(properties.getProperty(DOWNLOAD_CHECKPOINT, DEFAULT_DOWNLOAD_CHECKPOINT));
+	}
+
+	public int getDownloadHostMax() {
+		return Integer.parseInt(properties.getProperty(DOWNLOAD_HOST_MAX, DEFAULT_DOWNLOAD_HOST_MAX));
+	}
+
+	public int getDownloadRetryMax() {
+		return Integer.parseInt(properties.getProperty(DOWNLOAD_RETRY_MAX, DEFAULT_DOWNLOAD_RETRY_MAX));
+	}
+
+	public long getDownloadRetryDelay() {
+		return Long.parseLong(properties.getProperty(DOWNLOAD_RETRY_DELAY, DEFAULT_DOWNLOAD_RETRY_DELAY));
+	}
+
+	public long getDownloadRetryDelayMax() {
+		return Long.parseLong(properties.getProperty(DOWNLOAD_RETRY_DELAY_MAX, DEFAULT_DOWNLOAD_RETRY_DELAY_MAX));
+	}
 	
 	public int getJobPoolSize() {
 		return Integer.parseInt(properties.getProperty(JOB_POOL_SIZE, DEFAULT_JOB_POOL_SIZE));
@@ -328,10 +504,6 @@ public class Config {
 		return Integer.parseInt(properties.getProperty(PING_POOL_SIZE, DEFAULT_PING_POOL_SIZE));
 	}
 
-	public int getCdnPoolSize() {
-		return Integer.parseInt(properties.getProperty(CDN_POOL_SIZE, DEFAULT_CDN_POOL_SIZE));
-	}
-
 	public int getTwitterPoolSize() {
 		return Integer.parseInt(properties.getProperty(TWITTER_POOL_SIZE, DEFAULT_TWITTER_POOL_SIZE));
 	}	
@@ -340,13 +512,154 @@ public class Config {
 		return Integer.parseInt(properties.getProperty(CDN_TIMEOUT, DEFAULT_CDN_TIMEOUT));
 	}
 
+	public long getCdnHedgeDelay() {
+		return Long.parseLong(properties.getProperty(CDN_HEDGE_DELAY, DEFAULT_CDN_HEDGE_DELAY));
+	}
+
+	public long getCdnLocationCacheSize() {
+		return Long.parseLong(properties.getProperty(CDN_LOCATION_CACHE_SIZE, DEFAULT_CDN_LOCATION_CACHE_SIZE));
+	}
+
+	public long getCdnLocationTtl() {
+		return Long.parseLong(properties.getProperty(CDN_LOCATION_TTL, DEFAULT_CDN_LOCATION_TTL));
+	}
+
+	public long getCdnLocationNegativeTtl() {
+		return Long.parseLong(properties.getProperty(CDN_LOCATION_NEGATIVE_TTL, DEFAULT_CDN_LOCATION_NEGATIVE_TTL));
+	}
+
+	public String getCdnPlacement() {
+		return properties.getProperty(CDN_PLACEMENT, DEFAULT_CDN_PLACEMENT);
+	}
+
+	public long getCdnFileCacheSize() {
+		return Long.parseLong(properties.getProperty(CDN_FILE_CACHE_SIZE, DEFAULT_CDN_FILE_CACHE_SIZE));
+	}
+
+	public int getCdnFileCacheFileMax() {
+		return Integer.parseInt(properties.getProperty(CDN_FILE_CACHE_FILE_MAX, DEFAULT_CDN_FILE_CACHE_FILE_MAX));
+	}
+
+	public long getCdnFileCacheRevalidate() {
+		return Long.parseLong(properties.getProperty(CDN_FILE_CACHE_REVALIDATE, DEFAULT_CDN_FILE_CACHE_REVALIDATE));
+	}
+
+	public long getCdnProxyBuffer() {
+		return Long.parseLong(properties.getProperty(CDN_PROXY_BUFFER, DEFAULT_CDN_PROXY_BUFFER));
+	}
+
+	public long getCdnProxyBufferTotal() {
+		return Long.parseLong(properties.getProperty(CDN_PROXY_BUFFER_TOTAL, DEFAULT_CDN_PROXY_BUFFER_TOTAL));
+	}
+
+	public long getCdnShapingTotal() {
+		return Long.parseLong(properties.getProperty(CDN_SHAPING_TOTAL, DEFAULT_CDN_SHAPING_TOTAL));
+	}
+
+	public long getCdnShapingAgentsReserved() {
+		return Long.parseLong(properties.getProperty(CDN_SHAPING_AGENTS_RESERVED, DEFAULT_CDN_SHAPING_AGENTS_RESERVED));
+	}
+
+	public long getCdnShapingClientMax() {
+		return Long.parseLong(properties.getProperty(CDN_SHAPING_CLIENT_MAX, DEFAULT_CDN_SHAPING_CLIENT_MAX));
+	}
+
+	public long getCdnShapingInterval() {
+		return Long.parseLong(properties.getProperty(CDN_SHAPING_INTERVAL, DEFAULT_CDN_SHAPING_INTERVAL));
+	}
+
 	public int getServerTimeout() {
 		return Integer.parseInt(properties.getProperty(SERVER_TIMEOUT, DEFAULT_SERVER_TIMEOUT));
 	}	
 
+	public String getNettyTransport() {
+		return properties.getProperty(NETTY_TRANSPORT, DEFAULT_NETTY_TRANSPORT);
+	}
+
+	public String getNettyAllocator() {
+		return properties.getProperty(NETTY_ALLOCATOR, DEFAULT_NETTY_ALLOCATOR);
+	}
+
+	public boolean isNettyAllocatorDirect() {
+		return Boolean.valueOf(properties.getProperty(NETTY_ALLOCATOR_DIRECT, DEFAULT_NETTY_ALLOCATOR_DIRECT));
+	}
+
+	public int getNettyAllocatorArenas() {
+		return Integer.parseInt(properties.getProperty(NETTY_ALLOCATOR_ARENAS, DEFAULT_NETTY_ALLOCATOR_ARENAS));
+	}
+
+	public String getNettyLeakDetection() {
+		return properties.getProperty(NETTY_LEAK_DETECTION, DEFAULT_NETTY_LEAK_DETECTION);
+	}
+
+	public int getNettyBossThreads() {
+		return Integer.parseInt(properties.getProperty(NETTY_BOSS_THREADS, DEFAULT_NETTY_BOSS_THREADS));
+	}
+
+	public int getNettyWorkerThreads() {
+		return Integer.parseInt(properties.getProperty(NETTY_WORKER_THREADS, DEFAULT_NETTY_WORKER_THREADS));
+	}
+
+	public String[] getNettyIsolatedServices() {
+		String services = properties.getProperty(NETTY_ISOLATED_SERVICES, DEFAULT_NETTY_ISOLATED_SERVICES).trim();
+		return services.split(LIST_SEPARATOR);
+	}
+
+	public int getServerThreads(String serviceName) {
+		return Integer.parseInt(properties.getProperty(String.format(SERVER_THREADS, serviceName), DEFAULT_SERVER_THREADS));
+	}
+
+	public int getServerAcceptors(String serviceName) {
+		return Integer.parseInt(properties.getProperty(String.format(SERVER_ACCEPTORS, serviceName), DEFAULT_SERVER_ACCEPTORS));
+	}
+
+	public int getServerBacklog(String serviceName) {
+		return Integer.parseInt(properties.getProperty(String.format(SERVER_BACKLOG, serviceName), DEFAULT_SERVER_BACKLOG));
+	}
+
+	public boolean isServerTcpNoDelay(String serviceName) {
+		return Boolean.valueOf(properties.getProperty(String.format(SERVER_TCP_NODELAY, serviceName), DEFAULT_SERVER_TCP_NODELAY));
+	}
+
+	public boolean isServerKeepAlive(String serviceName) {
+		return Boolean.valueOf(properties.getProperty(String.format(SERVER_KEEPALIVE, serviceName), DEFAULT_SERVER_KEEPALIVE));
+	}
+
+	public int getServerReceiveBuffer(String serviceName) {
+		return Integer.parseInt(properties.getProperty(String.format(SERVER_RCVBUF, serviceName), DEFAULT_SERVER_BUFFER));
+	}
+
+	public int getServerSendBuffer(String serviceName) {
+		return Integer.parseInt(properties.getProperty(String.format(SERVER_SNDBUF, serviceName), DEFAULT_SERVER_BUFFER));
+	}
+
 	public int getHttpClientTimeout() {
 		return Integer.parseInt(properties.getProperty(HTTP_CLIENT_TIMEOUT, DEFAULT_HTTP_CLIENT_TIMEOUT));
 	}	
+
+	public int getHttpClientLeaseTimeout() {
+		return Integer.parseInt(properties.getProperty(HTTP_CLIENT_LEASE_TIMEOUT, DEFAULT_HTTP_CLIENT_LEASE_TIMEOUT));
+	}
+
+	public int getHttpClientMaxTotal() {
+		return Integer.parseInt(properties.getProperty(HTTP_CLIENT_MAX_TOTAL, DEFAULT_HTTP_CLIENT_MAX_TOTAL));
+	}
+
+	public int getHttpClientMaxRoute() {
+		return Integer.parseInt(properties.getProperty(HTTP_CLIENT_MAX_ROUTE, DEFAULT_HTTP_CLIENT_MAX_ROUTE));
+	}
+
+	public long getHttpClientIdleTimeout() {
+		return Long.parseLong(properties.getProperty(HTTP_CLIENT_IDLE_TIMEOUT, DEFAULT_HTTP_CLIENT_IDLE_TIMEOUT));
+	}
+
+	public int getHttpClientValidateAfter() {
+		return Integer.parseInt(properties.getProperty(HTTP_CLIENT_VALIDATE_AFTER, DEFAULT_HTTP_CLIENT_VALIDATE_AFTER));
+	}
+
+	public long getHttpClientKeepAlive() {
+		return Long.parseLong(properties.getProperty(HTTP_CLIENT_KEEPALIVE, DEFAULT_HTTP_CLIENT_KEEPALIVE));
+	}
 	
 	public String getFfmpegPath() {
 		return properties.getProperty(AGENT_FFMPEG_PATH);
@@ -372,10 +685,6 @@ public class Config {
 		return Integer.parseInt(properties.getProperty(DOWNLOAD_SCHEDULER_INTERVAL, DEFAULT_DOWNLOAD_SCHEDULER_INTERVAL));
 	}	
 
-	public int getDownloadSchedulerBatchSize() {
-		return Integer.parseInt(properties.getProperty(DOWNLOAD_SCHEDULER_BATCH_SIZE, DEFAULT_DOWNLOAD_SCHEDULER_BATCH_SIZE));
-	}	
-
 	public int getDownloadFreespaceMin() {
 		return Integer.parseInt(properties.getProperty(DOWNLOAD_FREESPACE_MIN, DEFAULT_DOWNLOAD_FREESPACE_MIN));
 	}	
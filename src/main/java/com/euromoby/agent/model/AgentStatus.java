@@ -1,5 +1,7 @@
 package com.euromoby.agent.model;
 
+import com.euromoby.file.FileDigest;
+
 public class AgentStatus {
 
 	public static final long ACTIVE_SINCE_LAST_PING = 10 * 60 * 1000L; // 10
@@ -11,6 +13,8 @@ public class AgentStatus {
 	private long lastPingSendSuccess = 0;
 	private long lastPingReceived = 0;
 	private long freeSpace;
+	private FileDigest fileDigest;
+	private long fileDigestReceived = 0;
 
 	public String getMyHost() {
 		return myHost;
@@ -52,6 +56,35 @@ public class AgentStatus {
 		this.freeSpace = freeSpace;
 	}
 
+	public FileDigest getFileDigest() {
+		return fileDigest;
+	}
+
+	public void setFileDigest(FileDigest fileDigest) {
+		this.fileDigest = fileDigest;
+	}
+
+	public long getFileDigestReceived() {
+		return fileDigestReceived;
+	}
+
+	public void setFileDigestReceived(long fileDigestReceived) {
+		this.fileDigestReceived = fileDigestReceived;
+	}
+
+	/**
+	 * @return false only if the digest received from the agent says it does
+	 *         not have the file. A digest older than the ping interval is
+	 *         unknown, the agent may have stored the file since.
+	 */
+	public boolean mightHaveFile(String location) {
+		return fileDigest == null || location == null || isFileDigestStale() || fileDigest.mightContain(location);
+	}
+
+	public boolean isFileDigestStale() {
+		return System.currentTimeMillis() - fileDigestReceived > PING_INTERVAL;
+	}
+
 	public boolean isActive() {
 		return System.currentTimeMillis() - Math.max(lastPingSendSuccess, lastPingReceived) < ACTIVE_SINCE_LAST_PING;
 	}
@@ -0,0 +1,411 @@
+package com.euromoby.cdn;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.agent.Config;
+import com.euromoby.file.FileMetadata;
+import com.euromoby.file.FilePrecompressor;
+import com.euromoby.network.ByteBufAllocatorProvider;
+
+/**
+ * Keeps small and popular files in direct buffers of the agent's allocator,
+ * so hits are served without touching the file system. A compressible file is
+ * kept together with its precompressed sibling, the response headers are the
+ * ones of the file response.
+ * <p>
+ * A file is admitted only if it was requested more often than the least
+ * recently used files which would be evicted for it (frequencies are
+ * estimated by a {@link FrequencySketch}). The cache is bounded by the size
+ * of the cached content. Entries are checked against the length and the
+ * modification time of the file (and its sibling) at most once per
+ * revalidation interval.
+ * </p>
+ */
+@Component
+public class CdnFileCache implements DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(CdnFileCache.class);
+
+	private Config config;
+	private ByteBufAllocatorProvider allocatorProvider;
+
+	private LinkedHashMap<String, CachedFile> files = new LinkedHashMap<String, CachedFile>(16, 0.75f, true);
+	private FrequencySketch sketch = new FrequencySketch(FrequencySketch.DEFAULT_WIDTH);
+	private long size = 0;
+
+	@Autowired
+	public CdnFileCache(Config config, ByteBufAllocatorProvider allocatorProvider) {
+		this.config = config;
+		this.allocatorProvider = allocatorProvider;
+	}
+
+	protected boolean isEnabled() {
+		return config.getCdnFileCacheSize() > 0;
+	}
+
+	/**
+	 * @return cached file with retained content (must be released) or null
+	 */
+	public CachedFile get(File file) {
+		if (!isEnabled()) {
+			return null;
+		}
+		String key = file.getAbsolutePath();
+		synchronized (this) {
+			sketch.increment(key);
+			CachedFile cachedFile = files.get(key);
+			if (cachedFile == null) {
+				return null;
+			}
+			long now = System.currentTimeMillis();
+			if (now - cachedFile.validated >= config.getCdnFileCacheRevalidate()) {
+				if (!cachedFile.isValid(file)) {
+					remove(key);
+					return null;
+				}
+				cachedFile.validated = now;
+			}
+			return cachedFile.retainedDuplicate();
+		}
+	}
+
+	/**
+	 * Reads the file (and its precompressed sibling) into the cache if it is
+	 * small enough and popular enough to replace other entries. The frequency
+	 * of the file should be counted by {@link #get(File)} before.
+	 * 
+	 * @return cached file with retained content (must be released) or null
+	 */
+	public CachedFile load(File file, FileMetadata metadata) {
+		if (!isEnabled()) {
+			return null;
+		}
+		String key = file.getAbsolutePath();
+		long length = metadata.getLength();
+		if (length <= 0 || length > config.getCdnFileCacheFileMax() || length > config.getCdnFileCacheSize()) {
+			return null;
+		}
+		File compressedFile = metadata.isCompressible() ? FilePrecompressor.findCompressedFile(file) : null;
+		if (!admit(key, length + (compressedFile != null ? compressedFile.length() : 0))) {
+			return null;
+		}
+
+		CachedFile cachedFile;
+		try {
+			cachedFile = readFile(file, metadata, compressedFile);
+		} catch (IOException e) {
+			log.debug("Caching of {} failed: {}", file, e.getMessage());
+			return null;
+		}
+		if (cachedFile == null) {
+			return null;
+		}
+
+		synchronized (this) {
+			remove(key);
+			// other entries could be added while reading the file
+			if (!admit(key, cachedFile.size())) {
+				cachedFile.release();
+				return null;
+			}
+			evict(cachedFile.size());
+			files.put(key, cachedFile);
+			size += cachedFile.size();
+			return cachedFile.retainedDuplicate();
+		}
+	}
+
+	public synchronized void invalidate(File file) {
+		remove(file.getAbsolutePath());
+	}
+
+	public synchronized int count() {
+		return files.size();
+	}
+
+	public synchronized long size() {
+		return size;
+	}
+
+	@Override
+	public synchronized void destroy() throws Exception {
+		for (CachedFile cachedFile : files.values()) {
+			cachedFile.release();
+		}
+		files.clear();
+		size = 0;
+	}
+
+	/**
+	 * TinyLFU admission: the candidate must be more frequent than every
+	 * entry which has to be evicted to make room for it
+	 */
+	protected synchronized boolean admit(String key, long length) {
+		long maxSize = config.getCdnFileCacheSize();
+		long needed = size + length - maxSize;
+		if (needed <= 0) {
+			return true;
+		}
+		int candidateFrequency = sketch.frequency(key);
+		Iterator<Map.Entry<String, CachedFile>> it = files.entrySet().iterator();
+		while (needed > 0 && it.hasNext()) {
+			Map.Entry<String, CachedFile> victim = it.next();
+			if (sketch.frequency(victim.getKey()) >= candidateFrequency) {
+				return false;
+			}
+			needed -= victim.getValue().size();
+		}
+		return needed <= 0;
+	}
+
+	private void evict(long length) {
+		long maxSize = config.getCdnFileCacheSize();
+		Iterator<Map.Entry<String, CachedFile>> it = files.entrySet().iterator();
+		while (size + length > maxSize && it.hasNext()) {
+			CachedFile victim = it.next().getValue();
+			size -= victim.size();
+			victim.release();
+			it.remove();
+		}
+	}
+
+	private void remove(String key) {
+		CachedFile cachedFile = files.remove(key);
+		if (cachedFile != null) {
+			size -= cachedFile.size();
+			cachedFile.release();
+		}
+	}
+
+	protected CachedFile readFile(File file, FileMetadata metadata, File compressedFile) throws IOException {
+		ByteBuf content = readContent(file, metadata.getLength(), metadata.getLastModified());
+		if (content == null) {
+			return null;
+		}
+		ByteBuf compressedContent = null;
+		long compressedLastModified = 0;
+		if (compressedFile != null) {
+			compressedLastModified = compressedFile.lastModified();
+			try {
+				compressedContent = readContent(compressedFile, compressedFile.length(), compressedLastModified);
+			} catch (IOException e) {
+				content.release();
+				throw e;
+			}
+			if (compressedContent == null) {
+				content.release();
+				return null;
+			}
+		}
+		return new CachedFile(file.getName(), metadata, content, compressedContent, compressedLastModified);
+	}
+
+	/**
+	 * @return content of the file or null if it was changed while reading
+	 */
+	private ByteBuf readContent(File file, long expectedLength, long lastModified) throws IOException {
+		int length = (int) expectedLength;
+		ByteBuf content = allocatorProvider.getAllocator().directBuffer(length, length);
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(file);
+			FileChannel fileChannel = fis.getChannel();
+			while (content.isWritable()) {
+				if (content.writeBytes(fileChannel, content.writableBytes()) < 0) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			content.release();
+			throw e;
+		} finally {
+			IOUtils.closeQuietly(fis);
+		}
+
+		if (content.isWritable() || file.length() != length || file.lastModified() != lastModified) {
+			content.release();
+			return null;
+		}
+		return content;
+	}
+
+	public static class CachedFile {
+		private String name;
+		private FileMetadata metadata;
+		private ByteBuf content;
+		private ByteBuf compressedContent;
+		private long compressedLastModified;
+		private volatile long validated;
+
+		/**
+		 * @param compressedContent
+		 *            precompressed sibling of the file (null if there is none)
+		 */
+		public CachedFile(String name, FileMetadata metadata, ByteBuf content, ByteBuf compressedContent, long compressedLastModified) {
+			this.name = name;
+			this.metadata = metadata;
+			this.content = content;
+			this.compressedContent = compressedContent;
+			this.compressedLastModified = compressedLastModified;
+			this.validated = System.currentTimeMillis();
+		}
+
+		/**
+		 * The sibling is checked too, it may be created or removed by the
+		 * precompressor while the file stays the same
+		 */
+		protected boolean isValid(File file) {
+			if (file.length() != metadata.getLength() || file.lastModified() != metadata.getLastModified()) {
+				return false;
+			}
+			if (!metadata.isCompressible()) {
+				return true;
+			}
+			File compressedFile = FilePrecompressor.findCompressedFile(file);
+			if (compressedContent == null || compressedFile == null) {
+				return compressedContent == null && compressedFile == null;
+			}
+			return compressedFile.length() == compressedContent.readableBytes() && compressedFile.lastModified() == compressedLastModified;
+		}
+
+		protected CachedFile retainedDuplicate() {
+			return new CachedFile(name, metadata, content.duplicate().retain(), compressedContent != null ? compressedContent.duplicate().retain() : null,
+					compressedLastModified);
+		}
+
+		protected long size() {
+			return content.readableBytes() + (compressedContent != null ? compressedContent.readableBytes() : 0);
+		}
+
+		public void release() {
+			content.release();
+			if (compressedContent != null) {
+				compressedContent.release();
+			}
+		}
+
+		/**
+		 * Releases the other representation, the returned content is
+		 * released when the response is written
+		 * 
+		 * @param compressed
+		 *            true for the precompressed sibling
+		 */
+		public ByteBuf takeContent(boolean compressed) {
+			if (compressed) {
+				content.release();
+				return compressedContent;
+			}
+			if (compressedContent != null) {
+				compressedContent.release();
+			}
+			return content;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public FileMetadata getMetadata() {
+			return metadata;
+		}
+
+		public ByteBuf getContent() {
+			return content;
+		}
+
+		/**
+		 * @return precompressed sibling of the file or null
+		 */
+		public ByteBuf getCompressedContent() {
+			return compressedContent;
+		}
+	}
+
+	/**
+	 * Count-min sketch with 4 bit counters. All counters are halved after a
+	 * sample of requests, so old popularity fades out.
+	 */
+	public static class FrequencySketch {
+
+		public static final int DEFAULT_WIDTH = 1 << 16;
+
+		private static final int DEPTH = 4;
+		private static final int MAX_COUNT = 15;
+		private static final int[] SEEDS = { 0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f };
+
+		private byte[][] counters;
+		private int mask;
+		private int sampleSize;
+		private int additions;
+
+		public FrequencySketch(int width) {
+			int tableWidth = Integer.highestOneBit(Math.max(width, 16) - 1) << 1;
+			counters = new byte[DEPTH][tableWidth];
+			mask = tableWidth - 1;
+			sampleSize = 10 * tableWidth;
+		}
+
+		public void increment(String key) {
+			int hash = spread(key.hashCode());
+			boolean added = false;
+			for (int i = 0; i < DEPTH; i++) {
+				int index = index(hash, i);
+				if (counters[i][index] < MAX_COUNT) {
+					counters[i][index]++;
+					added = true;
+				}
+			}
+			if (added && ++additions >= sampleSize) {
+				reset();
+			}
+		}
+
+		public int frequency(String key) {
+			int hash = spread(key.hashCode());
+			int frequency = MAX_COUNT;
+			for (int i = 0; i < DEPTH; i++) {
+				frequency = Math.min(frequency, counters[i][index(hash, i)]);
+			}
+			return frequency;
+		}
+
+		private int index(int hash, int i) {
+			int h = (hash + SEEDS[i]) * SEEDS[i];
+			h ^= h >>> 16;
+			return h & mask;
+		}
+
+		private void reset() {
+			for (byte[] row : counters) {
+				for (int j = 0; j < row.length; j++) {
+					row[j] = (byte) (row[j] >>> 1);
+				}
+			}
+			additions /= 2;
+		}
+
+		private static int spread(int hash) {
+			hash ^= hash >>> 16;
+			hash *= 0x45d9f3b;
+			hash ^= hash >>> 16;
+			return hash;
+		}
+	}
+
+}
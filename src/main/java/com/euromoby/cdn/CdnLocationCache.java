@@ -0,0 +1,127 @@
+package com.euromoby.cdn;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.agent.AgentManager;
+import com.euromoby.agent.Config;
+import com.euromoby.agent.model.AgentStatus;
+import com.euromoby.model.AgentId;
+
+/**
+ * Remembers which agent has a complete copy of an URI path, so repeated
+ * requests for the same content do not ask every agent again. Negative
+ * results are kept for a short time only. The cache is bounded by the
+ * approximate size of its entries (least recently used are evicted first).
+ */
+@Component
+public class CdnLocationCache {
+
+	// object headers, references, map entry and timestamps
+	protected static final int ENTRY_OVERHEAD = 96;
+
+	private Config config;
+	private AgentManager agentManager;
+
+	private LinkedHashMap<String, CachedLocation> locations = new LinkedHashMap<String, CachedLocation>(16, 0.75f, true);
+	private long size = 0;
+
+	@Autowired
+	public CdnLocationCache(Config config, AgentManager agentManager) {
+		this.config = config;
+		this.agentManager = agentManager;
+	}
+
+	/**
+	 * @return null if the location is unknown, otherwise the cached location
+	 *         (which has no agent when the path was not found in the network)
+	 */
+	public synchronized CachedLocation get(String uriPath) {
+		CachedLocation location = locations.get(uriPath);
+		if (location == null) {
+			return null;
+		}
+		if (location.isExpired() || !isAgentActive(location.getAgentId())) {
+			remove(uriPath);
+			return null;
+		}
+		return location;
+	}
+
+	public synchronized void put(String uriPath, AgentId agentId) {
+		long ttl = (agentId != null) ? config.getCdnLocationTtl() : config.getCdnLocationNegativeTtl();
+		if (ttl <= 0) {
+			return;
+		}
+		remove(uriPath);
+		locations.put(uriPath, new CachedLocation(agentId, System.currentTimeMillis() + ttl));
+		size += weight(uriPath);
+		evict();
+	}
+
+	public synchronized void invalidate(String uriPath) {
+		remove(uriPath);
+	}
+
+	public synchronized int count() {
+		return locations.size();
+	}
+
+	public synchronized long size() {
+		return size;
+	}
+
+	protected boolean isAgentActive(AgentId agentId) {
+		if (agentId == null) {
+			return true;
+		}
+		AgentStatus agentStatus = agentManager.getAgentStatus(agentId);
+		return agentStatus != null && agentStatus.isActive();
+	}
+
+	protected static long weight(String uriPath) {
+		return ENTRY_OVERHEAD + 2L * uriPath.length();
+	}
+
+	private void remove(String uriPath) {
+		if (locations.remove(uriPath) != null) {
+			size -= weight(uriPath);
+		}
+	}
+
+	private void evict() {
+		long maxSize = config.getCdnLocationCacheSize();
+		Iterator<String> it = locations.keySet().iterator();
+		while (size > maxSize && it.hasNext()) {
+			String uriPath = it.next();
+			size -= weight(uriPath);
+			it.remove();
+		}
+	}
+
+	public static class CachedLocation {
+		private AgentId agentId;
+		private long expires;
+
+		public CachedLocation(AgentId agentId, long expires) {
+			this.agentId = agentId;
+			this.expires = expires;
+		}
+
+		public AgentId getAgentId() {
+			return agentId;
+		}
+
+		public boolean isFound() {
+			return agentId != null;
+		}
+
+		public boolean isExpired() {
+			return System.currentTimeMillis() >= expires;
+		}
+	}
+
+}
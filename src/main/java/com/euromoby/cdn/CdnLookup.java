@@ -0,0 +1,158 @@
+package com.euromoby.cdn;
+
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.Promise;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.euromoby.cdn.model.CdnResource;
+import com.euromoby.model.AgentId;
+import com.euromoby.model.Tuple;
+import com.euromoby.rest.handler.fileinfo.FileInfo;
+import com.google.gson.Gson;
+import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.Response;
+
+/**
+ * Fan-out of a single CDN lookup to the active agents. The promise is
+ * completed by the first agent which has a complete copy of the file (the
+ * other requests are cancelled) or when every agent has answered. A failed
+ * request counts as a miss, but marks the lookup errored.
+ */
+public class CdnLookup {
+
+	private static final Logger log = LoggerFactory.getLogger(CdnLookup.class);
+	private static final Gson gson = new Gson();
+
+	private static final int HTTP_OK = 200;
+
+	private CdnResource cdnResource;
+	private Promise<Tuple<CdnResource, FileInfo>> promise;
+	private AtomicInteger pending;
+	private List<Future<FileInfo>> requests = new ArrayList<Future<FileInfo>>();
+	private volatile Runnable missListener;
+	private volatile boolean errored;
+
+	public CdnLookup(CdnResource cdnResource, Promise<Tuple<CdnResource, FileInfo>> promise, int agentCount) {
+		this.cdnResource = cdnResource;
+		this.promise = promise;
+		this.pending = new AtomicInteger(agentCount);
+
+		promise.addListener(new GenericFutureListener<io.netty.util.concurrent.Future<Tuple<CdnResource, FileInfo>>>() {
+			@Override
+			public void operationComplete(io.netty.util.concurrent.Future<Tuple<CdnResource, FileInfo>> future) throws Exception {
+				cancelRequests();
+			}
+		});
+
+		if (agentCount == 0) {
+			promise.trySuccess(Tuple.of(cdnResource, (FileInfo) null));
+		}
+	}
+
+	public void addRequest(Future<FileInfo> request) {
+		synchronized (requests) {
+			requests.add(request);
+		}
+		if (promise.isDone()) {
+			request.cancel(true);
+		}
+	}
+
+	/**
+	 * @param missListener
+	 *            runs after each agent which does not have a complete copy
+	 */
+	public void setMissListener(Runnable missListener) {
+		this.missListener = missListener;
+	}
+
+	public boolean isDone() {
+		return promise.isDone();
+	}
+
+	/**
+	 * @return true if an agent did not answer, a miss is not certain then
+	 */
+	public boolean isErrored() {
+		return errored;
+	}
+
+	protected void cancelRequests() {
+		List<Future<FileInfo>> requestsToCancel;
+		synchronized (requests) {
+			requestsToCancel = new ArrayList<Future<FileInfo>>(requests);
+		}
+		for (Future<FileInfo> request : requestsToCancel) {
+			if (!request.isDone()) {
+				request.cancel(true);
+			}
+		}
+	}
+
+	protected void onFound(FileInfo fileInfo) {
+		promise.trySuccess(Tuple.of(cdnResource, fileInfo));
+	}
+
+	protected void onMiss() {
+		if (pending.decrementAndGet() == 0) {
+			promise.trySuccess(Tuple.of(cdnResource, (FileInfo) null));
+		}
+		Runnable listener = missListener;
+		if (listener != null) {
+			listener.run();
+		}
+	}
+
+	protected void onError() {
+		errored = true;
+		onMiss();
+	}
+
+	public FileInfoAsyncHandler newAsyncHandler(AgentId agentId) {
+		return new FileInfoAsyncHandler(agentId);
+	}
+
+	class FileInfoAsyncHandler extends AsyncCompletionHandler<FileInfo> {
+
+		private AgentId agentId;
+
+		public FileInfoAsyncHandler(AgentId agentId) {
+			this.agentId = agentId;
+		}
+
+		@Override
+		public FileInfo onCompleted(Response response) throws Exception {
+			FileInfo fileInfo = null;
+			if (response.getStatusCode() == HTTP_OK) {
+				try {
+					fileInfo = gson.fromJson(response.getResponseBody(), FileInfo.class);
+				} catch (Exception e) {
+					log.debug("Invalid response from {}", agentId);
+				}
+			}
+			if (fileInfo != null) {
+				fileInfo.setAgentId(agentId);
+			}
+			if (fileInfo != null && fileInfo.isComplete()) {
+				onFound(fileInfo);
+			} else {
+				onMiss();
+			}
+			return fileInfo;
+		}
+
+		@Override
+		public void onThrowable(Throwable t) {
+			log.debug("Request to {} failed: {}", agentId, t.getMessage());
+			onError();
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+package com.euromoby.cdn;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.service.SchedulerService;
+
+/**
+ * Watches the directory of the CDN mapping file and reloads the mapping
+ * when the file is created or modified.
+ */
+@Component
+public class CdnMappingWatcher extends SchedulerService {
+
+	public static final String SERVICE_NAME = "cdnmapping";
+
+	private static final Logger LOG = LoggerFactory.getLogger(CdnMappingWatcher.class);
+
+	private CdnResourceMapping cdnResourceMapping;
+
+	private WatchService watchService;
+
+	@Autowired
+	public CdnMappingWatcher(CdnResourceMapping cdnResourceMapping) {
+		this.cdnResourceMapping = cdnResourceMapping;
+	}
+
+	@Override
+	public void executeInternal() throws InterruptedException {
+		if (watchService == null) {
+			try {
+				watchService = register();
+			} catch (IOException e) {
+				LOG.warn("Unable to watch {}: {}", cdnResourceMapping.getMappingFile(), e.getMessage());
+				return;
+			}
+			// the file could change before the watch was registered
+			cdnResourceMapping.loadMappingFile();
+		}
+		if (pollChanges()) {
+			cdnResourceMapping.loadMappingFile();
+		}
+	}
+
+	protected WatchService register() throws IOException {
+		Path directory = cdnResourceMapping.getMappingFile().getAbsoluteFile().getParentFile().toPath();
+		WatchService newWatchService = FileSystems.getDefault().newWatchService();
+		try {
+			directory.register(newWatchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException e) {
+			newWatchService.close();
+			throw e;
+		}
+		LOG.info("Watching {}", directory);
+		return newWatchService;
+	}
+
+	/**
+	 * Drains pending events (an editor may produce several for one save)
+	 * 
+	 * @return true if the mapping file has changed
+	 */
+	protected boolean pollChanges() {
+		String fileName = cdnResourceMapping.getMappingFile().getName();
+		boolean changed = false;
+		WatchKey watchKey;
+		while ((watchKey = watchService.poll()) != null) {
+			for (WatchEvent<?> event : watchKey.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					changed = true;
+				} else if (fileName.equals(((Path) event.context()).getFileName().toString())) {
+					changed = true;
+				}
+			}
+			if (!watchKey.reset()) {
+				// directory is gone, register again on the next run
+				closeWatchService();
+				break;
+			}
+		}
+		return changed;
+	}
+
+	protected void closeWatchService() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				LOG.debug("Closing watch service failed: {}", e.getMessage());
+			}
+			watchService = null;
+		}
+	}
+
+	@Override
+	public void stopService() {
+		super.stopService();
+		closeWatchService();
+	}
+
+	@Override
+	public String getServiceName() {
+		return SERVICE_NAME;
+	}
+
+}
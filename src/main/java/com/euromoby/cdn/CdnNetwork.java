@@ -1,122 +1,207 @@
 package com.euromoby.cdn;
 
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.Promise;
+
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.euromoby.agent.AgentManager;
 import com.euromoby.agent.Config;
+import com.euromoby.cdn.CdnLocationCache.CachedLocation;
 import com.euromoby.cdn.model.CdnResource;
-import com.euromoby.http.HttpClientProvider;
+import com.euromoby.file.FileProvider;
+import com.euromoby.http.AsyncHttpClientProvider;
 import com.euromoby.model.AgentId;
 import com.euromoby.model.Tuple;
+import com.euromoby.rest.RestServer;
 import com.euromoby.rest.handler.fileinfo.FileInfo;
+import com.euromoby.rest.handler.fileinfo.FileInfoHandler;
+import com.ning.http.client.AsyncHttpClient.BoundRequestBuilder;
 
 @Component
-public class CdnNetwork {
+public class CdnNetwork implements DisposableBean {
 
 	private static final Logger log = LoggerFactory.getLogger(CdnNetwork.class);
-	
+
+	private static final String URL_PATTERN = "https://%s:%d";
+
 	private Config config;
 	private AgentManager agentManager;
-	private HttpClientProvider httpClientProvider;
+	private AsyncHttpClientProvider asyncHttpClientProvider;
 	private CdnResourceMapping cdnResourceMapping;
+	private CdnLocationCache cdnLocationCache;
+	private CdnPlacement cdnPlacement;
+	private FileProvider fileProvider;
 
-	private ExecutorService executor;
-	private ExecutorCompletionService<FileInfo> completionService;
+	private ScheduledExecutorService hedgeExecutor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("cdn-hedge"));
 
 	@Autowired
-	public CdnNetwork(Config config, AgentManager agentManager, HttpClientProvider httpClientProvider, CdnResourceMapping cdnResourceMapping) {
+	public CdnNetwork(Config config, AgentManager agentManager, AsyncHttpClientProvider asyncHttpClientProvider, CdnResourceMapping cdnResourceMapping, CdnLocationCache cdnLocationCache, CdnPlacement cdnPlacement, FileProvider fileProvider) {
 		this.config = config;
 		this.agentManager = agentManager;
-		this.httpClientProvider = httpClientProvider;
+		this.asyncHttpClientProvider = asyncHttpClientProvider;
 		this.cdnResourceMapping = cdnResourceMapping;
+		this.cdnLocationCache = cdnLocationCache;
+		this.cdnPlacement = cdnPlacement;
+		this.fileProvider = fileProvider;
+	}
+
+	/**
+	 * @return location of the file as stored in the digests of the agents
+	 *         (null if unknown)
+	 */
+	protected String getDigestLocation(String uriPath) {
+		if (!uriPath.startsWith("/")) {
+			return null;
+		}
+		return fileProvider.getRelativeLocation(uriPath.substring(1));
+	}
 
-		executor = Executors.newFixedThreadPool(this.config.getCdnPoolSize());
-		completionService = new ExecutorCompletionService<FileInfo>(executor);
-		
+	protected String getFileInfoUrl(AgentId agentId, String uriPath) {
+		return String.format(URL_PATTERN, agentId.getHost(), (agentId.getBasePort() + RestServer.REST_PORT)) + FileInfoHandler.URL + uriPath;
 	}
 
-	protected int sendRequestsToActiveAgents(String uriPath) {
-		log.debug("Asking other agents for {}", uriPath);		
-		List<AgentId> activeAgents = agentManager.getActive();
+	protected void sendRequestsToActiveAgents(String uriPath, List<AgentId> activeAgents, CdnLookup cdnLookup) {
+		log.debug("Asking other agents for {}", uriPath);
 		for (AgentId agentId : activeAgents) {
-			completionService.submit(new CdnWorker(httpClientProvider, agentId, uriPath));
+			if (cdnLookup.isDone()) {
+				break;
+			}
+			try {
+				BoundRequestBuilder boundRequestBuilder = asyncHttpClientProvider.prepareAgentGet(getFileInfoUrl(agentId, uriPath));
+				boundRequestBuilder.setRequestTimeout(config.getCdnTimeout());
+				cdnLookup.addRequest(boundRequestBuilder.execute(cdnLookup.newAsyncHandler(agentId)));
+			} catch (Exception e) {
+				log.debug("Request to {} failed: {}", agentId, e.getMessage());
+				cdnLookup.onError();
+			}
 		}
-		return activeAgents.size();
 	}
-	
-	protected List<FileInfo> getResponsesFromAgents(int agentCount) {
-		List<FileInfo> fileInfoResult = new ArrayList<FileInfo>();
-		
-		long timeoutMillis = config.getCdnTimeout();
-		long endTime = System.currentTimeMillis() + timeoutMillis;
-		
-		while (agentCount > 0) {
-			long timeout = Math.max(0, endTime - System.currentTimeMillis());
-			try {
-				Future<FileInfo> future = completionService.poll(timeout, TimeUnit.MILLISECONDS);
-				if (future == null) {
-					break;
+
+	protected FileInfo cachedFileInfo(AgentId agentId, String uriPath) {
+		FileInfo fileInfo = new FileInfo();
+		fileInfo.setAgentId(agentId);
+		fileInfo.setFileLocation(uriPath);
+		fileInfo.setComplete(true);
+		return fileInfo;
+	}
+
+	/**
+	 * A miss is cached only when every asked agent has answered, an agent
+	 * which failed may still have the file
+	 */
+	protected void cacheSearchResult(final String uriPath, Promise<Tuple<CdnResource, FileInfo>> promise, final CdnLookup cdnLookup) {
+		promise.addListener(new GenericFutureListener<Future<Tuple<CdnResource, FileInfo>>>() {
+			@Override
+			public void operationComplete(Future<Tuple<CdnResource, FileInfo>> future) throws Exception {
+				if (!future.isSuccess()) {
+					return;
 				}
-				agentCount--;
-				FileInfo fileInfo = future.get();
+				FileInfo fileInfo = future.getNow().getSecond();
 				if (fileInfo != null) {
-					fileInfoResult.add(fileInfo);
+					cdnLocationCache.put(uriPath, fileInfo.getAgentId());
+				} else if (!cdnLookup.isErrored()) {
+					cdnLocationCache.put(uriPath, null);
 				}
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-				break;
-			} catch (ExecutionException e) {
-				log.debug("Request failed", e);
-				continue;
 			}
-		}
-		
-		return fileInfoResult;
+		});
 	}
-	
-	protected FileInfo chooseBestSource(List<FileInfo> fileInfoList) {
-		if (fileInfoList.isEmpty()) {
-			return null;
-		}
-		for (FileInfo fileInfo : fileInfoList) {
-			if (fileInfo.isComplete()) {
-				return fileInfo;
+
+	/**
+	 * Asks the owner chosen by the placement first. The other agents are asked
+	 * as soon as the owner does not have a complete copy, or when it has not
+	 * answered within agent.cdn.hedge.delay, so a slow owner delays a lookup
+	 * by the hedge delay at most. The lookup completes with a miss only when
+	 * every agent has answered.
+	 */
+	protected void askOwnerFirst(final String uriPath, AgentId owner, final List<AgentId> otherAgents, final CdnLookup cdnLookup, Promise<Tuple<CdnResource, FileInfo>> promise) {
+		final AtomicBoolean fannedOut = new AtomicBoolean();
+		final Runnable fanOut = new Runnable() {
+			@Override
+			public void run() {
+				if (!otherAgents.isEmpty() && fannedOut.compareAndSet(false, true)) {
+					sendRequestsToActiveAgents(uriPath, otherAgents, cdnLookup);
+				}
 			}
+		};
+		// before the fan-out only the owner can miss
+		cdnLookup.setMissListener(fanOut);
+		sendRequestsToActiveAgents(uriPath, Collections.singletonList(owner), cdnLookup);
+		if (promise.isDone() || fannedOut.get() || otherAgents.isEmpty()) {
+			return;
 		}
-		return null;
+		final ScheduledFuture<?> hedge = hedgeExecutor.schedule(fanOut, config.getCdnHedgeDelay(), TimeUnit.MILLISECONDS);
+		promise.addListener(new GenericFutureListener<Future<Tuple<CdnResource, FileInfo>>>() {
+			@Override
+			public void operationComplete(Future<Tuple<CdnResource, FileInfo>> future) throws Exception {
+				hedge.cancel(false);
+			}
+		});
 	}
 
-	
-	public Tuple<CdnResource, FileInfo> find(String uriPath) {
-		
-		Tuple<CdnResource, FileInfo> searchResult = Tuple.empty();
-		
+	/**
+	 * Looks for the resource in the network without blocking the caller. The
+	 * promise is completed with the matching {@link CdnResource} and the first
+	 * complete {@link FileInfo} found on other agents (if any).
+	 */
+	public void find(String uriPath, Promise<Tuple<CdnResource, FileInfo>> promise) {
+
 		CdnResource cdnResource = cdnResourceMapping.findByUrl(uriPath);
 		if (cdnResource == null) {
-			return searchResult;
+			promise.trySuccess(Tuple.<CdnResource, FileInfo> empty());
+			return;
 		}
-		searchResult.setFirst(cdnResource);
 
-		if (cdnResource.isAvailableInNetwork()) {
-			int agentCount = sendRequestsToActiveAgents(uriPath);
-			List<FileInfo> fileInfoResult = getResponsesFromAgents(agentCount);
-			FileInfo fileInfo = chooseBestSource(fileInfoResult);
-			searchResult.setSecond(fileInfo);
+		if (!cdnResource.isAvailableInNetwork()) {
+			promise.trySuccess(Tuple.of(cdnResource, (FileInfo) null));
+			return;
 		}
 
-		return searchResult;
+		CachedLocation cachedLocation = cdnLocationCache.get(uriPath);
+		if (cachedLocation != null) {
+			log.debug("Location of {} is cached", uriPath);
+			FileInfo fileInfo = cachedLocation.isFound() ? cachedFileInfo(cachedLocation.getAgentId(), uriPath) : null;
+			promise.trySuccess(Tuple.of(cdnResource, fileInfo));
+			return;
+		}
+
+		// agents whose digest says they do not have the file are not asked
+		List<AgentId> activeAgents = new ArrayList<AgentId>(agentManager.getActiveWithFile(getDigestLocation(uriPath)));
+		// the owner is asked anyway, it may have stored the file after its
+		// last ping
+		AgentId owner = cdnPlacement.findRemoteOwner(uriPath);
+		if (owner != null) {
+			activeAgents.remove(owner);
+		}
+		CdnLookup cdnLookup = new CdnLookup(cdnResource, promise, activeAgents.size() + (owner != null ? 1 : 0));
+		cacheSearchResult(uriPath, promise, cdnLookup);
+
+		if (owner != null) {
+			askOwnerFirst(uriPath, owner, activeAgents, cdnLookup, promise);
+			return;
+		}
+
+		sendRequestsToActiveAgents(uriPath, activeAgents, cdnLookup);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		hedgeExecutor.shutdownNow();
 	}
 
 }
@@ -0,0 +1,165 @@
+package com.euromoby.cdn;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.agent.AgentManager;
+import com.euromoby.agent.Config;
+import com.euromoby.agent.model.AgentStatus;
+import com.euromoby.model.AgentId;
+import com.euromoby.ping.PingInfoProvider;
+
+/**
+ * Chooses the agent which should keep a copy of a missing file.
+ * <p>
+ * With the "rendezvous" placement the owner is found by weighted rendezvous
+ * (highest random weight) hashing of the URI path over this agent and the
+ * active agents, weighted by their free space. Every agent computes the same
+ * owner without asking the others, and only a small part of the files moves
+ * when an agent joins or leaves. This agent is weighted by the free space it
+ * last reported in a ping, the same value the others use for it.
+ * </p>
+ * <p>
+ * The "freespace" placement picks the agent with the most free space.
+ * </p>
+ * Agents with less than the minimum free space are never chosen.
+ */
+@Component
+public class CdnPlacement {
+
+	public static final String PLACEMENT_RENDEZVOUS = "rendezvous";
+	public static final String PLACEMENT_FREESPACE = "freespace";
+
+	// free space is rounded to limit the effect of small changes
+	protected static final long WEIGHT_UNIT = 1024 * 1024 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private Config config;
+	private AgentManager agentManager;
+	private PingInfoProvider pingInfoProvider;
+
+	@Autowired
+	public CdnPlacement(Config config, AgentManager agentManager, PingInfoProvider pingInfoProvider) {
+		this.config = config;
+		this.agentManager = agentManager;
+		this.pingInfoProvider = pingInfoProvider;
+	}
+
+	public boolean isRendezvous() {
+		return PLACEMENT_RENDEZVOUS.equalsIgnoreCase(config.getCdnPlacement());
+	}
+
+	/**
+	 * @return agent which should keep the file or null if it is this agent
+	 */
+	public AgentId findOwner(String uriPath) {
+		if (isRendezvous()) {
+			return findRendezvousOwner(uriPath);
+		}
+		return findAgentWithFreeSpace();
+	}
+
+	/**
+	 * @return active agent which should keep the file with rendezvous
+	 *         placement or null (this agent or placement is disabled)
+	 */
+	public AgentId findRemoteOwner(String uriPath) {
+		if (!isRendezvous()) {
+			return null;
+		}
+		return findRendezvousOwner(uriPath);
+	}
+
+	protected AgentId findRendezvousOwner(String uriPath) {
+		long freeSpaceMin = config.getDownloadFreespaceMin();
+		byte[] key = uriPath.getBytes(UTF8);
+
+		AgentId owner = null;
+		double bestScore = score(key, config.getAgentId(), getLocalFreeSpace(), freeSpaceMin);
+		for (AgentStatusEntry entry : getActiveAgents()) {
+			double agentScore = score(key, entry.agentId, entry.freeSpace, freeSpaceMin);
+			if (agentScore > bestScore) {
+				owner = entry.agentId;
+				bestScore = agentScore;
+			}
+		}
+		return owner;
+	}
+
+	protected AgentId findAgentWithFreeSpace() {
+		AgentId agentId = null;
+		long freeSpace = getLocalFreeSpace();
+		for (AgentStatusEntry entry : getActiveAgents()) {
+			if (entry.freeSpace > config.getDownloadFreespaceMin() && entry.freeSpace > freeSpace) {
+				agentId = entry.agentId;
+				freeSpace = entry.freeSpace;
+			}
+		}
+		return agentId;
+	}
+
+	protected long getLocalFreeSpace() {
+		return pingInfoProvider.getReportedFreeSpace();
+	}
+
+	private List<AgentStatusEntry> getActiveAgents() {
+		List<AgentStatusEntry> entries = new ArrayList<AgentStatusEntry>();
+		for (AgentId agentId : agentManager.getActive()) {
+			AgentStatus agentStatus = agentManager.getAgentStatus(agentId);
+			if (agentStatus != null) {
+				entries.add(new AgentStatusEntry(agentId, agentStatus.getFreeSpace()));
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Weighted rendezvous score: -weight / ln(hash) with hash uniform in
+	 * (0,1). The agent with the highest score is chosen with a probability
+	 * proportional to its weight.
+	 */
+	protected static double score(byte[] key, AgentId agentId, long freeSpace, long freeSpaceMin) {
+		if (freeSpace <= freeSpaceMin) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		double weight = Math.max(1, freeSpace / WEIGHT_UNIT);
+		double hash = (hash(key, agentId.toString()) >>> 11 | 1) / (double) (1L << 53);
+		return -weight / Math.log(hash);
+	}
+
+	protected static long hash(byte[] key, String agentId) {
+		long hash = FNV_OFFSET_BASIS;
+		for (byte b : key) {
+			hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+		}
+		hash = (hash ^ 0xff) * FNV_PRIME;
+		for (int i = 0; i < agentId.length(); i++) {
+			hash = (hash ^ agentId.charAt(i)) * FNV_PRIME;
+		}
+		// final mix, FNV alone has weak high bits for short keys
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	private static class AgentStatusEntry {
+		private AgentId agentId;
+		private long freeSpace;
+
+		private AgentStatusEntry(AgentId agentId, long freeSpace) {
+			this.agentId = agentId;
+			this.freeSpace = freeSpace;
+		}
+	}
+
+}
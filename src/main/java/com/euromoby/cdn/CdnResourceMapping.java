@@ -1,6 +1,7 @@
 package com.euromoby.cdn;
 
 import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
@@ -10,8 +11,15 @@ import org.springframework.stereotype.Component;
 
 import com.euromoby.agent.Config;
 import com.euromoby.cdn.model.CdnResource;
+import com.euromoby.utils.StringUtils;
 import com.google.gson.Gson;
 
+/**
+ * CDN resource mapping loaded from the mapping file. A new mapping is
+ * parsed, validated and indexed before it is published, so lookups see
+ * either the old or the new mapping as a whole. An invalid file keeps the
+ * last good mapping.
+ */
 @Component
 public class CdnResourceMapping {
 
@@ -19,7 +27,7 @@ public class CdnResourceMapping {
 	private static final Gson gson = new Gson();
 	
 	private Config config;
-	private CdnResource[] cdnResources = new CdnResource[0];
+	private AtomicReference<CdnRoutingIndex> routingIndex = new AtomicReference<CdnRoutingIndex>(new CdnRoutingIndex(new CdnResource[0]));
 
 	@Autowired
 	public CdnResourceMapping(Config config) {
@@ -28,24 +36,60 @@ public class CdnResourceMapping {
 	}
 
 	public CdnResource findByUrl(String url) {
-		for (CdnResource cdnResource : cdnResources) {
-			if (cdnResource.matches(url)) {
-				return cdnResource;
-			}
-		}
-		return null;
+		return routingIndex.get().find(url);
+	}
+
+	public int size() {
+		return routingIndex.get().size();
 	}
 
-	protected void loadMappingFile() {
-		File mappingFile = new File(config.getAgentCdnMappingFile());
+	public File getMappingFile() {
+		return new File(config.getAgentCdnMappingFile());
+	}
+
+	/**
+	 * @return true if the mapping was replaced
+	 */
+	public boolean loadMappingFile() {
+		File mappingFile = getMappingFile();
 		if (!mappingFile.exists() || !mappingFile.isFile()) {
-			return;
+			log.debug("CDN resource mapping {} not found", mappingFile);
+			return false;
 		}
 		try {
-			String json = FileUtils.readFileToString(mappingFile);
-			cdnResources = gson.fromJson(json, CdnResource[].class);
+			CdnRoutingIndex newRoutingIndex = parseMapping(FileUtils.readFileToString(mappingFile));
+			routingIndex.set(newRoutingIndex);
+			log.info("CDN resource mapping loaded: {} resources", newRoutingIndex.size());
+			return true;
 		} catch (Exception e) {
-			log.error("Loading of CDN resource mapping failed", e);
+			log.error("Loading of CDN resource mapping failed, keeping the previous mapping", e);
+			return false;
+		}
+	}
+
+	protected CdnRoutingIndex parseMapping(String json) {
+		CdnResource[] cdnResources = gson.fromJson(json, CdnResource[].class);
+		if (cdnResources == null) {
+			throw new IllegalArgumentException("Mapping is empty");
+		}
+		for (int i = 0; i < cdnResources.length; i++) {
+			validate(i, cdnResources[i]);
+		}
+		return new CdnRoutingIndex(cdnResources);
+	}
+
+	protected void validate(int index, CdnResource cdnResource) {
+		if (cdnResource == null) {
+			throw new IllegalArgumentException("Resource #" + index + " is null");
+		}
+		String prefix = cdnResource.getUrlPathPrefix();
+		if (!StringUtils.nullOrEmpty(prefix) && !prefix.startsWith("/")) {
+			throw new IllegalArgumentException("Resource #" + index + ": prefix should start with /");
+		}
+		if (StringUtils.nullOrEmpty(cdnResource.getUrlPathPattern())) {
+			throw new IllegalArgumentException("Resource #" + index + ": pattern is empty");
 		}
+		// throws PatternSyntaxException
+		cdnResource.getCompiledPattern();
 	}
 }
@@ -0,0 +1,102 @@
+package com.euromoby.cdn;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.euromoby.cdn.model.CdnResource;
+import com.euromoby.utils.StringUtils;
+
+/**
+ * Prefix trie over {@link CdnResource#getUrlPathPrefix()}. Only resources
+ * whose prefix is a prefix of the url are checked against their (compiled)
+ * pattern. The result is the same as checking the resources one by one in
+ * the order of the mapping file.
+ */
+public class CdnRoutingIndex {
+
+	private Node root = new Node();
+	private int size;
+
+	public CdnRoutingIndex(CdnResource[] cdnResources) {
+		size = cdnResources.length;
+		for (int i = 0; i < cdnResources.length; i++) {
+			CdnResource cdnResource = cdnResources[i];
+			// fail early on invalid patterns
+			cdnResource.getCompiledPattern();
+			add(i, cdnResource);
+		}
+	}
+
+	private void add(int order, CdnResource cdnResource) {
+		Node node = root;
+		String prefix = cdnResource.getUrlPathPrefix();
+		if (!StringUtils.nullOrEmpty(prefix)) {
+			for (int i = 0; i < prefix.length(); i++) {
+				char c = prefix.charAt(i);
+				Node child = node.children.get(c);
+				if (child == null) {
+					child = new Node();
+					node.children.put(c, child);
+				}
+				node = child;
+			}
+		}
+		// resources are added in order, so every list stays sorted
+		node.entries.add(new Entry(order, cdnResource));
+	}
+
+	public CdnResource find(String url) {
+		if (StringUtils.nullOrEmpty(url)) {
+			return null;
+		}
+
+		Entry best = null;
+		Node node = root;
+		int depth = 0;
+		while (node != null) {
+			if (!node.entries.isEmpty()) {
+				best = findInNode(node, url.substring(depth), best);
+			}
+			if (depth == url.length()) {
+				break;
+			}
+			node = node.children.get(url.charAt(depth));
+			depth++;
+		}
+		return best != null ? best.cdnResource : null;
+	}
+
+	private Entry findInNode(Node node, String resourceName, Entry best) {
+		for (Entry entry : node.entries) {
+			if (best != null && entry.order > best.order) {
+				break;
+			}
+			if (entry.cdnResource.matchesPattern(resourceName)) {
+				return entry;
+			}
+		}
+		return best;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private static class Node {
+		private Map<Character, Node> children = new HashMap<Character, Node>(4);
+		private List<Entry> entries = new ArrayList<Entry>(1);
+	}
+
+	private static class Entry {
+		private int order;
+		private CdnResource cdnResource;
+
+		private Entry(int order, CdnResource cdnResource) {
+			this.order = order;
+			this.cdnResource = cdnResource;
+		}
+	}
+
+}
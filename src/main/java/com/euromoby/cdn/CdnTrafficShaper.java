@@ -0,0 +1,276 @@
+package com.euromoby.cdn;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.traffic.AbstractTrafficShapingHandler;
+import io.netty.handler.traffic.GlobalTrafficShapingHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.agent.AgentManager;
+import com.euromoby.agent.Config;
+import com.euromoby.cdn.model.TrafficMetrics;
+import com.euromoby.cdn.model.TrafficMetrics.TrafficStats;
+import com.euromoby.model.AgentId;
+
+/**
+ * Shapes the outgoing traffic of the cdn server. All channels share the total
+ * bandwidth, the clients get the total minus the budget reserved for the other
+ * agents, and every client IP gets a fair share of the client budget: the
+ * budget divided by the number of connected IPs, at most
+ * agent.cdn.shaping.client.max. The shares are recomputed when an IP connects
+ * or leaves. Shaping is disabled when neither the total nor the client limit
+ * is set, files are sent with zero-copy then.
+ */
+@Component
+public class CdnTrafficShaper implements DisposableBean {
+
+	public static final String TRAFFIC_TOTAL = "total";
+	public static final String TRAFFIC_AGENTS = "agents";
+	public static final String TRAFFIC_CLIENTS = "clients";
+
+	private static final Logger LOG = LoggerFactory.getLogger(CdnTrafficShaper.class);
+
+	private static final long AGENT_REFRESH_INTERVAL = 60000;
+
+	private final Map<String, ClientShare> clients = new TreeMap<String, ClientShare>();
+	private volatile Set<String> agentAddresses = Collections.emptySet();
+
+	private AgentManager agentManager;
+	private long totalLimit;
+	private long agentsReserved;
+	private long clientMax;
+	private long checkInterval;
+
+	private ScheduledExecutorService executor;
+	private GlobalTrafficShapingHandler totalHandler;
+	private GlobalTrafficShapingHandler agentsHandler;
+	private GlobalTrafficShapingHandler clientsHandler;
+
+	@Autowired
+	public CdnTrafficShaper(Config config, AgentManager agentManager) {
+		this.agentManager = agentManager;
+		this.totalLimit = config.getCdnShapingTotal();
+		this.agentsReserved = config.getCdnShapingAgentsReserved();
+		this.clientMax = config.getCdnShapingClientMax();
+		this.checkInterval = config.getCdnShapingInterval();
+
+		if (totalLimit == 0 && agentsReserved > 0) {
+			LOG.warn("Agents budget is reserved without the total limit, ignored");
+			agentsReserved = 0;
+		}
+		if (totalLimit > 0 && agentsReserved >= totalLimit) {
+			LOG.warn("Agents budget {} is not below the total limit {}, ignored", agentsReserved, totalLimit);
+			agentsReserved = 0;
+		}
+		if (!isEnabled()) {
+			return;
+		}
+
+		executor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("cdn-shaping"));
+		totalHandler = new GlobalTrafficShapingHandler(executor, totalLimit, 0, checkInterval);
+		agentsHandler = new GlobalTrafficShapingHandler(executor, 0, 0, checkInterval);
+		clientsHandler = new GlobalTrafficShapingHandler(executor, getClientBudget(), 0, checkInterval);
+
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				refreshAgentAddresses();
+			}
+		}, 0, AGENT_REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+		LOG.info("Cdn traffic shaping: total {}, agents reserved {}, client max {} bytes/s", totalLimit, agentsReserved, clientMax);
+	}
+
+	public boolean isEnabled() {
+		return totalLimit > 0 || clientMax > 0;
+	}
+
+	/**
+	 * @return bytes per second shared by the clients, 0 - unlimited
+	 */
+	public long getClientBudget() {
+		return totalLimit > 0 ? totalLimit - agentsReserved : 0;
+	}
+
+	/**
+	 * @return bytes per second of each client IP, 0 - unlimited
+	 */
+	public long getClientShare(int clientCount) {
+		long budget = getClientBudget();
+		long share = budget > 0 ? Math.max(budget / Math.max(clientCount, 1), 1) : 0;
+		if (clientMax > 0 && (share == 0 || share > clientMax)) {
+			share = clientMax;
+		}
+		return share;
+	}
+
+	/**
+	 * Resolves the hosts of the known agents, the connections from them are
+	 * shaped as agent traffic
+	 */
+	public void refreshAgentAddresses() {
+		Set<String> addresses = new HashSet<String>();
+		for (AgentId agentId : agentManager.getAll()) {
+			try {
+				for (InetAddress address : InetAddress.getAllByName(agentId.getHost())) {
+					addresses.add(address.getHostAddress());
+				}
+			} catch (UnknownHostException e) {
+				LOG.debug("Unable to resolve agent {}", agentId);
+			}
+		}
+		agentAddresses = addresses;
+	}
+
+	public boolean isAgent(String address) {
+		return agentAddresses.contains(address);
+	}
+
+	private static String getAddress(Channel channel) {
+		SocketAddress remoteAddress = channel.remoteAddress();
+		if (remoteAddress instanceof InetSocketAddress && ((InetSocketAddress) remoteAddress).getAddress() != null) {
+			return ((InetSocketAddress) remoteAddress).getAddress().getHostAddress();
+		}
+		return String.valueOf(remoteAddress);
+	}
+
+	/**
+	 * Adds the shaping handlers for the traffic class of the remote address,
+	 * must be called before the other handlers are added
+	 */
+	public void initPipeline(Channel channel) {
+		if (!isEnabled()) {
+			return;
+		}
+		String address = getAddress(channel);
+		ChannelPipeline p = channel.pipeline();
+		p.addLast("shaping-total", totalHandler);
+		if (isAgent(address)) {
+			p.addLast("shaping-class", agentsHandler);
+		} else {
+			p.addLast("shaping-class", clientsHandler);
+			p.addLast("shaping-client", acquireClient(address, channel));
+		}
+	}
+
+	private synchronized GlobalTrafficShapingHandler acquireClient(final String address, Channel channel) {
+		ClientShare share = clients.get(address);
+		if (share == null) {
+			share = new ClientShare(new GlobalTrafficShapingHandler(executor, 0, 0, checkInterval));
+			clients.put(address, share);
+			updateClientShares();
+		}
+		share.channels++;
+		channel.closeFuture().addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				releaseClient(address);
+			}
+		});
+		return share.handler;
+	}
+
+	private synchronized void releaseClient(String address) {
+		ClientShare share = clients.get(address);
+		if (share == null || --share.channels > 0) {
+			return;
+		}
+		clients.remove(address);
+		share.handler.release();
+		updateClientShares();
+	}
+
+	private void updateClientShares() {
+		long limit = getClientShare(clients.size());
+		for (ClientShare share : clients.values()) {
+			if (share.handler.getWriteLimit() != limit) {
+				share.handler.setWriteLimit(limit);
+			}
+		}
+	}
+
+	public synchronized int getClientCount() {
+		return clients.size();
+	}
+
+	/**
+	 * @return the write limit of the client IP, -1 if it is not connected
+	 */
+	public synchronized long getClientLimit(String address) {
+		ClientShare share = clients.get(address);
+		return share != null ? share.handler.getWriteLimit() : -1;
+	}
+
+	public synchronized TrafficMetrics getMetrics() {
+		TrafficMetrics metrics = new TrafficMetrics();
+		metrics.setEnabled(isEnabled());
+		metrics.setTotalLimit(totalLimit);
+		metrics.setAgentsReserved(agentsReserved);
+		metrics.setClientMax(clientMax);
+		metrics.setCheckInterval(checkInterval);
+		if (!isEnabled()) {
+			return metrics;
+		}
+		metrics.getClasses().put(TRAFFIC_TOTAL, getStats(totalHandler, 0));
+		metrics.getClasses().put(TRAFFIC_AGENTS, getStats(agentsHandler, 0));
+		metrics.getClasses().put(TRAFFIC_CLIENTS, getStats(clientsHandler, 0));
+		for (Map.Entry<String, ClientShare> entry : clients.entrySet()) {
+			metrics.getClients().put(entry.getKey(), getStats(entry.getValue().handler, entry.getValue().channels));
+		}
+		return metrics;
+	}
+
+	private static TrafficStats getStats(AbstractTrafficShapingHandler handler, int channels) {
+		TrafficStats stats = new TrafficStats();
+		stats.setWriteLimit(handler.getWriteLimit());
+		stats.setWriteThroughput(handler.trafficCounter().lastWriteThroughput());
+		stats.setWrittenBytes(handler.trafficCounter().cumulativeWrittenBytes());
+		stats.setChannels(channels);
+		return stats;
+	}
+
+	@Override
+	public synchronized void destroy() throws Exception {
+		if (!isEnabled()) {
+			return;
+		}
+		for (ClientShare share : clients.values()) {
+			share.handler.release();
+		}
+		clients.clear();
+		totalHandler.release();
+		agentsHandler.release();
+		clientsHandler.release();
+		executor.shutdownNow();
+	}
+
+	private static class ClientShare {
+		private final GlobalTrafficShapingHandler handler;
+		private int channels;
+
+		ClientShare(GlobalTrafficShapingHandler handler) {
+			this.handler = handler;
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.euromoby.cdn;
+
+import java.util.Collection;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.http.HttpClientProvider;
+import com.euromoby.model.AgentId;
+import com.euromoby.rest.RestServer;
+import com.euromoby.rest.handler.fileinfo.FileInfo;
+import com.euromoby.rest.handler.fileinfo.FileInfoBatchHandler;
+import com.google.gson.Gson;
+
+/**
+ * Asks another agent about many files in one request
+ * ({@link FileInfoBatchHandler})
+ */
+@Component
+public class FileInfoClient {
+
+	protected static final String URL_PATTERN = "https://%s:%d";
+
+	private static final Gson gson = new Gson();
+	private HttpClientProvider httpClientProvider;
+
+	@Autowired
+	public FileInfoClient(HttpClientProvider httpClientProvider) {
+		this.httpClientProvider = httpClientProvider;
+	}
+
+	protected HttpUriRequest createRequest(AgentId agentId, Collection<String> fileLocations, RequestConfig.Builder requestConfigBuilder) {
+		String url = String.format(URL_PATTERN, agentId.getHost(), (agentId.getBasePort() + RestServer.REST_PORT)) + FileInfoBatchHandler.URL;
+		RequestBuilder requestBuilder = RequestBuilder.post(url).setConfig(requestConfigBuilder.build());
+		for (String fileLocation : fileLocations) {
+			requestBuilder.addParameter(FileInfoBatchHandler.REQUEST_INPUT_PATH, fileLocation);
+		}
+		return requestBuilder.build();
+	}
+
+	/**
+	 * @return info of the files the agent has or is downloading, the others
+	 *         are left out
+	 */
+	public FileInfo[] getFileInfos(AgentId agentId, Collection<String> fileLocations, boolean noProxy) throws Exception {
+		if (fileLocations.size() > FileInfoBatchHandler.MAX_PATHS) {
+			throw new IllegalArgumentException("Too many paths: " + fileLocations.size());
+		}
+
+		RequestConfig.Builder requestConfigBuilder = httpClientProvider.createRequestConfigBuilder(agentId.getHost(), noProxy);
+		HttpUriRequest request = createRequest(agentId, fileLocations, requestConfigBuilder);
+
+		CloseableHttpResponse response = httpClientProvider.executeRequest(request);
+
+		try {
+			StatusLine statusLine = response.getStatusLine();
+			if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
+				EntityUtils.consumeQuietly(response.getEntity());
+				throw new Exception(statusLine.getStatusCode() + " " + statusLine.getReasonPhrase());
+			}
+
+			HttpEntity entity = response.getEntity();
+			String content = EntityUtils.toString(entity);
+			EntityUtils.consumeQuietly(entity);
+			return gson.fromJson(content, FileInfo[].class);
+		} finally {
+			response.close();
+		}
+	}
+
+}
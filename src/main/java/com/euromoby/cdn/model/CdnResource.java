@@ -1,5 +1,7 @@
 package com.euromoby.cdn.model;
 
+import java.util.regex.Pattern;
+
 import com.euromoby.utils.StringUtils;
 
 public class CdnResource {
@@ -33,6 +35,22 @@ public class CdnResource {
 	 */
 	private boolean downloadIfMissing = false;
 
+	/**
+	 * should proxied content be stored while it is sent?
+	 */
+	private boolean cacheFill = false;
+
+	/**
+	 * should content found on other agents be fetched and stored (instead
+	 * of redirect)?
+	 */
+	private boolean peerFill = false;
+
+	/**
+	 * Compiled urlPathPattern (not a part of the mapping file)
+	 */
+	private transient volatile Pattern compiledPattern;
+
 	public CdnResource() {
 	}
 
@@ -46,7 +64,23 @@ public class CdnResource {
 			}
 			urlPath = urlPath.substring(urlPathPrefix.length());
 		}
-		return urlPath.matches(urlPathPattern);
+		return matchesPattern(urlPath);
+	}
+
+	/**
+	 * Checks the part of the url which follows the prefix
+	 */
+	public boolean matchesPattern(String resourceName) {
+		return getCompiledPattern().matcher(resourceName).matches();
+	}
+
+	public Pattern getCompiledPattern() {
+		Pattern pattern = compiledPattern;
+		if (pattern == null) {
+			pattern = Pattern.compile(urlPathPattern);
+			compiledPattern = pattern;
+		}
+		return pattern;
 	}
 
 	public String getSourceUrl(String url) {
@@ -81,6 +115,7 @@ public class CdnResource {
 
 	public void setUrlPathPattern(String urlPathPattern) {
 		this.urlPathPattern = urlPathPattern;
+		this.compiledPattern = null;
 	}
 
 	public String getResourceOrigin() {
@@ -107,6 +142,22 @@ public class CdnResource {
 		this.downloadIfMissing = downloadIfMissing;
 	}
 
+	public boolean isCacheFill() {
+		return cacheFill;
+	}
+
+	public void setCacheFill(boolean cacheFill) {
+		this.cacheFill = cacheFill;
+	}
+
+	public boolean isPeerFill() {
+		return peerFill;
+	}
+
+	public void setPeerFill(boolean peerFill) {
+		this.peerFill = peerFill;
+	}
+
 	public boolean isAvailableInNetwork() {
 		return availableInNetwork;
 	}
@@ -0,0 +1,125 @@
+package com.euromoby.cdn.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of the cdn traffic shaping, serialized as JSON by the metrics
+ * endpoint. Throughput is in bytes per second measured over the last check
+ * interval, limits are 0 when unlimited.
+ */
+public class TrafficMetrics {
+
+	private boolean enabled;
+	private long totalLimit;
+	private long agentsReserved;
+	private long clientMax;
+	private long checkInterval;
+
+	private Map<String, TrafficStats> classes = new LinkedHashMap<String, TrafficStats>();
+	private Map<String, TrafficStats> clients = new LinkedHashMap<String, TrafficStats>();
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public long getTotalLimit() {
+		return totalLimit;
+	}
+
+	public void setTotalLimit(long totalLimit) {
+		this.totalLimit = totalLimit;
+	}
+
+	public long getAgentsReserved() {
+		return agentsReserved;
+	}
+
+	public void setAgentsReserved(long agentsReserved) {
+		this.agentsReserved = agentsReserved;
+	}
+
+	public long getClientMax() {
+		return clientMax;
+	}
+
+	public void setClientMax(long clientMax) {
+		this.clientMax = clientMax;
+	}
+
+	public long getCheckInterval() {
+		return checkInterval;
+	}
+
+	public void setCheckInterval(long checkInterval) {
+		this.checkInterval = checkInterval;
+	}
+
+	/**
+	 * @return total, agents and clients traffic
+	 */
+	public Map<String, TrafficStats> getClasses() {
+		return classes;
+	}
+
+	public void setClasses(Map<String, TrafficStats> classes) {
+		this.classes = classes;
+	}
+
+	/**
+	 * @return traffic of the connected client IPs
+	 */
+	public Map<String, TrafficStats> getClients() {
+		return clients;
+	}
+
+	public void setClients(Map<String, TrafficStats> clients) {
+		this.clients = clients;
+	}
+
+	public static class TrafficStats {
+
+		private long writeLimit;
+		private long writeThroughput;
+		private long writtenBytes;
+		private int channels;
+
+		public long getWriteLimit() {
+			return writeLimit;
+		}
+
+		public void setWriteLimit(long writeLimit) {
+			this.writeLimit = writeLimit;
+		}
+
+		public long getWriteThroughput() {
+			return writeThroughput;
+		}
+
+		public void setWriteThroughput(long writeThroughput) {
+			this.writeThroughput = writeThroughput;
+		}
+
+		public long getWrittenBytes() {
+			return writtenBytes;
+		}
+
+		public void setWrittenBytes(long writtenBytes) {
+			this.writtenBytes = writtenBytes;
+		}
+
+		public int getChannels() {
+			return channels;
+		}
+
+		public void setChannels(int channels) {
+			this.channels = channels;
+		}
+
+	}
+
+}
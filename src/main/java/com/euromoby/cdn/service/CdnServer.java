@@ -4,6 +4,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.euromoby.agent.Config;
+import com.euromoby.cdn.CdnMappingWatcher;
+import com.euromoby.network.ByteBufAllocatorProvider;
+import com.euromoby.network.EventLoopManager;
 import com.euromoby.service.NettyService;
 
 @Component
@@ -12,14 +15,26 @@ public class CdnServer extends NettyService {
 	public static final String SERVICE_NAME = "cdn";
 	public static final int CDN_PORT = 80;
 	
-	private Config config;
+	private CdnMappingWatcher cdnMappingWatcher;
 	
 	@Autowired
-	public CdnServer(Config config, CdnServerInitializer initializer) {
-		super(initializer);
-		this.config = config;
+	public CdnServer(Config config, EventLoopManager eventLoopManager, ByteBufAllocatorProvider allocatorProvider, CdnServerInitializer initializer, CdnMappingWatcher cdnMappingWatcher) {
+		super(config, eventLoopManager, allocatorProvider, initializer);
+		this.cdnMappingWatcher = cdnMappingWatcher;
 	}
 
+	@Override
+	public void startService() {
+		super.startService();
+		// mapping changes are picked up while the server is running
+		cdnMappingWatcher.startService();
+	}
+
+	@Override
+	public void stopService() {
+		cdnMappingWatcher.stopService();
+		super.stopService();
+	}
 
 	@Override
 	public int getPort() {
@@ -31,4 +46,4 @@ public class CdnServer extends NettyService {
 		return SERVICE_NAME;
 	}
 
-}
\ No newline at end of file
+}
@@ -1,7 +1,5 @@
 package com.euromoby.cdn.service;
 
-import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
@@ -9,33 +7,38 @@ import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.Promise;
 
 import java.io.File;
 import java.net.URI;
 import java.net.URLDecoder;
-import java.util.List;
 
-import com.euromoby.agent.AgentManager;
 import com.euromoby.agent.Config;
-import com.euromoby.agent.model.AgentStatus;
+import com.euromoby.cdn.CdnFileCache.CachedFile;
+import com.euromoby.cdn.CdnFileCache;
 import com.euromoby.cdn.CdnNetwork;
+import com.euromoby.cdn.CdnPlacement;
 import com.euromoby.cdn.model.CdnResource;
 import com.euromoby.download.DownloadManager;
+import com.euromoby.file.FileIndex;
+import com.euromoby.file.FileMetadata;
 import com.euromoby.file.FileProvider;
 import com.euromoby.file.MimeHelper;
-import com.euromoby.http.AsyncHttpClientProvider;
 import com.euromoby.http.FileResponse;
 import com.euromoby.http.HttpResponseProvider;
 import com.euromoby.http.HttpUtils;
+import com.euromoby.http.ProxyFlightManager;
 import com.euromoby.http.ProxyResponse;
 import com.euromoby.model.AgentId;
 import com.euromoby.model.Tuple;
 import com.euromoby.rest.RestException;
 import com.euromoby.rest.handler.fileinfo.FileInfo;
 import com.euromoby.utils.StringUtils;
-import com.euromoby.utils.SystemUtils;
 
 public class CdnServerHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
 	
@@ -44,51 +47,94 @@ public class CdnServerHandler extends SimpleChannelInboundHandler<FullHttpReques
 	private MimeHelper mimeHelper;	
 	private CdnNetwork cdnNetwork;
 	private DownloadManager downloadManager;
-	private AgentManager agentManager;
-	private AsyncHttpClientProvider asyncHttpClientProvider;
+	private CdnPlacement cdnPlacement;
+	private ProxyFlightManager proxyFlightManager;
+	private CdnFileCache cdnFileCache;
+	private FileIndex fileIndex;
 
-	public CdnServerHandler(Config config, FileProvider fileProvider, MimeHelper mimeHelper, CdnNetwork cdnNetwork, DownloadManager downloadManager, AgentManager agentManager, AsyncHttpClientProvider asyncHttpClientProvider) {
+	private Promise<Tuple<CdnResource, FileInfo>> pendingSearch;
+
+	public CdnServerHandler(Config config, FileProvider fileProvider, MimeHelper mimeHelper, CdnNetwork cdnNetwork, DownloadManager downloadManager, CdnPlacement cdnPlacement, ProxyFlightManager proxyFlightManager, CdnFileCache cdnFileCache, FileIndex fileIndex) {
 		this.config = config;
 		this.fileProvider = fileProvider;
 		this.mimeHelper = mimeHelper;
 		this.cdnNetwork = cdnNetwork;
 		this.downloadManager = downloadManager;
-		this.agentManager = agentManager;
-		this.asyncHttpClientProvider = asyncHttpClientProvider;
+		this.cdnPlacement = cdnPlacement;
+		this.proxyFlightManager = proxyFlightManager;
+		this.cdnFileCache = cdnFileCache;
+		this.fileIndex = fileIndex;
 	}
 	
-	protected void manageCdnRequest(ChannelHandlerContext ctx, FullHttpRequest httpRequest, URI uri, String fileLocation) {
-		
-		Tuple<CdnResource, FileInfo> searchResult = cdnNetwork.find(uri.getPath());
-		
+	protected void manageCdnRequest(final ChannelHandlerContext ctx, final FullHttpRequest httpRequest, final URI uri, final String fileLocation) {
+
+		// the search is completed outside of channelRead0: keep the request,
+		// the pipelined ones wait in HttpPipeliningHandler
+		httpRequest.retain();
+
+		pendingSearch = ctx.executor().newPromise();
+		pendingSearch.addListener(new GenericFutureListener<Future<Tuple<CdnResource, FileInfo>>>() {
+			@Override
+			public void operationComplete(Future<Tuple<CdnResource, FileInfo>> future) throws Exception {
+				pendingSearch = null;
+				try {
+					if (future.isSuccess()) {
+						manageSearchResult(ctx, httpRequest, uri, fileLocation, future.getNow());
+					} else if (!future.isCancelled()) {
+						writeErrorResponse(ctx, httpRequest, HttpResponseStatus.INTERNAL_SERVER_ERROR);
+					}
+				} finally {
+					httpRequest.release();
+				}
+			}
+		});
+
+		cdnNetwork.find(uri.getPath(), pendingSearch);
+	}
+
+	protected void manageSearchResult(ChannelHandlerContext ctx, FullHttpRequest httpRequest, URI uri, String fileLocation, Tuple<CdnResource, FileInfo> searchResult) {
+
 		CdnResource cdnResource = searchResult.getFirst();
 		if (cdnResource == null) {
-			writeErrorResponse(ctx, HttpResponseStatus.NOT_FOUND);
+			writeErrorResponse(ctx, httpRequest, HttpResponseStatus.NOT_FOUND);
 			return;
 		}
 		
 		FileInfo fileInfo = searchResult.getSecond();
 		if (fileInfo != null) {
-			manageRedirect(ctx, httpRequest, buildAgentUrlLocation(fileInfo.getAgentId(), getPathWithQuery(uri)));
+			String agentUrl = buildAgentUrlLocation(fileInfo.getAgentId(), getPathWithQuery(uri));
+			if (cdnResource.isPeerFill()) {
+				managePeerFill(ctx, httpRequest, agentUrl, fileLocation);
+			} else {
+				manageRedirect(ctx, httpRequest, agentUrl);
+			}
 			return;
 		}
 
 		// has origin?
 		String sourceUrl = cdnResource.getSourceUrl(getPathWithQuery(uri));
 		if (sourceUrl != null) {
-			if (cdnResource.isDownloadIfMissing()) {
-				addToDownloadScheduler(sourceUrl, fileLocation);
-			}
 			if (cdnResource.isProxyable()) {
-				manageContentProxying(ctx, httpRequest, sourceUrl);
+				// cache fill stores the proxied content, no separate download
+				boolean cacheFill = cdnResource.isCacheFill() && proxyFlightManager.isCacheFillable(httpRequest);
+				File cacheFile = cacheFill ? getCacheFile(fileLocation) : null;
+				// clients joining a running origin request do not schedule
+				// the download again
+				boolean originRequested = manageContentProxying(ctx, httpRequest, sourceUrl, cacheFile);
+				if (originRequested && cdnResource.isDownloadIfMissing() && !cacheFill) {
+					addToDownloadScheduler(uri.getPath(), sourceUrl, fileLocation);
+				}
 			} else {
+				if (cdnResource.isDownloadIfMissing()) {
+					addToDownloadScheduler(uri.getPath(), sourceUrl, fileLocation);
+				}
 				manageRedirect(ctx, httpRequest, sourceUrl);
 			}
 			return;				
 		}
 		
 		// nothing found
-		writeErrorResponse(ctx, HttpResponseStatus.NOT_FOUND);		
+		writeErrorResponse(ctx, httpRequest, HttpResponseStatus.NOT_FOUND);		
 	}
 	
 	protected String getPathWithQuery(URI uri) {
@@ -104,8 +150,8 @@ public class CdnServerHandler extends SimpleChannelInboundHandler<FullHttpReques
 		return String.format("http://%s:%d%s", agentId.getHost(), agentId.getBasePort() + CdnServer.CDN_PORT, urlPathWithQuery);
 	}
 	
-	protected void addToDownloadScheduler(String sourceUrl, String fileLocation) {
-		AgentId agentId = findAgentWithFreeSpace();
+	protected void addToDownloadScheduler(String uriPath, String sourceUrl, String fileLocation) {
+		AgentId agentId = cdnPlacement.findOwner(uriPath);
 		if (agentId == null) {
 			downloadManager.scheduleDownloadFile(sourceUrl, fileLocation, false);
 		} else {
@@ -113,40 +159,63 @@ public class CdnServerHandler extends SimpleChannelInboundHandler<FullHttpReques
 		}
 	}
 	
-	protected AgentId findAgentWithFreeSpace() {
-		AgentId agentId = null;
-		long freeSpace = SystemUtils.getFreeSpace(config.getAgentFilesPath());
-		List<AgentId> activeAgents = agentManager.getActive();
-		for (AgentId activeAgentId : activeAgents) {
-			AgentStatus agentStatus = agentManager.getAgentStatus(activeAgentId);
-			long agentFreeSpace = agentStatus.getFreeSpace(); 
-			if (agentFreeSpace > config.getDownloadFreespaceMin() && agentFreeSpace  > freeSpace) {
-				agentId = activeAgentId;
-				freeSpace = agentStatus.getFreeSpace();
-			}
-		}
-		return agentId;
+	protected boolean manageContentProxying(ChannelHandlerContext ctx, FullHttpRequest httpRequest, String sourceUrl, File cacheFile) {
+		return proxyFlightManager.proxy(ctx, httpRequest, sourceUrl, cacheFile);
 	}
 	
-	protected void manageContentProxying(ChannelHandlerContext ctx, FullHttpRequest httpRequest, String sourceUrl) {
-		new ProxyResponse(asyncHttpClientProvider).proxy(ctx, httpRequest, sourceUrl);	
+	/**
+	 * Streams the file from the agent which has it and stores a local copy
+	 */
+	protected void managePeerFill(ChannelHandlerContext ctx, FullHttpRequest httpRequest, String agentUrl, String fileLocation) {
+		File cacheFile = proxyFlightManager.isCacheFillable(httpRequest) ? getCacheFile(fileLocation) : null;
+		proxyFlightManager.proxyFromAgent(ctx, httpRequest, agentUrl, cacheFile);
 	}
-	
+
+	protected File getCacheFile(String fileLocation) {
+		return new File(new File(config.getAgentFilesPath()), fileLocation);
+	}
+
 	protected void manageRedirect(ChannelHandlerContext ctx, FullHttpRequest httpRequest, String sourceUrl) {
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(httpRequest);		
 		FullHttpResponse response = httpResponseProvider.createRedirectResponse(sourceUrl);
 		httpResponseProvider.writeResponse(ctx, response);		
 	}
 	
-	protected void manageFileResponse(ChannelHandlerContext ctx, FullHttpRequest request, File targetFile) {
+	protected void manageFileResponse(ChannelHandlerContext ctx, FullHttpRequest request, File targetFile, FileMetadata metadata) {
 		FileResponse fileResponse = new FileResponse(request, mimeHelper);
 		try {
-			fileResponse.send(ctx, targetFile);		
+			fileResponse.send(ctx, targetFile, metadata);		
 		} catch (RestException e) {
-			writeErrorResponse(ctx, e.getStatus(), e.getMessage());
+			writeErrorResponse(ctx, request, e.getStatus(), e.getMessage());
 		}		
 	}
 	
+	/**
+	 * @return false if the cached representations do not fit the request,
+	 *         the file is sent then (the cached file is released anyway)
+	 */
+	protected boolean manageCachedFileResponse(ChannelHandlerContext ctx, FullHttpRequest request, CachedFile cachedFile) {
+		FileMetadata metadata = cachedFile.getMetadata();
+		if (!HttpUtils.isModified(request, metadata.getEtag(), metadata.getLastModified())) {
+			cachedFile.release();
+			HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
+			FullHttpResponse response = httpResponseProvider.createNotModifiedResponse();
+			response.headers().set(HttpHeaders.Names.ETAG, metadata.getEtag());
+			httpResponseProvider.writeResponse(ctx, response);
+			return true;
+		}
+
+		FileResponse fileResponse = new FileResponse(request, mimeHelper);
+		boolean compressed = cachedFile.getCompressedContent() != null && fileResponse.acceptsCompressedVariant(metadata);
+		if (!compressed && fileResponse.isCompressedOnTheFly(ctx, metadata)) {
+			// the content compressor needs the chunked file response
+			cachedFile.release();
+			return false;
+		}
+		fileResponse.sendContent(ctx, cachedFile.getName(), metadata, cachedFile.takeContent(compressed), compressed);
+		return true;
+	}
+
 	@Override
 	public void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
 
@@ -155,7 +224,7 @@ public class CdnServerHandler extends SimpleChannelInboundHandler<FullHttpReques
 		}		
 		
 		if (!request.getMethod().equals(HttpMethod.GET)) {
-			writeErrorResponse(ctx, HttpResponseStatus.NOT_IMPLEMENTED);
+			writeErrorResponse(ctx, request, HttpResponseStatus.NOT_IMPLEMENTED);
 			return;
 		}		
 
@@ -166,12 +235,12 @@ public class CdnServerHandler extends SimpleChannelInboundHandler<FullHttpReques
 			uri = new URI(request.getUri());
 			fileLocation = URLDecoder.decode(uri.getPath(), "UTF-8");
 		} catch (Exception e) {
-			writeErrorResponse(ctx, HttpResponseStatus.BAD_REQUEST);
+			writeErrorResponse(ctx, request, HttpResponseStatus.BAD_REQUEST);
 			return;
 		}		
 
 		if (StringUtils.nullOrEmpty(fileLocation) || !fileLocation.startsWith("/")) {
-			writeErrorResponse(ctx, HttpResponseStatus.BAD_REQUEST);
+			writeErrorResponse(ctx, request, HttpResponseStatus.BAD_REQUEST);
 			return;			
 		}
 		// remove first slash
@@ -179,10 +248,24 @@ public class CdnServerHandler extends SimpleChannelInboundHandler<FullHttpReques
 
 		File targetFile = fileProvider.getFileByLocation(fileLocation);
 		if (targetFile == null) {
-			writeErrorResponse(ctx, HttpResponseStatus.NOT_FOUND);
+			writeErrorResponse(ctx, request, HttpResponseStatus.NOT_FOUND);
 			return;			
 		}
-		if (!targetFile.exists()) {
+
+		// ranges are served from the file
+		boolean cacheable = !request.headers().contains(HttpHeaders.Names.RANGE);
+		CachedFile cachedFile = cacheable ? cdnFileCache.get(targetFile) : null;
+		if (cachedFile != null && manageCachedFileResponse(ctx, request, cachedFile)) {
+			return;
+		}
+
+		FileMetadata metadata = fileIndex.get(targetFile);
+		if (metadata == null) {
+			// other agents ask only for the files they found here
+			if (request.headers().contains(ProxyResponse.AGENT_REQUEST_HEADER)) {
+				writeErrorResponse(ctx, request, HttpResponseStatus.NOT_FOUND);
+				return;
+			}
 			String base = config.getAgentFilesPath();
 			fileLocation = new File(base).toURI().relativize(targetFile.toURI()).getPath();
 			manageCdnRequest(ctx, request, uri, fileLocation);
@@ -190,27 +273,37 @@ public class CdnServerHandler extends SimpleChannelInboundHandler<FullHttpReques
 		}
 		
         // Cache Validation
-		if (!HttpUtils.ifModifiedSince(request, targetFile)) {
+		if (!HttpUtils.isModified(request, metadata.getEtag(), metadata.getLastModified())) {
 			HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 			FullHttpResponse response = httpResponseProvider.createNotModifiedResponse();
+			response.headers().set(HttpHeaders.Names.ETAG, metadata.getEtag());
 			httpResponseProvider.writeResponse(ctx, response);
         	return;			
 		}
+
+		// a cached file which does not fit the request is not read again
+		if (cacheable && cachedFile == null) {
+			cachedFile = cdnFileCache.load(targetFile, metadata);
+			if (cachedFile != null && manageCachedFileResponse(ctx, request, cachedFile)) {
+				return;
+			}
+		}
 		
-		manageFileResponse(ctx, request, targetFile);
+		manageFileResponse(ctx, request, targetFile, metadata);
 	}
 
-	protected void writeErrorResponse(ChannelHandlerContext ctx, HttpResponseStatus status) {
-		writeErrorResponse(ctx, status, status.reasonPhrase());
+	protected void writeErrorResponse(ChannelHandlerContext ctx, HttpRequest request, HttpResponseStatus status) {
+		writeErrorResponse(ctx, request, status, status.reasonPhrase());
 	}
 	
-	protected void writeErrorResponse(ChannelHandlerContext ctx, HttpResponseStatus status, String message) {
-		// Build the response object.
-		FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, HttpUtils.fromString(message));
+	/**
+	 * The connection is kept open unless the client asked to close it
+	 */
+	protected void writeErrorResponse(ChannelHandlerContext ctx, HttpRequest request, HttpResponseStatus status, String message) {
+		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
+		FullHttpResponse response = httpResponseProvider.createHttpResponse(status, HttpUtils.fromString(ctx.alloc(), message));
 		response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/plain; charset=UTF-8");
-		// Write the response.
-		ChannelFuture future = ctx.channel().writeAndFlush(response);
-		future.addListener(ChannelFutureListener.CLOSE);
+		httpResponseProvider.writeResponse(ctx, response);
 	}
 
 	protected void send100Continue(ChannelHandlerContext ctx) {
@@ -218,6 +311,15 @@ public class CdnServerHandler extends SimpleChannelInboundHandler<FullHttpReques
 		ctx.write(response);
 	}	
 	
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		Promise<Tuple<CdnResource, FileInfo>> search = pendingSearch;
+		if (search != null) {
+			search.cancel(false);
+		}
+		super.channelInactive(ctx);
+	}
+
 	@Override
 	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
 		ctx.channel().close();
@@ -11,14 +11,18 @@ import io.netty.handler.timeout.IdleStateHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import com.euromoby.agent.AgentManager;
 import com.euromoby.agent.Config;
+import com.euromoby.cdn.CdnFileCache;
 import com.euromoby.cdn.CdnNetwork;
+import com.euromoby.cdn.CdnPlacement;
+import com.euromoby.cdn.CdnTrafficShaper;
 import com.euromoby.download.DownloadManager;
+import com.euromoby.file.FileIndex;
 import com.euromoby.file.FileProvider;
 import com.euromoby.file.MimeHelper;
 import com.euromoby.http.AgentHttpResponseEncoder;
-import com.euromoby.http.AsyncHttpClientProvider;
+import com.euromoby.http.HttpPipeliningHandler;
+import com.euromoby.http.ProxyFlightManager;
 import com.euromoby.http.SmartHttpContentCompressor;
 import com.euromoby.network.ReadWriteTimeoutHandler;
 
@@ -30,33 +34,43 @@ public class CdnServerInitializer extends ChannelInitializer<SocketChannel> {
 	private MimeHelper mimeHelper;
 	private CdnNetwork cdnNetwork;
 	private DownloadManager downloadManager;
-	private AgentManager agentManager;
-	private AsyncHttpClientProvider asyncHttpClientProvider;
+	private CdnPlacement cdnPlacement;
+	private ProxyFlightManager proxyFlightManager;
+	private CdnFileCache cdnFileCache;
+	private FileIndex fileIndex;
+	private CdnTrafficShaper trafficShaper;
 	
 	@Autowired
-	public CdnServerInitializer(Config config, FileProvider fileProvider, MimeHelper mimeHelper, CdnNetwork cdnNetwork, DownloadManager downloadManager, AgentManager agentManager, AsyncHttpClientProvider asyncHttpClientProvider) {
+	public CdnServerInitializer(Config config, FileProvider fileProvider, MimeHelper mimeHelper, CdnNetwork cdnNetwork, DownloadManager downloadManager, CdnPlacement cdnPlacement, ProxyFlightManager proxyFlightManager, CdnFileCache cdnFileCache, FileIndex fileIndex, CdnTrafficShaper trafficShaper) {
 		this.config = config;
 		this.fileProvider = fileProvider;
 		this.mimeHelper = mimeHelper;
 		this.cdnNetwork = cdnNetwork;
 		this.downloadManager = downloadManager;
-		this.agentManager = agentManager;
-		this.asyncHttpClientProvider = asyncHttpClientProvider;
+		this.cdnPlacement = cdnPlacement;
+		this.proxyFlightManager = proxyFlightManager;
+		this.cdnFileCache = cdnFileCache;
+		this.fileIndex = fileIndex;
+		this.trafficShaper = trafficShaper;
 	}
 
 	@Override
 	public void initChannel(SocketChannel ch) {
-		ChannelPipeline p = ch.pipeline();
-		
+		initPipeline(ch.pipeline());
+	}
+
+	protected void initPipeline(ChannelPipeline p) {
+		trafficShaper.initPipeline(p.channel());
 		p.addLast("decoder", new HttpRequestDecoder());
 		p.addLast("encoder", new AgentHttpResponseEncoder());
 		p.addLast("aggregator", new HttpObjectAggregator(65536));
 
 		p.addLast("idle", new IdleStateHandler(0, 0, config.getServerTimeout()));
 		p.addLast("timeout", new ReadWriteTimeoutHandler());		
+		p.addLast("pipelining", new HttpPipeliningHandler());
 		
 		p.addLast("compressor", new SmartHttpContentCompressor());
 		p.addLast("chunked", new ChunkedWriteHandler());
-		p.addLast("cdn", new CdnServerHandler(config, fileProvider, mimeHelper, cdnNetwork, downloadManager, agentManager, asyncHttpClientProvider));
+		p.addLast("cdn", new CdnServerHandler(config, fileProvider, mimeHelper, cdnNetwork, downloadManager, cdnPlacement, proxyFlightManager, cdnFileCache, fileIndex));
 	}
 }
\ No newline at end of file
@@ -1,17 +1,25 @@
 package com.euromoby.download;
 
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Random;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.euromoby.agent.Config;
+import com.euromoby.download.client.DownloadException;
 import com.euromoby.download.client.DownloadRequestSender;
 import com.euromoby.download.dao.DownloadFileDao;
 import com.euromoby.download.model.DownloadFile;
+import com.euromoby.download.model.DownloadState;
 import com.euromoby.model.AgentId;
 import com.euromoby.utils.SystemUtils;
 
@@ -19,10 +27,14 @@ import com.euromoby.utils.SystemUtils;
 public class DownloadManager {
 
 	private static final Logger log = LoggerFactory.getLogger(DownloadManager.class);
+
+	private static final int MAX_ERROR_LENGTH = 1000;
 	
 	private Config config;
 	private DownloadFileDao downloadFileDao;
 	private DownloadRequestSender downloadRequestSender;
+	private volatile Runnable scheduleListener;
+	private Random random = new Random();
 	
 	@Autowired
 	public DownloadManager(Config config, DownloadFileDao downloadFileDao, DownloadRequestSender downloadRequestSender) {
@@ -44,13 +56,47 @@ public class DownloadManager {
 		if (downloadFile == null) {
 			downloadFile = new DownloadFile();
 			downloadFile.setUrl(url);
+			downloadFile.setHost(getHost(url));
 			downloadFile.setFileLocation(fileLocation);
 			downloadFile.setNoProxy(noProxy);
 			downloadFileDao.save(downloadFile);
+			notifyScheduled();
+		} else if (downloadFile.getState() == DownloadState.DEAD && downloadFileDao.requeueDead(downloadFile.getId())) {
+			// asked again for a file which kept failing
+			downloadFile.setState(DownloadState.QUEUED);
+			downloadFile.setAttempts(0);
+			downloadFile.setNextAttemptAt(0);
+			downloadFile.setLastError(null);
+			notifyScheduled();
 		}
 		return downloadFile;
 	}
 
+	/**
+	 * @param scheduleListener
+	 *            runs when a new file is scheduled, after the row is committed
+	 */
+	public void setScheduleListener(Runnable scheduleListener) {
+		this.scheduleListener = scheduleListener;
+	}
+
+	private void notifyScheduled() {
+		final Runnable listener = scheduleListener;
+		if (listener == null) {
+			return;
+		}
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			listener.run();
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				listener.run();
+			}
+		});
+	}
+
 	public void askAgentToDownloadFile(AgentId agentId, String url, String fileLocation) {
 		try {
 			downloadRequestSender.sendDownloadRequest(agentId, url, fileLocation);
@@ -59,19 +105,141 @@ public class DownloadManager {
 		}
 	}
 	
+	/**
+	 * @return null if the file is not scheduled or is dead
+	 */
 	@Transactional(readOnly=true)
 	public DownloadFile findScheduledFileLocation(String fileLocation) {
-		return downloadFileDao.findByFileLocation(fileLocation);
+		DownloadFile downloadFile = downloadFileDao.findByFileLocation(fileLocation);
+		return downloadFile != null && downloadFile.getState() != DownloadState.DEAD ? downloadFile : null;
 	}
 	
+	/**
+	 * @param busyHosts
+	 *            hosts whose files are not returned
+	 * @return queued files whose next attempt is due
+	 */
 	@Transactional(readOnly=true)
-	public List<DownloadFile> getScheduledFiles(int limit) {
-		return downloadFileDao.findAll(limit);
+	public List<DownloadFile> getScheduledFiles(Collection<String> busyHosts, int limit) {
+		return downloadFileDao.findReady(System.currentTimeMillis(), busyHosts, limit);
+	}
+
+	/**
+	 * @return lower case host of the url, the url itself if it has none
+	 */
+	public static String getHost(String url) {
+		try {
+			String host = new URI(url).getHost();
+			return host != null ? host.toLowerCase() : url;
+		} catch (URISyntaxException e) {
+			return url;
+		}
+	}
+
+	@Transactional(readOnly=true)
+	public List<DownloadFile> getFiles(DownloadState state, int limit) {
+		return downloadFileDao.findByState(state, limit);
+	}
+
+	/**
+	 * Marks the file running
+	 * 
+	 * @return false if it is already claimed
+	 */
+	@Transactional
+	public boolean claimScheduledFile(DownloadFile downloadFile) {
+		if (!downloadFileDao.claim(downloadFile)) {
+			return false;
+		}
+		downloadFile.setState(DownloadState.RUNNING);
+		return true;
+	}
+
+	/**
+	 * Queues the files left running when the agent stopped
+	 */
+	@Transactional
+	public void requeueRunningFiles() {
+		int count = downloadFileDao.requeueRunning();
+		if (count > 0) {
+			log.info("{} interrupted downloads queued again", count);
+		}
+	}
+
+	/**
+	 * Sets the host of the files stored before the host column was added
+	 */
+	@Transactional
+	public void assignMissingHosts() {
+		List<DownloadFile> files = downloadFileDao.findWithoutHost();
+		for (DownloadFile downloadFile : files) {
+			downloadFile.setHost(getHost(downloadFile.getUrl()));
+			downloadFileDao.updateHost(downloadFile);
+		}
+		if (!files.isEmpty()) {
+			log.info("Host of {} scheduled files assigned", files.size());
+		}
+	}
+
+	/**
+	 * @return false if the file is not dead
+	 */
+	@Transactional
+	public boolean requeueDeadFile(int id) {
+		if (!downloadFileDao.requeueDead(id)) {
+			return false;
+		}
+		notifyScheduled();
+		return true;
+	}
+
+	/**
+	 * Schedules the next attempt of the failed file after an exponential
+	 * backoff, the file is dead when the origin refused it or it failed
+	 * agent.download.retry.max times
+	 */
+	@Transactional
+	public void failScheduledFile(DownloadFile downloadFile, Exception error) {
+		int attempts = downloadFile.getAttempts() + 1;
+		downloadFile.setAttempts(attempts);
+		String lastError = error.getClass().getSimpleName() + ": " + error.getMessage();
+		downloadFile.setLastError(lastError.length() > MAX_ERROR_LENGTH ? lastError.substring(0, MAX_ERROR_LENGTH) : lastError);
+		boolean permanent = error instanceof DownloadException && ((DownloadException) error).isPermanent();
+		if (permanent || attempts >= config.getDownloadRetryMax()) {
+			downloadFile.setState(DownloadState.DEAD);
+			downloadFile.setNextAttemptAt(0);
+			log.warn("Download of {} failed after {} attempts: {}", downloadFile.getUrl(), attempts, downloadFile.getLastError());
+		} else {
+			long delay = getRetryDelay(attempts, config.getDownloadRetryDelay(), config.getDownloadRetryDelayMax(), random);
+			downloadFile.setState(DownloadState.QUEUED);
+			downloadFile.setNextAttemptAt(System.currentTimeMillis() + delay);
+			log.debug("Download of {} failed, attempt {} in {} ms: {}", downloadFile.getUrl(), attempts + 1, delay, downloadFile.getLastError());
+		}
+		downloadFileDao.updateAttempt(downloadFile);
+	}
+
+	/**
+	 * @return the base delay doubled for every failed attempt after the first
+	 *         one, at most the cap, less a random part of up to a half so that
+	 *         the files which failed together are not retried together
+	 */
+	protected static long getRetryDelay(int attempts, long base, long cap, Random random) {
+		long delay = cap;
+		if (attempts <= 62 && base <= (cap >> Math.min(attempts - 1, 62))) {
+			delay = base << (attempts - 1);
+		}
+		long half = delay / 2;
+		return half + (half > 0 ? (long) (random.nextDouble() * (delay - half)) : 0);
 	}
 	
 	@Transactional
-	public void deleteScheduledFiles(List<DownloadFile> downloadMessages) {
-		downloadFileDao.deleteAll(downloadMessages);
-	}	
+	public void updateProgress(DownloadFile downloadFile) {
+		downloadFileDao.updateProgress(downloadFile);
+	}
+
+	@Transactional
+	public void deleteScheduledFile(DownloadFile downloadFile) {
+		downloadFileDao.delete(downloadFile);
+	}
 	
 }
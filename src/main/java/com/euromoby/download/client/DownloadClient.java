@@ -1,83 +1,498 @@
 package com.euromoby.download.client;
 
+import io.netty.util.concurrent.DefaultThreadFactory;
+
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.euromoby.agent.Config;
+import com.euromoby.cdn.CdnFileCache;
+import com.euromoby.download.model.DownloadFile;
+import com.euromoby.file.FileIndex;
+import com.euromoby.file.FilePrecompressor;
 import com.euromoby.http.HttpClientProvider;
 
+/**
+ * Downloads files to the agent storage. When agent.download.segments is above
+ * one, the first GET asks for the open range from the offset. If the origin
+ * answers 206, its Content-Range gives the length without a HEAD request, the
+ * response is read as the first segment and the rest of the file is split
+ * into ranges fetched over concurrent connections, each written at its offset
+ * into the .downloading file. Files too small to split and origins answering
+ * 200 are copied over the single stream of that response.
+ * <p>
+ * A failed download keeps its .downloading file when a listener stores the
+ * received offset and the validators of the origin (ETag or Last-Modified).
+ * The next attempt requests the rest with Range and If-Range, the origin
+ * sends the whole file instead if it has changed.
+ * </p>
+ */
 @Component
-public class DownloadClient {
+public class DownloadClient implements DisposableBean {
 
 	private static final Logger LOG = LoggerFactory.getLogger(DownloadClient.class);
 
 	public static final String DOWNLOADING_EXT = ".downloading";
-	
-	private HttpClientProvider httpClientProvider;	
+
+	private static final String BYTES = "bytes";
+	private static final String IDENTITY = "identity";
+	private static final String WEAK_ETAG_PREFIX = "W/";
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final Pattern CONTENT_RANGE_REGEX = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)");
+
+	private Config config;
+	private HttpClientProvider httpClientProvider;
+	private FilePrecompressor filePrecompressor;
+	private FileIndex fileIndex;
+	private CdnFileCache cdnFileCache;
+
+	private ExecutorService segmentExecutor = Executors.newCachedThreadPool(new DefaultThreadFactory("download-segment", true));
 
 	@Autowired
-	public DownloadClient(HttpClientProvider httpClientProvider) {
+	public DownloadClient(Config config, HttpClientProvider httpClientProvider, FilePrecompressor filePrecompressor, FileIndex fileIndex, CdnFileCache cdnFileCache) {
+		this.config = config;
 		this.httpClientProvider = httpClientProvider;
+		this.filePrecompressor = filePrecompressor;
+		this.fileIndex = fileIndex;
+		this.cdnFileCache = cdnFileCache;
 	}
 
 	public void download(String url, File targetFile, boolean noProxy) throws Exception {
+		DownloadFile downloadFile = new DownloadFile();
+		downloadFile.setUrl(url);
+		downloadFile.setNoProxy(noProxy);
+		download(downloadFile, targetFile, null);
+	}
 
-			HttpGet request = new HttpGet(url);
-			RequestConfig.Builder requestConfigBuilder = httpClientProvider.createRequestConfigBuilder(request.getURI().getHost(), noProxy);
-			request.setConfig(requestConfigBuilder.build());
+	/**
+	 * @param downloadFile
+	 *            url and the partial file state of the previous attempt,
+	 *            updated while the file is received
+	 * @param listener
+	 *            stores the partial file state, without it the partial file
+	 *            is deleted when the download fails
+	 */
+	public void download(DownloadFile downloadFile, File targetFile, DownloadListener listener) throws Exception {
+		File downloadingFile = new File(targetFile.getCanonicalPath() + DOWNLOADING_EXT);
+		boolean keepPartialFile = false;
+		try {
+			checkPartialFile(downloadFile, downloadingFile);
 
-			CloseableHttpResponse response = httpClientProvider.executeRequest(request);
-			
 			try {
+				downloadContent(downloadFile, downloadingFile, listener, config.getDownloadSegments() > 1);
+			} catch (RangesNotSupportedException e) {
+				LOG.debug("Ranges of {} are not supported: {}", downloadFile.getUrl(), e.getMessage());
+				downloadContent(downloadFile, downloadingFile, listener, false);
+			}
+
+			if (targetFile.exists()) {
+				targetFile.delete();
+			}
+			FileUtils.moveFile(downloadingFile, targetFile);
+			LOG.debug("File saved to " + targetFile.getPath());
+			fileIndex.update(targetFile);
+			cdnFileCache.invalidate(targetFile);
+			filePrecompressor.schedule(targetFile);
+		} catch (Exception e) {
+			keepPartialFile = listener != null && downloadFile.getReceived() > 0 && !isPermanent(e);
+			if (keepPartialFile) {
+				saveProgress(downloadFile, listener);
+			}
+			throw e;
+		} finally {
+			if (!keepPartialFile && downloadingFile.exists()) {
+				downloadingFile.delete();
+			}
+		}
+	}
+
+	private static boolean isPermanent(Exception e) {
+		return e instanceof DownloadException && ((DownloadException) e).isPermanent();
+	}
+
+	private static void saveProgress(DownloadFile downloadFile, DownloadListener listener) {
+		try {
+			listener.onProgress(downloadFile);
+		} catch (Exception e) {
+			LOG.warn("Unable to save the progress of {}", downloadFile.getUrl(), e);
+		}
+	}
+
+	/**
+	 * Forgets the received bytes if the partial file is gone or they can not
+	 * be validated
+	 */
+	private void checkPartialFile(DownloadFile downloadFile, File downloadingFile) {
+		if (downloadFile.getReceived() == 0) {
+			return;
+		}
+		if (!downloadingFile.exists() || downloadingFile.length() < downloadFile.getReceived() || getValidator(downloadFile) == null) {
+			LOG.debug("Partial file of {} can not be resumed", downloadFile.getUrl());
+			downloadFile.resetProgress();
+		} else {
+			LOG.debug("Resuming {} at {}", downloadFile.getUrl(), downloadFile.getReceived());
+		}
+	}
+
+	/**
+	 * @return value for If-Range: the strong ETag or the Last-Modified date
+	 */
+	protected static String getValidator(DownloadFile downloadFile) {
+		String etag = downloadFile.getEtag();
+		if (etag != null && !etag.startsWith(WEAK_ETAG_PREFIX)) {
+			return etag;
+		}
+		return downloadFile.getLastModified();
+	}
+
+	private static String getHeader(HttpResponse response, String name) {
+		Header header = response.getFirstHeader(name);
+		return header != null ? header.getValue().trim() : null;
+	}
+
+	private void configureRequest(HttpRequestBase request, DownloadFile downloadFile) {
+		RequestConfig.Builder requestConfigBuilder = httpClientProvider.createRequestConfigBuilder(request.getURI().getHost(), downloadFile.isNoProxy());
+		request.setConfig(requestConfigBuilder.build());
+		// offsets are in the bytes of the file, not of its encoding
+		request.setHeader(HttpHeaders.ACCEPT_ENCODING, IDENTITY);
+	}
+
+	protected int getSegmentCount(long length) {
+		if (length <= 0) {
+			return 1;
+		}
+		long segments = Math.min(config.getDownloadSegments(), length / Math.max(config.getDownloadSegmentMin(), 1));
+		return (int) Math.max(segments, 1);
+	}
+
+	/**
+	 * @param segmented
+	 *            the rest of the file may be split into segments
+	 */
+	protected void downloadContent(DownloadFile downloadFile, File downloadingFile, DownloadListener listener, boolean segmented) throws Exception {
+		long offset = downloadFile.getReceived();
+		if (offset > 0 && offset == downloadFile.getContentLength()) {
+			// received completely by the previous attempt
+			return;
+		}
+
+		HttpGet request = new HttpGet(downloadFile.getUrl());
+		configureRequest(request, downloadFile);
+		boolean rangeRequest = offset > 0 || segmented;
+		if (rangeRequest) {
+			request.setHeader(HttpHeaders.RANGE, BYTES + "=" + offset + "-");
+		}
+		if (offset > 0) {
+			request.setHeader(HttpHeaders.IF_RANGE, getValidator(downloadFile));
+		}
+
+		CloseableHttpResponse response = httpClientProvider.executeRequest(request);
+		try {
+			StatusLine statusLine = response.getStatusLine();
+			boolean partial = rangeRequest && statusLine.getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT;
+			if (partial) {
+				Matcher m = CONTENT_RANGE_REGEX.matcher(String.valueOf(getHeader(response, HttpHeaders.CONTENT_RANGE)));
+				if (!m.matches() || Long.parseLong(m.group(1)) != offset) {
+					downloadFile.resetProgress();
+					throw new Exception("Unexpected content range of " + downloadFile.getUrl());
+				}
+				if (!m.group(3).equals("*")) {
+					downloadFile.setContentLength(Long.parseLong(m.group(3)));
+				}
+				if (offset == 0) {
+					downloadFile.setEtag(getHeader(response, HttpHeaders.ETAG));
+					downloadFile.setLastModified(getHeader(response, HttpHeaders.LAST_MODIFIED));
+				}
+			} else if (statusLine.getStatusCode() == HttpStatus.SC_OK) {
+				if (offset > 0) {
+					LOG.debug("{} has changed, downloading from the beginning", downloadFile.getUrl());
+				}
+				offset = 0;
+				downloadFile.setReceived(0);
+				downloadFile.setContentLength(response.getEntity() != null ? response.getEntity().getContentLength() : -1);
+				downloadFile.setEtag(getHeader(response, HttpHeaders.ETAG));
+				downloadFile.setLastModified(getHeader(response, HttpHeaders.LAST_MODIFIED));
+			} else if (offset > 0 && statusLine.getStatusCode() == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+				EntityUtils.consumeQuietly(response.getEntity());
+				downloadFile.resetProgress();
+				throw new Exception("Partial file of " + downloadFile.getUrl() + " does not match the origin");
+			} else {
+				EntityUtils.consumeQuietly(response.getEntity());
+				throw new DownloadException(statusLine);
+			}
+
+			HttpEntity entity = response.getEntity();
+			if (entity == null) {
+				throw new Exception("Empty response");
+			}
+			InputStream inputStream = entity.getContent();
+			RandomAccessFile raf = new RandomAccessFile(downloadingFile, "rw");
+			try {
+				// drops what was received after the saved offset
+				raf.setLength(offset);
+				Transfer transfer = new Transfer(downloadFile, listener);
+				int segments = partial && segmented ? getSegmentCount(downloadFile.getContentLength() - offset) : 1;
+				if (segments > 1) {
+					downloadSegments(transfer, raf.getChannel(), request, inputStream, segments);
+				} else {
+					Segment segment = new Segment(transfer, raf.getChannel(), offset, Long.MAX_VALUE - 1);
+					transfer.add(segment);
+					segment.copy(inputStream);
+				}
+			} finally {
+				IOUtils.closeQuietly(inputStream);
+				IOUtils.closeQuietly(raf);
+			}
+			long contentLength = downloadFile.getContentLength();
+			if (contentLength >= 0 && downloadFile.getReceived() != contentLength) {
+				throw new Exception(downloadFile.getUrl() + " is incomplete at " + downloadFile.getReceived() + " of " + contentLength);
+			}
+		} finally {
+			response.close();
+		}
+	}
 
+	/**
+	 * @param firstRequest
+	 *            request of the open range from the offset, its response is
+	 *            read as the first segment
+	 */
+	private void downloadSegments(Transfer transfer, FileChannel fileChannel, HttpGet firstRequest, InputStream firstInputStream, int segments) throws Exception {
+		DownloadFile downloadFile = transfer.downloadFile;
+		long offset = downloadFile.getReceived();
+		long length = downloadFile.getContentLength();
+		long segmentSize = (length - offset + segments - 1) / segments;
+		for (long start = offset; start < length; start += segmentSize) {
+			long end = Math.min(start + segmentSize, length) - 1;
+			if (start == offset) {
+				transfer.add(new Segment(transfer, fileChannel, start, end, firstRequest, firstInputStream));
+			} else {
+				transfer.add(new Segment(transfer, fileChannel, start, end));
+			}
+		}
+
+		ExecutorCompletionService<Long> completionService = new ExecutorCompletionService<Long>(segmentExecutor);
+		List<Future<Long>> futures = new ArrayList<Future<Long>>();
+		for (Segment segment : transfer.segments) {
+			futures.add(completionService.submit(segment));
+		}
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				completionService.take().get();
+			}
+		} catch (Exception e) {
+			// the first failure stops the other segments
+			for (Segment segment : transfer.segments) {
+				segment.abort();
+			}
+			for (Future<Long> future : futures) {
+				try {
+					future.get();
+				} catch (Exception ignore) {
+				}
+			}
+			if (e instanceof ExecutionException && e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+		LOG.debug("{} received in {} segments", downloadFile.getUrl(), transfer.segments.size());
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		segmentExecutor.shutdownNow();
+	}
+
+	/**
+	 * Segments of one attempt. The received offset of the file is the end of
+	 * the contiguous data from the first segment, the data of the segments
+	 * behind an incomplete one is received again by the next attempt.
+	 */
+	private class Transfer {
+
+		private final DownloadFile downloadFile;
+		private final DownloadListener listener;
+		private final List<Segment> segments = new ArrayList<Segment>();
+		private final long checkpoint = config.getDownloadCheckpoint();
+		private long saved;
+
+		Transfer(DownloadFile downloadFile, DownloadListener listener) {
+			this.downloadFile = downloadFile;
+			this.listener = listener;
+			this.saved = downloadFile.getReceived();
+		}
+
+		void add(Segment segment) {
+			segments.add(segment);
+		}
+
+		synchronized void onWrite() {
+			long received = downloadFile.getReceived();
+			for (Segment segment : segments) {
+				received = segment.position;
+				if (received <= segment.end) {
+					break;
+				}
+			}
+			downloadFile.setReceived(received);
+			if (listener != null && received - saved >= checkpoint) {
+				saved = received;
+				listener.onProgress(downloadFile);
+			}
+		}
+	}
+
+	/**
+	 * Range of the file written at its offset. FileChannel positional writes
+	 * do not share the file position, so the segments write concurrently.
+	 */
+	private class Segment implements Callable<Long> {
+
+		private final Transfer transfer;
+		private final FileChannel fileChannel;
+		private final long start;
+		private final long end;
+		private final HttpGet request;
+		private final InputStream inputStream;
+		private volatile long position;
+
+		Segment(Transfer transfer, FileChannel fileChannel, long start, long end) {
+			this(transfer, fileChannel, start, end, new HttpGet(transfer.downloadFile.getUrl()), null);
+		}
+
+		/**
+		 * @param inputStream
+		 *            body of the request already sent, null if the segment
+		 *            sends the request itself
+		 */
+		Segment(Transfer transfer, FileChannel fileChannel, long start, long end, HttpGet request, InputStream inputStream) {
+			this.transfer = transfer;
+			this.fileChannel = fileChannel;
+			this.start = start;
+			this.end = end;
+			this.position = start;
+			this.request = request;
+			this.inputStream = inputStream;
+		}
+
+		void abort() {
+			request.abort();
+		}
+
+		@Override
+		public Long call() throws Exception {
+			DownloadFile downloadFile = transfer.downloadFile;
+			if (inputStream != null) {
+				try {
+					return receive(inputStream);
+				} finally {
+					// the rest of the open range is not read
+					request.abort();
+				}
+			}
+			configureRequest(request, downloadFile);
+			request.setHeader(HttpHeaders.RANGE, BYTES + "=" + start + "-" + end);
+			String validator = getValidator(downloadFile);
+			if (validator != null) {
+				request.setHeader(HttpHeaders.IF_RANGE, validator);
+			}
+
+			CloseableHttpResponse response = httpClientProvider.executeRequest(request);
+			try {
 				StatusLine statusLine = response.getStatusLine();
-				if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
-					EntityUtils.consumeQuietly(response.getEntity());					
-					throw new Exception(statusLine.getStatusCode() + " " + statusLine.getReasonPhrase());
+				if (statusLine.getStatusCode() == HttpStatus.SC_OK) {
+					throw new RangesNotSupportedException("the whole file is sent for a range");
+				}
+				if (statusLine.getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT) {
+					EntityUtils.consumeQuietly(response.getEntity());
+					throw new DownloadException(statusLine);
 				}
-				
+				Matcher m = CONTENT_RANGE_REGEX.matcher(String.valueOf(getHeader(response, HttpHeaders.CONTENT_RANGE)));
+				if (!m.matches() || Long.parseLong(m.group(1)) != start) {
+					throw new RangesNotSupportedException("unexpected content range for " + start + "-" + end);
+				}
+
 				HttpEntity entity = response.getEntity();
-				if (entity != null) {
-					InputStream inputStream = entity.getContent();
-					File downloadingFile = new File(targetFile.getCanonicalPath() + DOWNLOADING_EXT);
-					OutputStream outputStream = new FileOutputStream(downloadingFile);
-					try {
-						IOUtils.copy(inputStream, outputStream);
-						IOUtils.closeQuietly(outputStream);
-						if (targetFile.exists()) {
-							targetFile.delete();
-						}
-						FileUtils.moveFile(downloadingFile, targetFile);
-						LOG.debug("File saved to " + targetFile.getPath());
-					} finally {
-						IOUtils.closeQuietly(inputStream);
-						IOUtils.closeQuietly(outputStream);
-						if (downloadingFile.exists()) {
-							downloadingFile.delete();
-						}
-					}
-				} else {
+				if (entity == null) {
 					throw new Exception("Empty response");
 				}
+				InputStream segmentInputStream = entity.getContent();
+				try {
+					return receive(segmentInputStream);
+				} finally {
+					IOUtils.closeQuietly(segmentInputStream);
+				}
 			} finally {
+				// a segment which is not read to the end closes its connection
 				response.close();
 			}
+		}
+
+		private long receive(InputStream inputStream) throws Exception {
+			copy(inputStream);
+			if (position != end + 1) {
+				throw new Exception("Segment " + start + "-" + end + " of " + transfer.downloadFile.getUrl() + " is incomplete at " + position);
+			}
+			return end - start + 1;
+		}
+
+		void copy(InputStream inputStream) throws Exception {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+			int read;
+			while (position <= end && (read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, end - position + 1))) != -1) {
+				byteBuffer.clear();
+				byteBuffer.limit(read);
+				long written = position;
+				while (byteBuffer.hasRemaining()) {
+					written += fileChannel.write(byteBuffer, written);
+				}
+				position = written;
+				transfer.onWrite();
+			}
+		}
 	}
 
+	private static class RangesNotSupportedException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		RangesNotSupportedException(String message) {
+			super(message);
+		}
+	}
 
 }
@@ -0,0 +1,32 @@
+package com.euromoby.download.client;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+
+/**
+ * Error status of the origin
+ */
+public class DownloadException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	private int statusCode;
+
+	public DownloadException(StatusLine statusLine) {
+		super(statusLine.getStatusCode() + " " + statusLine.getReasonPhrase());
+		this.statusCode = statusLine.getStatusCode();
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return true if a later attempt would fail the same way (client errors
+	 *         except timeouts and throttling)
+	 */
+	public boolean isPermanent() {
+		return statusCode >= 400 && statusCode < 500 && statusCode != HttpStatus.SC_REQUEST_TIMEOUT && statusCode != 429;
+	}
+
+}
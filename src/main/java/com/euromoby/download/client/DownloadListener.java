@@ -0,0 +1,15 @@
+package com.euromoby.download.client;
+
+import com.euromoby.download.model.DownloadFile;
+
+/**
+ * Receives the state of the partial file to keep it for the next attempt
+ */
+public interface DownloadListener {
+
+	/**
+	 * Called every agent.download.checkpoint bytes and when the attempt fails
+	 */
+	void onProgress(DownloadFile downloadFile);
+
+}
@@ -1,20 +1,22 @@
 package com.euromoby.download.dao;
 
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import javax.sql.DataSource;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
-import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Component;
 
 import com.euromoby.download.model.DownloadFile;
+import com.euromoby.download.model.DownloadState;
 
 @Component
 public class DownloadFileDao {
@@ -46,43 +48,126 @@ public class DownloadFileDao {
 		}		
 	}	
 	
-	public List<DownloadFile> findAll(int limit) {
+	/**
+	 * @return queued files whose next attempt is due, uses the
+	 *         download_file_next_attempt index
+	 */
+	public List<DownloadFile> findReady(long now, int limit) {
+		return findReady(now, Collections.<String> emptySet(), limit);
+	}
+
+	/**
+	 * @param excludedHosts
+	 *            hosts whose files are not returned
+	 * @return queued files whose next attempt is due
+	 */
+	public List<DownloadFile> findReady(long now, Collection<String> excludedHosts, int limit) {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		StringBuilder sql = new StringBuilder("select * from download_file where state = ? and next_attempt_at <= ?");
+		List<Object> args = new ArrayList<Object>(excludedHosts.size() + 3);
+		args.add(DownloadState.QUEUED.name());
+		args.add(now);
+		if (!excludedHosts.isEmpty()) {
+			sql.append(" and (host is null or host not in (");
+			for (String host : excludedHosts) {
+				sql.append(args.size() > 2 ? ",?" : "?");
+				args.add(host);
+			}
+			sql.append("))");
+		}
+		sql.append(" order by next_attempt_at, id limit ?");
+		args.add(limit);
+		return jdbcTemplate.query(sql.toString(), ROW_MAPPER, args.toArray());
+	}
+
+	/**
+	 * @return files stored before the host column was added
+	 */
+	public List<DownloadFile> findWithoutHost() {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		return jdbcTemplate.query("select * from download_file where host is null", ROW_MAPPER);
+	}
+
+	public void updateHost(DownloadFile downloadFile) {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.update("update download_file set host = ? where id = ?", downloadFile.getHost(), downloadFile.getId());
+	}
+
+	public List<DownloadFile> findByState(DownloadState state, int limit) {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		return jdbcTemplate.query("select * from download_file where state = ? order by id limit ?", ROW_MAPPER, state.name(), limit);
+	}
+
+	/**
+	 * @return false if the file is not queued anymore
+	 */
+	public boolean claim(DownloadFile downloadFile) {
 		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
-		return jdbcTemplate.query("select * from download_file order by id limit ?", ROW_MAPPER, limit);
+		return jdbcTemplate.update("update download_file set state = ? where id = ? and state = ?", 
+			DownloadState.RUNNING.name(), downloadFile.getId(), DownloadState.QUEUED.name()) == 1;
+	}
+
+	public void updateAttempt(DownloadFile downloadFile) {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.update("update download_file set state = ?, attempts = ?, next_attempt_at = ?, last_error = ? where id = ?", 
+			downloadFile.getState().name(), downloadFile.getAttempts(), downloadFile.getNextAttemptAt(), downloadFile.getLastError(), downloadFile.getId());
+	}
+
+	/**
+	 * Queues the files of the attempts interrupted by a stop of the agent
+	 */
+	public int requeueRunning() {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		return jdbcTemplate.update("update download_file set state = ? where state = ?", DownloadState.QUEUED.name(), DownloadState.RUNNING.name());
+	}
+
+	/**
+	 * Queues the dead file again with no failed attempts
+	 * 
+	 * @return false if the file is not dead
+	 */
+	public boolean requeueDead(int id) {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		return jdbcTemplate.update("update download_file set state = ?, attempts = 0, next_attempt_at = 0, last_error = null where id = ? and state = ?", 
+			DownloadState.QUEUED.name(), id, DownloadState.DEAD.name()) == 1;
 	}
 
 	public void save(DownloadFile downloadFile) {
 		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
 
-		jdbcTemplate.update("insert into download_file (url, file_location, no_proxy) values (?,?,?)", 
-			downloadFile.getUrl(), downloadFile.getFileLocation(), downloadFile.isNoProxy() ? 1 : 0);
+		jdbcTemplate.update("insert into download_file (url, host, file_location, no_proxy) values (?,?,?,?)", 
+			downloadFile.getUrl(), downloadFile.getHost(), downloadFile.getFileLocation(), downloadFile.isNoProxy() ? 1 : 0);
 		downloadFile.setId(jdbcTemplate.queryForObject("select scope_identity()", Integer.class));
 	}
 
-	public void deleteAll(final List<DownloadFile> downloadFiles) {
+	public void updateProgress(DownloadFile downloadFile) {
 		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.update("update download_file set received = ?, content_length = ?, etag = ?, last_modified = ? where id = ?", 
+			downloadFile.getReceived(), downloadFile.getContentLength(), downloadFile.getEtag(), downloadFile.getLastModified(), downloadFile.getId());
+	}
+
+	public void delete(DownloadFile downloadFile) {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.update("delete from download_file where id = ?", downloadFile.getId());
+	}
 
-		jdbcTemplate.batchUpdate("delete from download_file where id = ?", 
-			new BatchPreparedStatementSetter() {
-				@Override
-				public void setValues(PreparedStatement ps, int i) throws SQLException {
-					ps.setInt(1, downloadFiles.get(i).getId());
-				}
-				@Override
-				public int getBatchSize() {
-					return downloadFiles.size();
-				}
-			});
-	}	
-	
 	static class DownloadFileRowMapper implements RowMapper<DownloadFile> {
 		@Override
 		public DownloadFile mapRow(ResultSet rs, int rowNum) throws SQLException {
 			DownloadFile downloadFile = new DownloadFile();
 			downloadFile.setId(rs.getInt("id"));
 			downloadFile.setUrl(rs.getString("url"));
+			downloadFile.setHost(rs.getString("host"));
 			downloadFile.setFileLocation(rs.getString("file_location"));
 			downloadFile.setNoProxy(rs.getInt("no_proxy") == 1);
+			downloadFile.setReceived(rs.getLong("received"));
+			downloadFile.setContentLength(rs.getLong("content_length"));
+			downloadFile.setEtag(rs.getString("etag"));
+			downloadFile.setLastModified(rs.getString("last_modified"));
+			downloadFile.setState(DownloadState.valueOf(rs.getString("state")));
+			downloadFile.setAttempts(rs.getInt("attempts"));
+			downloadFile.setNextAttemptAt(rs.getLong("next_attempt_at"));
+			downloadFile.setLastError(rs.getString("last_error"));
 			return downloadFile;
 		}
 	}
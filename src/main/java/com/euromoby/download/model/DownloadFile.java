@@ -3,8 +3,20 @@ package com.euromoby.download.model;
 public class DownloadFile {
 	private Integer id;
 	private String url;
+	// lower case host of the url (the url if it has none)
+	private String host;
 	private String fileLocation;
 	private boolean noProxy;
+	// partial file state, kept between attempts
+	private long received;
+	private long contentLength = -1;
+	private String etag;
+	private String lastModified;
+	// retry queue state
+	private DownloadState state = DownloadState.QUEUED;
+	private int attempts;
+	private long nextAttemptAt;
+	private String lastError;
 
 	public Integer getId() {
 		return id;
@@ -22,6 +34,14 @@ public class DownloadFile {
 		this.url = url;
 	}
 
+	public String getHost() {
+		return host;
+	}
+
+	public void setHost(String host) {
+		this.host = host;
+	}
+
 	public String getFileLocation() {
 		return fileLocation;
 	}
@@ -38,4 +58,90 @@ public class DownloadFile {
 		this.noProxy = noProxy;
 	}
 
+	/**
+	 * @return bytes of the .downloading file received from the origin
+	 */
+	public long getReceived() {
+		return received;
+	}
+
+	public void setReceived(long received) {
+		this.received = received;
+	}
+
+	/**
+	 * @return length of the file, -1 if it is not known
+	 */
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	public void setContentLength(long contentLength) {
+		this.contentLength = contentLength;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public void setEtag(String etag) {
+		this.etag = etag;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	public void setLastModified(String lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Forgets the partial file, the next attempt starts from the beginning
+	 */
+	public void resetProgress() {
+		received = 0;
+		contentLength = -1;
+		etag = null;
+		lastModified = null;
+	}
+
+	public DownloadState getState() {
+		return state;
+	}
+
+	public void setState(DownloadState state) {
+		this.state = state;
+	}
+
+	/**
+	 * @return failed attempts
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+
+	/**
+	 * @return time in milliseconds before which the file is not claimed
+	 */
+	public long getNextAttemptAt() {
+		return nextAttemptAt;
+	}
+
+	public void setNextAttemptAt(long nextAttemptAt) {
+		this.nextAttemptAt = nextAttemptAt;
+	}
+
+	public String getLastError() {
+		return lastError;
+	}
+
+	public void setLastError(String lastError) {
+		this.lastError = lastError;
+	}
+
 }
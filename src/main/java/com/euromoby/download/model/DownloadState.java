@@ -0,0 +1,5 @@
+package com.euromoby.download.model;
+
+public enum DownloadState {
+	QUEUED, RUNNING, DEAD;
+}
@@ -0,0 +1,106 @@
+package com.euromoby.download.rest;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.download.DownloadManager;
+import com.euromoby.download.model.DownloadFile;
+import com.euromoby.download.model.DownloadState;
+import com.euromoby.http.HttpResponseProvider;
+import com.euromoby.http.HttpUtils;
+import com.euromoby.rest.RestException;
+import com.euromoby.rest.handler.RestHandlerBase;
+import com.euromoby.utils.ListUtils;
+import com.euromoby.utils.StringUtils;
+import com.google.gson.Gson;
+
+/**
+ * Lists the download queue by state, the dead files by default. A POST with
+ * the id of a dead file queues it again.
+ */
+@Component
+public class DownloadQueueHandler extends RestHandlerBase {
+
+	public static final String URL = "/download/queue";
+
+	public static final String PARAM_STATE = "state";
+	public static final String PARAM_LIMIT = "limit";
+	public static final String REQUEST_INPUT_ID = "id";
+
+	private static final int DEFAULT_LIMIT = 100;
+	private static final Gson gson = new Gson();
+
+	private DownloadManager downloadManager;
+
+	@Autowired
+	public DownloadQueueHandler(DownloadManager downloadManager) {
+		this.downloadManager = downloadManager;
+	}
+
+	@Override
+	public boolean matchUri(URI uri) {
+		return uri.getPath().equals(URL);
+	}
+
+	@Override
+	public FullHttpResponse doGet(ChannelHandlerContext ctx, HttpRequest request, Map<String, List<String>> queryParameters) throws Exception {
+		DownloadState state = getState(ListUtils.getFirst(queryParameters.get(PARAM_STATE)));
+		int limit = getLimit(ListUtils.getFirst(queryParameters.get(PARAM_LIMIT)));
+		List<DownloadFile> downloadFiles = downloadManager.getFiles(state, limit);
+		String jsonResponse = gson.toJson(downloadFiles);
+		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
+		FullHttpResponse response = httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString(ctx.alloc(), jsonResponse));
+		response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "application/json; charset=UTF-8");
+		return response;
+	}
+
+	@Override
+	public FullHttpResponse doPost(ChannelHandlerContext ctx, HttpRequest request, Map<String, List<String>> queryParameters, Map<String, List<String>> postParameters, Map<String, File> uploadFiles) throws RestException {
+		String id = ListUtils.getFirst(postParameters.get(REQUEST_INPUT_ID));
+		if (StringUtils.nullOrEmpty(id)) {
+			throw new RestException("Parameter is missing: " + REQUEST_INPUT_ID);
+		}
+		boolean requeued;
+		try {
+			requeued = downloadManager.requeueDeadFile(Integer.parseInt(id.trim()));
+		} catch (NumberFormatException e) {
+			throw new RestException("Wrong format: " + REQUEST_INPUT_ID);
+		}
+		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
+		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString(ctx.alloc(), requeued ? "OK" : "ERROR"));
+	}
+
+	protected DownloadState getState(String state) throws RestException {
+		if (StringUtils.nullOrEmpty(state)) {
+			return DownloadState.DEAD;
+		}
+		try {
+			return DownloadState.valueOf(state.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new RestException("Wrong format: " + PARAM_STATE);
+		}
+	}
+
+	protected int getLimit(String limit) throws RestException {
+		if (StringUtils.nullOrEmpty(limit)) {
+			return DEFAULT_LIMIT;
+		}
+		try {
+			return Math.max(Integer.parseInt(limit.trim()), 1);
+		} catch (NumberFormatException e) {
+			throw new RestException("Wrong format: " + PARAM_LIMIT);
+		}
+	}
+
+}
@@ -1,12 +1,10 @@
 package com.euromoby.download.rest;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
 
 import java.io.File;
 import java.io.InputStream;
@@ -56,7 +54,7 @@ public class DownloadRequestHandler extends RestHandlerBase {
 		String pageContent = IOUtils.streamToString(is);
 		pageContent = pageContent.replace("%DOWNLOAD_PATH%", config.getAgentFilesPath());
 		pageContent = pageContent.replace("%FILE_SEPARATOR%", File.separator);
-		ByteBuf content = Unpooled.copiedBuffer(pageContent, CharsetUtil.UTF_8);
+		ByteBuf content = HttpUtils.fromString(ctx.alloc(), pageContent);
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);
 	}
@@ -72,7 +70,7 @@ public class DownloadRequestHandler extends RestHandlerBase {
 			result = "ERROR";
 		}
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
-		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString(result));
+		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString(ctx.alloc(), result));
 	}
 
 	protected void validateRequestParameters(Map<String, List<String>> requestParameters) throws RestException {
@@ -1,11 +1,14 @@
 package com.euromoby.download.scheduler;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,20 +22,42 @@ import com.euromoby.download.model.DownloadFile;
 import com.euromoby.file.FileProvider;
 import com.euromoby.service.SchedulerService;
 
+/**
+ * Keeps every worker of the download pool busy: a free slot claims the next
+ * queued file whose attempt is due as soon as a download finishes, and each
+ * finished file is removed from the queue on its own. A failed file is queued
+ * again with a backoff or goes to the dead state. The dispatcher waits up to
+ * agent.download.interval for a finished download or a newly scheduled file.
+ * At most agent.download.host.max files of one host are downloaded at the
+ * same time, the files of the busy hosts are left out by the query, so a
+ * host with a long queue does not hold back the others.
+ */
 @Component
 public class DownloadScheduler extends SchedulerService {
 
 	private static final Logger LOG = LoggerFactory.getLogger(DownloadScheduler.class);
 
 	public static final String SERVICE_NAME = "download";
-	
-	private Config config;	
+
+	// queued rows read per free slot, a host may get busy within a page
+	private static final int SCAN_PER_SLOT = 8;
+
+	private Config config;
 	private DownloadManager downloadManager;
 	private DownloadClient downloadClient;
-	private FileProvider fileProvider;	
+	private FileProvider fileProvider;
 
 	private ExecutorService executor;
-	private ExecutorCompletionService<DownloadFile> completionService;	
+	private int poolSize;
+
+	// files being downloaded
+	private final AtomicInteger active = new AtomicInteger();
+	private boolean recovered;
+	// files being downloaded per host
+	private final Map<String, Integer> hostActive = new HashMap<String, Integer>();
+
+	private final Object wakeLock = new Object();
+	private boolean wakeUp;
 
 	@Autowired
 	public DownloadScheduler(Config config, DownloadManager downloadManager, DownloadClient downloadClient, FileProvider fileProvider) {
@@ -40,33 +65,187 @@ public class DownloadScheduler extends SchedulerService {
 		this.downloadManager = downloadManager;
 		this.downloadClient = downloadClient;
 		this.fileProvider = fileProvider;
-		
-		executor = Executors.newFixedThreadPool(this.config.getDownloadPoolSize());
-		completionService = new ExecutorCompletionService<DownloadFile>(executor);		
+
+		poolSize = this.config.getDownloadPoolSize();
+		executor = Executors.newFixedThreadPool(poolSize);
+		downloadManager.setScheduleListener(new Runnable() {
+			@Override
+			public void run() {
+				wakeUp();
+			}
+		});
 	}
 
 	@Override
 	public void executeInternal() throws InterruptedException {
-		List<DownloadFile> files = downloadManager.getScheduledFiles(config.getDownloadSchedulerBatchSize());
-		for (DownloadFile file : files) {
-			completionService.submit(new DownloadWorker(file, downloadClient, fileProvider));
-		}		
-		for (int i = 0; i < files.size(); i++) {
-			Future<DownloadFile> downloadFileFuture = completionService.take();
-			try {
-				downloadFileFuture.get();
-			} catch (ExecutionException e) {
-				LOG.debug("Download error: {}", e.getMessage());
-			}			
+		dispatch();
+		awaitWakeUp(config.getDownloadSchedulerInterval());
+	}
+
+	/**
+	 * Claims the next scheduled files for the free worker slots. Another page
+	 * is read only while the previous one claimed a file, so a dispatch reads
+	 * at most one page more than the free slots.
+	 */
+	protected void dispatch() {
+		if (!recovered) {
+			downloadManager.requeueRunningFiles();
+			downloadManager.assignMissingHosts();
+			recovered = true;
+		}
+		int free = poolSize - active.get();
+		if (free <= 0) {
+			return;
+		}
+
+		int pageSize = free * SCAN_PER_SLOT;
+		boolean claimed = true;
+		while (free > 0 && claimed) {
+			List<DownloadFile> files = downloadManager.getScheduledFiles(getBusyHosts(), pageSize);
+			claimed = false;
+			for (DownloadFile file : files) {
+				if (free == 0) {
+					break;
+				}
+				if (!acquireHost(file)) {
+					continue;
+				}
+				if (!downloadManager.claimScheduledFile(file)) {
+					releaseHost(file);
+					continue;
+				}
+				active.incrementAndGet();
+				free--;
+				claimed = true;
+				submit(file);
+			}
+			if (files.size() < pageSize) {
+				break;
+			}
 		}
-		downloadManager.deleteScheduledFiles(files);
 	}
 
-	@Override	
+	protected static String getHost(DownloadFile file) {
+		return file.getHost() != null ? file.getHost() : DownloadManager.getHost(file.getUrl());
+	}
+
+	/**
+	 * @return hosts with agent.download.host.max files being downloaded
+	 */
+	protected Set<String> getBusyHosts() {
+		int hostMax = config.getDownloadHostMax();
+		if (hostMax <= 0) {
+			return Collections.emptySet();
+		}
+		Set<String> busyHosts = new HashSet<String>();
+		synchronized (hostActive) {
+			for (Map.Entry<String, Integer> entry : hostActive.entrySet()) {
+				if (entry.getValue() >= hostMax) {
+					busyHosts.add(entry.getKey());
+				}
+			}
+		}
+		return busyHosts;
+	}
+
+	private boolean acquireHost(DownloadFile file) {
+		String host = getHost(file);
+		synchronized (hostActive) {
+			Integer active = hostActive.get(host);
+			int count = active != null ? active : 0;
+			int hostMax = config.getDownloadHostMax();
+			if (hostMax > 0 && count >= hostMax) {
+				return false;
+			}
+			hostActive.put(host, count + 1);
+			return true;
+		}
+	}
+
+	private void releaseHost(DownloadFile file) {
+		String host = getHost(file);
+		synchronized (hostActive) {
+			Integer active = hostActive.get(host);
+			if (active == null || active <= 1) {
+				hostActive.remove(host);
+			} else {
+				hostActive.put(host, active - 1);
+			}
+		}
+	}
+
+	public int getHostActiveCount(String host) {
+		synchronized (hostActive) {
+			Integer active = hostActive.get(host);
+			return active != null ? active : 0;
+		}
+	}
+
+	private void submit(final DownloadFile file) {
+		final DownloadWorker worker = new DownloadWorker(file, downloadClient, fileProvider, downloadManager);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Exception error = null;
+				try {
+					worker.call();
+				} catch (Exception e) {
+					error = e;
+				}
+				acknowledge(file, error);
+			}
+		});
+	}
+
+	/**
+	 * Removes the finished file from the queue, the failed one waits for the
+	 * next attempt
+	 */
+	private void acknowledge(DownloadFile file, Exception error) {
+		try {
+			if (error == null) {
+				downloadManager.deleteScheduledFile(file);
+			} else {
+				downloadManager.failScheduledFile(file, error);
+			}
+		} catch (Exception e) {
+			// left running, queued again when the agent starts
+			LOG.warn("Unable to acknowledge {}", file.getUrl(), e);
+		} finally {
+			releaseHost(file);
+			active.decrementAndGet();
+			wakeUp();
+		}
+	}
+
+	public int getActiveCount() {
+		return active.get();
+	}
+
+	public void wakeUp() {
+		synchronized (wakeLock) {
+			wakeUp = true;
+			wakeLock.notifyAll();
+		}
+	}
+
+	protected void awaitWakeUp(long timeout) throws InterruptedException {
+		synchronized (wakeLock) {
+			if (!wakeUp && timeout > 0) {
+				wakeLock.wait(timeout);
+			}
+			wakeUp = false;
+		}
+	}
+
+	/**
+	 * The dispatcher waits in {@link #awaitWakeUp(long)} instead
+	 */
+	@Override
 	public int getSleepTime() {
-		return config.getDownloadSchedulerInterval();
-	}	
-	
+		return 0;
+	}
+
 	@Override
 	public String getServiceName() {
 		return SERVICE_NAME;
@@ -6,31 +6,44 @@ import java.util.concurrent.Callable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.euromoby.download.DownloadManager;
 import com.euromoby.download.client.DownloadClient;
+import com.euromoby.download.client.DownloadListener;
 import com.euromoby.download.model.DownloadFile;
 import com.euromoby.file.FileProvider;
 
 
-public class DownloadWorker implements Callable<DownloadFile> {
+public class DownloadWorker implements Callable<DownloadFile>, DownloadListener {
 
 	private static final Logger log = LoggerFactory.getLogger(DownloadWorker.class);
 	
 	private DownloadFile downloadFile;
 	private DownloadClient downloadClient;
 	private FileProvider fileProvider;
+	private DownloadManager downloadManager;
 	
-	public DownloadWorker(DownloadFile downloadFile, DownloadClient downloadClient, FileProvider fileProvider) {
+	public DownloadWorker(DownloadFile downloadFile, DownloadClient downloadClient, FileProvider fileProvider, DownloadManager downloadManager) {
 		this.downloadFile = downloadFile;
 		this.downloadClient = downloadClient;
 		this.fileProvider = fileProvider;
+		this.downloadManager = downloadManager;
+	}
+
+	public DownloadFile getDownloadFile() {
+		return downloadFile;
 	}
 
 	@Override
 	public DownloadFile call() throws Exception {
 		log.debug("Downloading {} to {}", downloadFile.getUrl(), downloadFile.getFileLocation());
 		File targetFile = fileProvider.getTargetFile(downloadFile.getFileLocation());
-		downloadClient.download(downloadFile.getUrl(), targetFile, false);
+		downloadClient.download(downloadFile, targetFile, this);
 		return downloadFile;
-	}	
+	}
+
+	@Override
+	public void onProgress(DownloadFile downloadFile) {
+		downloadManager.updateProgress(downloadFile);
+	}
 	
 }
@@ -0,0 +1,118 @@
+package com.euromoby.file;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Bloom filter of the file locations stored by an agent. It is sent to the
+ * other agents with every ping, so they ask only the agents which may have a
+ * file instead of all of them. False positives cost one request, false
+ * negatives are not possible (for the files present when it was built).
+ */
+public class FileDigest {
+
+	public static final int BITS_PER_ENTRY = 10;
+	public static final int HASH_COUNT = 7;
+	public static final int MIN_BITS = 1024;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private static final String SEPARATOR = ":";
+
+	private final long[] bits;
+	private final int hashCount;
+
+	public FileDigest(int expectedEntries) {
+		this(new long[(Math.max(MIN_BITS, expectedEntries * BITS_PER_ENTRY) + 63) / 64], HASH_COUNT);
+	}
+
+	protected FileDigest(long[] bits, int hashCount) {
+		this.bits = bits;
+		this.hashCount = hashCount;
+	}
+
+	/**
+	 * @return number of entries the digest was sized for
+	 */
+	public int getCapacity() {
+		return bits.length * 64 / BITS_PER_ENTRY;
+	}
+
+	public void add(String location) {
+		long hash = hash(location);
+		int hash1 = (int) hash;
+		int hash2 = (int) (hash >>> 32);
+		long bitCount = bits.length * 64L;
+		for (int i = 0; i < hashCount; i++) {
+			long index = ((hash1 + i * hash2) & 0xffffffffL) % bitCount;
+			bits[(int) (index >>> 6)] |= 1L << index;
+		}
+	}
+
+	/**
+	 * @return false if the location is definitely not in the digest
+	 */
+	public boolean mightContain(String location) {
+		long hash = hash(location);
+		int hash1 = (int) hash;
+		int hash2 = (int) (hash >>> 32);
+		long bitCount = bits.length * 64L;
+		for (int i = 0; i < hashCount; i++) {
+			long index = ((hash1 + i * hash2) & 0xffffffffL) % bitCount;
+			if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	protected static long hash(String location) {
+		long hash = FNV_OFFSET_BASIS;
+		for (byte b : location.getBytes(StandardCharsets.UTF_8)) {
+			hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * @return hash count and Base64 encoded bits, e.g. "7:AAAA..."
+	 */
+	public String serialize() {
+		ByteBuffer buffer = ByteBuffer.allocate(bits.length * 8);
+		buffer.asLongBuffer().put(bits);
+		return hashCount + SEPARATOR + Base64.encodeBase64String(buffer.array());
+	}
+
+	/**
+	 * @return the digest or null if the string is not a valid digest
+	 */
+	public static FileDigest parse(String digest) {
+		if (digest == null) {
+			return null;
+		}
+		int separatorIndex = digest.indexOf(SEPARATOR);
+		if (separatorIndex <= 0) {
+			return null;
+		}
+		try {
+			int hashCount = Integer.parseInt(digest.substring(0, separatorIndex));
+			byte[] bytes = Base64.decodeBase64(digest.substring(separatorIndex + 1));
+			if (hashCount <= 0 || bytes.length == 0 || bytes.length % 8 != 0) {
+				return null;
+			}
+			long[] bits = new long[bytes.length / 8];
+			ByteBuffer.wrap(bytes).asLongBuffer().get(bits);
+			return new FileDigest(bits, hashCount);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,321 @@
+package com.euromoby.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.agent.Config;
+import com.euromoby.download.client.DownloadClient;
+import com.euromoby.service.SchedulerService;
+
+/**
+ * Metadata of every file in the files directory, kept in memory so serving a
+ * file does not stat it several times. The directory is scanned when the
+ * service starts and followed with a watch service; the agent's own writes
+ * update the index immediately. Files missing from the index (or every file
+ * while the service is stopped) are looked up on the file system. A
+ * {@link FileDigest} of the indexed locations is kept for the other agents.
+ */
+@Component
+public class FileIndex extends SchedulerService {
+
+	public static final String SERVICE_NAME = "fileindex";
+
+	private static final Logger LOG = LoggerFactory.getLogger(FileIndex.class);
+
+	private Config config;
+	private MimeHelper mimeHelper;
+
+	private final ConcurrentMap<String, FileMetadata> entries = new ConcurrentHashMap<String, FileMetadata>();
+	private final Map<WatchKey, Path> watchedDirectories = new HashMap<WatchKey, Path>();
+	private WatchService watchService;
+	private volatile boolean current = false;
+
+	private final Object digestLock = new Object();
+	private FileDigest digest;
+	private String serializedDigest;
+	private boolean digestStale = true;
+
+	@Autowired
+	public FileIndex(Config config, MimeHelper mimeHelper) {
+		this.config = config;
+		this.mimeHelper = mimeHelper;
+	}
+
+	protected String getRootPath() {
+		return new File(config.getAgentFilesPath()).getAbsolutePath() + File.separator;
+	}
+
+	protected boolean isIndexed(String key) {
+		return key.startsWith(getRootPath()) && !isTemporary(key);
+	}
+
+	/**
+	 * Files being downloaded, stored or compressed come and go, they are not
+	 * indexed
+	 */
+	protected static boolean isTemporary(String name) {
+		return name.endsWith(DownloadClient.DOWNLOADING_EXT) || name.endsWith(FilePrecompressor.TEMP_EXT);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return metadata of the file or null if it does not exist
+	 */
+	public FileMetadata get(File file) {
+		String key = file.getAbsolutePath();
+		if (current) {
+			FileMetadata metadata = entries.get(key);
+			if (metadata != null) {
+				return metadata;
+			}
+		}
+		// created after the last poll or not indexed at all
+		FileMetadata metadata = FileMetadata.of(file, mimeHelper);
+		if (metadata != null && current && isIndexed(key)) {
+			put(key, metadata);
+		}
+		return metadata;
+	}
+
+	/**
+	 * Called when the agent itself has written (or deleted) the file
+	 */
+	public void update(File file) {
+		String key = file.getAbsolutePath();
+		FileMetadata metadata = FileMetadata.of(file, mimeHelper);
+		if (metadata == null) {
+			removeFile(file);
+		} else if (isIndexed(key)) {
+			put(key, metadata);
+		}
+	}
+
+	protected void put(String key, FileMetadata metadata) {
+		if (entries.put(key, metadata) == null) {
+			synchronized (digestLock) {
+				if (digest != null && !digestStale) {
+					digest.add(getLocation(key));
+					serializedDigest = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return location of the indexed file relative to the files directory
+	 */
+	protected String getLocation(String key) {
+		return key.substring(getRootPath().length()).replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Digest of the indexed locations. Removed files can not be taken out of a
+	 * Bloom filter, so it is rebuilt after removals or when it is full.
+	 *
+	 * @return serialized {@link FileDigest} or null if the files are not
+	 *         indexed
+	 */
+	public String getDigest() {
+		if (!current) {
+			return null;
+		}
+		synchronized (digestLock) {
+			if (digest == null || digestStale || entries.size() > digest.getCapacity()) {
+				digestStale = false;
+				digest = new FileDigest(entries.size() * 2);
+				for (String key : entries.keySet()) {
+					digest.add(getLocation(key));
+				}
+				serializedDigest = null;
+			}
+			if (serializedDigest == null) {
+				serializedDigest = digest.serialize();
+			}
+			return serializedDigest;
+		}
+	}
+
+	private void invalidateDigest() {
+		synchronized (digestLock) {
+			digestStale = true;
+		}
+	}
+
+	@Override
+	public void executeInternal() throws InterruptedException {
+		if (watchService == null) {
+			File root = new File(config.getAgentFilesPath());
+			if (!root.isDirectory()) {
+				return;
+			}
+			try {
+				watchService = FileSystems.getDefault().newWatchService();
+				rescan();
+			} catch (IOException e) {
+				LOG.warn("Unable to index {}: {}", root, e.getMessage());
+				closeWatchService();
+				return;
+			}
+			current = true;
+			LOG.info("{} files indexed in {}", entries.size(), root);
+		}
+		pollChanges();
+	}
+
+	protected void rescan() throws IOException {
+		entries.clear();
+		invalidateDigest();
+		scan(new File(config.getAgentFilesPath()).getAbsoluteFile().toPath());
+	}
+
+	/**
+	 * Indexes the files of the directory and watches all its subdirectories
+	 */
+	protected void scan(Path directory) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+				WatchKey watchKey = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+						StandardWatchEventKinds.ENTRY_DELETE);
+				watchedDirectories.put(watchKey, dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) throws IOException {
+				if (attributes.isRegularFile() && !isTemporary(path.toString())) {
+					File file = path.toFile();
+					entries.put(file.getAbsolutePath(), FileMetadata.of(file, attributes, mimeHelper));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path path, IOException e) throws IOException {
+				// removed while scanning
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	protected void pollChanges() {
+		WatchKey watchKey;
+		while ((watchKey = watchService.poll()) != null) {
+			Path directory = watchedDirectories.get(watchKey);
+			for (WatchEvent<?> event : watchKey.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					try {
+						rescan();
+					} catch (IOException e) {
+						LOG.warn("Rescan failed: {}", e.getMessage());
+					}
+				} else if (directory != null) {
+					onEvent(event.kind(), directory.resolve((Path) event.context()));
+				}
+			}
+			if (!watchKey.reset()) {
+				watchedDirectories.remove(watchKey);
+			}
+		}
+	}
+
+	protected void onEvent(WatchEvent.Kind<?> kind, Path path) {
+		if (isTemporary(path.toString())) {
+			return;
+		}
+		File file = path.toFile();
+		if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+			removeFile(file);
+		} else if (file.isDirectory()) {
+			if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+				try {
+					scan(path);
+				} catch (IOException e) {
+					LOG.debug("Unable to index {}: {}", path, e.getMessage());
+				}
+			}
+		} else {
+			update(file);
+		}
+	}
+
+	/**
+	 * Removes the file with its compressed copy, or everything in the
+	 * directory
+	 */
+	protected void removeFile(File file) {
+		String key = file.getAbsolutePath();
+		FileMetadata metadata = entries.get(key);
+		remove(key);
+		if (metadata != null) {
+			FilePrecompressor.deleteCompressedFile(file, metadata.getLastModified());
+		}
+	}
+
+	/**
+	 * Removes the file or everything in the directory
+	 */
+	protected void remove(String key) {
+		if (entries.remove(key) != null) {
+			invalidateDigest();
+			return;
+		}
+		String directoryPrefix = key + File.separator;
+		for (Iterator<String> it = entries.keySet().iterator(); it.hasNext();) {
+			if (it.next().startsWith(directoryPrefix)) {
+				it.remove();
+				invalidateDigest();
+			}
+		}
+	}
+
+	protected void closeWatchService() {
+		current = false;
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				LOG.debug("Closing watch service failed: {}", e.getMessage());
+			}
+			watchService = null;
+		}
+		watchedDirectories.clear();
+		entries.clear();
+		invalidateDigest();
+	}
+
+	@Override
+	public void stopService() {
+		super.stopService();
+		closeWatchService();
+	}
+
+	@Override
+	public String getServiceName() {
+		return SERVICE_NAME;
+	}
+
+}
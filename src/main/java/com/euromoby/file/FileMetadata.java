@@ -0,0 +1,88 @@
+package com.euromoby.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import com.euromoby.http.HttpUtils;
+
+/**
+ * What is needed to serve a file without asking the file system again:
+ * length, modification time, entity tag and MIME type.
+ */
+public class FileMetadata {
+
+	private final long length;
+	private final long lastModified;
+	private final String etag;
+	private final String contentType;
+	private final boolean compressible;
+	private final boolean binary;
+
+	public FileMetadata(long length, long lastModified, String etag, String contentType, boolean compressible, boolean binary) {
+		this.length = length;
+		this.lastModified = lastModified;
+		this.etag = etag;
+		this.contentType = contentType;
+		this.compressible = compressible;
+		this.binary = binary;
+	}
+
+	/**
+	 * @return metadata of the file or null if it does not exist
+	 */
+	public static FileMetadata of(File file, MimeHelper mimeHelper) {
+		try {
+			Path path = file.toPath();
+			if (path != null) {
+				BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				return attributes.isDirectory() ? null : of(file, attributes, mimeHelper);
+			}
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException | InvalidPathException e) {
+			// checked one by one below
+		}
+		if (!file.exists()) {
+			return null;
+		}
+		return new FileMetadata(file.length(), file.lastModified(), HttpUtils.etag(file), mimeHelper.getContentType(file), mimeHelper.isCompressible(file),
+				mimeHelper.isBinary(file));
+	}
+
+	public static FileMetadata of(File file, BasicFileAttributes attributes, MimeHelper mimeHelper) {
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		String etag = HttpUtils.etag(HttpUtils.fileKeyHash(attributes), attributes.size(), lastModified);
+		return new FileMetadata(attributes.size(), lastModified, etag, mimeHelper.getContentType(file), mimeHelper.isCompressible(file),
+				mimeHelper.isBinary(file));
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public boolean isCompressible() {
+		return compressible;
+	}
+
+	public boolean isBinary() {
+		return binary;
+	}
+
+}
@@ -0,0 +1,171 @@
+package com.euromoby.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.agent.Config;
+import com.euromoby.http.SmartHttpContentCompressor;
+
+/**
+ * Writes a gzipped copy (file.gz) next to compressible files in the
+ * background, so they can be sent compressed without compressing them on
+ * every request. The copy has the modification time of the original and is
+ * used only while they match, and while the original length matches the one
+ * kept in the gzip trailer (ISIZE, modulo 2^32). The copy is written as
+ * file.gz.tmp, which the {@link FileIndex} does not index, and is deleted with
+ * the original.
+ */
+@Component
+public class FilePrecompressor implements DisposableBean {
+
+	public static final String GZIP_EXT = ".gz";
+	public static final String TEMP_EXT = GZIP_EXT + ".tmp";
+
+	// ISIZE at the end of the gzip trailer
+	private static final int GZIP_ISIZE_LENGTH = 4;
+
+	private static final Logger log = LoggerFactory.getLogger(FilePrecompressor.class);
+
+	private Config config;
+	private MimeHelper mimeHelper;
+	private ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	@Autowired
+	public FilePrecompressor(Config config, MimeHelper mimeHelper) {
+		this.config = config;
+		this.mimeHelper = mimeHelper;
+	}
+
+	public static File getCompressedFile(File file) {
+		return new File(file.getPath() + GZIP_EXT);
+	}
+
+	/**
+	 * @return gzipped copy of the file or null if there is no up to date copy
+	 */
+	public static File findCompressedFile(File file) {
+		File compressedFile = getCompressedFile(file);
+		// some file systems keep seconds only
+		if (compressedFile.isFile() && compressedFile.lastModified() / 1000 == file.lastModified() / 1000
+				&& readOriginalLength(compressedFile) == (file.length() & 0xffffffffL)) {
+			return compressedFile;
+		}
+		return null;
+	}
+
+	/**
+	 * @return length of the uncompressed content modulo 2^32 or -1 if it can
+	 *         not be read
+	 */
+	protected static long readOriginalLength(File compressedFile) {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(compressedFile, "r");
+			if (raf.length() < GZIP_ISIZE_LENGTH) {
+				return -1;
+			}
+			raf.seek(raf.length() - GZIP_ISIZE_LENGTH);
+			byte[] isize = new byte[GZIP_ISIZE_LENGTH];
+			raf.readFully(isize);
+			// little endian
+			return (isize[0] & 0xffL) | (isize[1] & 0xffL) << 8 | (isize[2] & 0xffL) << 16 | (isize[3] & 0xffL) << 24;
+		} catch (IOException e) {
+			return -1;
+		} finally {
+			IOUtils.closeQuietly(raf);
+		}
+	}
+
+	/**
+	 * Deletes the compressed copy of a removed file
+	 *
+	 * @param lastModified
+	 *            modification time of the removed file, a file.gz of another
+	 *            time is not a copy
+	 */
+	public static void deleteCompressedFile(File file, long lastModified) {
+		File compressedFile = getCompressedFile(file);
+		if (compressedFile.isFile() && compressedFile.lastModified() / 1000 == lastModified / 1000 && compressedFile.delete()) {
+			log.debug("Deleted {}", compressedFile);
+		}
+	}
+
+	public boolean isCompressible(File file) {
+		return !file.getName().endsWith(GZIP_EXT) && file.length() >= SmartHttpContentCompressor.MIN_COMPRESSIBLE_LENGTH && mimeHelper.isCompressible(file);
+	}
+
+	public void schedule(final File file) {
+		if (!config.isAgentFilesPrecompress() || !isCompressible(file)) {
+			return;
+		}
+		executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					compress(file);
+				} catch (Exception e) {
+					log.warn("Compression of {} failed: {}", file, e.getMessage());
+				}
+			}
+		});
+	}
+
+	public void compress(File file) throws IOException {
+		long lastModified = file.lastModified();
+		long length = file.length();
+
+		File compressedFile = getCompressedFile(file);
+		File tempFile = new File(file.getPath() + TEMP_EXT);
+		InputStream is = null;
+		OutputStream os = null;
+		try {
+			is = new FileInputStream(file);
+			os = new GZIPOutputStream(new FileOutputStream(tempFile));
+			IOUtils.copy(is, os);
+			os.close();
+
+			// changed while compressing, it will be scheduled again
+			if (file.lastModified() != lastModified || file.length() != length) {
+				return;
+			}
+			// not worth sending compressed
+			if (tempFile.length() >= length) {
+				return;
+			}
+			if (!tempFile.setLastModified(lastModified)) {
+				return;
+			}
+			Files.move(tempFile.toPath(), compressedFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.debug("Compressed {} to {} bytes", file, compressedFile.length());
+		} finally {
+			IOUtils.closeQuietly(is);
+			IOUtils.closeQuietly(os);
+			if (tempFile.exists()) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		executor.shutdownNow();
+	}
+
+}
@@ -71,4 +71,22 @@ public class FileProvider {
 		return targetFile;
 	}
 
+	/**
+	 * @return location of the file relative to the files directory ('/'
+	 *         separated, as in the {@link FileDigest}) or null if the location
+	 *         is not valid
+	 */
+	public String getRelativeLocation(String location) {
+		File targetFile = getFileByLocation(location);
+		if (targetFile == null) {
+			return null;
+		}
+		String rootPath = new File(config.getAgentFilesPath()).getAbsolutePath() + File.separator;
+		String targetPath = targetFile.getAbsolutePath();
+		if (!targetPath.startsWith(rootPath)) {
+			return null;
+		}
+		return targetPath.substring(rootPath.length()).replace(File.separatorChar, '/');
+	}
+
 }
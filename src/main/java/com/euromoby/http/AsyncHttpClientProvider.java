@@ -13,6 +13,7 @@ import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.AsyncHttpClient.BoundRequestBuilder;
 import com.ning.http.client.AsyncHttpClientConfig;
 import com.ning.http.client.ProxyServer;
+import com.ning.http.client.Realm;
 import com.ning.http.client.Realm.AuthScheme;
 
 @Component
@@ -63,6 +64,21 @@ public class AsyncHttpClientProvider implements DisposableBean {
 		
 	}
 
+	public BoundRequestBuilder prepareAgentGet(String url) throws Exception {
+		BoundRequestBuilder boundRequestBuilder = prepareGet(url, false);
+		boundRequestBuilder.setRealm(createAgentRealm());
+		return boundRequestBuilder;
+	}
+
+	protected Realm createAgentRealm() {
+		return new Realm.RealmBuilder()
+				.setPrincipal(config.getRestLogin())
+				.setPassword(config.getRestPassword())
+				.setScheme(AuthScheme.BASIC)
+				.setUsePreemptiveAuth(true)
+				.build();
+	}
+
 	@Override
 	public void destroy() throws Exception {
 		IOUtils.closeQuietly(asyncHttpClient);
@@ -1,11 +1,15 @@
 package com.euromoby.http;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
@@ -13,23 +17,31 @@ import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.stream.ChunkedFile;
+import io.netty.handler.traffic.AbstractTrafficShapingHandler;
+import io.netty.util.CharsetUtil;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.IOUtils;
 
+import com.euromoby.file.FileMetadata;
+import com.euromoby.file.FilePrecompressor;
 import com.euromoby.file.MimeHelper;
 import com.euromoby.model.Tuple;
 import com.euromoby.rest.ChunkedInputAdapter;
@@ -38,7 +50,12 @@ import com.euromoby.utils.StringUtils;
 
 public class FileResponse {
 
-	private static final Pattern RANGE_HEADER = Pattern.compile("bytes=(\\d+)?\\-(\\d+)?");
+	private static final Pattern RANGE_SPEC = Pattern.compile("(\\d+)?\\-(\\d+)?");
+	private static final String BYTES_UNIT = "bytes=";
+	private static final String CRLF = "\r\n";
+	// more ranges are ignored (the whole file is sent)
+	public static final int MAX_RANGES = 32;
+	public static final String MULTIPART_BYTERANGES = "multipart/byteranges";
 	public static final int HTTP_CHUNK_SIZE = 8192;
 	public static final String MAX_AGE_VALUE = "max-age=";
 	public static final String CONTENT_DISPOSITION = "Content-Disposition";
@@ -65,28 +82,48 @@ public class FileResponse {
 	}
 
 	public void send(ChannelHandlerContext ctx, File file) throws RestException {
+		send(ctx, file, FileMetadata.of(file, mimeHelper));
+	}
+
+	/**
+	 * @param metadata
+	 *            of the file (null if it does not exist), the file system is
+	 *            not asked again
+	 */
+	public void send(ChannelHandlerContext ctx, File file, FileMetadata metadata) throws RestException {
 
-		if (!file.exists()) {
+		if (metadata == null) {
 			throw new RestException(HttpResponseStatus.NOT_FOUND, "Not found");
 		}
 
-		setHeaderTransferEncoding();
-		setHeaderContentEncoding(file, isSSL(ctx));
-		setHeaderKeepAlive();
-		setHeader(HttpHeaders.Names.ACCEPT_RANGES, HttpHeaders.Values.BYTES);
-		setHeaderContentType(file);
-		setHeaderContentDisposition(file);
-		setDateAndCacheHeaders(file);
+		boolean ssl = isSSL(ctx);
+		setHeaderContentEncoding(metadata, ssl);
+		setFileHeaders(file.getName(), metadata);
 
-		long fileLength = file.length();
+		long fileLength = metadata.getLength();
 
-		Tuple<Long, Long> range;
+		List<Tuple<Long, Long>> ranges = null;
 		try {
-			range = parseRange(fileLength);
+			// ranges of changed content are not sent
+			if (HttpUtils.ifRange(request, metadata.getEtag(), metadata.getLastModified())) {
+				ranges = parseRanges(fileLength);
+			}
 		} catch (IllegalArgumentException e) {
 			throw new RestException(HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE, e);
 		}
 
+		if (ranges != null && ranges.size() > 1) {
+			sendMultipartRanges(ctx, file, fileLength, ranges);
+			return;
+		}
+		Tuple<Long, Long> range = (ranges != null) ? ranges.get(0) : null;
+
+		File compressedFile = findCompressedVariant(file, metadata, range);
+		if (compressedFile != null) {
+			sendCompressedVariant(ctx, compressedFile);
+			return;
+		}
+
 		if (range == null) {
 			setHeaderContentLength(fileLength);
 		} else {
@@ -95,6 +132,15 @@ public class FileResponse {
 			setHeaderContentRange(range, fileLength);
 		}
 
+		if (isCompressionApplied(metadata, ssl, range)) {
+			// compressed in chunks by the content compressor
+			setHeaderTransferEncoding();
+		} else {
+			// compressor is bypassed, the file is sent as is with
+			// Content-Length (zero-copy unless SSL)
+			setHeader(HttpHeaders.Names.CONTENT_ENCODING, HttpHeaders.Values.IDENTITY);
+		}
+
 		HttpResponse response = new DefaultHttpResponse(request.getProtocolVersion(), status);
 		setupResponseHeaders(response);
 		ctx.write(response);
@@ -115,6 +161,136 @@ public class FileResponse {
 
 	}
 
+	/**
+	 * Sends the file or its precompressed sibling held in memory, with the
+	 * headers {@link #send(ChannelHandlerContext, File, FileMetadata)} uses
+	 * for the same representation. The content is released when the response
+	 * is written.
+	 * 
+	 * @param compressed
+	 *            true if the content is the gzip sibling of the file
+	 */
+	public void sendContent(ChannelHandlerContext ctx, String name, FileMetadata metadata, ByteBuf content, boolean compressed) {
+		setFileHeaders(name, metadata);
+		if (compressed) {
+			setHeaderCompressedVariant(content.readableBytes());
+		} else {
+			setHeaderContentLength(content.readableBytes());
+			setHeader(HttpHeaders.Names.CONTENT_ENCODING, HttpHeaders.Values.IDENTITY);
+		}
+
+		FullHttpResponse response = new DefaultFullHttpResponse(request.getProtocolVersion(), status, content);
+		setupResponseHeaders(response);
+		ChannelFuture future = ctx.writeAndFlush(response);
+		if (!HttpHeaders.isKeepAlive(request)) {
+			future.addListener(ChannelFutureListener.CLOSE);
+		}
+	}
+
+	/**
+	 * @return true if the precompressed sibling is sent instead of the file
+	 *         (when there is one)
+	 */
+	public boolean acceptsCompressedVariant(FileMetadata metadata) {
+		return metadata.isCompressible() && acceptsGzip();
+	}
+
+	/**
+	 * @return true if the whole file is compressed on the fly by the content
+	 *         compressor (there is no precompressed sibling for the client)
+	 */
+	public boolean isCompressedOnTheFly(ChannelHandlerContext ctx, FileMetadata metadata) {
+		return metadata.isCompressible() && isCompressionApplied(metadata, isSSL(ctx), null);
+	}
+
+	/**
+	 * Precompressed (gzip) sibling of the file which can be sent instead of
+	 * compressing the file on the fly
+	 */
+	protected File findCompressedVariant(File file, FileMetadata metadata, Tuple<Long, Long> range) {
+		if (range != null || !acceptsCompressedVariant(metadata)) {
+			return null;
+		}
+		return FilePrecompressor.findCompressedFile(file);
+	}
+
+	protected void sendCompressedVariant(ChannelHandlerContext ctx, File compressedFile) throws RestException {
+		long compressedLength = compressedFile.length();
+		setHeaderCompressedVariant(compressedLength);
+
+		HttpResponse response = new DefaultHttpResponse(request.getProtocolVersion(), status);
+		setupResponseHeaders(response);
+		ctx.write(response);
+
+		try {
+			sendFileContent(ctx, compressedFile, 0, compressedLength);
+		} catch (IOException e) {
+			throw new RestException(HttpResponseStatus.INTERNAL_SERVER_ERROR, "Error");
+		}
+	}
+
+	/**
+	 * multipart/byteranges response, every part is sent as a file region
+	 */
+	protected void sendMultipartRanges(ChannelHandlerContext ctx, File file, long fileLength, List<Tuple<Long, Long>> ranges) throws RestException {
+		String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong()) + Long.toHexString(System.nanoTime());
+		String partContentType = getHeader(HttpHeaders.Names.CONTENT_TYPE);
+
+		List<String> partHeaders = new ArrayList<String>(ranges.size());
+		long contentLength = 0;
+		for (Tuple<Long, Long> range : ranges) {
+			String partHeader = CRLF + "--" + boundary + CRLF
+					+ HttpHeaders.Names.CONTENT_TYPE + ": " + partContentType + CRLF
+					+ HttpHeaders.Names.CONTENT_RANGE + ": " + formatContentRange(range, fileLength) + CRLF + CRLF;
+			partHeaders.add(partHeader);
+			contentLength += partHeader.length() + range.getSecond() - range.getFirst() + 1;
+		}
+		String closing = CRLF + "--" + boundary + "--" + CRLF;
+		contentLength += closing.length();
+
+		status = HttpResponseStatus.PARTIAL_CONTENT;
+		setHeader(HttpHeaders.Names.CONTENT_TYPE, MULTIPART_BYTERANGES + "; boundary=" + boundary);
+		setHeaderContentLength(contentLength);
+		setHeader(HttpHeaders.Names.CONTENT_ENCODING, HttpHeaders.Values.IDENTITY);
+
+		HttpResponse response = new DefaultHttpResponse(request.getProtocolVersion(), status);
+		setupResponseHeaders(response);
+		ctx.write(response);
+
+		final List<RandomAccessFile> files = new ArrayList<RandomAccessFile>(ranges.size());
+		try {
+			for (int i = 0; i < ranges.size(); i++) {
+				Tuple<Long, Long> range = ranges.get(i);
+				ctx.write(ByteBufUtil.encodeString(ctx.alloc(), CharBuffer.wrap(partHeaders.get(i)), CharsetUtil.US_ASCII));
+				// every region closes its own file
+				RandomAccessFile raf = new RandomAccessFile(file, "r");
+				files.add(raf);
+				sendFileBody(ctx, raf, range.getFirst(), range.getSecond() - range.getFirst() + 1);
+			}
+			ctx.write(ByteBufUtil.encodeString(ctx.alloc(), CharBuffer.wrap(closing), CharsetUtil.US_ASCII));
+		} catch (IOException e) {
+			closeQuietly(files);
+			throw new RestException(HttpResponseStatus.INTERNAL_SERVER_ERROR, "Error");
+		}
+
+		ChannelFuture lastContentFuture = ctx.writeAndFlush(DefaultLastHttpContent.EMPTY_LAST_CONTENT);
+		lastContentFuture.addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture channelFuture) throws Exception {
+				closeQuietly(files);
+			}
+		});
+		if (!HttpHeaders.isKeepAlive(request)) {
+			lastContentFuture.addListener(ChannelFutureListener.CLOSE);
+		}
+	}
+
+	private static void closeQuietly(List<RandomAccessFile> files) {
+		for (RandomAccessFile raf : files) {
+			IOUtils.closeQuietly(raf);
+		}
+	}
+
 	protected void sendFileContent(ChannelHandlerContext ctx, File file, long offset, long length) throws IOException {
 
 		final RandomAccessFile raf = new RandomAccessFile(file, "r");
@@ -136,8 +312,10 @@ public class FileResponse {
 	protected void sendFileBody(ChannelHandlerContext ctx, RandomAccessFile raf, long offset, long length) throws IOException {
 		if (isSSL(ctx)) {
 			ctx.write(new ChunkedFile(raf, offset, length, HTTP_CHUNK_SIZE));
-		} else if (supportChunks()) {
+		} else if (isChunked()) {
 			ctx.write(new ChunkedInputAdapter(new ChunkedFile(raf, offset, length, HTTP_CHUNK_SIZE)));
+		} else if (isShaped(ctx)) {
+			ctx.write(new ChunkedFile(raf, offset, length, HTTP_CHUNK_SIZE));
 		} else {
 			ctx.write(new DefaultFileRegion(raf.getChannel(), offset, length));
 		}		
@@ -147,12 +325,98 @@ public class FileResponse {
 		return request.getProtocolVersion().equals(HttpVersion.HTTP_1_1);
 	}
 
+	protected boolean isChunked() {
+		return HttpHeaders.Values.CHUNKED.equals(getHeader(HttpHeaders.Names.TRANSFER_ENCODING));
+	}
+
+	/**
+	 * Compression needs chunked encoding and the content compressor in the
+	 * pipeline (which skips small and non-text content). Ranges are never
+	 * compressed.
+	 */
+	protected boolean isCompressionApplied(FileMetadata metadata, boolean ssl, Tuple<Long, Long> range) {
+		if (ssl || range != null || !supportChunks()) {
+			return false;
+		}
+		if (metadata.getLength() < SmartHttpContentCompressor.MIN_COMPRESSIBLE_LENGTH || !metadata.isCompressible()) {
+			return false;
+		}
+		return acceptsCompression();
+	}
+
+	protected boolean acceptsCompression() {
+		String acceptEncoding = request.headers().get(HttpHeaders.Names.ACCEPT_ENCODING);
+		if (StringUtils.nullOrEmpty(acceptEncoding)) {
+			return false;
+		}
+		acceptEncoding = acceptEncoding.toLowerCase(Locale.US);
+		return acceptEncoding.contains(HttpHeaders.Values.GZIP) || acceptEncoding.contains(HttpHeaders.Values.DEFLATE);
+	}
+
+	protected boolean acceptsGzip() {
+		String acceptEncoding = request.headers().get(HttpHeaders.Names.ACCEPT_ENCODING);
+		if (StringUtils.nullOrEmpty(acceptEncoding)) {
+			return false;
+		}
+		for (String coding : acceptEncoding.toLowerCase(Locale.US).split(",")) {
+			String[] params = coding.trim().split(";");
+			if (!HttpHeaders.Values.GZIP.equals(params[0].trim()) && !"*".equals(params[0].trim())) {
+				continue;
+			}
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				if (param.startsWith("q=") && isZeroQuality(param.substring(2))) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private boolean isZeroQuality(String value) {
+		try {
+			return Double.parseDouble(value) == 0;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Headers of every representation of the file
+	 */
+	protected void setFileHeaders(String name, FileMetadata metadata) {
+		setHeaderKeepAlive();
+		setHeader(HttpHeaders.Names.ACCEPT_RANGES, HttpHeaders.Values.BYTES);
+		setHeaderContentType(metadata);
+		setHeaderContentDisposition(name, metadata);
+		setDateAndCacheHeaders(metadata);
+
+		if (metadata.isCompressible()) {
+			setHeader(HttpHeaders.Names.VARY, HttpHeaders.Names.ACCEPT_ENCODING);
+		}
+	}
+
+	protected void setHeaderCompressedVariant(long compressedLength) {
+		setHeaderContentLength(compressedLength);
+		String etag = getHeader(HttpHeaders.Names.ETAG);
+		if (etag != null) {
+			setHeader(HttpHeaders.Names.ETAG, HttpUtils.gzipEtag(etag));
+		}
+		// compressor passes the response through as is
+		setHeader(HttpHeaders.Names.CONTENT_ENCODING, HttpHeaders.Values.GZIP);
+	}
+
 	protected void setHeaderContentLength(long contentLength) {
 		setHeader(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(contentLength));
 	}
 
 	protected void setHeaderContentRange(Tuple<Long, Long> range, long contentLength) {
-		setHeader(HttpHeaders.Names.CONTENT_RANGE, "bytes " + range.getFirst() + "-" + range.getSecond() + "/" + contentLength);
+		setHeader(HttpHeaders.Names.CONTENT_RANGE, formatContentRange(range, contentLength));
+	}
+
+	protected static String formatContentRange(Tuple<Long, Long> range, long contentLength) {
+		return "bytes " + range.getFirst() + "-" + range.getSecond() + "/" + contentLength;
 	}
 
 	protected void setHeaderTransferEncoding() {
@@ -167,30 +431,79 @@ public class FileResponse {
 		}
 	}
 
-	protected void setHeaderContentEncoding(File file, boolean ssl) {
-		if (!mimeHelper.isCompressible(file) || ssl) {
+	protected void setHeaderContentEncoding(FileMetadata metadata, boolean ssl) {
+		if (!metadata.isCompressible() || ssl) {
 			setHeader(HttpHeaders.Names.CONTENT_ENCODING, HttpHeaders.Values.IDENTITY);
 		}
 	}
 
-	protected void setHeaderContentType(File file) {
-		String mimeType = mimeHelper.getContentType(file);
-		setHeader(HttpHeaders.Names.CONTENT_TYPE, mimeType + "; charset=UTF-8");
+	protected void setHeaderContentType(FileMetadata metadata) {
+		setHeader(HttpHeaders.Names.CONTENT_TYPE, getContentType(metadata.getContentType()));
+	}
+
+	protected void setHeaderContentDisposition(File file, FileMetadata metadata) {
+		setHeaderContentDisposition(file.getName(), metadata);
+	}
+
+	protected void setHeaderContentDisposition(String name, FileMetadata metadata) {
+		setHeader(CONTENT_DISPOSITION, getContentDisposition(metadata.isBinary(), name));
+	}
+
+	public static String getContentType(MimeHelper mimeHelper, File file) {
+		return getContentType(mimeHelper.getContentType(file));
+	}
+
+	public static String getContentType(String mimeType) {
+		return mimeType + "; charset=UTF-8";
+	}
+
+	public static String getContentDisposition(MimeHelper mimeHelper, File file) {
+		return getContentDisposition(mimeHelper.isBinary(file), file.getName());
 	}
 
-	protected void setHeaderContentDisposition(File file) {
-		boolean download = mimeHelper.isBinary(file);
-		String name = file.getName();
-		setHeader(CONTENT_DISPOSITION,
-				(download ? CONTENT_DISPOSITION_ATTACHMENT : CONTENT_DISPOSITION_INLINE) + ";filename=\"" + name.replaceAll("[^A-Za-z0-9\\-_\\.]", "_") + "\"");
+	public static String getContentDisposition(boolean download, String name) {
+		return (download ? CONTENT_DISPOSITION_ATTACHMENT : CONTENT_DISPOSITION_INLINE) + ";filename=\"" + name.replaceAll("[^A-Za-z0-9\\-_\\.]", "_") + "\"";
 	}
 
+	/**
+	 * @return the first range of the Range header (null if there is none)
+	 */
 	protected Tuple<Long, Long> parseRange(long availableLength) {
+		List<Tuple<Long, Long>> ranges = parseRanges(availableLength);
+		return (ranges != null) ? ranges.get(0) : null;
+	}
+
+	/**
+	 * @return ranges of the Range header or null if the whole file should be
+	 *         sent
+	 * @throws IllegalArgumentException
+	 *             if the ranges are not satisfiable
+	 */
+	protected List<Tuple<Long, Long>> parseRanges(long availableLength) {
 		String header = request.headers().get(HttpHeaders.Names.RANGE);
 		if (StringUtils.nullOrEmpty(header)) {
 			return null;
 		}
-		Matcher m = RANGE_HEADER.matcher(header);
+		if (!header.startsWith(BYTES_UNIT)) {
+			throw new IllegalArgumentException("Unsupported range: " + header);
+		}
+		String[] specs = header.substring(BYTES_UNIT.length()).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+		List<Tuple<Long, Long>> ranges = new ArrayList<Tuple<Long, Long>>(specs.length);
+		for (String spec : specs) {
+			Tuple<Long, Long> range = parseRangeSpec(spec.trim(), availableLength, header);
+			if (range == null) {
+				return null;
+			}
+			ranges.add(range);
+		}
+		return ranges;
+	}
+
+	private Tuple<Long, Long> parseRangeSpec(String spec, long availableLength, String header) {
+		Matcher m = RANGE_SPEC.matcher(spec);
 		if (!m.matches()) {
 			throw new IllegalArgumentException("Unsupported range: " + header);
 		}
@@ -199,7 +512,11 @@ public class FileResponse {
         if (!StringUtils.nullOrEmpty(m.group(1))) {
             result.setFirst(Long.parseLong(m.group(1)));
         } else {
-            result.setFirst(availableLength - Long.parseLong(m.group(2)));
+            long suffixLength = Long.parseLong(m.group(2));
+            if (suffixLength == 0) {
+                throw new IllegalArgumentException("Unsupported range: " + header);
+            }
+            result.setFirst(Math.max(0, availableLength - suffixLength));
             result.setSecond(availableLength - 1);
             return result;
         }
@@ -219,7 +536,7 @@ public class FileResponse {
 		return result;
 	}
 
-	protected void setDateAndCacheHeaders(File fileToCache) {
+	protected void setDateAndCacheHeaders(FileMetadata metadata) {
 		SimpleDateFormat dateFormatter = new SimpleDateFormat(HttpUtils.HTTP_DATE_FORMAT, Locale.US);
 		dateFormatter.setTimeZone(TimeZone.getTimeZone(HttpUtils.HTTP_DATE_GMT_TIMEZONE));
 
@@ -231,7 +548,8 @@ public class FileResponse {
 		time.add(Calendar.SECOND, HttpUtils.HTTP_CACHE_SECONDS);
 		setHeader(HttpHeaders.Names.EXPIRES, dateFormatter.format(time.getTime()));
 		setHeader(HttpHeaders.Names.CACHE_CONTROL, MAX_AGE_VALUE + HttpUtils.HTTP_CACHE_SECONDS);
-		setHeader(HttpHeaders.Names.LAST_MODIFIED, dateFormatter.format(new Date(fileToCache.lastModified())));
+		setHeader(HttpHeaders.Names.LAST_MODIFIED, dateFormatter.format(new Date(metadata.getLastModified())));
+		setHeader(HttpHeaders.Names.ETAG, metadata.getEtag());
 	}
 
 	protected void setupResponseHeaders(HttpResponse response) {
@@ -244,4 +562,12 @@ public class FileResponse {
 		return ctx.channel().pipeline().get(SslHandler.class) != null;
 	}
 
+	/**
+	 * Traffic shaping measures buffers only, a file region would pass
+	 * unlimited
+	 */
+	protected boolean isShaped(ChannelHandlerContext ctx) {
+		return ctx.channel().pipeline().get(AbstractTrafficShapingHandler.class) != null;
+	}
+
 }
@@ -0,0 +1,121 @@
+package com.euromoby.http;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import com.euromoby.http.HttpPoolMetrics.RouteStats;
+
+/**
+ * Connection pool of the http client which counts the leases, the time spent
+ * waiting for a free connection and the connections opened. A lease which
+ * does not open a connection reuses a pooled one.
+ */
+public class HttpClientPool extends PoolingHttpClientConnectionManager {
+
+	private final CountingConnectionFactory connectionFactory;
+
+	private final AtomicLong leases = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	public HttpClientPool(Registry<ConnectionSocketFactory> socketFactoryRegistry) {
+		this(socketFactoryRegistry, new CountingConnectionFactory());
+	}
+
+	private HttpClientPool(Registry<ConnectionSocketFactory> socketFactoryRegistry, CountingConnectionFactory connectionFactory) {
+		super(socketFactoryRegistry, connectionFactory);
+		this.connectionFactory = connectionFactory;
+	}
+
+	@Override
+	public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+		final ConnectionRequest request = super.requestConnection(route, state);
+		return new ConnectionRequest() {
+			@Override
+			public HttpClientConnection get(long timeout, TimeUnit tunit) throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+				long start = System.nanoTime();
+				try {
+					HttpClientConnection connection = request.get(timeout, tunit);
+					leases.incrementAndGet();
+					return connection;
+				} catch (ConnectionPoolTimeoutException e) {
+					timeouts.incrementAndGet();
+					throw e;
+				} finally {
+					recordWait(System.nanoTime() - start);
+				}
+			}
+
+			@Override
+			public boolean cancel() {
+				return request.cancel();
+			}
+		};
+	}
+
+	private void recordWait(long nanos) {
+		waitNanos.addAndGet(nanos);
+		long max;
+		while (nanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, nanos)) {
+			// retry
+		}
+	}
+
+	public HttpPoolMetrics getMetrics() {
+		HttpPoolMetrics metrics = new HttpPoolMetrics();
+		metrics.setMaxTotal(getMaxTotal());
+		metrics.setMaxPerRoute(getDefaultMaxPerRoute());
+		metrics.setValidateAfterInactivity(getValidateAfterInactivity());
+		PoolStats totalStats = getTotalStats();
+		metrics.setLeased(totalStats.getLeased());
+		metrics.setPending(totalStats.getPending());
+		metrics.setAvailable(totalStats.getAvailable());
+
+		long leaseCount = leases.get();
+		long opened = connectionFactory.created.get();
+		metrics.setLeases(leaseCount);
+		metrics.setConnectionsOpened(opened);
+		metrics.setHits(Math.max(leaseCount - opened, 0));
+		metrics.setTimeouts(timeouts.get());
+		metrics.setWaitTimeTotal(TimeUnit.NANOSECONDS.toMillis(waitNanos.get()));
+		metrics.setWaitTimeMax(TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+
+		for (HttpRoute route : getRoutes()) {
+			PoolStats stats = getStats(route);
+			RouteStats routeStats = new RouteStats();
+			routeStats.setMax(stats.getMax());
+			routeStats.setLeased(stats.getLeased());
+			routeStats.setPending(stats.getPending());
+			routeStats.setAvailable(stats.getAvailable());
+			metrics.getRoutes().put(route.toString(), routeStats);
+		}
+		return metrics;
+	}
+
+	private static class CountingConnectionFactory implements HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> {
+
+		private final AtomicLong created = new AtomicLong();
+
+		@Override
+		public ManagedHttpClientConnection create(HttpRoute route, ConnectionConfig config) {
+			created.incrementAndGet();
+			return ManagedHttpClientConnectionFactory.INSTANCE.create(route, config);
+		}
+	}
+
+}
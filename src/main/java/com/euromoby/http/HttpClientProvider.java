@@ -3,10 +3,14 @@ package com.euromoby.http;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
+import javax.net.ssl.SSLContext;
+
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
 import org.apache.http.auth.AUTH;
 import org.apache.http.auth.AuthSchemeProvider;
 import org.apache.http.auth.AuthScope;
@@ -21,14 +25,21 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.auth.BasicSchemeFactory;
 import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContexts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
@@ -52,6 +63,7 @@ public class HttpClientProvider implements DisposableBean {
 	private Config config;
 	private AgentManager agentManager;
 	private SSLContextProvider sslContextProvider;
+	private HttpClientPool connectionManager;
 	private CloseableHttpClient httpClient;
 
 	@Autowired
@@ -63,11 +75,67 @@ public class HttpClientProvider implements DisposableBean {
 	}
 
 	protected CloseableHttpClient createHttpClient() {
-		return HttpClientBuilder.create()
-				.setSslcontext(sslContextProvider.getSSLContext())
-				.setSSLHostnameVerifier(new NoopHostnameVerifier())
-				.setUserAgent(config.getHttpUserAgent())
+		connectionManager = createConnectionManager();
+		// requests without their own config do not wait for a lease forever
+		RequestConfig defaultRequestConfig = RequestConfig.custom().setConnectionRequestTimeout(config.getHttpClientLeaseTimeout()).build();
+		HttpClientBuilder builder = HttpClientBuilder.create()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(defaultRequestConfig)
+				.setKeepAliveStrategy(createKeepAliveStrategy())
+				.evictExpiredConnections()
+				.setUserAgent(config.getHttpUserAgent());
+		long idleTimeout = config.getHttpClientIdleTimeout();
+		if (idleTimeout > 0) {
+			builder.evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Download, ping, cdn and upload requests share the pool, the limits of 0
+	 * keep the defaults of the http client
+	 */
+	protected HttpClientPool createConnectionManager() {
+		SSLContext sslContext = sslContextProvider.getSSLContext();
+		if (sslContext == null) {
+			sslContext = SSLContexts.createDefault();
+		}
+		Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory> create()
+				.register("http", PlainConnectionSocketFactory.getSocketFactory())
+				.register(HTTPS, new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE))
 				.build();
+
+		HttpClientPool pool = new HttpClientPool(socketFactoryRegistry);
+		if (config.getHttpClientMaxTotal() > 0) {
+			pool.setMaxTotal(config.getHttpClientMaxTotal());
+		}
+		if (config.getHttpClientMaxRoute() > 0) {
+			pool.setDefaultMaxPerRoute(config.getHttpClientMaxRoute());
+		}
+		pool.setValidateAfterInactivity(config.getHttpClientValidateAfter());
+		if (pool.getDefaultMaxPerRoute() < config.getDownloadSegments()) {
+			log.warn("{} connections per route are fewer than {} download segments", pool.getDefaultMaxPerRoute(), config.getDownloadSegments());
+		}
+		return pool;
+	}
+
+	/**
+	 * Keeps a connection alive as long as the Keep-Alive timeout of the server
+	 * says, at most agent.httpclient.keepalive which is also used when the
+	 * server does not say
+	 */
+	protected ConnectionKeepAliveStrategy createKeepAliveStrategy() {
+		final long keepAlive = config.getHttpClientKeepAlive();
+		return new DefaultConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long duration = super.getKeepAliveDuration(response, context);
+				if (keepAlive <= 0) {
+					return duration;
+				}
+				return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+			}
+		};
 	}
 
 	protected HttpClientContext createHttpClientContext() {
@@ -116,6 +184,8 @@ public class HttpClientProvider implements DisposableBean {
 		RequestConfig.Builder requestConfigBuilder = RequestConfig.custom();
 		requestConfigBuilder.setSocketTimeout(timeout);
 		requestConfigBuilder.setConnectTimeout(timeout);
+		// the pool throws ConnectionPoolTimeoutException (counted in the metrics)
+		requestConfigBuilder.setConnectionRequestTimeout(config.getHttpClientLeaseTimeout());
 		
 		if (!noProxy && config.isHttpProxy() && !HttpUtils.bypassProxy(config.getHttpProxyBypass(), host)) {
 			requestConfigBuilder.setProxy(new HttpHost(config.getHttpProxyHost(), config.getHttpProxyPort()));
@@ -129,6 +199,10 @@ public class HttpClientProvider implements DisposableBean {
 	}
 	
 	
+	public HttpPoolMetrics getPoolMetrics() {
+		return connectionManager.getMetrics();
+	}
+
 	@Override
 	public void destroy() throws Exception {
 		IOUtils.closeQuietly(httpClient);
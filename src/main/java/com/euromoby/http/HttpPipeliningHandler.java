@@ -0,0 +1,120 @@
+package com.euromoby.http;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Passes the requests of a persistent connection to the next handlers one by
+ * one: a request is passed only when the response to the previous one is
+ * completely written (its {@link LastHttpContent}). Pipelined requests
+ * received meanwhile wait in the queue and reading is paused, so responses
+ * produced asynchronously (searches, proxying) are sent in request order.
+ * Must be placed behind the aggregator and in front of the handlers which
+ * write the responses.
+ */
+public class HttpPipeliningHandler extends ChannelDuplexHandler {
+
+	private final Queue<HttpRequest> pendingRequests = new ArrayDeque<HttpRequest>();
+	private boolean responding = false;
+	private boolean keepAlive = true;
+	private boolean closing = false;
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if (!(msg instanceof HttpRequest)) {
+			ctx.fireChannelRead(msg);
+			return;
+		}
+		if (closing) {
+			// the client asked to close after the previous response
+			ReferenceCountUtil.release(msg);
+			return;
+		}
+		if (responding || !pendingRequests.isEmpty()) {
+			pendingRequests.add((HttpRequest) msg);
+			ctx.channel().config().setAutoRead(false);
+			return;
+		}
+		handleRequest(ctx, (HttpRequest) msg);
+	}
+
+	protected void handleRequest(ChannelHandlerContext ctx, HttpRequest request) {
+		responding = true;
+		keepAlive = HttpHeaders.isKeepAlive(request);
+		ctx.fireChannelRead(request);
+	}
+
+	@Override
+	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+		boolean lastContent = msg instanceof LastHttpContent && !isInformational(msg);
+		ctx.write(msg, promise);
+		if (lastContent && responding) {
+			onResponseWritten(ctx);
+		}
+	}
+
+	private static boolean isInformational(Object msg) {
+		return msg instanceof HttpResponse && ((HttpResponse) msg).getStatus().code() < 200;
+	}
+
+	protected void onResponseWritten(final ChannelHandlerContext ctx) {
+		responding = false;
+		if (!keepAlive) {
+			closing = true;
+			releasePendingRequests();
+			return;
+		}
+		// not inside the write of the previous response
+		ctx.channel().eventLoop().execute(new Runnable() {
+			@Override
+			public void run() {
+				handleNextRequest(ctx);
+			}
+		});
+	}
+
+	protected void handleNextRequest(ChannelHandlerContext ctx) {
+		if (responding || closing) {
+			return;
+		}
+		HttpRequest request = pendingRequests.poll();
+		if (request == null) {
+			ctx.channel().config().setAutoRead(true);
+			return;
+		}
+		handleRequest(ctx, request);
+	}
+
+	public int getPendingRequestCount() {
+		return pendingRequests.size();
+	}
+
+	private void releasePendingRequests() {
+		HttpRequest request;
+		while ((request = pendingRequests.poll()) != null) {
+			ReferenceCountUtil.release(request);
+		}
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		closing = true;
+		releasePendingRequests();
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		releasePendingRequests();
+	}
+
+}
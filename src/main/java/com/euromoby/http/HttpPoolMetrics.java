@@ -0,0 +1,189 @@
+package com.euromoby.http;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Snapshot of the http client connection pool, serialized as JSON by the
+ * metrics endpoint. Counters are cumulative since the agent start, wait times
+ * are in milliseconds.
+ */
+public class HttpPoolMetrics {
+
+	private int maxTotal;
+	private int maxPerRoute;
+	private int validateAfterInactivity;
+
+	private int leased;
+	private int pending;
+	private int available;
+
+	private long leases;
+	private long hits;
+	private long connectionsOpened;
+	private long timeouts;
+	private long waitTimeTotal;
+	private long waitTimeMax;
+
+	private Map<String, RouteStats> routes = new TreeMap<String, RouteStats>();
+
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	public void setMaxTotal(int maxTotal) {
+		this.maxTotal = maxTotal;
+	}
+
+	public int getMaxPerRoute() {
+		return maxPerRoute;
+	}
+
+	public void setMaxPerRoute(int maxPerRoute) {
+		this.maxPerRoute = maxPerRoute;
+	}
+
+	public int getValidateAfterInactivity() {
+		return validateAfterInactivity;
+	}
+
+	public void setValidateAfterInactivity(int validateAfterInactivity) {
+		this.validateAfterInactivity = validateAfterInactivity;
+	}
+
+	public int getLeased() {
+		return leased;
+	}
+
+	public void setLeased(int leased) {
+		this.leased = leased;
+	}
+
+	/**
+	 * @return requests waiting for a connection
+	 */
+	public int getPending() {
+		return pending;
+	}
+
+	public void setPending(int pending) {
+		this.pending = pending;
+	}
+
+	/**
+	 * @return idle pooled connections
+	 */
+	public int getAvailable() {
+		return available;
+	}
+
+	public void setAvailable(int available) {
+		this.available = available;
+	}
+
+	public long getLeases() {
+		return leases;
+	}
+
+	public void setLeases(long leases) {
+		this.leases = leases;
+	}
+
+	/**
+	 * @return leases which reused a pooled connection
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	public void setHits(long hits) {
+		this.hits = hits;
+	}
+
+	public long getConnectionsOpened() {
+		return connectionsOpened;
+	}
+
+	public void setConnectionsOpened(long connectionsOpened) {
+		this.connectionsOpened = connectionsOpened;
+	}
+
+	/**
+	 * @return leases which gave up waiting for a connection
+	 */
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	public void setTimeouts(long timeouts) {
+		this.timeouts = timeouts;
+	}
+
+	public long getWaitTimeTotal() {
+		return waitTimeTotal;
+	}
+
+	public void setWaitTimeTotal(long waitTimeTotal) {
+		this.waitTimeTotal = waitTimeTotal;
+	}
+
+	public long getWaitTimeMax() {
+		return waitTimeMax;
+	}
+
+	public void setWaitTimeMax(long waitTimeMax) {
+		this.waitTimeMax = waitTimeMax;
+	}
+
+	/**
+	 * @return connections of the target hosts
+	 */
+	public Map<String, RouteStats> getRoutes() {
+		return routes;
+	}
+
+	public void setRoutes(Map<String, RouteStats> routes) {
+		this.routes = routes;
+	}
+
+	public static class RouteStats {
+
+		private int max;
+		private int leased;
+		private int pending;
+		private int available;
+
+		public int getMax() {
+			return max;
+		}
+
+		public void setMax(int max) {
+			this.max = max;
+		}
+
+		public int getLeased() {
+			return leased;
+		}
+
+		public void setLeased(int leased) {
+			this.leased = leased;
+		}
+
+		public int getPending() {
+			return pending;
+		}
+
+		public void setPending(int pending) {
+			this.pending = pending;
+		}
+
+		public int getAvailable() {
+			return available;
+		}
+
+		public void setAvailable(int available) {
+			this.available = available;
+		}
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.euromoby.http;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
@@ -9,6 +10,7 @@ import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.cookie.ClientCookieDecoder;
@@ -36,17 +38,8 @@ public class HttpResponseProvider {
 	public FullHttpResponse createHttpResponse(HttpResponseStatus status, ByteBuf buf) {
 		FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, buf);
 		response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/html; charset=UTF-8");
-
-		// Decide whether to close the connection or not.
-		boolean close = request.headers().contains(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE, true) 
-				|| request.getProtocolVersion().equals(HttpVersion.HTTP_1_0)
-				&& !request.headers().contains(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE, true);
-
-		if (!close) {
-			// There's no need to add 'Content-Length' header
-			// if this is the last response.
-			response.headers().set(HttpHeaders.Names.CONTENT_LENGTH, buf.readableBytes());
-		}
+		// every response is delimited, so the connection can be reused
+		response.headers().set(HttpHeaders.Names.CONTENT_LENGTH, buf.readableBytes());
 		return response;
 	}
 
@@ -59,6 +52,8 @@ public class HttpResponseProvider {
     public FullHttpResponse createNotModifiedResponse() {
         FullHttpResponse response = createHttpResponse(HttpResponseStatus.NOT_MODIFIED);
 		response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/plain; charset=UTF-8");        
+		// the length would be the one of the full entity, 304 has no body
+		response.headers().remove(HttpHeaders.Names.CONTENT_LENGTH);
         HttpUtils.setDateHeader(response);
         return response;
     }	
@@ -71,10 +66,18 @@ public class HttpResponseProvider {
     }    
     
 	public FullHttpResponse errorResponse(RestException e) {
-		FullHttpResponse response = createHttpResponse(e.getStatus(), HttpUtils.fromString(e.getMessage()));
+		return errorResponse(e, HttpUtils.fromString(e.getMessage()));
+	}	
+
+	public FullHttpResponse errorResponse(ByteBufAllocator alloc, RestException e) {
+		return errorResponse(e, HttpUtils.fromString(alloc, e.getMessage()));
+	}
+
+	private FullHttpResponse errorResponse(RestException e, ByteBuf content) {
+		FullHttpResponse response = createHttpResponse(e.getStatus(), content);
 		response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/plain; charset=UTF-8");
 		return response;
-	}	
+	}
 
 	public void writeResponse(ChannelHandlerContext ctx, FullHttpResponse response) {
 		Cookie cookie = null;
@@ -85,13 +88,38 @@ public class HttpResponseProvider {
 		if (cookie != null) {
 			response.headers().add(HttpHeaders.Names.SET_COOKIE, ServerCookieEncoder.LAX.encode(cookie));
 		}
+		if (!response.headers().contains(HttpHeaders.Names.CONTENT_LENGTH) && hasBody(response.getStatus())) {
+			response.headers().set(HttpHeaders.Names.CONTENT_LENGTH, response.content().readableBytes());
+		}
+		boolean keepAlive = HttpHeaders.isKeepAlive(request);
+		setHeaderConnection(request.getProtocolVersion(), response, keepAlive);
+
 		// Write the response.
 		ChannelFuture future = ctx.channel().writeAndFlush(response);
 
-		// Close the connection after the write operation is done if necessary.
-		if (!response.headers().contains(HttpHeaders.Names.CONTENT_LENGTH)) {
+		// Close the connection only if the client asked for it
+		if (!keepAlive) {
 			future.addListener(ChannelFutureListener.CLOSE);
 		}
 	}	
+
+	/**
+	 * HTTP/1.0 clients are told explicitly that the connection is kept
+	 */
+	public static void setHeaderConnection(HttpVersion requestVersion, HttpResponse response, boolean keepAlive) {
+		if (!keepAlive) {
+			response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+		} else if (requestVersion.equals(HttpVersion.HTTP_1_0)) {
+			response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+		}
+	}
+
+	/**
+	 * 1xx, 204 and 304 responses never have a body
+	 */
+	public static boolean hasBody(HttpResponseStatus status) {
+		int code = status.code();
+		return code >= 200 && code != HttpResponseStatus.NO_CONTENT.code() && code != HttpResponseStatus.NOT_MODIFIED.code();
+	}
 	
 }
@@ -1,6 +1,8 @@
 package com.euromoby.http;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
@@ -10,6 +12,12 @@ import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.util.CharsetUtil;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -30,9 +38,14 @@ public class HttpUtils {
     public static final int HTTP_CACHE_SECONDS = 30 * 24 * 60 * 60; // 30 days	
     
 	public static final Pattern WILDCARD_REGEX = Pattern.compile("[^*]+|(\\*)");	
+	public static final String WEAK_ETAG_PREFIX = "W/";
     
     
 	public static boolean ifModifiedSince(HttpRequest request, File file) {
+		return ifModifiedSince(request, file.lastModified());
+	}
+
+	public static boolean ifModifiedSince(HttpRequest request, long lastModified) {
 
         String ifModifiedSince = request.headers().get(HttpHeaders.Names.IF_MODIFIED_SINCE);
         if (!StringUtils.nullOrEmpty(ifModifiedSince)) {
@@ -46,14 +59,109 @@ public class HttpUtils {
 
             // Only compare up to the second
             long ifModifiedSinceDateSeconds = ifModifiedSinceDate.getTime() / 1000;
-            long fileLastModifiedSeconds = file.lastModified() / 1000;
-            if (ifModifiedSinceDateSeconds == fileLastModifiedSeconds) {
+            long fileLastModifiedSeconds = lastModified / 1000;
+            if (fileLastModifiedSeconds <= ifModifiedSinceDateSeconds) {
             	return false;
             }
         }		
 		return true;
 	}    
 
+	/**
+	 * Strong entity tag of the file content: inode (file key), length and
+	 * modification time
+	 */
+	public static String etag(File file) {
+		long fileKey = 0;
+		try {
+			Path path = file.toPath();
+			if (path != null) {
+				fileKey = fileKeyHash(Files.readAttributes(path, BasicFileAttributes.class));
+			}
+		} catch (IOException | InvalidPathException e) {
+			// length and modification time only
+		}
+		return etag(fileKey, file.length(), file.lastModified());
+	}
+
+	public static long fileKeyHash(BasicFileAttributes attributes) {
+		Object key = attributes.fileKey();
+		return (key != null) ? key.hashCode() & 0xffffffffL : 0;
+	}
+
+	public static String etag(long fileKey, long length, long lastModified) {
+		return "\"" + Long.toHexString(fileKey) + "-" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+	}
+
+	/**
+	 * Entity tag of the gzipped representation
+	 */
+	public static String gzipEtag(String etag) {
+		return etag.substring(0, etag.length() - 1) + "-" + HttpHeaders.Values.GZIP + "\"";
+	}
+
+	/**
+	 * If-None-Match (weak comparison, either representation) takes
+	 * precedence over If-Modified-Since
+	 * 
+	 * @return false if the client has the current content
+	 */
+	public static boolean isModified(HttpRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.headers().get(HttpHeaders.Names.IF_NONE_MATCH);
+		if (!StringUtils.nullOrEmpty(ifNoneMatch) && etag != null) {
+			return !matchesEtag(ifNoneMatch, etag) && !matchesEtag(ifNoneMatch, gzipEtag(etag));
+		}
+		return ifModifiedSince(request, lastModified);
+	}
+
+	public static boolean isModified(HttpRequest request, File file) {
+		return isModified(request, etag(file), file.lastModified());
+	}
+
+	protected static boolean matchesEtag(String header, String etag) {
+		for (String tag : header.split(",")) {
+			tag = tag.trim();
+			if (tag.equals("*")) {
+				return true;
+			}
+			if (tag.startsWith(WEAK_ETAG_PREFIX)) {
+				tag = tag.substring(WEAK_ETAG_PREFIX.length());
+			}
+			if (tag.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the Range header should be applied: there is no
+	 *         If-Range or it matches the current content (strong comparison
+	 *         or exact date)
+	 */
+	public static boolean ifRange(HttpRequest request, String etag, long lastModified) {
+		String ifRange = request.headers().get(HttpHeaders.Names.IF_RANGE);
+		if (StringUtils.nullOrEmpty(ifRange)) {
+			return true;
+		}
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith(WEAK_ETAG_PREFIX)) {
+			return ifRange.equals(etag);
+		}
+		SimpleDateFormat dateFormatter = new SimpleDateFormat(HttpUtils.HTTP_DATE_FORMAT, Locale.US);
+		try {
+			return dateFormatter.parse(ifRange).getTime() / 1000 == lastModified / 1000;
+		} catch (ParseException e) {
+			return false;
+		}
+	}
+
+    public static String formatDate(Date date) {
+        SimpleDateFormat dateFormatter = new SimpleDateFormat(HttpUtils.HTTP_DATE_FORMAT, Locale.US);
+        dateFormatter.setTimeZone(TimeZone.getTimeZone(HttpUtils.HTTP_DATE_GMT_TIMEZONE));
+        return dateFormatter.format(date);
+    }
+
     public static void setDateHeader(FullHttpResponse response) {
         SimpleDateFormat dateFormatter = new SimpleDateFormat(HttpUtils.HTTP_DATE_FORMAT, Locale.US);
         dateFormatter.setTimeZone(TimeZone.getTimeZone(HttpUtils.HTTP_DATE_GMT_TIMEZONE));
@@ -64,6 +172,14 @@ public class HttpUtils {
 	public static ByteBuf fromString(String s) {
 		return Unpooled.copiedBuffer(s, CharsetUtil.UTF_8);
 	}    
+
+	/**
+	 * @param alloc allocator of the channel, pooled buffers are returned to
+	 *            the pool when the response is written
+	 */
+	public static ByteBuf fromString(ByteBufAllocator alloc, String s) {
+		return ByteBufUtil.encodeString(alloc, CharBuffer.wrap(s), CharsetUtil.UTF_8);
+	}
 	
 	public static Map<String, List<String>> getUriAttributes(FullHttpRequest request) {
 		QueryStringDecoder decoderQuery = new QueryStringDecoder(request.getUri());
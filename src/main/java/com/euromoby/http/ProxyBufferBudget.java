@@ -0,0 +1,45 @@
+package com.euromoby.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory all the {@link ProxyFlight}s together may keep for the clients
+ * joining late
+ */
+public class ProxyBufferBudget {
+
+	private final long limit;
+	private final AtomicLong used = new AtomicLong();
+
+	public ProxyBufferBudget(long limit) {
+		this.limit = limit;
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	public long getUsed() {
+		return used.get();
+	}
+
+	/**
+	 * @return false if the bytes do not fit the budget
+	 */
+	public boolean reserve(long bytes) {
+		while (true) {
+			long current = used.get();
+			if (current + bytes > limit) {
+				return false;
+			}
+			if (used.compareAndSet(current, current + bytes)) {
+				return true;
+			}
+		}
+	}
+
+	public void release(long bytes) {
+		used.addAndGet(-bytes);
+	}
+
+}
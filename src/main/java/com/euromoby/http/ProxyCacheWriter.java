@@ -0,0 +1,167 @@
+package com.euromoby.http;
+
+import io.netty.handler.codec.http.HttpHeaders;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.euromoby.cdn.CdnFileCache;
+import com.euromoby.download.client.DownloadClient;
+import com.euromoby.file.FileIndex;
+import com.euromoby.file.FilePrecompressor;
+import com.euromoby.utils.ListUtils;
+import com.euromoby.utils.StringUtils;
+
+/**
+ * Stores a proxied response body while it is sent to the client. The body is
+ * written to a .downloading file which is moved into place when the
+ * response is complete, or deleted if it fails.
+ */
+public class ProxyCacheWriter {
+
+	private static final Logger log = LoggerFactory.getLogger(ProxyCacheWriter.class);
+
+	private File targetFile;
+	private FilePrecompressor filePrecompressor;
+	private FileIndex fileIndex;
+	private CdnFileCache cdnFileCache;
+	private File downloadingFile;
+	private FileChannel fileChannel;
+	private long expectedLength = -1;
+	private long writtenLength = 0;
+
+	public ProxyCacheWriter(File targetFile, FilePrecompressor filePrecompressor, FileIndex fileIndex, CdnFileCache cdnFileCache) throws IOException {
+		this.targetFile = targetFile;
+		this.filePrecompressor = filePrecompressor;
+		this.fileIndex = fileIndex;
+		this.cdnFileCache = cdnFileCache;
+		File parentDir = targetFile.getParentFile();
+		if (!parentDir.exists() && !parentDir.mkdirs()) {
+			throw new IOException("Unable to create " + parentDir.getPath());
+		}
+		// unique name, the same file can be stored by other requests
+		downloadingFile = File.createTempFile(targetFile.getName() + ".", DownloadClient.DOWNLOADING_EXT, parentDir);
+		fileChannel = new FileOutputStream(downloadingFile).getChannel();
+	}
+
+	public File getTargetFile() {
+		return targetFile;
+	}
+
+	/**
+	 * Holds the body received so far while the writer is open
+	 */
+	public File getDownloadingFile() {
+		return downloadingFile;
+	}
+
+	public long getWrittenLength() {
+		return writtenLength;
+	}
+
+	public boolean isOpen() {
+		return fileChannel != null;
+	}
+
+	/**
+	 * Checked when the response is complete, -1 if unknown
+	 */
+	public void setExpectedLength(long expectedLength) {
+		this.expectedLength = expectedLength;
+	}
+
+	/**
+	 * Takes the expected length from the origin response headers. Encoded
+	 * content is not stored.
+	 *
+	 * @return false if the response is not going to be stored
+	 */
+	public boolean acceptHeaders(Map<String, List<String>> headers) {
+		for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+			String value = ListUtils.getFirst(entry.getValue());
+			if (HttpHeaders.Names.CONTENT_ENCODING.equalsIgnoreCase(entry.getKey()) && !StringUtils.nullOrEmpty(value)
+					&& !HttpHeaders.Values.IDENTITY.equalsIgnoreCase(value)) {
+				abort();
+				return false;
+			}
+			if (HttpHeaders.Names.CONTENT_LENGTH.equalsIgnoreCase(entry.getKey()) && !StringUtils.nullOrEmpty(value)) {
+				try {
+					setExpectedLength(Long.parseLong(value.trim()));
+				} catch (NumberFormatException e) {
+					abort();
+					return false;
+				}
+			}
+		}
+		return isOpen();
+	}
+
+	public void write(ByteBuffer buffer) {
+		if (!isOpen()) {
+			return;
+		}
+		try {
+			while (buffer.hasRemaining()) {
+				writtenLength += fileChannel.write(buffer);
+			}
+		} catch (IOException e) {
+			log.warn("Unable to store {}: {}", targetFile.getPath(), e.getMessage());
+			abort();
+		}
+	}
+
+	/**
+	 * @return true if the file was stored
+	 */
+	public boolean commit() {
+		if (!isOpen()) {
+			return false;
+		}
+		if (expectedLength >= 0 && expectedLength != writtenLength) {
+			log.debug("Incomplete response for {}: {} of {}", targetFile.getPath(), writtenLength, expectedLength);
+			abort();
+			return false;
+		}
+		try {
+			fileChannel.close();
+			fileChannel = null;
+			try {
+				Files.move(downloadingFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(downloadingFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			log.debug("File saved to {}", targetFile.getPath());
+			fileIndex.update(targetFile);
+			cdnFileCache.invalidate(targetFile);
+		} catch (IOException e) {
+			log.warn("Unable to store {}: {}", targetFile.getPath(), e.getMessage());
+			abort();
+			return false;
+		}
+		if (filePrecompressor != null) {
+			filePrecompressor.schedule(targetFile);
+		}
+		return true;
+	}
+
+	public void abort() {
+		IOUtils.closeQuietly(fileChannel);
+		fileChannel = null;
+		if (downloadingFile.exists()) {
+			downloadingFile.delete();
+		}
+	}
+
+}
@@ -0,0 +1,428 @@
+package com.euromoby.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.stream.ChunkedFile;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+
+/**
+ * Single fetch of an origin URL shared by every client which asks for it
+ * while it is in progress. Clients joining late get what was already received
+ * and then follow the stream. While the body is stored to the cache, they read
+ * it from the .downloading file. Otherwise the body is kept in memory, up to
+ * the given size and as long as the budget shared by all the flights allows.
+ * Once the buffer is exceeded nobody can join anymore.
+ * <p>
+ * A client whose channel is not writable skips the parts received meanwhile
+ * and reads them from the .downloading file when it catches up. Without the
+ * file it is disconnected once more than the buffer size waits for it.
+ */
+public class ProxyFlight implements AsyncHandler<String> {
+
+	private static final Logger log = LoggerFactory.getLogger(ProxyFlight.class);
+
+	private static final int FILE_CHUNK_SIZE = 8192;
+
+	private String sourceUrl;
+	private long maxBufferSize;
+	private ProxyBufferBudget bufferBudget;
+	private ProxyCacheWriter cacheWriter;
+
+	private HttpResponseStatus status = HttpResponseStatus.OK;
+	private HttpHeaders headers;
+	private List<ByteBuf> parts = new ArrayList<ByteBuf>();
+	private long bufferedSize = 0;
+	private long receivedSize = 0;
+	private boolean joinable = true;
+	private boolean finished = false;
+
+	private List<Subscriber> subscribers = new ArrayList<Subscriber>();
+	private Promise<Void> donePromise = ImmediateEventExecutor.INSTANCE.newPromise();
+
+	public ProxyFlight(String sourceUrl, long maxBufferSize) {
+		this(sourceUrl, maxBufferSize, null);
+	}
+
+	/**
+	 * @param cacheWriter
+	 *            stores the response body too (may be null)
+	 */
+	public ProxyFlight(String sourceUrl, long maxBufferSize, ProxyCacheWriter cacheWriter) {
+		this(sourceUrl, maxBufferSize, new ProxyBufferBudget(maxBufferSize), cacheWriter);
+	}
+
+	/**
+	 * @param bufferBudget
+	 *            memory shared with the other flights
+	 * @param cacheWriter
+	 *            stores the response body too (may be null)
+	 */
+	public ProxyFlight(String sourceUrl, long maxBufferSize, ProxyBufferBudget bufferBudget, ProxyCacheWriter cacheWriter) {
+		this.sourceUrl = sourceUrl;
+		this.maxBufferSize = maxBufferSize;
+		this.bufferBudget = bufferBudget;
+		this.cacheWriter = cacheWriter;
+	}
+
+	public String getSourceUrl() {
+		return sourceUrl;
+	}
+
+	/**
+	 * Completed when the origin response is finished (or failed)
+	 */
+	public Promise<Void> getDonePromise() {
+		return donePromise;
+	}
+
+	public synchronized int getSubscriberCount() {
+		return subscribers.size();
+	}
+
+	/**
+	 * @return false if the flight can not be joined anymore
+	 */
+	public synchronized boolean join(ChannelHandlerContext ctx, FullHttpRequest httpRequest) {
+		if (!joinable) {
+			return false;
+		}
+		final Subscriber subscriber = new Subscriber(ctx, httpRequest);
+		if (headers != null) {
+			if (receivedSize > 0 && isStoredToFile()) {
+				if (!subscriber.openFile(0)) {
+					return false;
+				}
+				subscriber.writeHeaders(status, headers);
+				subscriber.replayFile(receivedSize);
+			} else {
+				subscriber.writeHeaders(status, headers);
+				for (ByteBuf part : parts) {
+					subscriber.writePart(part);
+				}
+			}
+		}
+		subscribers.add(subscriber);
+		subscriber.closeListener = new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				leave(subscriber);
+			}
+		};
+		ctx.channel().closeFuture().addListener(subscriber.closeListener);
+		return true;
+	}
+
+	protected synchronized void leave(Subscriber subscriber) {
+		subscribers.remove(subscriber);
+		subscriber.closeFile();
+	}
+
+	/**
+	 * The .downloading file holds everything received so far
+	 */
+	private boolean isStoredToFile() {
+		return cacheWriter != null && cacheWriter.isOpen();
+	}
+
+	@Override
+	public STATE onStatusReceived(com.ning.http.client.HttpResponseStatus httpResponseStatus) throws Exception {
+		int statusCode = httpResponseStatus.getStatusCode();
+		log.trace("onStatusReceived {} {}", statusCode, sourceUrl);
+		if (statusCode >= 200 && statusCode < 300) {
+			synchronized (this) {
+				status = HttpResponseStatus.valueOf(statusCode);
+				// only complete content is stored
+				if (statusCode != HttpResponseStatus.OK.code()) {
+					abortCacheWriter();
+				}
+			}
+			return STATE.CONTINUE;
+		}
+		finish(HttpResponseStatus.valueOf(statusCode));
+		return STATE.ABORT;
+	}
+
+	@Override
+	public STATE onHeadersReceived(HttpResponseHeaders responseHeaders) throws Exception {
+		HttpHeaders httpHeaders = new DefaultHttpHeaders();
+		ProxyResponse.copyResponseHeaders(responseHeaders.getHeaders(), httpHeaders);
+		synchronized (this) {
+			if (cacheWriter != null && !cacheWriter.acceptHeaders(responseHeaders.getHeaders())) {
+				cacheWriter = null;
+			}
+			headers = httpHeaders;
+			for (Subscriber subscriber : subscribers) {
+				subscriber.writeHeaders(status, headers);
+			}
+			return isAbandoned() ? STATE.ABORT : STATE.CONTINUE;
+		}
+	}
+
+	@Override
+	public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+		ByteBuf part = Unpooled.wrappedBuffer(bodyPart.getBodyByteBuffer());
+		synchronized (this) {
+			long offset = receivedSize;
+			int size = part.readableBytes();
+			receivedSize += size;
+			if (cacheWriter != null) {
+				cacheWriter.write(part.nioBuffer());
+			}
+			// slow subscribers may be disconnected
+			for (Subscriber subscriber : new ArrayList<Subscriber>(subscribers)) {
+				subscriber.onPart(part, offset);
+			}
+			boolean buffered = false;
+			// late joiners read the .downloading file instead
+			if (joinable && !isStoredToFile()) {
+				if (bufferedSize == offset && bufferedSize + size <= maxBufferSize && bufferBudget.reserve(size)) {
+					parts.add(part);
+					bufferedSize += size;
+					buffered = true;
+				} else {
+					log.debug("{} does not fit the buffer, no more clients can join", sourceUrl);
+					joinable = false;
+					releaseParts();
+				}
+			}
+			if (!buffered) {
+				part.release();
+			}
+			return isAbandoned() ? STATE.ABORT : STATE.CONTINUE;
+		}
+	}
+
+	@Override
+	public String onCompleted() throws Exception {
+		log.trace("onCompleted {}", sourceUrl);
+		finish(null);
+		return "OK";
+	}
+
+	@Override
+	public void onThrowable(Throwable t) {
+		if (!(t instanceof ClosedChannelException)) {
+			log.trace("onThrowable", t);
+		}
+		finish(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+	}
+
+	/**
+	 * Nobody is listening and nobody can join
+	 */
+	private boolean isAbandoned() {
+		// the content is still stored for the next clients
+		if (subscribers.isEmpty() && (cacheWriter == null || !cacheWriter.isOpen())) {
+			joinable = false;
+			releaseParts();
+			return true;
+		}
+		return false;
+	}
+
+	private void abortCacheWriter() {
+		if (cacheWriter != null) {
+			cacheWriter.abort();
+			cacheWriter = null;
+		}
+	}
+
+	private void releaseParts() {
+		for (ByteBuf part : parts) {
+			part.release();
+		}
+		parts.clear();
+		bufferBudget.release(bufferedSize);
+		bufferedSize = 0;
+	}
+
+	/**
+	 * @param errorStatus
+	 *            null if the response is complete
+	 */
+	protected void finish(HttpResponseStatus errorStatus) {
+		synchronized (this) {
+			if (finished) {
+				return;
+			}
+			finished = true;
+			joinable = false;
+			if (errorStatus == null && cacheWriter != null) {
+				cacheWriter.commit();
+			} else {
+				abortCacheWriter();
+			}
+			for (Subscriber subscriber : subscribers) {
+				if (errorStatus == null) {
+					subscriber.writeLastContent();
+				} else if (subscriber.responseWritten) {
+					// response is truncated
+					subscriber.closeFile();
+					subscriber.ctx.channel().close();
+				} else {
+					ProxyResponse.writeStatusResponse(subscriber.ctx, errorStatus, errorStatus.reasonPhrase(), subscriber.keepAlive);
+				}
+				subscriber.ctx.channel().closeFuture().removeListener(subscriber.closeListener);
+			}
+			subscribers.clear();
+			releaseParts();
+		}
+		// outside of the lock, listeners may start another flight
+		donePromise.trySuccess(null);
+	}
+
+	class Subscriber {
+
+		private ChannelHandlerContext ctx;
+		private HttpVersion protocolVersion;
+		private boolean keepAlive;
+		private boolean responseWritten = false;
+		private ChannelFutureListener closeListener;
+		// written but not sent yet
+		private AtomicLong pendingBytes = new AtomicLong();
+		// open while the subscriber lags behind, the content from fileOffset is
+		// sent from the file
+		private RandomAccessFile file;
+		private long fileOffset;
+
+		Subscriber(ChannelHandlerContext ctx, FullHttpRequest httpRequest) {
+			this.ctx = ctx;
+			this.protocolVersion = httpRequest.getProtocolVersion();
+			this.keepAlive = HttpHeaders.isKeepAlive(httpRequest);
+		}
+
+		private boolean supportChunks() {
+			return protocolVersion.equals(HttpVersion.HTTP_1_1);
+		}
+
+		void writeHeaders(HttpResponseStatus status, HttpHeaders headers) {
+			HttpResponse response = new DefaultHttpResponse(protocolVersion, status);
+			response.headers().set(headers);
+			if (!ProxyResponse.setHeaderTransferEncoding(response.headers(), supportChunks())) {
+				keepAlive = false;
+			}
+			HttpResponseProvider.setHeaderConnection(protocolVersion, response, keepAlive);
+			ctx.write(response);
+			responseWritten = true;
+		}
+
+		void onPart(ByteBuf part, long offset) {
+			if (file != null) {
+				if (!isStoredToFile()) {
+					log.debug("Client of {} lost the content stored to the file", sourceUrl);
+					closeFile();
+					ctx.channel().close();
+					return;
+				}
+				if (!ctx.channel().isWritable()) {
+					return;
+				}
+				replayFile(offset);
+			} else if (!ctx.channel().isWritable()) {
+				if (isStoredToFile() && openFile(offset)) {
+					return;
+				}
+				if (pendingBytes.get() > maxBufferSize) {
+					log.debug("Client of {} is too slow", sourceUrl);
+					ctx.channel().close();
+					return;
+				}
+			}
+			writePart(part);
+		}
+
+		void writePart(ByteBuf part) {
+			ByteBuf content = part.duplicate().retain();
+			final int size = content.readableBytes();
+			pendingBytes.addAndGet(size);
+			ChannelFuture future;
+			if (supportChunks()) {
+				future = ctx.writeAndFlush(new DefaultHttpContent(content));
+			} else {
+				future = ctx.writeAndFlush(content);
+			}
+			future.addListener(new ChannelFutureListener() {
+				@Override
+				public void operationComplete(ChannelFuture future) throws Exception {
+					pendingBytes.addAndGet(-size);
+				}
+			});
+		}
+
+		/**
+		 * Opens the .downloading file, the content from the offset is sent
+		 * from it
+		 */
+		boolean openFile(long offset) {
+			try {
+				file = new RandomAccessFile(cacheWriter.getDownloadingFile(), "r");
+				fileOffset = offset;
+				return true;
+			} catch (IOException e) {
+				log.debug("Unable to read {}: {}", cacheWriter.getDownloadingFile().getPath(), e.getMessage());
+				return false;
+			}
+		}
+
+		/**
+		 * Sends the file content up to the given offset, the next parts are
+		 * sent as they come. The file is written at the pace of the channel.
+		 */
+		void replayFile(long endOffset) {
+			try {
+				if (endOffset > fileOffset) {
+					ctx.writeAndFlush(new ChunkedFile(file, fileOffset, endOffset - fileOffset, FILE_CHUNK_SIZE));
+					file = null;
+				}
+			} catch (IOException e) {
+				log.debug("Unable to replay {}: {}", sourceUrl, e.getMessage());
+				ctx.channel().close();
+			}
+			closeFile();
+		}
+
+		void closeFile() {
+			IOUtils.closeQuietly(file);
+			file = null;
+		}
+
+		void writeLastContent() {
+			if (file != null) {
+				replayFile(receivedSize);
+			}
+			ChannelFuture lastContentFuture = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+			if (!keepAlive) {
+				lastContentFuture.addListener(ChannelFutureListener.CLOSE);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+package com.euromoby.http;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.agent.Config;
+import com.euromoby.cdn.CdnFileCache;
+import com.euromoby.file.FileIndex;
+import com.euromoby.file.FilePrecompressor;
+import com.ning.http.client.AsyncHttpClient.BoundRequestBuilder;
+
+/**
+ * Coalesces concurrent proxy requests for the same source URL into a single
+ * origin fetch ({@link ProxyFlight}). Requests whose response depends on
+ * their own headers (ranges, conditional or authorized requests) are proxied
+ * one by one. The memory the flights keep for the clients joining late is
+ * limited by agent.cdn.proxy.buffer.total.
+ */
+@Component
+public class ProxyFlightManager {
+
+	private static final Logger log = LoggerFactory.getLogger(ProxyFlightManager.class);
+
+	public static final List<String> REQUEST_HEADERS_NOT_SHARED = Arrays.asList(
+			HttpHeaders.Names.RANGE,
+			HttpHeaders.Names.IF_RANGE,
+			HttpHeaders.Names.IF_MODIFIED_SINCE,
+			HttpHeaders.Names.IF_NONE_MATCH,
+			HttpHeaders.Names.AUTHORIZATION
+			);
+
+	private Config config;
+	private AsyncHttpClientProvider asyncHttpClientProvider;
+	private FilePrecompressor filePrecompressor;
+	private FileIndex fileIndex;
+	private CdnFileCache cdnFileCache;
+	private ProxyBufferBudget bufferBudget;
+
+	private ConcurrentMap<String, ProxyFlight> flights = new ConcurrentHashMap<String, ProxyFlight>();
+
+	@Autowired
+	public ProxyFlightManager(Config config, AsyncHttpClientProvider asyncHttpClientProvider, FilePrecompressor filePrecompressor, FileIndex fileIndex, CdnFileCache cdnFileCache) {
+		this.config = config;
+		this.asyncHttpClientProvider = asyncHttpClientProvider;
+		this.filePrecompressor = filePrecompressor;
+		this.fileIndex = fileIndex;
+		this.cdnFileCache = cdnFileCache;
+		this.bufferBudget = new ProxyBufferBudget(config.getCdnProxyBufferTotal());
+	}
+
+	public boolean isShareable(FullHttpRequest httpRequest) {
+		for (String headerName : REQUEST_HEADERS_NOT_SHARED) {
+			if (httpRequest.headers().contains(headerName)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Only complete responses for anybody can be stored
+	 */
+	public boolean isCacheFillable(FullHttpRequest httpRequest) {
+		return !httpRequest.headers().contains(HttpHeaders.Names.RANGE) && !httpRequest.headers().contains(HttpHeaders.Names.AUTHORIZATION);
+	}
+
+	public int getFlightCount() {
+		return flights.size();
+	}
+
+	public ProxyBufferBudget getBufferBudget() {
+		return bufferBudget;
+	}
+
+	/**
+	 * Sends the response of the source URL to the client.
+	 *
+	 * @return true if a new request to the origin was made, false if the
+	 *         client joined the request made for another client
+	 */
+	public boolean proxy(ChannelHandlerContext ctx, FullHttpRequest httpRequest, String sourceUrl) {
+		return proxy(ctx, httpRequest, sourceUrl, null);
+	}
+
+	/**
+	 * Sends the response of the source URL to the client and stores it to the
+	 * cache file (if the request is cache fillable).
+	 *
+	 * @param cacheFile
+	 *            where the content is stored (may be null)
+	 * @return true if a new request to the origin was made, false if the
+	 *         client joined the request made for another client
+	 */
+	public boolean proxy(ChannelHandlerContext ctx, FullHttpRequest httpRequest, String sourceUrl, File cacheFile) {
+		return proxy(ctx, httpRequest, sourceUrl, cacheFile, false);
+	}
+
+	/**
+	 * Same as {@link #proxy(ChannelHandlerContext, FullHttpRequest, String, File)}
+	 * for the CDN url of another agent
+	 */
+	public boolean proxyFromAgent(ChannelHandlerContext ctx, FullHttpRequest httpRequest, String agentUrl, File cacheFile) {
+		return proxy(ctx, httpRequest, agentUrl, cacheFile, true);
+	}
+
+	protected boolean proxy(ChannelHandlerContext ctx, FullHttpRequest httpRequest, String sourceUrl, File cacheFile, boolean agentRequest) {
+		if (!isShareable(httpRequest)) {
+			ProxyCacheWriter cacheWriter = isCacheFillable(httpRequest) ? createCacheWriter(cacheFile) : null;
+			new ProxyResponse(asyncHttpClientProvider, agentRequest).proxy(ctx, httpRequest, sourceUrl, cacheWriter);
+			return true;
+		}
+
+		ProxyFlight flight;
+		synchronized (flights) {
+			flight = flights.get(sourceUrl);
+			if (flight != null && flight.join(ctx, httpRequest)) {
+				log.debug("Joined the request to {}", sourceUrl);
+				return false;
+			}
+			flight = new ProxyFlight(sourceUrl, config.getCdnProxyBuffer(), bufferBudget, createCacheWriter(cacheFile));
+			flight.join(ctx, httpRequest);
+			flights.put(sourceUrl, flight);
+		}
+
+		final ProxyFlight newFlight = flight;
+		newFlight.getDonePromise().addListener(new GenericFutureListener<Future<Void>>() {
+			@Override
+			public void operationComplete(Future<Void> future) throws Exception {
+				flights.remove(newFlight.getSourceUrl(), newFlight);
+			}
+		});
+		start(newFlight, httpRequest, agentRequest);
+		return true;
+	}
+
+	protected ProxyCacheWriter createCacheWriter(File cacheFile) {
+		if (cacheFile == null) {
+			return null;
+		}
+		try {
+			return new ProxyCacheWriter(cacheFile, filePrecompressor, fileIndex, cdnFileCache);
+		} catch (IOException e) {
+			log.warn("Unable to store {}: {}", cacheFile.getPath(), e.getMessage());
+			return null;
+		}
+	}
+
+	protected void start(ProxyFlight flight, FullHttpRequest httpRequest, boolean agentRequest) {
+		try {
+			BoundRequestBuilder boundRequestBuilder = ProxyResponse.prepareRequest(asyncHttpClientProvider, flight.getSourceUrl(), httpRequest, agentRequest);
+			boundRequestBuilder.execute(flight);
+		} catch (Exception e) {
+			log.debug("Request to {} failed: {}", flight.getSourceUrl(), e.getMessage());
+			flight.onThrowable(e);
+		}
+	}
+
+}
@@ -1,5 +1,6 @@
 package com.euromoby.http;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
@@ -47,23 +48,59 @@ public class ProxyResponse {
 			);
 	
 	
+	/**
+	 * Marks requests made by other agents (these are never proxied again)
+	 */
+	public static final String AGENT_REQUEST_HEADER = "X-Agent-Request";
+
 	private AsyncHttpClientProvider asyncHttpClientProvider;
+	private boolean agentRequest;
 	
 	public ProxyResponse(AsyncHttpClientProvider asyncHttpClientProvider) {
+		this(asyncHttpClientProvider, false);
+	}
+
+	/**
+	 * @param agentRequest
+	 *            the source is another agent (no HTTP proxy is used)
+	 */
+	public ProxyResponse(AsyncHttpClientProvider asyncHttpClientProvider, boolean agentRequest) {
 		this.asyncHttpClientProvider = asyncHttpClientProvider;
+		this.agentRequest = agentRequest;
 	}
 	
 	public void proxy(ChannelHandlerContext ctx, FullHttpRequest httpRequest, String sourceUrl) {
+		proxy(ctx, httpRequest, sourceUrl, null);
+	}
+
+	/**
+	 * Returns at once, the response is written by the async handler
+	 *
+	 * @param cacheWriter
+	 *            stores the response body too (may be null)
+	 */
+	public void proxy(ChannelHandlerContext ctx, FullHttpRequest httpRequest, String sourceUrl, ProxyCacheWriter cacheWriter) {
 		try {
-			BoundRequestBuilder boundRequestBuilder = asyncHttpClientProvider.prepareGet(sourceUrl, false);
-			boundRequestBuilder.setHeaders(prepareHeaders(httpRequest.headers()));
-			boundRequestBuilder.execute(new ProxyAsyncHandler(ctx, httpRequest)).get();
+			BoundRequestBuilder boundRequestBuilder = prepareRequest(asyncHttpClientProvider, sourceUrl, httpRequest, agentRequest);
+			boundRequestBuilder.execute(new ProxyAsyncHandler(ctx, httpRequest, cacheWriter));
 		} catch (Exception e) {
-			writeStatusResponse(ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR, HttpResponseStatus.INTERNAL_SERVER_ERROR.reasonPhrase());
+			if (cacheWriter != null) {
+				cacheWriter.abort();
+			}
+			writeStatusResponse(ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR, HttpResponseStatus.INTERNAL_SERVER_ERROR.reasonPhrase(), HttpHeaders.isKeepAlive(httpRequest));
 		}
 	}
 
-	protected Map<String, Collection<String>> prepareHeaders(HttpHeaders httpHeaders) {
+	protected static BoundRequestBuilder prepareRequest(AsyncHttpClientProvider asyncHttpClientProvider, String sourceUrl, FullHttpRequest httpRequest, boolean agentRequest) throws Exception {
+		BoundRequestBuilder boundRequestBuilder = asyncHttpClientProvider.prepareGet(sourceUrl, agentRequest);
+		boundRequestBuilder.setHeaders(prepareHeaders(httpRequest.headers()));
+		if (agentRequest) {
+			boundRequestBuilder.setHeader(AGENT_REQUEST_HEADER, Boolean.TRUE.toString());
+		}
+		return boundRequestBuilder;
+	}
+
+	protected static Map<String, Collection<String>> prepareHeaders(HttpHeaders httpHeaders) {
 		Map<String, Collection<String>> headers = new HashMap<String, Collection<String>>();
 		
 		for (String httpHeaderName : httpHeaders.names()) {
@@ -79,24 +116,80 @@ public class ProxyResponse {
 		return httpRequest.getProtocolVersion().equals(HttpVersion.HTTP_1_1);
 	}	
 	
-	protected void writeStatusResponse(ChannelHandlerContext ctx, HttpResponseStatus status, String message) {
+	protected static void copyResponseHeaders(Map<String, List<String>> headersMap, HttpHeaders httpHeaders) {
+		for (String headerName : headersMap.keySet()) {
+			if (RESPONSE_HEADERS_TO_REMOVE.contains(headerName.toLowerCase())) {
+				continue;
+			}
+			if (headerName.toLowerCase().startsWith("x-")) {
+				continue;
+			}
+			if (headerName.toLowerCase().startsWith("proxy")) {
+				continue;
+			}
+			httpHeaders.set(headerName, headersMap.get(headerName));
+		}
+	}
+
+	/**
+	 * Sets the headers which delimit the proxied body: chunked for HTTP/1.1,
+	 * the length of the origin for HTTP/1.0
+	 *
+	 * @return false if the body can only be delimited by closing the
+	 *         connection
+	 */
+	protected static boolean setHeaderTransferEncoding(HttpHeaders httpHeaders, boolean supportChunks) {
+		if (supportChunks) {
+			httpHeaders.remove(HttpHeaders.Names.CONTENT_LENGTH);
+			httpHeaders.set(HttpHeaders.Names.TRANSFER_ENCODING, HttpHeaders.Values.CHUNKED);
+			return true;
+		}
+		return httpHeaders.contains(HttpHeaders.Names.CONTENT_LENGTH);
+	}
+
+	/**
+	 * @param keepAlive
+	 *            the client wants to reuse the connection
+	 */
+	protected static void writeStatusResponse(ChannelHandlerContext ctx, HttpResponseStatus status, String message, boolean keepAlive) {
 		// Build the response object.
-		FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, HttpUtils.fromString(message));
-		response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/plain; charset=UTF-8");
+		boolean hasBody = HttpResponseProvider.hasBody(status);
+		FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, hasBody ? HttpUtils.fromString(ctx.alloc(), message) : Unpooled.EMPTY_BUFFER);
+		if (hasBody) {
+			response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/plain; charset=UTF-8");
+			response.headers().set(HttpHeaders.Names.CONTENT_LENGTH, response.content().readableBytes());
+		}
+		if (!keepAlive) {
+			response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+		}
 		// Write the response.
 		ChannelFuture future = ctx.channel().writeAndFlush(response);
-		future.addListener(ChannelFutureListener.CLOSE);
+		if (!keepAlive) {
+			future.addListener(ChannelFutureListener.CLOSE);
+		}
 	}	
 
 	class ProxyAsyncHandler implements AsyncHandler<String> {
 		
 		private ChannelHandlerContext ctx;
 		private FullHttpRequest httpRequest;
+		private ProxyCacheWriter cacheWriter;
         private int responseCode = HttpResponseStatus.OK.code();
+        private boolean keepAlive;
+        private boolean responseWritten = false;
         
-		public ProxyAsyncHandler(ChannelHandlerContext ctx, FullHttpRequest httpRequest) {
+		public ProxyAsyncHandler(ChannelHandlerContext ctx, FullHttpRequest httpRequest, ProxyCacheWriter cacheWriter) {
 			this.ctx = ctx;
 			this.httpRequest = httpRequest;
+			this.cacheWriter = cacheWriter;
+			this.keepAlive = HttpHeaders.isKeepAlive(httpRequest);
+		}
+
+		private void abortCacheWriter() {
+			if (cacheWriter != null) {
+				cacheWriter.abort();
+				cacheWriter = null;
+			}
 		}
 		
 	    @Override
@@ -105,14 +198,19 @@ public class ProxyResponse {
 
             if (httpResponseStatus.getStatusCode() >= 200 && httpResponseStatus.getStatusCode() < 300) {
                 responseCode = httpResponseStatus.getStatusCode();
+                // only complete content is stored
+                if (responseCode != HttpResponseStatus.OK.code()) {
+                	abortCacheWriter();
+                }
                 return STATE.CONTINUE;
             }
+            abortCacheWriter();
             if (httpResponseStatus.getStatusCode() == HttpResponseStatus.NOT_MODIFIED.code()) {
-            	writeStatusResponse(ctx, HttpResponseStatus.NOT_MODIFIED, HttpResponseStatus.NOT_MODIFIED.reasonPhrase());
+            	writeStatusResponse(ctx, HttpResponseStatus.NOT_MODIFIED, HttpResponseStatus.NOT_MODIFIED.reasonPhrase(), keepAlive);
                 return STATE.ABORT;
             }
             HttpResponseStatus errorStatus = HttpResponseStatus.valueOf(httpResponseStatus.getStatusCode());
-            writeStatusResponse(ctx, errorStatus, errorStatus.reasonPhrase());
+            writeStatusResponse(ctx, errorStatus, errorStatus.reasonPhrase(), keepAlive);
             return STATE.ABORT;			    	
 	    }
 
@@ -122,26 +220,19 @@ public class ProxyResponse {
 	    	
 	    	HttpResponse response = new DefaultHttpResponse(httpRequest.getProtocolVersion(), HttpResponseStatus.valueOf(responseCode));
 	    	
-	    	Map<String, List<String>> headersMap = headers.getHeaders();
 	    	HttpHeaders httpHeaders = response.headers();
-	    	for (String headerName : headersMap.keySet()) {
-	    		if (RESPONSE_HEADERS_TO_REMOVE.contains(headerName.toLowerCase())) {
-	    			continue;
-	    		}
-	    		if (headerName.toLowerCase().startsWith("x-")) {
-	    			continue;
-	    		}
-	    		if (headerName.toLowerCase().startsWith("proxy")) {
-	    			continue;
-	    		}	    		
-	    		httpHeaders.set(headerName, headersMap.get(headerName));
+	    	copyResponseHeaders(headers.getHeaders(), httpHeaders);
+	    	if (cacheWriter != null && !cacheWriter.acceptHeaders(headers.getHeaders())) {
+	    		cacheWriter = null;
 	    	}
 	    	
-			if (supportChunks(httpRequest)) {
-				httpHeaders.set(HttpHeaders.Names.TRANSFER_ENCODING, HttpHeaders.Values.CHUNKED);
-			}			    	
+			if (!setHeaderTransferEncoding(httpHeaders, supportChunks(httpRequest))) {
+				keepAlive = false;
+			}
+			HttpResponseProvider.setHeaderConnection(httpRequest.getProtocolVersion(), response, keepAlive);
 	    	
 	    	ctx.write(response);
+	    	responseWritten = true;
 	    	
 	        return STATE.CONTINUE;
 	    }
@@ -150,11 +241,15 @@ public class ProxyResponse {
 		public STATE onBodyPartReceived(final HttpResponseBodyPart bodyPart) throws Exception {
 	    	log.trace("onBodyPartReceived");
 	    	
+	    	ByteBuf content = Unpooled.wrappedBuffer(bodyPart.getBodyByteBuffer());
+	    	if (cacheWriter != null) {
+	    		cacheWriter.write(content.nioBuffer());
+	    	}
 	    	if (supportChunks(httpRequest)) {
-	    		ctx.write(new DefaultHttpContent(Unpooled.wrappedBuffer(bodyPart.getBodyByteBuffer())));
+	    		ctx.write(new DefaultHttpContent(content));
 	    		
 	    	} else {
-	    		ctx.write(Unpooled.wrappedBuffer(bodyPart.getBodyByteBuffer()));
+	    		ctx.write(content);
 	    	}
 	    	
 	    	return STATE.CONTINUE;
@@ -163,9 +258,12 @@ public class ProxyResponse {
 	    @Override
 		public String onCompleted() throws Exception {
 	    	log.trace("onCompleted");
+	    	if (cacheWriter != null) {
+	    		cacheWriter.commit();
+	    	}
 	    	
     		ChannelFuture lastContentFuture = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
-    		if (!HttpHeaders.isKeepAlive(httpRequest)) {
+    		if (!keepAlive) {
     			lastContentFuture.addListener(ChannelFutureListener.CLOSE);
     		}			    	
 	    	
@@ -174,9 +272,15 @@ public class ProxyResponse {
 
 		@Override
 		public void onThrowable(Throwable t) {
+			abortCacheWriter();
 			if (!(t instanceof ClosedChannelException)) {
 				log.trace("onThrowable", t);
-				writeStatusResponse(ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR, HttpResponseStatus.INTERNAL_SERVER_ERROR.reasonPhrase());
+				if (responseWritten) {
+					// response is truncated
+					ctx.channel().close();
+				} else {
+					writeStatusResponse(ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR, HttpResponseStatus.INTERNAL_SERVER_ERROR.reasonPhrase(), keepAlive);
+				}
 			}
 		}
 
@@ -21,6 +21,8 @@ import com.euromoby.utils.StringUtils;
  */
 public class SmartHttpContentCompressor extends HttpContentCompressor {
 
+    public static final int MIN_COMPRESSIBLE_LENGTH = 1024;
+
     private boolean passThrough;
 
     @Override
@@ -35,6 +37,9 @@ public class SmartHttpContentCompressor extends HttpContentCompressor {
                 passThrough = true;
                 // Remove header as one SHOULD NOT send Identity as content encoding.
                 res.headers().remove(HttpHeaders.Names.CONTENT_ENCODING);
+            } else if (res.headers().contains(HttpHeaders.Names.CONTENT_ENCODING)) {
+                // Already encoded (e.g. precompressed file)
+                passThrough = true;
             } else {
                 // If the content type is not compressable (jpg, png ...), we skip compression
                 String contentType = res.headers().get(HttpHeaders.Names.CONTENT_TYPE);
@@ -47,7 +52,7 @@ public class SmartHttpContentCompressor extends HttpContentCompressor {
                     if (!StringUtils.nullOrEmpty(contentLengthString)) {
                     	contentLength = Integer.parseInt(contentLengthString);
                     }
-                    if (contentLength > 0 && contentLength < 1024) {
+                    if (contentLength > 0 && contentLength < MIN_COMPRESSIBLE_LENGTH) {
                         passThrough = true;
                     }
                 }
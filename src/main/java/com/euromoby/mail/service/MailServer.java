@@ -3,6 +3,9 @@ package com.euromoby.mail.service;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.euromoby.agent.Config;
+import com.euromoby.network.ByteBufAllocatorProvider;
+import com.euromoby.network.EventLoopManager;
 import com.euromoby.service.NettyService;
 
 @Component
@@ -12,8 +15,8 @@ public class MailServer extends NettyService {
 	public static final int MAIL_PORT = 25;
 	
 	@Autowired
-	public MailServer(MailServerInitializer initializer) {
-		super(initializer);
+	public MailServer(Config config, EventLoopManager eventLoopManager, ByteBufAllocatorProvider allocatorProvider, MailServerInitializer initializer) {
+		super(config, eventLoopManager, allocatorProvider, initializer);
 	}
 
 	@Override
@@ -0,0 +1,148 @@
+package com.euromoby.network;
+
+/**
+ * Snapshot of the buffer allocator state, serialized as JSON by the metrics
+ * endpoint
+ */
+public class AllocatorMetrics {
+
+	private String type;
+	private boolean directPreferred;
+	private int heapArenas;
+	private int directArenas;
+	private int chunkSize;
+
+	private long heapAllocations;
+	private long heapAllocatedBytes;
+	private long directAllocations;
+	private long directAllocatedBytes;
+
+	private long directBufferCount;
+	private long directMemoryUsed;
+	private long directMemoryCapacity;
+	private long maxDirectMemory;
+
+	private String leakDetectionLevel;
+	private long leaksReported;
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public boolean isDirectPreferred() {
+		return directPreferred;
+	}
+
+	public void setDirectPreferred(boolean directPreferred) {
+		this.directPreferred = directPreferred;
+	}
+
+	public int getHeapArenas() {
+		return heapArenas;
+	}
+
+	public void setHeapArenas(int heapArenas) {
+		this.heapArenas = heapArenas;
+	}
+
+	public int getDirectArenas() {
+		return directArenas;
+	}
+
+	public void setDirectArenas(int directArenas) {
+		this.directArenas = directArenas;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public long getHeapAllocations() {
+		return heapAllocations;
+	}
+
+	public void setHeapAllocations(long heapAllocations) {
+		this.heapAllocations = heapAllocations;
+	}
+
+	public long getHeapAllocatedBytes() {
+		return heapAllocatedBytes;
+	}
+
+	public void setHeapAllocatedBytes(long heapAllocatedBytes) {
+		this.heapAllocatedBytes = heapAllocatedBytes;
+	}
+
+	public long getDirectAllocations() {
+		return directAllocations;
+	}
+
+	public void setDirectAllocations(long directAllocations) {
+		this.directAllocations = directAllocations;
+	}
+
+	public long getDirectAllocatedBytes() {
+		return directAllocatedBytes;
+	}
+
+	public void setDirectAllocatedBytes(long directAllocatedBytes) {
+		this.directAllocatedBytes = directAllocatedBytes;
+	}
+
+	public long getDirectBufferCount() {
+		return directBufferCount;
+	}
+
+	public void setDirectBufferCount(long directBufferCount) {
+		this.directBufferCount = directBufferCount;
+	}
+
+	public long getDirectMemoryUsed() {
+		return directMemoryUsed;
+	}
+
+	public void setDirectMemoryUsed(long directMemoryUsed) {
+		this.directMemoryUsed = directMemoryUsed;
+	}
+
+	public long getDirectMemoryCapacity() {
+		return directMemoryCapacity;
+	}
+
+	public void setDirectMemoryCapacity(long directMemoryCapacity) {
+		this.directMemoryCapacity = directMemoryCapacity;
+	}
+
+	public long getMaxDirectMemory() {
+		return maxDirectMemory;
+	}
+
+	public void setMaxDirectMemory(long maxDirectMemory) {
+		this.maxDirectMemory = maxDirectMemory;
+	}
+
+	public String getLeakDetectionLevel() {
+		return leakDetectionLevel;
+	}
+
+	public void setLeakDetectionLevel(String leakDetectionLevel) {
+		this.leakDetectionLevel = leakDetectionLevel;
+	}
+
+	public long getLeaksReported() {
+		return leaksReported;
+	}
+
+	public void setLeaksReported(long leaksReported) {
+		this.leaksReported = leaksReported;
+	}
+
+}
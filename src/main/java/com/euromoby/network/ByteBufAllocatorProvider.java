@@ -0,0 +1,116 @@
+package com.euromoby.network;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.internal.PlatformDependent;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.agent.Config;
+
+/**
+ * Buffer allocator of the Netty services. Pooled buffers are reused by the
+ * event loops instead of being left to the GC after every response.
+ */
+@Component
+public class ByteBufAllocatorProvider implements DisposableBean {
+
+	public static final String POOLED = "pooled";
+	public static final String UNPOOLED = "unpooled";
+	public static final int PAGE_SIZE = 8192;
+	public static final int MAX_ORDER = 11;
+	public static final int CHUNK_SIZE = PAGE_SIZE << MAX_ORDER;
+
+	private static final String DIRECT_BUFFER_POOL = "direct";
+	private static final Logger LOG = LoggerFactory.getLogger(ByteBufAllocatorProvider.class);
+
+	private final boolean pooled;
+	private final boolean directPreferred;
+	private final int heapArenas;
+	private final int directArenas;
+	private final MeteredByteBufAllocator allocator;
+	private final LeakCounter leakCounter;
+
+	@Autowired
+	public ByteBufAllocatorProvider(Config config) {
+		setLeakDetectionLevel(config.getNettyLeakDetection());
+		leakCounter = LeakCounter.attach();
+
+		pooled = !UNPOOLED.equalsIgnoreCase(config.getNettyAllocator());
+		directPreferred = config.isNettyAllocatorDirect();
+		int arenas = config.getNettyAllocatorArenas();
+		if (pooled) {
+			// as Netty does, at most a third of the memory is kept in the arenas
+			heapArenas = arenas > 0 ? arenas : defaultArenas(Runtime.getRuntime().maxMemory());
+			directArenas = arenas > 0 ? arenas : defaultArenas(PlatformDependent.maxDirectMemory());
+			allocator = new MeteredByteBufAllocator(new PooledByteBufAllocator(directPreferred, heapArenas, directArenas, PAGE_SIZE, MAX_ORDER));
+		} else {
+			heapArenas = 0;
+			directArenas = 0;
+			allocator = new MeteredByteBufAllocator(new UnpooledByteBufAllocator(directPreferred));
+		}
+		LOG.debug("Using {} allocator with {} heap and {} direct arenas", pooled ? POOLED : UNPOOLED, heapArenas, directArenas);
+	}
+
+	private static int defaultArenas(long maxMemory) {
+		int arenas = Runtime.getRuntime().availableProcessors() * 2;
+		return (int) Math.max(0, Math.min(arenas, maxMemory / CHUNK_SIZE / 2 / 3));
+	}
+
+	private static void setLeakDetectionLevel(String level) {
+		try {
+			ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.valueOf(level.toUpperCase()));
+		} catch (IllegalArgumentException e) {
+			LOG.warn("Unknown leak detection level {}", level);
+		}
+	}
+
+	public ByteBufAllocator getAllocator() {
+		return allocator;
+	}
+
+	public AllocatorMetrics getMetrics() {
+		AllocatorMetrics metrics = new AllocatorMetrics();
+		metrics.setType(pooled ? POOLED : UNPOOLED);
+		metrics.setDirectPreferred(directPreferred);
+		metrics.setHeapArenas(heapArenas);
+		metrics.setDirectArenas(directArenas);
+		metrics.setChunkSize(pooled ? CHUNK_SIZE : 0);
+
+		metrics.setHeapAllocations(allocator.getHeapAllocations());
+		metrics.setHeapAllocatedBytes(allocator.getHeapAllocatedBytes());
+		metrics.setDirectAllocations(allocator.getDirectAllocations());
+		metrics.setDirectAllocatedBytes(allocator.getDirectAllocatedBytes());
+
+		// pooled direct memory is held by the arena chunks
+		for (BufferPoolMXBean bufferPool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if (DIRECT_BUFFER_POOL.equals(bufferPool.getName())) {
+				metrics.setDirectBufferCount(bufferPool.getCount());
+				metrics.setDirectMemoryUsed(bufferPool.getMemoryUsed());
+				metrics.setDirectMemoryCapacity(bufferPool.getTotalCapacity());
+			}
+		}
+		metrics.setMaxDirectMemory(PlatformDependent.maxDirectMemory());
+
+		metrics.setLeakDetectionLevel(ResourceLeakDetector.getLevel().name().toLowerCase());
+		metrics.setLeaksReported(leakCounter != null ? leakCounter.getLeaks() : 0);
+		return metrics;
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (leakCounter != null) {
+			leakCounter.detach();
+		}
+	}
+
+}
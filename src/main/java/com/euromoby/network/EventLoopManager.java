@@ -0,0 +1,204 @@
+package com.euromoby.network;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.agent.Config;
+
+/**
+ * Owns the event loops of all Netty services. By default the services share
+ * one boss and one worker group sized to the number of cores, instead of
+ * every service starting 2 x cores threads of its own. A service gets
+ * dedicated loops when agent.&lt;service&gt;.threads is set, and a dedicated
+ * boss group when it has several SO_REUSEPORT acceptors. The services listed
+ * in agent.netty.isolated (cdn by default) always get loops of their own, so
+ * the handlers doing database or disk work on the shared loops (rest, mail,
+ * telnet) cannot stall them. Groups are shut down when the last service using
+ * them is released.
+ */
+@Component
+public class EventLoopManager implements DisposableBean {
+
+	public static final String SHARED_BOSS = "boss";
+	public static final String SHARED_WORKER = "worker";
+	public static final String THREAD_PREFIX = "netty-";
+
+	private static final Logger LOG = LoggerFactory.getLogger(EventLoopManager.class);
+
+	private final Map<String, LoopGroup> groups = new LinkedHashMap<String, LoopGroup>();
+
+	private Config config;
+	private NettyTransport transport;
+
+	@Autowired
+	public EventLoopManager(Config config) {
+		this.config = config;
+		this.transport = NettyTransport.select(config.getNettyTransport());
+	}
+
+	public NettyTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * @param acceptors number of server channels the service binds
+	 */
+	public synchronized EventLoopGroup acquireBossGroup(String serviceName, int acceptors) {
+		if (acceptors > 1) {
+			return acquire(serviceName + "-boss", acceptors, false, serviceName);
+		}
+		return acquire(SHARED_BOSS, config.getNettyBossThreads(), true, serviceName);
+	}
+
+	public synchronized EventLoopGroup acquireWorkerGroup(String serviceName) {
+		int threads = config.getServerThreads(serviceName);
+		if (threads > 0) {
+			return acquire(serviceName + "-worker", threads, false, serviceName);
+		}
+		if (isIsolated(serviceName)) {
+			return acquire(serviceName + "-worker", getSharedWorkerThreads(), false, serviceName);
+		}
+		return acquire(SHARED_WORKER, getSharedWorkerThreads(), true, serviceName);
+	}
+
+	private boolean isIsolated(String serviceName) {
+		for (String isolated : config.getNettyIsolatedServices()) {
+			if (isolated.trim().equals(serviceName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int getSharedWorkerThreads() {
+		int threads = config.getNettyWorkerThreads();
+		return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	private EventLoopGroup acquire(String name, int threads, boolean shared, String serviceName) {
+		LoopGroup loopGroup = groups.get(name);
+		if (loopGroup == null) {
+			EventLoopGroup group = transport.newEventLoopGroup(threads, new DefaultThreadFactory(THREAD_PREFIX + name));
+			loopGroup = new LoopGroup(name, threads, shared, group);
+			groups.put(name, loopGroup);
+			LOG.debug("Started {} event loop group with {} threads", name, threads);
+		}
+		loopGroup.services.add(serviceName);
+		return loopGroup.group;
+	}
+
+	/**
+	 * Detaches the service from its groups, the groups nobody uses are shut
+	 * down
+	 */
+	public synchronized void release(String serviceName) {
+		List<LoopGroup> unused = new ArrayList<LoopGroup>();
+		for (LoopGroup loopGroup : groups.values()) {
+			if (loopGroup.services.remove(serviceName) && loopGroup.services.isEmpty()) {
+				unused.add(loopGroup);
+			}
+		}
+		for (LoopGroup loopGroup : unused) {
+			groups.remove(loopGroup.name);
+			loopGroup.group.shutdownGracefully();
+			LOG.debug("Stopped {} event loop group", loopGroup.name);
+		}
+	}
+
+	/**
+	 * @return the running groups in the order they were started
+	 */
+	public synchronized List<GroupInfo> getGroups() {
+		List<GroupInfo> list = new ArrayList<GroupInfo>();
+		for (LoopGroup loopGroup : groups.values()) {
+			list.add(new GroupInfo(loopGroup.name, loopGroup.threads, loopGroup.shared, new TreeSet<String>(loopGroup.services)));
+		}
+		return list;
+	}
+
+	public synchronized int getThreadCount() {
+		int threads = 0;
+		for (LoopGroup loopGroup : groups.values()) {
+			threads += loopGroup.threads;
+		}
+		return threads;
+	}
+
+	@Override
+	public synchronized void destroy() throws Exception {
+		for (LoopGroup loopGroup : groups.values()) {
+			loopGroup.group.shutdownGracefully();
+		}
+		groups.clear();
+	}
+
+	private static class LoopGroup {
+		private final String name;
+		private final int threads;
+		private final boolean shared;
+		private final EventLoopGroup group;
+		private final Set<String> services = new TreeSet<String>();
+
+		LoopGroup(String name, int threads, boolean shared, EventLoopGroup group) {
+			this.name = name;
+			this.threads = threads;
+			this.shared = shared;
+			this.group = group;
+		}
+	}
+
+	public static class GroupInfo {
+		private final String name;
+		private final int threads;
+		private final boolean shared;
+		private final Set<String> services;
+
+		public GroupInfo(String name, int threads, boolean shared, Set<String> services) {
+			this.name = name;
+			this.threads = threads;
+			this.shared = shared;
+			this.services = Collections.unmodifiableSet(services);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return prefix of the names of the group threads
+		 */
+		public String getThreadName() {
+			return THREAD_PREFIX + name;
+		}
+
+		public int getThreads() {
+			return threads;
+		}
+
+		public boolean isShared() {
+			return shared;
+		}
+
+		/**
+		 * @return services whose channels are pinned to the group
+		 */
+		public Set<String> getServices() {
+			return services;
+		}
+	}
+
+}
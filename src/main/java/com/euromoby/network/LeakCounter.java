@@ -0,0 +1,59 @@
+package com.euromoby.network;
+
+import io.netty.util.ResourceLeakDetector;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+
+/**
+ * Counts the leaks reported by the sampling {@link ResourceLeakDetector}. Netty
+ * reports them only to its log, so the counter is attached to the detector
+ * logger.
+ */
+public class LeakCounter extends AppenderBase<ILoggingEvent> {
+
+	public static final String LEAK_PREFIX = "LEAK:";
+
+	private final AtomicLong leaks = new AtomicLong();
+
+	@Override
+	protected void append(ILoggingEvent event) {
+		String message = event.getFormattedMessage();
+		if (event.getLevel().isGreaterOrEqual(Level.ERROR) && message != null && message.startsWith(LEAK_PREFIX)) {
+			leaks.incrementAndGet();
+		}
+	}
+
+	public long getLeaks() {
+		return leaks.get();
+	}
+
+	/**
+	 * @return the counter or null if slf4j is not bound to logback
+	 */
+	public static LeakCounter attach() {
+		org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ResourceLeakDetector.class);
+		if (!(logger instanceof Logger)) {
+			return null;
+		}
+		LeakCounter leakCounter = new LeakCounter();
+		leakCounter.setName(LeakCounter.class.getSimpleName());
+		leakCounter.setContext(((Logger) logger).getLoggerContext());
+		leakCounter.start();
+		((Logger) logger).addAppender(leakCounter);
+		return leakCounter;
+	}
+
+	public void detach() {
+		org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ResourceLeakDetector.class);
+		if (logger instanceof Logger) {
+			((Logger) logger).detachAppender(this);
+		}
+		stop();
+	}
+
+}
@@ -0,0 +1,152 @@
+package com.euromoby.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the buffers requested from the underlying allocator, so the
+ * allocation rate of the servers can be compared with and without pooling
+ */
+public class MeteredByteBufAllocator implements ByteBufAllocator {
+
+	private final ByteBufAllocator allocator;
+
+	private final AtomicLong heapAllocations = new AtomicLong();
+	private final AtomicLong heapAllocatedBytes = new AtomicLong();
+	private final AtomicLong directAllocations = new AtomicLong();
+	private final AtomicLong directAllocatedBytes = new AtomicLong();
+
+	public MeteredByteBufAllocator(ByteBufAllocator allocator) {
+		this.allocator = allocator;
+	}
+
+	public ByteBufAllocator getAllocator() {
+		return allocator;
+	}
+
+	public long getHeapAllocations() {
+		return heapAllocations.get();
+	}
+
+	public long getHeapAllocatedBytes() {
+		return heapAllocatedBytes.get();
+	}
+
+	public long getDirectAllocations() {
+		return directAllocations.get();
+	}
+
+	public long getDirectAllocatedBytes() {
+		return directAllocatedBytes.get();
+	}
+
+	private ByteBuf count(ByteBuf buf) {
+		if (buf.isDirect()) {
+			directAllocations.incrementAndGet();
+			directAllocatedBytes.addAndGet(buf.capacity());
+		} else {
+			heapAllocations.incrementAndGet();
+			heapAllocatedBytes.addAndGet(buf.capacity());
+		}
+		return buf;
+	}
+
+	@Override
+	public ByteBuf buffer() {
+		return count(allocator.buffer());
+	}
+
+	@Override
+	public ByteBuf buffer(int initialCapacity) {
+		return count(allocator.buffer(initialCapacity));
+	}
+
+	@Override
+	public ByteBuf buffer(int initialCapacity, int maxCapacity) {
+		return count(allocator.buffer(initialCapacity, maxCapacity));
+	}
+
+	@Override
+	public ByteBuf ioBuffer() {
+		return count(allocator.ioBuffer());
+	}
+
+	@Override
+	public ByteBuf ioBuffer(int initialCapacity) {
+		return count(allocator.ioBuffer(initialCapacity));
+	}
+
+	@Override
+	public ByteBuf ioBuffer(int initialCapacity, int maxCapacity) {
+		return count(allocator.ioBuffer(initialCapacity, maxCapacity));
+	}
+
+	@Override
+	public ByteBuf heapBuffer() {
+		return count(allocator.heapBuffer());
+	}
+
+	@Override
+	public ByteBuf heapBuffer(int initialCapacity) {
+		return count(allocator.heapBuffer(initialCapacity));
+	}
+
+	@Override
+	public ByteBuf heapBuffer(int initialCapacity, int maxCapacity) {
+		return count(allocator.heapBuffer(initialCapacity, maxCapacity));
+	}
+
+	@Override
+	public ByteBuf directBuffer() {
+		return count(allocator.directBuffer());
+	}
+
+	@Override
+	public ByteBuf directBuffer(int initialCapacity) {
+		return count(allocator.directBuffer(initialCapacity));
+	}
+
+	@Override
+	public ByteBuf directBuffer(int initialCapacity, int maxCapacity) {
+		return count(allocator.directBuffer(initialCapacity, maxCapacity));
+	}
+
+	@Override
+	public CompositeByteBuf compositeBuffer() {
+		return allocator.compositeBuffer();
+	}
+
+	@Override
+	public CompositeByteBuf compositeBuffer(int maxNumComponents) {
+		return allocator.compositeBuffer(maxNumComponents);
+	}
+
+	@Override
+	public CompositeByteBuf compositeHeapBuffer() {
+		return allocator.compositeHeapBuffer();
+	}
+
+	@Override
+	public CompositeByteBuf compositeHeapBuffer(int maxNumComponents) {
+		return allocator.compositeHeapBuffer(maxNumComponents);
+	}
+
+	@Override
+	public CompositeByteBuf compositeDirectBuffer() {
+		return allocator.compositeDirectBuffer();
+	}
+
+	@Override
+	public CompositeByteBuf compositeDirectBuffer(int maxNumComponents) {
+		return allocator.compositeDirectBuffer(maxNumComponents);
+	}
+
+	@Override
+	public boolean isDirectBufferPooled() {
+		return allocator.isDirectBufferPooled();
+	}
+
+}
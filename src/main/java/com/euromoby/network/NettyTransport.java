@@ -0,0 +1,129 @@
+package com.euromoby.network;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Netty transport used by the servers and their outbound connections. The
+ * native epoll transport is used on Linux when its library can be loaded, NIO
+ * everywhere else.
+ */
+public enum NettyTransport {
+
+	NIO("nio") {
+		@Override
+		public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+			return new NioEventLoopGroup(threads, threadFactory);
+		}
+
+		@Override
+		public Class<? extends ServerChannel> getServerChannelClass() {
+			return NioServerSocketChannel.class;
+		}
+
+		@Override
+		public Class<? extends SocketChannel> getSocketChannelClass() {
+			return NioSocketChannel.class;
+		}
+
+		@Override
+		public boolean isReusePortSupported() {
+			return false;
+		}
+	},
+
+	EPOLL("epoll") {
+		@Override
+		public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+			return new EpollEventLoopGroup(threads, threadFactory);
+		}
+
+		@Override
+		public Class<? extends ServerChannel> getServerChannelClass() {
+			return EpollServerSocketChannel.class;
+		}
+
+		@Override
+		public Class<? extends SocketChannel> getSocketChannelClass() {
+			return EpollSocketChannel.class;
+		}
+
+		@Override
+		public boolean isReusePortSupported() {
+			return true;
+		}
+	};
+
+	public static final String AUTO = "auto";
+
+	private static final Logger LOG = LoggerFactory.getLogger(NettyTransport.class);
+
+	private final String name;
+
+	private NettyTransport(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param threads number of event loops, 0 for the Netty default (2 x cores)
+	 */
+	public abstract EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory);
+
+	public abstract Class<? extends ServerChannel> getServerChannelClass();
+
+	public abstract Class<? extends SocketChannel> getSocketChannelClass();
+
+	/**
+	 * @return true if several server channels can be bound to the same port
+	 *         with SO_REUSEPORT
+	 */
+	public abstract boolean isReusePortSupported();
+
+	public static boolean isEpollAvailable() {
+		try {
+			// the native event loop works with memory addresses through Unsafe
+			return Epoll.isAvailable() && PlatformDependent.hasUnsafe();
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param name "auto", "epoll" or "nio"
+	 * @return the requested transport or NIO if it is not available
+	 */
+	public static NettyTransport select(String name) {
+		if (NIO.getName().equalsIgnoreCase(name)) {
+			return NIO;
+		}
+		if (!AUTO.equalsIgnoreCase(name) && !EPOLL.getName().equalsIgnoreCase(name)) {
+			LOG.warn("Unknown transport {}, using {}", name, AUTO);
+		}
+		if (isEpollAvailable()) {
+			return EPOLL;
+		}
+		if (EPOLL.getName().equalsIgnoreCase(name)) {
+			LOG.warn("Native epoll transport is not available, using {}", NIO.getName());
+		}
+		return NIO;
+	}
+
+}
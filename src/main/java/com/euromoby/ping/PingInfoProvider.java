@@ -4,6 +4,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.euromoby.agent.Config;
+import com.euromoby.file.FileIndex;
 import com.euromoby.ping.model.PingInfo;
 import com.euromoby.utils.SystemUtils;
 
@@ -11,15 +12,29 @@ import com.euromoby.utils.SystemUtils;
 public class PingInfoProvider {
 	
 	private Config config;
+	private FileIndex fileIndex;
+	private volatile long reportedFreeSpace = -1;
 	
 	@Autowired
-	public PingInfoProvider(Config config) {
+	public PingInfoProvider(Config config, FileIndex fileIndex) {
 		this.config = config;
+		this.fileIndex = fileIndex;
 	}	
 	
 	public PingInfo createPingInfo() {
 		PingInfo pingInfo = new PingInfo(config.getAgentId());
-		pingInfo.setFreeSpace(SystemUtils.getFreeSpace(config.getAgentFilesPath()));
+		reportedFreeSpace = SystemUtils.getFreeSpace(config.getAgentFilesPath());
+		pingInfo.setFreeSpace(reportedFreeSpace);
+		pingInfo.setFileDigest(fileIndex.getDigest());
 		return pingInfo;
 	}
+
+	/**
+	 * @return free space the other agents know from the last ping, the
+	 *         current free space if no ping was sent yet
+	 */
+	public long getReportedFreeSpace() {
+		long freeSpace = reportedFreeSpace;
+		return freeSpace >= 0 ? freeSpace : SystemUtils.getFreeSpace(config.getAgentFilesPath());
+	}
 }
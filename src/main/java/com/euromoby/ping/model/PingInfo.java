@@ -6,6 +6,7 @@ public class PingInfo {
 	private AgentId agentId;
 	private long jobsTimestamp = 0;
 	private long freeSpace;
+	private String fileDigest;
 
 	public PingInfo(AgentId agentId) {
 		this.agentId = agentId;
@@ -35,4 +36,16 @@ public class PingInfo {
 		this.freeSpace = freeSpace;
 	}
 
+	/**
+	 * @return serialized {@link com.euromoby.file.FileDigest} of the agent
+	 *         files or null if it is not known
+	 */
+	public String getFileDigest() {
+		return fileDigest;
+	}
+
+	public void setFileDigest(String fileDigest) {
+		this.fileDigest = fileDigest;
+	}
+
 }
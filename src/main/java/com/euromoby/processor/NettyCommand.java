@@ -0,0 +1,49 @@
+package com.euromoby.processor;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.network.EventLoopManager;
+import com.euromoby.network.EventLoopManager.GroupInfo;
+import com.euromoby.utils.StringUtils;
+
+@Component
+public class NettyCommand extends CommandBase implements Command {
+
+	public static final String NAME = "netty";
+	public static final String SHARED = "shared";
+	public static final String DEDICATED = "dedicated";
+
+	private EventLoopManager eventLoopManager;
+
+	@Autowired
+	public NettyCommand(EventLoopManager eventLoopManager) {
+		this.eventLoopManager = eventLoopManager;
+	}
+
+	@Override
+	public String execute(String request) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("transport: ").append(eventLoopManager.getTransport().getName()).append(StringUtils.CRLF);
+		sb.append("threads: ").append(eventLoopManager.getThreadCount()).append(StringUtils.CRLF);
+		for (GroupInfo group : eventLoopManager.getGroups()) {
+			sb.append(group.getName()).append(": ");
+			sb.append(group.getThreads()).append(" threads ");
+			sb.append(group.isShared() ? SHARED : DEDICATED).append(' ');
+			sb.append(group.getThreadName()).append(' ');
+			sb.append(group.getServices()).append(StringUtils.CRLF);
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String help() {
+		return NAME + "\t\t\tshow event loop threads and the services pinned to them";
+	}
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+}
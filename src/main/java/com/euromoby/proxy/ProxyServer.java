@@ -4,6 +4,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.euromoby.agent.Config;
+import com.euromoby.network.ByteBufAllocatorProvider;
+import com.euromoby.network.EventLoopManager;
 import com.euromoby.service.NettyService;
 
 @Component
@@ -12,12 +14,9 @@ public class ProxyServer extends NettyService {
 	public static final String SERVICE_NAME = "proxy";
 	public static final int PROXY_PORT = 3128;
 	
-	private Config config;
-	
 	@Autowired
-	public ProxyServer(Config config, ProxyServerInitializer initializer) {
-		super(initializer);
-		this.config = config;
+	public ProxyServer(Config config, EventLoopManager eventLoopManager, ByteBufAllocatorProvider allocatorProvider, ProxyServerInitializer initializer) {
+		super(config, eventLoopManager, allocatorProvider, initializer);
 	}
 
 
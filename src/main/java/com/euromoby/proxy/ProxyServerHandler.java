@@ -13,14 +13,18 @@ import io.netty.handler.codec.http.HttpRequest;
 
 import java.net.URI;
 
+import com.euromoby.network.NettyTransport;
+
 public class ProxyServerHandler extends SimpleChannelInboundHandler<HttpObject> {
 
 	private static final int PORT_UNDEFINED = -1;
 	private static final int PORT_DEFAULT = 80;
 	
+	private final NettyTransport transport;
 	private volatile Channel outboundChannel;
 	
-	public ProxyServerHandler() {
+	public ProxyServerHandler(NettyTransport transport) {
+		this.transport = transport;
 	}
 
 	@Override
@@ -37,11 +41,13 @@ public class ProxyServerHandler extends SimpleChannelInboundHandler<HttpObject>
 			
 			final Channel inboundChannel = ctx.channel();
 			
-	        // Start the connection attempt.
+	        // Start the connection attempt on the loop of the inbound channel,
+	        // no extra threads and no hand-off between the two channels
 	        Bootstrap b = new Bootstrap();
 	        b.group(inboundChannel.eventLoop())
-	         .channel(ctx.channel().getClass())
+	         .channel(transport.getSocketChannelClass())
 	         .handler(new ProxyClientHandler(inboundChannel))
+	         .option(ChannelOption.TCP_NODELAY, true)
 	         .option(ChannelOption.AUTO_READ, false);
 	        ChannelFuture f = b.connect(host, port);
 	        outboundChannel = f.channel();
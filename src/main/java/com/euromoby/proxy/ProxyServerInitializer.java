@@ -11,16 +11,19 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.euromoby.agent.Config;
+import com.euromoby.network.EventLoopManager;
 import com.euromoby.network.ReadWriteTimeoutHandler;
 
 @Component
 public class ProxyServerInitializer extends ChannelInitializer<SocketChannel> {
 
 	private Config config;
+	private EventLoopManager eventLoopManager;
 
 	@Autowired
-	public ProxyServerInitializer(Config config) {
+	public ProxyServerInitializer(Config config, EventLoopManager eventLoopManager) {
 		this.config = config;
+		this.eventLoopManager = eventLoopManager;
 	}
 
 	@Override
@@ -30,6 +33,6 @@ public class ProxyServerInitializer extends ChannelInitializer<SocketChannel> {
 		p.addLast("encoder", new HttpResponseEncoder());		
 		p.addLast("idle", new IdleStateHandler(0, 0, config.getServerTimeout()));
 		p.addLast("timeout", new ReadWriteTimeoutHandler());
-		p.addLast("proxy", new ProxyServerHandler());
+		p.addLast("proxy", new ProxyServerHandler(eventLoopManager.getTransport()));
 	}
 }
\ No newline at end of file
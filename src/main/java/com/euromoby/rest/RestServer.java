@@ -4,6 +4,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.euromoby.agent.Config;
+import com.euromoby.network.ByteBufAllocatorProvider;
+import com.euromoby.network.EventLoopManager;
 import com.euromoby.service.NettyService;
 
 @Component
@@ -12,12 +14,9 @@ public class RestServer extends NettyService {
 	public static final String SERVICE_NAME = "rest";
 	public static final int REST_PORT = 443;
 
-	private Config config;
-
 	@Autowired
-	public RestServer(Config config, RestServerInitializer initializer) {
-		super(initializer);
-		this.config = config;
+	public RestServer(Config config, EventLoopManager eventLoopManager, ByteBufAllocatorProvider allocatorProvider, RestServerInitializer initializer) {
+		super(config, eventLoopManager, allocatorProvider, initializer);
 	}
 
 	@Override
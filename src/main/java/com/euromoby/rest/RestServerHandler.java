@@ -1,7 +1,6 @@
 package com.euromoby.rest;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -22,11 +21,11 @@ import io.netty.handler.codec.http.multipart.DiskFileUpload;
 import io.netty.handler.codec.http.multipart.HttpDataFactory;
 import io.netty.handler.codec.http.multipart.HttpPostRequestDecoder;
 import io.netty.handler.codec.http.multipart.HttpPostRequestDecoder.ErrorDataDecoderException;
-import io.netty.util.CharsetUtil;
 
 import java.net.URI;
 import java.net.URISyntaxException;
 
+import com.euromoby.http.HttpUtils;
 import com.euromoby.rest.handler.RestHandler;
 
 public class RestServerHandler extends SimpleChannelInboundHandler<HttpObject> {
@@ -90,7 +89,7 @@ public class RestServerHandler extends SimpleChannelInboundHandler<HttpObject> {
 	}
 
 	protected void sendErrorResponse(ChannelHandlerContext ctx, RestException e) {
-		ByteBuf outputBuf = Unpooled.copiedBuffer(e.getMessage(), CharsetUtil.UTF_8);
+		ByteBuf outputBuf = HttpUtils.fromString(ctx.alloc(), e.getMessage());
 		
 		// Build the response object.
 		FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, e.getStatus(), outputBuf);
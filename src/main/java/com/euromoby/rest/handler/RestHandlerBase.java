@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 
 import com.euromoby.http.HttpResponseProvider;
+import com.euromoby.http.HttpUtils;
 import com.euromoby.model.Tuple;
 import com.euromoby.rest.RestException;
 
@@ -60,9 +61,9 @@ public abstract class RestHandlerBase implements RestHandler {
 				response = doGet(ctx, request, queryParameters);
 			}
 		} catch (RestException e) {
-			response = httpResponseProvider.errorResponse(e);
+			response = httpResponseProvider.errorResponse(ctx.alloc(), e);
 		} catch (Exception e) {
-			response = httpResponseProvider.errorResponse(new RestException(HttpResponseStatus.BAD_REQUEST, e));
+			response = httpResponseProvider.errorResponse(ctx.alloc(), new RestException(HttpResponseStatus.BAD_REQUEST, e));
 		}
 		
 		httpResponseProvider.writeResponse(ctx, response);
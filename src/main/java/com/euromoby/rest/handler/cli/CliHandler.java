@@ -1,13 +1,11 @@
 package com.euromoby.rest.handler.cli;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
 
 import java.io.File;
 import java.io.IOException;
@@ -20,6 +18,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.euromoby.http.HttpResponseProvider;
+import com.euromoby.http.HttpUtils;
 import com.euromoby.processor.CommandProcessor;
 import com.euromoby.rest.handler.RestHandlerBase;
 import com.euromoby.utils.IOUtils;
@@ -47,7 +46,7 @@ public class CliHandler extends RestHandlerBase {
 	@Override
 	public FullHttpResponse doGet(ChannelHandlerContext ctx, HttpRequest request, Map<String, List<String>> queryParameters) {
 		InputStream is = CliHandler.class.getResourceAsStream("cli.html");
-		ByteBuf content = Unpooled.copiedBuffer(IOUtils.streamToString(is), CharsetUtil.UTF_8);
+		ByteBuf content = HttpUtils.fromString(ctx.alloc(), IOUtils.streamToString(is));
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);
 	}
@@ -59,7 +58,7 @@ public class CliHandler extends RestHandlerBase {
 
 		Gson gson = new Gson();
 		String jsonResponse = gson.toJson(new CliResponse(message));
-		ByteBuf content = Unpooled.copiedBuffer(jsonResponse, CharsetUtil.UTF_8);
+		ByteBuf content = HttpUtils.fromString(ctx.alloc(), jsonResponse);
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 		FullHttpResponse response = httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);
 		response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "application/json; charset=UTF-8");
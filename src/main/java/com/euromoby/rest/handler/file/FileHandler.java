@@ -2,6 +2,7 @@ package com.euromoby.rest.handler.file;
 
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
 
@@ -17,6 +18,8 @@ import java.util.regex.Pattern;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.euromoby.file.FileIndex;
+import com.euromoby.file.FileMetadata;
 import com.euromoby.file.FileProvider;
 import com.euromoby.file.MimeHelper;
 import com.euromoby.http.FileResponse;
@@ -33,11 +36,13 @@ public class FileHandler extends RestHandlerBase {
 
 	private FileProvider fileProvider;
 	private MimeHelper mimeHelper;
+	private FileIndex fileIndex;
 
 	@Autowired
-	public FileHandler(FileProvider fileProvider, MimeHelper mimeHelper) {
+	public FileHandler(FileProvider fileProvider, MimeHelper mimeHelper, FileIndex fileIndex) {
 		this.fileProvider = fileProvider;
 		this.mimeHelper = mimeHelper;
+		this.fileIndex = fileIndex;
 	}
 
 	@Override
@@ -68,20 +73,22 @@ public class FileHandler extends RestHandlerBase {
 		}		
 		
 		File targetFile = fileProvider.getFileByLocation(fileLocation);
-		if (targetFile == null || !targetFile.exists()) {
+		FileMetadata metadata = (targetFile != null) ? fileIndex.get(targetFile) : null;
+		if (metadata == null) {
 			throw new RestException(HttpResponseStatus.NOT_FOUND, "Not found");
 		}
 		
         // Cache Validation
-		if (!HttpUtils.ifModifiedSince(request, targetFile)) {
+		if (!HttpUtils.isModified(request, metadata.getEtag(), metadata.getLastModified())) {
 			HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 			FullHttpResponse response = httpResponseProvider.createNotModifiedResponse();
+			response.headers().set(HttpHeaders.Names.ETAG, metadata.getEtag());
 			httpResponseProvider.writeResponse(ctx, response);
         	return;			
 		}
 		
 		FileResponse fileResponse = new FileResponse(request, mimeHelper);
-		fileResponse.send(ctx, targetFile);
+		fileResponse.send(ctx, targetFile, metadata);
 	}
 
 }
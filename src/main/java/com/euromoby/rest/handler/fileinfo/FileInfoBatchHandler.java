@@ -0,0 +1,94 @@
+package com.euromoby.rest.handler.fileinfo;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.CharsetUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.http.HttpResponseProvider;
+import com.euromoby.rest.RestException;
+import com.euromoby.rest.handler.RestHandlerBase;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Batch variant of {@link FileInfoHandler}: POST with many "path"
+ * parameters, the response is a JSON array with the {@link FileInfo} of
+ * every path this agent has or is downloading (others are left out).
+ */
+@Component
+public class FileInfoBatchHandler extends RestHandlerBase {
+
+	public static final String URL = FileInfoHandler.URL;
+	public static final String REQUEST_INPUT_PATH = "path";
+	public static final int MAX_PATHS = 10000;
+
+	private static final Gson gson = new Gson();
+
+	private FileInfoProvider fileInfoProvider;
+
+	@Autowired
+	public FileInfoBatchHandler(FileInfoProvider fileInfoProvider) {
+		this.fileInfoProvider = fileInfoProvider;
+	}
+
+	@Override
+	public boolean matchUri(URI uri) {
+		return uri.getPath().equals(URL);
+	}
+
+	@Override
+	public FullHttpResponse doPost(ChannelHandlerContext ctx, HttpRequest request, Map<String, List<String>> queryParameters, Map<String, List<String>> postParameters, Map<String, File> uploadFiles) throws Exception {
+		List<String> fileLocations = postParameters.get(REQUEST_INPUT_PATH);
+		if (fileLocations == null || fileLocations.isEmpty()) {
+			throw new RestException("Parameter is missing: " + REQUEST_INPUT_PATH);
+		}
+		if (fileLocations.size() > MAX_PATHS) {
+			throw new RestException("Too many paths: " + fileLocations.size());
+		}
+
+		ByteBuf content = ctx.alloc().buffer();
+		try {
+			writeFileInfos(fileLocations, content);
+		} catch (IOException e) {
+			content.release();
+			throw e;
+		}
+
+		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
+		FullHttpResponse response = httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);
+		response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "application/json; charset=UTF-8");
+		return response;
+	}
+
+	/**
+	 * Serialized one by one straight into the buffer
+	 */
+	protected void writeFileInfos(List<String> fileLocations, ByteBuf content) throws IOException {
+		JsonWriter jsonWriter = new JsonWriter(new OutputStreamWriter(new ByteBufOutputStream(content), CharsetUtil.UTF_8));
+		jsonWriter.beginArray();
+		for (String fileLocation : fileLocations) {
+			FileInfo fileInfo = fileInfoProvider.getFileInfo(fileLocation);
+			if (fileInfo != null) {
+				gson.toJson(fileInfo, FileInfo.class, jsonWriter);
+			}
+		}
+		jsonWriter.endArray();
+		jsonWriter.close();
+	}
+
+}
@@ -1,15 +1,12 @@
 package com.euromoby.rest.handler.fileinfo;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
 
-import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLDecoder;
@@ -21,11 +18,8 @@ import java.util.regex.Pattern;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import com.euromoby.agent.Config;
-import com.euromoby.download.DownloadManager;
-import com.euromoby.download.model.DownloadFile;
-import com.euromoby.file.FileProvider;
 import com.euromoby.http.HttpResponseProvider;
+import com.euromoby.http.HttpUtils;
 import com.euromoby.rest.RestException;
 import com.euromoby.rest.handler.RestHandlerBase;
 import com.google.gson.Gson;
@@ -37,15 +31,11 @@ public class FileInfoHandler extends RestHandlerBase {
 	private static final Pattern URL_PATTERN = Pattern.compile(URL + "/(.*)");
 	private static final Gson gson = new Gson();
 	
-	private Config config;
-	private DownloadManager downloadManager;
-	private FileProvider fileProvider;
+	private FileInfoProvider fileInfoProvider;
 
 	@Autowired
-	public FileInfoHandler(Config config, DownloadManager downloadManager, FileProvider fileProvider) {
-		this.config = config;
-		this.downloadManager = downloadManager;
-		this.fileProvider = fileProvider;
+	public FileInfoHandler(FileInfoProvider fileInfoProvider) {
+		this.fileInfoProvider = fileInfoProvider;
 	}
 
 	@Override
@@ -71,42 +61,17 @@ public class FileInfoHandler extends RestHandlerBase {
 			throw new RestException("Invalid request");
 		}		
 		
-		FileInfo fileInfo;
-		File targetFile = fileProvider.getFileByLocation(fileLocation);
-		if (targetFile != null && targetFile.exists()) {
-			fileInfo = existingFileInfo(targetFile, fileLocation);
-		} else {
-			DownloadFile downloadFile = downloadManager.findScheduledFileLocation(fileLocation);
-			if (downloadFile == null) {
-				throw new RestException(HttpResponseStatus.NOT_FOUND, "Not found");
-			}
-			fileInfo = scheduledFileInfo(fileLocation);
-		} 
+		FileInfo fileInfo = fileInfoProvider.getFileInfo(fileLocation);
+		if (fileInfo == null) {
+			throw new RestException(HttpResponseStatus.NOT_FOUND, "Not found");
+		}
 		
 		String jsonResponse = gson.toJson(fileInfo);
-		ByteBuf content = Unpooled.copiedBuffer(jsonResponse, CharsetUtil.UTF_8);
+		ByteBuf content = HttpUtils.fromString(ctx.alloc(), jsonResponse);
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 		FullHttpResponse response = httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);
 		response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "application/json; charset=UTF-8");
 		return response;
 	}
 	
-	protected FileInfo existingFileInfo(File file, String fileLocation) {
-		FileInfo fileInfo = new FileInfo();
-		fileInfo.setAgentId(config.getAgentId());
-		fileInfo.setFileLocation(fileLocation);
-		fileInfo.setLength(file.length());
-		fileInfo.setLastModified(file.lastModified());
-		fileInfo.setComplete(true);
-		return fileInfo;
-	}
-
-	protected FileInfo scheduledFileInfo(String fileLocation) {
-		FileInfo fileInfo = new FileInfo();
-		fileInfo.setAgentId(config.getAgentId());
-		fileInfo.setFileLocation(fileLocation);
-		fileInfo.setComplete(false);
-		return fileInfo;
-	}	
-	
 }
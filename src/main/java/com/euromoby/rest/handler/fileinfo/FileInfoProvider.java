@@ -0,0 +1,69 @@
+package com.euromoby.rest.handler.fileinfo;
+
+import java.io.File;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.agent.Config;
+import com.euromoby.download.DownloadManager;
+import com.euromoby.download.model.DownloadFile;
+import com.euromoby.file.FileIndex;
+import com.euromoby.file.FileMetadata;
+import com.euromoby.file.FileProvider;
+
+/**
+ * Tells other agents whether this agent has a file (complete) or is
+ * downloading it (incomplete)
+ */
+@Component
+public class FileInfoProvider {
+
+	private Config config;
+	private DownloadManager downloadManager;
+	private FileProvider fileProvider;
+	private FileIndex fileIndex;
+
+	@Autowired
+	public FileInfoProvider(Config config, DownloadManager downloadManager, FileProvider fileProvider, FileIndex fileIndex) {
+		this.config = config;
+		this.downloadManager = downloadManager;
+		this.fileProvider = fileProvider;
+		this.fileIndex = fileIndex;
+	}
+
+	/**
+	 * @return null if the file is neither stored nor scheduled
+	 */
+	public FileInfo getFileInfo(String fileLocation) {
+		File targetFile = fileProvider.getFileByLocation(fileLocation);
+		FileMetadata metadata = (targetFile != null) ? fileIndex.get(targetFile) : null;
+		if (metadata != null) {
+			return existingFileInfo(metadata, fileLocation);
+		}
+		DownloadFile downloadFile = downloadManager.findScheduledFileLocation(fileLocation);
+		if (downloadFile != null) {
+			return scheduledFileInfo(fileLocation);
+		}
+		return null;
+	}
+
+	protected FileInfo existingFileInfo(FileMetadata metadata, String fileLocation) {
+		FileInfo fileInfo = new FileInfo();
+		fileInfo.setAgentId(config.getAgentId());
+		fileInfo.setFileLocation(fileLocation);
+		fileInfo.setLength(metadata.getLength());
+		fileInfo.setLastModified(metadata.getLastModified());
+		fileInfo.setComplete(true);
+		return fileInfo;
+	}
+
+	protected FileInfo scheduledFileInfo(String fileLocation) {
+		FileInfo fileInfo = new FileInfo();
+		fileInfo.setAgentId(config.getAgentId());
+		fileInfo.setFileLocation(fileLocation);
+		fileInfo.setComplete(false);
+		return fileInfo;
+	}
+
+}
@@ -1,13 +1,11 @@
 package com.euromoby.rest.handler.job;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
 
 import java.net.URI;
 import java.util.List;
@@ -20,6 +18,7 @@ import org.springframework.stereotype.Component;
 
 import com.euromoby.agent.AgentManager;
 import com.euromoby.http.HttpResponseProvider;
+import com.euromoby.http.HttpUtils;
 import com.euromoby.job.model.JobDetail;
 import com.euromoby.model.AgentId;
 import com.euromoby.rest.RestException;
@@ -49,7 +48,7 @@ public class GetJobsHandler extends RestHandlerBase {
 	
 	@Override
 	public FullHttpResponse doGet(ChannelHandlerContext ctx, HttpRequest request, Map<String, List<String>> queryParameters) throws Exception {
-		return createJobsResponse(request, queryParameters);
+		return createJobsResponse(ctx, request, queryParameters);
 	}
 
 	private AgentId getAgentId(Map<String, List<String>> queryParameters) throws Exception {
@@ -60,13 +59,13 @@ public class GetJobsHandler extends RestHandlerBase {
 		return new AgentId(agentIdList.get(0));
 	}
 	
-	private FullHttpResponse createJobsResponse(HttpRequest request, Map<String, List<String>> queryParameters) throws Exception {
+	private FullHttpResponse createJobsResponse(ChannelHandlerContext ctx, HttpRequest request, Map<String, List<String>> queryParameters) throws Exception {
 
 		AgentId agentId = getAgentId(queryParameters);		
 		JobDetail[] jobDetails = new JobDetail[]{};
 		
 		String jsonResponse = gson.toJson(jobDetails);
-		ByteBuf content = Unpooled.copiedBuffer(jsonResponse, CharsetUtil.UTF_8);
+		ByteBuf content = HttpUtils.fromString(ctx.alloc(), jsonResponse);
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 		FullHttpResponse response = httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);
 		response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "application/json; charset=UTF-8");
@@ -1,12 +1,10 @@
 package com.euromoby.rest.handler.job;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
 
 import java.io.File;
 import java.io.InputStream;
@@ -71,7 +69,7 @@ public class JobAddHandler extends RestHandlerBase {
 		String pageContent = IOUtils.streamToString(is);
 		pageContent = pageContent.replace("%NOW%", DateUtils.iso(System.currentTimeMillis()));
 		pageContent = pageContent.replace("%JOB_CLASSES%", getOptionListOfJobClasses());
-		ByteBuf content = Unpooled.copiedBuffer(pageContent, CharsetUtil.UTF_8);
+		ByteBuf content = HttpUtils.fromString(ctx.alloc(), pageContent);
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);
 	}
@@ -89,7 +87,7 @@ public class JobAddHandler extends RestHandlerBase {
 		jobManager.submit(jobDetail);
 
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
-		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString("OK"));
+		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString(ctx.alloc(), "OK"));
 	}
 
 	protected void validateRequestParameters(Map<String, List<String>> requestParameters) throws RestException {
@@ -1,12 +1,10 @@
 package com.euromoby.rest.handler.job;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
 
 import java.io.InputStream;
 import java.net.URI;
@@ -18,6 +16,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.euromoby.http.HttpResponseProvider;
+import com.euromoby.http.HttpUtils;
 import com.euromoby.job.JobManager;
 import com.euromoby.job.model.JobDetail;
 import com.euromoby.job.model.JobState;
@@ -67,7 +66,7 @@ public class JobListHandler extends RestHandlerBase {
 		}
 		pageContent = pageContent.replace("%JOBS%", sb.toString());
 
-		ByteBuf content = Unpooled.copiedBuffer(pageContent, CharsetUtil.UTF_8);
+		ByteBuf content = HttpUtils.fromString(ctx.alloc(), pageContent);
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);
 	}
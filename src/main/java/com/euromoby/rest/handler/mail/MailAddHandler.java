@@ -1,12 +1,10 @@
 package com.euromoby.rest.handler.mail;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
 
 import java.io.File;
 import java.io.InputStream;
@@ -51,7 +49,7 @@ public class MailAddHandler extends RestHandlerBase {
 	public FullHttpResponse doGet(ChannelHandlerContext ctx, HttpRequest request, Map<String, List<String>> queryParameters) {
 		InputStream is = MailAddHandler.class.getResourceAsStream("mailadd.html");
 		String pageContent = IOUtils.streamToString(is);
-		ByteBuf content = Unpooled.copiedBuffer(pageContent, CharsetUtil.UTF_8);
+		ByteBuf content = HttpUtils.fromString(ctx.alloc(), pageContent);
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);
 	}
@@ -68,7 +66,7 @@ public class MailAddHandler extends RestHandlerBase {
 		mailManager.saveAccount(mailAccount);
 
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
-		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString("OK"));
+		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString(ctx.alloc(), "OK"));
 	}
 
 	protected void validateRequestParameters(Map<String, List<String>> requestParameters) throws RestException {
@@ -1,12 +1,10 @@
 package com.euromoby.rest.handler.mail;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
 
 import java.io.InputStream;
 import java.net.URI;
@@ -19,6 +17,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.euromoby.http.HttpResponseProvider;
+import com.euromoby.http.HttpUtils;
 import com.euromoby.mail.MailManager;
 import com.euromoby.mail.model.MailAccount;
 import com.euromoby.mail.model.MailMessage;
@@ -92,7 +91,7 @@ public class MailBoxListHandler extends RestHandlerBase {
 		}
 		pageContent = pageContent.replace("%MESSAGES_LIST%", sb.toString());
 
-		ByteBuf content = Unpooled.copiedBuffer(pageContent, CharsetUtil.UTF_8);
+		ByteBuf content = HttpUtils.fromString(ctx.alloc(), pageContent);
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);
 	}
@@ -1,12 +1,10 @@
 package com.euromoby.rest.handler.mail;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
 
 import java.io.File;
 import java.io.InputStream;
@@ -73,7 +71,7 @@ public class MailEditHandler extends RestHandlerBase {
 		pageContent = pageContent.replace("%DOMAIN%", mailAccount.getDomain());
 		pageContent = pageContent.replace("%ACTIVE%", String.valueOf(mailAccount.getActive()));		
 		
-		ByteBuf content = Unpooled.copiedBuffer(pageContent, CharsetUtil.UTF_8);
+		ByteBuf content = HttpUtils.fromString(ctx.alloc(), pageContent);
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);
 	}
@@ -101,7 +99,7 @@ public class MailEditHandler extends RestHandlerBase {
 		mailManager.updateAccount(mailAccount);
 
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
-		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString("OK"));
+		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString(ctx.alloc(), "OK"));
 	}
 
 	protected void validateRequestParameters(Map<String, List<String>> requestParameters) throws RestException {
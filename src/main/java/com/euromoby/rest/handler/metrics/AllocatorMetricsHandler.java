@@ -0,0 +1,30 @@
+package com.euromoby.rest.handler.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.network.AllocatorMetrics;
+import com.euromoby.network.ByteBufAllocatorProvider;
+
+/**
+ * Buffer allocations, direct memory and reported leaks of the Netty services
+ */
+@Component
+public class AllocatorMetricsHandler extends JsonMetricsHandler {
+
+	public static final String URL = "/metrics/allocator";
+
+	private ByteBufAllocatorProvider allocatorProvider;
+
+	@Autowired
+	public AllocatorMetricsHandler(ByteBufAllocatorProvider allocatorProvider) {
+		super(URL);
+		this.allocatorProvider = allocatorProvider;
+	}
+
+	@Override
+	protected AllocatorMetrics getMetrics() {
+		return allocatorProvider.getMetrics();
+	}
+
+}
@@ -0,0 +1,30 @@
+package com.euromoby.rest.handler.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.http.HttpClientProvider;
+import com.euromoby.http.HttpPoolMetrics;
+
+/**
+ * Limits, usage and lease counters of the http client connection pool
+ */
+@Component
+public class HttpClientMetricsHandler extends JsonMetricsHandler {
+
+	public static final String URL = "/metrics/httpclient";
+
+	private HttpClientProvider httpClientProvider;
+
+	@Autowired
+	public HttpClientMetricsHandler(HttpClientProvider httpClientProvider) {
+		super(URL);
+		this.httpClientProvider = httpClientProvider;
+	}
+
+	@Override
+	protected HttpPoolMetrics getMetrics() {
+		return httpClientProvider.getPoolMetrics();
+	}
+
+}
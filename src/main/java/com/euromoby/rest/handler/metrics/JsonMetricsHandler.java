@@ -0,0 +1,50 @@
+package com.euromoby.rest.handler.metrics;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+import com.euromoby.http.HttpResponseProvider;
+import com.euromoby.http.HttpUtils;
+import com.euromoby.rest.handler.RestHandlerBase;
+import com.google.gson.Gson;
+
+/**
+ * Returns the current metrics of a component as JSON at its URL
+ */
+public abstract class JsonMetricsHandler extends RestHandlerBase {
+
+	private static final Gson gson = new Gson();
+
+	private String url;
+
+	protected JsonMetricsHandler(String url) {
+		this.url = url;
+	}
+
+	/**
+	 * @return metrics serialized by Gson
+	 */
+	protected abstract Object getMetrics();
+
+	@Override
+	public boolean matchUri(URI uri) {
+		return uri.getPath().equals(url);
+	}
+
+	@Override
+	public FullHttpResponse doGet(ChannelHandlerContext ctx, HttpRequest request, Map<String, List<String>> queryParameters) {
+		String jsonResponse = gson.toJson(getMetrics());
+		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
+		FullHttpResponse response = httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString(ctx.alloc(), jsonResponse));
+		response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "application/json; charset=UTF-8");
+		return response;
+	}
+
+}
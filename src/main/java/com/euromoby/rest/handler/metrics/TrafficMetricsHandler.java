@@ -0,0 +1,30 @@
+package com.euromoby.rest.handler.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.euromoby.cdn.CdnTrafficShaper;
+import com.euromoby.cdn.model.TrafficMetrics;
+
+/**
+ * Limits and live throughput of the cdn traffic classes and client IPs
+ */
+@Component
+public class TrafficMetricsHandler extends JsonMetricsHandler {
+
+	public static final String URL = "/metrics/traffic";
+
+	private CdnTrafficShaper trafficShaper;
+
+	@Autowired
+	public TrafficMetricsHandler(CdnTrafficShaper trafficShaper) {
+		super(URL);
+		this.trafficShaper = trafficShaper;
+	}
+
+	@Override
+	protected TrafficMetrics getMetrics() {
+		return trafficShaper.getMetrics();
+	}
+
+}
@@ -1,13 +1,11 @@
 package com.euromoby.rest.handler.ping;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
 
 import java.io.File;
 import java.net.URI;
@@ -21,6 +19,7 @@ import org.springframework.stereotype.Component;
 
 import com.euromoby.agent.AgentManager;
 import com.euromoby.http.HttpResponseProvider;
+import com.euromoby.http.HttpUtils;
 import com.euromoby.ping.PingInfoProvider;
 import com.euromoby.ping.model.PingInfo;
 import com.euromoby.rest.RestException;
@@ -53,7 +52,7 @@ public class PingHandler extends RestHandlerBase {
 	
 	@Override
 	public FullHttpResponse doGet(ChannelHandlerContext ctx, HttpRequest request, Map<String, List<String>> queryParameters) {
-		return createPingResponse(request);
+		return createPingResponse(ctx, request);
 	}
 
 	@Override
@@ -73,12 +72,12 @@ public class PingHandler extends RestHandlerBase {
 		
 		LOG.debug("Received Ping message from {}", pingInfo.getAgentId());
 		
-		return createPingResponse(request);
+		return createPingResponse(ctx, request);
 	}
 
-	private FullHttpResponse createPingResponse(HttpRequest request) {
+	private FullHttpResponse createPingResponse(ChannelHandlerContext ctx, HttpRequest request) {
 		String jsonResponse = gson.toJson(pingInfoProvider.createPingInfo());
-		ByteBuf content = Unpooled.copiedBuffer(jsonResponse, CharsetUtil.UTF_8);
+		ByteBuf content = HttpUtils.fromString(ctx.alloc(), jsonResponse);
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 		FullHttpResponse response = httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);
 		response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "application/json; charset=UTF-8");
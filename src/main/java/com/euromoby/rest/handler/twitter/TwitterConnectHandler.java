@@ -13,6 +13,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.euromoby.http.HttpResponseProvider;
+import com.euromoby.http.HttpUtils;
 import com.euromoby.rest.RestException;
 import com.euromoby.rest.handler.RestHandlerBase;
 import com.euromoby.twitter.TwitterProvider;
@@ -43,7 +44,7 @@ public class TwitterConnectHandler extends RestHandlerBase {
 			return httpResponseProvider.createRedirectResponse(authorizationUrl);
 		} catch (Exception e) {
 			RestException re = new RestException(HttpResponseStatus.INTERNAL_SERVER_ERROR, e);
-			return httpResponseProvider.errorResponse(re);
+			return httpResponseProvider.errorResponse(ctx.alloc(), re);
 		}
 	}
 
@@ -1,12 +1,10 @@
 package com.euromoby.rest.handler.twitter;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
 
 import java.io.InputStream;
 import java.net.URI;
@@ -17,6 +15,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.euromoby.http.HttpResponseProvider;
+import com.euromoby.http.HttpUtils;
 import com.euromoby.rest.handler.RestHandlerBase;
 import com.euromoby.twitter.TwitterManager;
 import com.euromoby.twitter.model.TwitterAccount;
@@ -59,7 +58,7 @@ public class TwitterHandler extends RestHandlerBase {
 		}
 		pageContent = pageContent.replace("%TWITTER_LIST%", sb.toString());
 
-		ByteBuf content = Unpooled.copiedBuffer(pageContent, CharsetUtil.UTF_8);
+		ByteBuf content = HttpUtils.fromString(ctx.alloc(), pageContent);
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);
 	}
@@ -14,6 +14,7 @@ import org.springframework.stereotype.Component;
 import twitter4j.auth.AccessToken;
 
 import com.euromoby.http.HttpResponseProvider;
+import com.euromoby.http.HttpUtils;
 import com.euromoby.rest.RestException;
 import com.euromoby.rest.handler.RestHandlerBase;
 import com.euromoby.twitter.TwitterManager;
@@ -51,7 +52,7 @@ public class TwitterOAuthHandler extends RestHandlerBase {
 		String oauthVerifier = ListUtils.getFirst(queryParameters.get(OAUTH_VERIFIER));
 		if (StringUtils.nullOrEmpty(oauthToken) || StringUtils.nullOrEmpty(oauthVerifier)) {
 			RestException re = new RestException("Invalid " + OAUTH_TOKEN + " or " + OAUTH_VERIFIER);
-			return httpResponseProvider.errorResponse(re);			
+			return httpResponseProvider.errorResponse(ctx.alloc(), re);			
 		}
 		try {
 			AccessToken accessToken = twitterProvider.getAccessToken(oauthToken, oauthVerifier);
@@ -59,7 +60,7 @@ public class TwitterOAuthHandler extends RestHandlerBase {
 			return httpResponseProvider.createRedirectResponse(TwitterHandler.URL);			
 			
 		} catch (Exception e) {
-			return httpResponseProvider.errorResponse(new RestException(e));
+			return httpResponseProvider.errorResponse(ctx.alloc(), new RestException(e));
 		}
 
 	}
@@ -1,12 +1,10 @@
 package com.euromoby.rest.handler.twitter;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
 
 import java.io.File;
 import java.io.IOException;
@@ -62,7 +60,7 @@ public class TwitterSendHandler extends RestHandlerBase {
 		InputStream is = TwitterSendHandler.class.getResourceAsStream("twittersend.html");
 		String pageContent = IOUtils.streamToString(is);
 		pageContent = pageContent.replace("%ACCOUNTS_ARRAY%", getAccountsArray());
-		ByteBuf content = Unpooled.copiedBuffer(pageContent, CharsetUtil.UTF_8);
+		ByteBuf content = HttpUtils.fromString(ctx.alloc(), pageContent);
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);
 	}
@@ -78,7 +76,7 @@ public class TwitterSendHandler extends RestHandlerBase {
 		twitterManager.scheduleMessageSending(accountIds, text);
 
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
-		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString("OK"));
+		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString(ctx.alloc(), "OK"));
 	}
 
 	protected void validateRequestParameters(Map<String, List<String>> requestParameters) throws RestException {
@@ -1,12 +1,10 @@
 package com.euromoby.rest.handler.upload;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
 
 import java.io.File;
 import java.io.IOException;
@@ -22,6 +20,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.euromoby.agent.Config;
+import com.euromoby.cdn.CdnFileCache;
+import com.euromoby.file.FileIndex;
+import com.euromoby.file.FilePrecompressor;
 import com.euromoby.http.HttpResponseProvider;
 import com.euromoby.http.HttpUtils;
 import com.euromoby.rest.RestException;
@@ -39,6 +40,9 @@ public class UploadHandler extends RestHandlerBase {
 	private static final String REQUEST_INPUT_FILE = "file";
 
 	private Config config;
+	private FilePrecompressor filePrecompressor;
+	private FileIndex fileIndex;
+	private CdnFileCache cdnFileCache;
 
 	private static final Logger LOG = LoggerFactory.getLogger(UploadHandler.class);
 
@@ -48,8 +52,11 @@ public class UploadHandler extends RestHandlerBase {
 	}	
 	
 	@Autowired
-	public UploadHandler(Config config) {
+	public UploadHandler(Config config, FilePrecompressor filePrecompressor, FileIndex fileIndex, CdnFileCache cdnFileCache) {
 		this.config = config;
+		this.filePrecompressor = filePrecompressor;
+		this.fileIndex = fileIndex;
+		this.cdnFileCache = cdnFileCache;
 	}
 
 	@Override
@@ -58,7 +65,7 @@ public class UploadHandler extends RestHandlerBase {
 		String pageContent = IOUtils.streamToString(is);
 		pageContent = pageContent.replace("%UPLOAD_PATH%", config.getAgentFilesPath());
 		pageContent = pageContent.replace("%FILE_SEPARATOR%", File.separator);
-		ByteBuf content = Unpooled.copiedBuffer(pageContent, CharsetUtil.UTF_8);
+		ByteBuf content = HttpUtils.fromString(ctx.alloc(), pageContent);
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);
 	}
@@ -85,9 +92,12 @@ public class UploadHandler extends RestHandlerBase {
 
 		FileUtils.copyFile(tempUploadedFile, targetFile);
 		LOG.info("Uploaded file " + targetFile.getPath());
+		fileIndex.update(targetFile);
+		cdnFileCache.invalidate(targetFile);
+		filePrecompressor.schedule(targetFile);
 
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
-		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString("OK"));
+		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString(ctx.alloc(), "OK"));
 	}
 
 
@@ -1,12 +1,10 @@
 package com.euromoby.rest.handler.welcome;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
 
 import java.io.InputStream;
 import java.net.URI;
@@ -17,6 +15,7 @@ import org.springframework.stereotype.Component;
 
 import com.euromoby.agent.Agent;
 import com.euromoby.http.HttpResponseProvider;
+import com.euromoby.http.HttpUtils;
 import com.euromoby.rest.handler.RestHandlerBase;
 import com.euromoby.utils.IOUtils;
 
@@ -36,7 +35,7 @@ public class WelcomeHandler extends RestHandlerBase {
 		String pageContent = IOUtils.streamToString(is);
 		pageContent = pageContent.replace("%AGENT%", Agent.TITLE);
 		pageContent = pageContent.replace("%VERSION%", Agent.VERSION);
-		ByteBuf content = Unpooled.copiedBuffer(pageContent, CharsetUtil.UTF_8);
+		ByteBuf content = HttpUtils.fromString(ctx.alloc(), pageContent);
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
 		return httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, content);		
 	}
@@ -31,7 +31,7 @@ public class WhatIsMyIpHandler extends RestHandlerBase {
 	@Override
 	public FullHttpResponse doGet(ChannelHandlerContext ctx, HttpRequest request, Map<String, List<String>> queryParameters) {
 		HttpResponseProvider httpResponseProvider = new HttpResponseProvider(request);
-		FullHttpResponse response = httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString(getClientInetAddress(ctx).getHostAddress()));
+		FullHttpResponse response = httpResponseProvider.createHttpResponse(HttpResponseStatus.OK, HttpUtils.fromString(ctx.alloc(), getClientInetAddress(ctx).getHostAddress()));
 		response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/plain; charset=UTF-8");
 		return response;
 	}
@@ -2,17 +2,28 @@ package com.euromoby.service;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.euromoby.agent.Config;
+import com.euromoby.network.ByteBufAllocatorProvider;
+import com.euromoby.network.EventLoopManager;
+import com.euromoby.network.NettyTransport;
 import com.euromoby.service.model.ServiceState;
 
 public abstract class NettyService implements Service {
@@ -21,36 +32,102 @@ public abstract class NettyService implements Service {
 
 	private volatile ServiceState serviceState = ServiceState.STOPPED;
 
-	private EventLoopGroup bossGroup;
-	private EventLoopGroup workerGroup;
-	private Channel serverChannel;	
-	
+	private final List<Channel> serverChannels = new ArrayList<Channel>();
+	// the worker loops may be shared, connections are closed one by one on stop
+	private final ChannelGroup childChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+	protected Config config;
+	protected EventLoopManager eventLoopManager;
+	protected ByteBufAllocatorProvider allocatorProvider;
 	protected ChannelInitializer<SocketChannel> initializer;
 	
-	public NettyService(ChannelInitializer<SocketChannel> initializer) {
+	public NettyService(Config config, EventLoopManager eventLoopManager, ByteBufAllocatorProvider allocatorProvider,
+			ChannelInitializer<SocketChannel> initializer) {
+		this.config = config;
+		this.eventLoopManager = eventLoopManager;
+		this.allocatorProvider = allocatorProvider;
 		this.initializer = initializer;
 	}	
 	
 	public abstract int getPort();
 
+	public NettyTransport getTransport() {
+		return eventLoopManager.getTransport();
+	}
+
+	/**
+	 * @return number of server channels accepting connections on the port
+	 */
+	public int getAcceptorCount() {
+		return serverChannels.size();
+	}
+
+	/**
+	 * @return number of accepted connections which are open
+	 */
+	public int getConnectionCount() {
+		return childChannels.size();
+	}
+
+	protected void configure(ServerBootstrap b, int acceptors) {
+		String serviceName = getServiceName();
+		b.option(ChannelOption.SO_BACKLOG, config.getServerBacklog(serviceName));
+		b.option(ChannelOption.ALLOCATOR, allocatorProvider.getAllocator());
+		b.childOption(ChannelOption.ALLOCATOR, allocatorProvider.getAllocator());
+		if (acceptors > 1) {
+			// every acceptor binds its own socket, the kernel balances the connections
+			b.option(EpollChannelOption.SO_REUSEPORT, true);
+		}
+		b.childOption(ChannelOption.TCP_NODELAY, config.isServerTcpNoDelay(serviceName));
+		b.childOption(ChannelOption.SO_KEEPALIVE, config.isServerKeepAlive(serviceName));
+		int receiveBuffer = config.getServerReceiveBuffer(serviceName);
+		if (receiveBuffer > 0) {
+			b.childOption(ChannelOption.SO_RCVBUF, receiveBuffer);
+		}
+		int sendBuffer = config.getServerSendBuffer(serviceName);
+		if (sendBuffer > 0) {
+			b.childOption(ChannelOption.SO_SNDBUF, sendBuffer);
+		}
+	}
+
 	@Override
 	public void run() {
 
 		try {
 
-			bossGroup = new NioEventLoopGroup(1);
-			workerGroup = new NioEventLoopGroup();
+			NettyTransport transport = eventLoopManager.getTransport();
+			int acceptors = Math.max(1, config.getServerAcceptors(getServiceName()));
+			if (acceptors > 1 && !transport.isReusePortSupported()) {
+				LOG.warn("{} transport does not support SO_REUSEPORT, {} uses 1 acceptor", transport.getName(), getServiceName());
+				acceptors = 1;
+			}
 
 			ServerBootstrap b = new ServerBootstrap();
-			b.group(bossGroup, workerGroup);
-			b.channel(NioServerSocketChannel.class);
-			b.handler(new LoggingHandler(LogLevel.INFO));
+			b.group(eventLoopManager.acquireBossGroup(getServiceName(), acceptors), eventLoopManager.acquireWorkerGroup(getServiceName()));
+			b.channel(transport.getServerChannelClass());
+			b.handler(new ChannelInitializer<Channel>() {
+				@Override
+				protected void initChannel(Channel ch) throws Exception {
+					ch.pipeline().addLast(new LoggingHandler(LogLevel.INFO));
+					ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+						@Override
+						public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+							childChannels.add((Channel) msg);
+							ctx.fireChannelRead(msg);
+						}
+					});
+				}
+			});
 			b.childHandler(initializer);
+			configure(b, acceptors);
 
-			serverChannel = b.bind(getPort()).sync().channel();
+			// the server channels are registered on the boss loops in turn
+			for (int i = 0; i < acceptors; i++) {
+				serverChannels.add(b.bind(getPort()).sync().channel());
+			}
 
 			serviceState = ServiceState.RUNNING;
-			LOG.info("{} started on port {}", getServiceName(), getPort());
+			LOG.info("{} started on port {} ({} transport, {} acceptors)", getServiceName(), getPort(), transport.getName(), acceptors);
 		} catch (Exception e) {
 			LOG.error("Error starting " + getServiceName() + " on port " + getPort(), e);
 			shutdown();
@@ -59,12 +136,14 @@ public abstract class NettyService implements Service {
 
 	public void shutdown() {
 		try {
-			if (serverChannel != null) {
+			for (Channel serverChannel : serverChannels) {
 				serverChannel.close().sync();
 			}
+			childChannels.close().sync();
 		} catch (Exception e) {
 
 		} finally {
+			serverChannels.clear();
 			shutdownWorkers();
 			serviceState = ServiceState.STOPPED;
 			LOG.info("{} stopped", getServiceName());
@@ -72,14 +151,7 @@ public abstract class NettyService implements Service {
 	}
 
 	private void shutdownWorkers() {
-		if (bossGroup != null) {
-			bossGroup.shutdownGracefully();
-			bossGroup = null;
-		}
-		if (workerGroup != null) {
-			workerGroup.shutdownGracefully();
-			workerGroup = null;
-		}
+		eventLoopManager.release(getServiceName());
 	}
 
 	@Override
@@ -4,6 +4,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.euromoby.agent.Config;
+import com.euromoby.network.ByteBufAllocatorProvider;
+import com.euromoby.network.EventLoopManager;
 import com.euromoby.service.NettyService;
 
 @Component
@@ -12,12 +14,9 @@ public class TelnetServer extends NettyService {
 	public static final String SERVICE_NAME = "telnet";
 	public static final int TELNET_PORT = 23;
 	
-	private Config config;
-
 	@Autowired
-	public TelnetServer(Config config, TelnetServerInitializer initializer) {
-		super(initializer);
-		this.config = config;
+	public TelnetServer(Config config, EventLoopManager eventLoopManager, ByteBufAllocatorProvider allocatorProvider, TelnetServerInitializer initializer) {
+		super(config, eventLoopManager, allocatorProvider, initializer);
 	}
 
 	@Override
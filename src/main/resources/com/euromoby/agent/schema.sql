@@ -6,6 +6,8 @@
 -- DROP TABLE IF EXISTS download_file;
 -- DROP INDEX IF EXISTS download_file_unique;
 -- DROP INDEX IF EXISTS download_file_location;
+-- DROP INDEX IF EXISTS download_file_next_attempt;
+-- DROP INDEX IF EXISTS download_file_host;
 
 CREATE TABLE IF NOT EXISTS mail_account (
 	id INT auto_increment PRIMARY KEY, 
@@ -48,3 +50,19 @@ CREATE UNIQUE INDEX IF NOT EXISTS download_file_unique
 ON download_file(url);
 CREATE INDEX IF NOT EXISTS download_file_location 
 ON download_file(file_location);
+-- partial file state, added to the existing databases
+ALTER TABLE download_file ADD COLUMN IF NOT EXISTS received BIGINT DEFAULT 0;
+ALTER TABLE download_file ADD COLUMN IF NOT EXISTS content_length BIGINT DEFAULT -1;
+ALTER TABLE download_file ADD COLUMN IF NOT EXISTS etag VARCHAR(255);
+ALTER TABLE download_file ADD COLUMN IF NOT EXISTS last_modified VARCHAR(255);
+-- retry queue state, added to the existing databases
+ALTER TABLE download_file ADD COLUMN IF NOT EXISTS attempts INT DEFAULT 0;
+ALTER TABLE download_file ADD COLUMN IF NOT EXISTS next_attempt_at BIGINT DEFAULT 0;
+ALTER TABLE download_file ADD COLUMN IF NOT EXISTS last_error VARCHAR(1000);
+ALTER TABLE download_file ADD COLUMN IF NOT EXISTS state VARCHAR(20) DEFAULT 'QUEUED';
+CREATE INDEX IF NOT EXISTS download_file_next_attempt 
+ON download_file(state, next_attempt_at);
+-- host of the url, the files of busy hosts are not read by the dispatcher
+ALTER TABLE download_file ADD COLUMN IF NOT EXISTS host VARCHAR(255);
+CREATE INDEX IF NOT EXISTS download_file_host 
+ON download_file(state, host, next_attempt_at);
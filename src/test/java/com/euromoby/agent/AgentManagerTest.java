@@ -13,6 +13,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.euromoby.agent.model.AgentStatus;
+import com.euromoby.file.FileDigest;
 import com.euromoby.model.AgentId;
 import com.euromoby.ping.model.PingInfo;
 
@@ -94,6 +95,30 @@ public class AgentManagerTest {
 		assertFalse(list.contains(agent3));		
 	}	
 
+	@Test
+	public void testGetActiveWithFile() {
+		agentManager.addAgent(agent1);
+		agentManager.addAgent(agent2);
+		agentManager.addAgent(agent3);
+		FileDigest fileDigest = new FileDigest(10);
+		fileDigest.add("a.txt");
+		PingInfo pingInfo1 = new PingInfo(agent1);
+		pingInfo1.setFileDigest(fileDigest.serialize());
+		agentManager.notifyPingSendSuccess(pingInfo1);
+		PingInfo pingInfo2 = new PingInfo(agent2);
+		pingInfo2.setFileDigest(new FileDigest(10).serialize());
+		agentManager.notifyPingReceive(pingInfo2);
+		// agent2 does not have the file, agent3 is not active
+		List<AgentId> list = agentManager.getActiveWithFile("a.txt");
+		assertEquals(1, list.size());
+		assertTrue(list.contains(agent1));
+		// without a digest the agent is asked
+		agentManager.notifyPingReceive(new PingInfo(agent2));
+		list = agentManager.getActiveWithFile("a.txt");
+		assertTrue(list.contains(agent2));
+		assertEquals(2, agentManager.getActiveWithFile(null).size());
+	}
+
 	@Test
 	public void testGetAllForPing() {
 		// empty
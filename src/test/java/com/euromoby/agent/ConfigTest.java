@@ -184,4 +184,163 @@ public class ConfigTest {
 		assertEquals(DUMMY_INT, config.getPingPoolSize());
 	}	
 	
+	@Test
+	public void testGetServerSocketOptions() {
+		// default
+		assertEquals(Integer.parseInt(Config.DEFAULT_SERVER_THREADS), config.getServerThreads(DUMMY));
+		assertEquals(Integer.parseInt(Config.DEFAULT_SERVER_ACCEPTORS), config.getServerAcceptors(DUMMY));
+		assertEquals(Integer.parseInt(Config.DEFAULT_SERVER_BACKLOG), config.getServerBacklog(DUMMY));
+		assertTrue(config.isServerTcpNoDelay(DUMMY));
+		assertFalse(config.isServerKeepAlive(DUMMY));
+		assertEquals(0, config.getServerReceiveBuffer(DUMMY));
+		assertEquals(0, config.getServerSendBuffer(DUMMY));
+		// changed for one service only
+		properties.put(String.format(Config.SERVER_THREADS, DUMMY), String.valueOf(DUMMY_INT));
+		properties.put(String.format(Config.SERVER_ACCEPTORS, DUMMY), String.valueOf(DUMMY_INT));
+		properties.put(String.format(Config.SERVER_BACKLOG, DUMMY), String.valueOf(DUMMY_INT));
+		properties.put(String.format(Config.SERVER_TCP_NODELAY, DUMMY), "false");
+		properties.put(String.format(Config.SERVER_KEEPALIVE, DUMMY), "true");
+		properties.put(String.format(Config.SERVER_RCVBUF, DUMMY), String.valueOf(DUMMY_INT));
+		properties.put(String.format(Config.SERVER_SNDBUF, DUMMY), String.valueOf(DUMMY_INT));
+		assertEquals(DUMMY_INT, config.getServerThreads(DUMMY));
+		assertEquals(DUMMY_INT, config.getServerAcceptors(DUMMY));
+		assertEquals(DUMMY_INT, config.getServerBacklog(DUMMY));
+		assertFalse(config.isServerTcpNoDelay(DUMMY));
+		assertTrue(config.isServerKeepAlive(DUMMY));
+		assertEquals(DUMMY_INT, config.getServerReceiveBuffer(DUMMY));
+		assertEquals(DUMMY_INT, config.getServerSendBuffer(DUMMY));
+		assertEquals(Integer.parseInt(Config.DEFAULT_SERVER_BACKLOG), config.getServerBacklog("other"));
+	}
+
+	@Test
+	public void testGetNettyThreads() {
+		// default
+		assertEquals(Integer.parseInt(Config.DEFAULT_NETTY_BOSS_THREADS), config.getNettyBossThreads());
+		assertEquals(Integer.parseInt(Config.DEFAULT_NETTY_WORKER_THREADS), config.getNettyWorkerThreads());
+		// changed
+		properties.put(Config.NETTY_BOSS_THREADS, String.valueOf(DUMMY_INT));
+		properties.put(Config.NETTY_WORKER_THREADS, String.valueOf(DUMMY_INT));
+		assertEquals(DUMMY_INT, config.getNettyBossThreads());
+		assertEquals(DUMMY_INT, config.getNettyWorkerThreads());
+	}
+
+	@Test
+	public void testGetNettyIsolatedServices() {
+		// default
+		assertArrayEquals(Config.DEFAULT_NETTY_ISOLATED_SERVICES.split(","), config.getNettyIsolatedServices());
+		// changed
+		properties.put(Config.NETTY_ISOLATED_SERVICES, "cdn,proxy");
+		assertArrayEquals(new String[] { "cdn", "proxy" }, config.getNettyIsolatedServices());
+	}
+
+	@Test
+	public void testGetDownloadSegments() {
+		// default
+		assertEquals(Integer.parseInt(Config.DEFAULT_DOWNLOAD_SEGMENTS), config.getDownloadSegments());
+		assertEquals(Long.parseLong(Config.DEFAULT_DOWNLOAD_SEGMENT_MIN), config.getDownloadSegmentMin());
+		assertEquals(Long.parseLong(Config.DEFAULT_DOWNLOAD_CHECKPOINT), config.getDownloadCheckpoint());
+		assertEquals(Integer.parseInt(Config.DEFAULT_DOWNLOAD_HOST_MAX), config.getDownloadHostMax());
+		// changed
+		properties.put(Config.DOWNLOAD_SEGMENTS, String.valueOf(DUMMY_INT));
+		properties.put(Config.DOWNLOAD_SEGMENT_MIN, String.valueOf(DUMMY_INT));
+		properties.put(Config.DOWNLOAD_CHECKPOINT, String.valueOf(DUMMY_INT));
+		properties.put(Config.DOWNLOAD_HOST_MAX, String.valueOf(DUMMY_INT));
+		assertEquals(DUMMY_INT, config.getDownloadSegments());
+		assertEquals(DUMMY_INT, config.getDownloadSegmentMin());
+		assertEquals(DUMMY_INT, config.getDownloadCheckpoint());
+		assertEquals(DUMMY_INT, config.getDownloadHostMax());
+	}
+
+	@Test
+	public void testGetDownloadRetry() {
+		// default
+		assertEquals(Integer.parseInt(Config.DEFAULT_DOWNLOAD_RETRY_MAX), config.getDownloadRetryMax());
+		assertEquals(Long.parseLong(Config.DEFAULT_DOWNLOAD_RETRY_DELAY), config.getDownloadRetryDelay());
+		assertEquals(Long.parseLong(Config.DEFAULT_DOWNLOAD_RETRY_DELAY_MAX), config.getDownloadRetryDelayMax());
+		// changed
+		properties.put(Config.DOWNLOAD_RETRY_MAX, String.valueOf(DUMMY_INT));
+		properties.put(Config.DOWNLOAD_RETRY_DELAY, String.valueOf(DUMMY_INT));
+		properties.put(Config.DOWNLOAD_RETRY_DELAY_MAX, String.valueOf(DUMMY_INT));
+		assertEquals(DUMMY_INT, config.getDownloadRetryMax());
+		assertEquals(DUMMY_INT, config.getDownloadRetryDelay());
+		assertEquals(DUMMY_INT, config.getDownloadRetryDelayMax());
+	}
+
+	@Test
+	public void testGetHttpClientPool() {
+		// default
+		assertEquals(Integer.parseInt(Config.DEFAULT_HTTP_CLIENT_LEASE_TIMEOUT), config.getHttpClientLeaseTimeout());
+		assertEquals(Integer.parseInt(Config.DEFAULT_HTTP_CLIENT_MAX_TOTAL), config.getHttpClientMaxTotal());
+		assertEquals(Integer.parseInt(Config.DEFAULT_HTTP_CLIENT_MAX_ROUTE), config.getHttpClientMaxRoute());
+		assertEquals(Long.parseLong(Config.DEFAULT_HTTP_CLIENT_IDLE_TIMEOUT), config.getHttpClientIdleTimeout());
+		assertEquals(Integer.parseInt(Config.DEFAULT_HTTP_CLIENT_VALIDATE_AFTER), config.getHttpClientValidateAfter());
+		assertEquals(Long.parseLong(Config.DEFAULT_HTTP_CLIENT_KEEPALIVE), config.getHttpClientKeepAlive());
+		// changed
+		properties.put(Config.HTTP_CLIENT_LEASE_TIMEOUT, String.valueOf(DUMMY_INT));
+		properties.put(Config.HTTP_CLIENT_MAX_TOTAL, String.valueOf(DUMMY_INT));
+		properties.put(Config.HTTP_CLIENT_MAX_ROUTE, String.valueOf(DUMMY_INT));
+		properties.put(Config.HTTP_CLIENT_IDLE_TIMEOUT, String.valueOf(DUMMY_INT));
+		properties.put(Config.HTTP_CLIENT_VALIDATE_AFTER, String.valueOf(DUMMY_INT));
+		properties.put(Config.HTTP_CLIENT_KEEPALIVE, String.valueOf(DUMMY_INT));
+		assertEquals(DUMMY_INT, config.getHttpClientLeaseTimeout());
+		assertEquals(DUMMY_INT, config.getHttpClientMaxTotal());
+		assertEquals(DUMMY_INT, config.getHttpClientMaxRoute());
+		assertEquals(DUMMY_INT, config.getHttpClientIdleTimeout());
+		assertEquals(DUMMY_INT, config.getHttpClientValidateAfter());
+		assertEquals(DUMMY_INT, config.getHttpClientKeepAlive());
+	}
+
+	@Test
+	public void testGetCdnHedgeDelay() {
+		assertEquals(Long.parseLong(Config.DEFAULT_CDN_HEDGE_DELAY), config.getCdnHedgeDelay());
+		properties.put(Config.CDN_HEDGE_DELAY, String.valueOf(DUMMY_INT));
+		assertEquals(DUMMY_INT, config.getCdnHedgeDelay());
+	}
+
+	@Test
+	public void testGetCdnProxyBuffer() {
+		assertEquals(Long.parseLong(Config.DEFAULT_CDN_PROXY_BUFFER), config.getCdnProxyBuffer());
+		assertEquals(Long.parseLong(Config.DEFAULT_CDN_PROXY_BUFFER_TOTAL), config.getCdnProxyBufferTotal());
+		properties.put(Config.CDN_PROXY_BUFFER, String.valueOf(DUMMY_INT));
+		properties.put(Config.CDN_PROXY_BUFFER_TOTAL, String.valueOf(DUMMY_INT));
+		assertEquals(DUMMY_INT, config.getCdnProxyBuffer());
+		assertEquals(DUMMY_INT, config.getCdnProxyBufferTotal());
+	}
+
+	@Test
+	public void testGetCdnShaping() {
+		// default
+		assertEquals(Long.parseLong(Config.DEFAULT_CDN_SHAPING_TOTAL), config.getCdnShapingTotal());
+		assertEquals(Long.parseLong(Config.DEFAULT_CDN_SHAPING_AGENTS_RESERVED), config.getCdnShapingAgentsReserved());
+		assertEquals(Long.parseLong(Config.DEFAULT_CDN_SHAPING_CLIENT_MAX), config.getCdnShapingClientMax());
+		assertEquals(Long.parseLong(Config.DEFAULT_CDN_SHAPING_INTERVAL), config.getCdnShapingInterval());
+		// changed
+		properties.put(Config.CDN_SHAPING_TOTAL, String.valueOf(DUMMY_INT));
+		properties.put(Config.CDN_SHAPING_AGENTS_RESERVED, String.valueOf(DUMMY_INT));
+		properties.put(Config.CDN_SHAPING_CLIENT_MAX, String.valueOf(DUMMY_INT));
+		properties.put(Config.CDN_SHAPING_INTERVAL, String.valueOf(DUMMY_INT));
+		assertEquals(DUMMY_INT, config.getCdnShapingTotal());
+		assertEquals(DUMMY_INT, config.getCdnShapingAgentsReserved());
+		assertEquals(DUMMY_INT, config.getCdnShapingClientMax());
+		assertEquals(DUMMY_INT, config.getCdnShapingInterval());
+	}
+
+	@Test
+	public void testGetNettyAllocator() {
+		// default
+		assertEquals(Config.DEFAULT_NETTY_ALLOCATOR, config.getNettyAllocator());
+		assertTrue(config.isNettyAllocatorDirect());
+		assertEquals(Integer.parseInt(Config.DEFAULT_NETTY_ALLOCATOR_ARENAS), config.getNettyAllocatorArenas());
+		assertEquals(Config.DEFAULT_NETTY_LEAK_DETECTION, config.getNettyLeakDetection());
+		// changed
+		properties.put(Config.NETTY_ALLOCATOR, DUMMY_STR);
+		properties.put(Config.NETTY_ALLOCATOR_DIRECT, "false");
+		properties.put(Config.NETTY_ALLOCATOR_ARENAS, String.valueOf(DUMMY_INT));
+		properties.put(Config.NETTY_LEAK_DETECTION, DUMMY_STR);
+		assertEquals(DUMMY_STR, config.getNettyAllocator());
+		assertFalse(config.isNettyAllocatorDirect());
+		assertEquals(DUMMY_INT, config.getNettyAllocatorArenas());
+		assertEquals(DUMMY_STR, config.getNettyLeakDetection());
+	}
+
 }
@@ -8,6 +8,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.euromoby.agent.model.AgentStatus;
+import com.euromoby.file.FileDigest;
 
 public class AgentStatusTest {
 
@@ -61,6 +62,22 @@ public class AgentStatusTest {
 		assertTrue(agentStatus.isActive());		
 	}
 
+	@Test
+	public void testMightHaveFile() {
+		// no digest
+		assertTrue(agentStatus.mightHaveFile("a.txt"));
+		FileDigest fileDigest = new FileDigest(10);
+		fileDigest.add("a.txt");
+		agentStatus.setFileDigest(fileDigest);
+		agentStatus.setFileDigestReceived(System.currentTimeMillis());
+		assertTrue(agentStatus.mightHaveFile("a.txt"));
+		assertFalse(agentStatus.mightHaveFile("b.txt"));
+		// the agent may have stored the file since the digest was sent
+		agentStatus.setFileDigestReceived(System.currentTimeMillis() - AgentStatus.PING_INTERVAL - 1);
+		assertTrue(agentStatus.isFileDigestStale());
+		assertTrue(agentStatus.mightHaveFile("b.txt"));
+	}
+
 	@Test
 	public void testIsPingRequired() {
 		// default
@@ -0,0 +1,283 @@
+package com.euromoby.cdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.CharsetUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.agent.Config;
+import com.euromoby.cdn.CdnFileCache.CachedFile;
+import com.euromoby.cdn.CdnFileCache.FrequencySketch;
+import com.euromoby.file.FileMetadata;
+import com.euromoby.file.FilePrecompressor;
+import com.euromoby.file.MimeHelper;
+import com.euromoby.network.ByteBufAllocatorProvider;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CdnFileCacheTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Mock
+	Config config;
+	@Mock
+	MimeHelper mimeHelper;
+	@Mock
+	ByteBufAllocatorProvider allocatorProvider;
+
+	CdnFileCache cdnFileCache;
+
+	@Before
+	public void init() {
+		Mockito.when(config.getCdnFileCacheSize()).thenReturn(100L);
+		Mockito.when(config.getCdnFileCacheFileMax()).thenReturn(50);
+		Mockito.when(config.getCdnFileCacheRevalidate()).thenReturn(0L);
+		Mockito.when(mimeHelper.getContentType(Matchers.any(File.class))).thenReturn("text/plain");
+		Mockito.when(allocatorProvider.getAllocator()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
+		cdnFileCache = new CdnFileCache(config, allocatorProvider);
+	}
+
+	@After
+	public void destroy() throws Exception {
+		cdnFileCache.destroy();
+	}
+
+	private File createFile(String name, int length) throws Exception {
+		File file = temporaryFolder.newFile(name);
+		FileUtils.writeByteArrayToFile(file, new byte[length]);
+		return file;
+	}
+
+	private CachedFile load(File file) {
+		return cdnFileCache.load(file, FileMetadata.of(file, mimeHelper));
+	}
+
+	@Test
+	public void testLoadAndGet() throws Exception {
+		File file = temporaryFolder.newFile("file.txt");
+		FileUtils.writeStringToFile(file, "hello");
+
+		assertNull(cdnFileCache.get(file));
+		CachedFile loaded = load(file);
+		assertNotNull(loaded);
+		assertEquals("hello", loaded.getContent().toString(CharsetUtil.UTF_8));
+		assertTrue(loaded.getContent().isDirect());
+		loaded.release();
+		// allocated as every other response buffer
+		Mockito.verify(allocatorProvider).getAllocator();
+
+		CachedFile cachedFile = cdnFileCache.get(file);
+		assertNotNull(cachedFile);
+		assertEquals("file.txt", cachedFile.getName());
+		assertEquals(5, cachedFile.getMetadata().getLength());
+		assertEquals(FileMetadata.of(file, mimeHelper).getEtag(), cachedFile.getMetadata().getEtag());
+		assertNull(cachedFile.getCompressedContent());
+		assertEquals("hello", cachedFile.getContent().toString(CharsetUtil.UTF_8));
+		cachedFile.release();
+		assertEquals(1, cdnFileCache.count());
+		assertEquals(5, cdnFileCache.size());
+	}
+
+	@Test
+	public void testTooLarge() throws Exception {
+		File file = createFile("large.txt", 51);
+		assertNull(load(file));
+		assertEquals(0, cdnFileCache.count());
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		Mockito.when(config.getCdnFileCacheSize()).thenReturn(0L);
+		File file = createFile("file.txt", 10);
+		assertNull(load(file));
+		assertNull(cdnFileCache.get(file));
+	}
+
+	@Test
+	public void testInvalidatedByLength() throws Exception {
+		File file = temporaryFolder.newFile("file.txt");
+		FileUtils.writeStringToFile(file, "hello");
+		load(file).release();
+
+		long lastModified = file.lastModified();
+		FileUtils.writeStringToFile(file, "hello world");
+		assertTrue(file.setLastModified(lastModified));
+		assertNull(cdnFileCache.get(file));
+		assertEquals(0, cdnFileCache.count());
+		assertEquals(0, cdnFileCache.size());
+	}
+
+	@Test
+	public void testInvalidatedByModificationTime() throws Exception {
+		File file = temporaryFolder.newFile("file.txt");
+		FileUtils.writeStringToFile(file, "hello");
+		load(file).release();
+
+		FileUtils.writeStringToFile(file, "HELLO");
+		assertTrue(file.setLastModified(file.lastModified() - 10000));
+		assertNull(cdnFileCache.get(file));
+	}
+
+	@Test
+	public void testNotRevalidatedWithinInterval() throws Exception {
+		Mockito.when(config.getCdnFileCacheRevalidate()).thenReturn(60000L);
+		File file = temporaryFolder.newFile("file.txt");
+		FileUtils.writeStringToFile(file, "hello");
+		load(file).release();
+
+		assertTrue(file.delete());
+		CachedFile cachedFile = cdnFileCache.get(file);
+		assertNotNull(cachedFile);
+		cachedFile.release();
+	}
+
+	@Test
+	public void testAdmission() throws Exception {
+		File popular1 = createFile("popular1.txt", 50);
+		File popular2 = createFile("popular2.txt", 50);
+		File rare = createFile("rare.txt", 50);
+
+		for (int i = 0; i < 3; i++) {
+			release(cdnFileCache.get(popular1));
+			release(cdnFileCache.get(popular2));
+		}
+		load(popular1).release();
+		load(popular2).release();
+
+		// cache is full, a rarely requested file does not replace popular ones
+		cdnFileCache.get(rare);
+		assertNull(load(rare));
+		assertEquals(2, cdnFileCache.count());
+
+		// once it is requested more often, it replaces the least recently used
+		for (int i = 0; i < 5; i++) {
+			release(cdnFileCache.get(rare));
+		}
+		release(cdnFileCache.get(popular2));
+		CachedFile cachedFile = load(rare);
+		assertNotNull(cachedFile);
+		cachedFile.release();
+		assertEquals(2, cdnFileCache.count());
+		assertEquals(100, cdnFileCache.size());
+		CachedFile evicted = cdnFileCache.get(popular1);
+		assertNull(evicted);
+	}
+
+	@Test
+	public void testContentReleasedOnEviction() throws Exception {
+		File file = temporaryFolder.newFile("file.txt");
+		FileUtils.writeStringToFile(file, "hello");
+		CachedFile cachedFile = load(file);
+		assertEquals(2, cachedFile.getContent().refCnt());
+
+		cdnFileCache.invalidate(file);
+		assertEquals(1, cachedFile.getContent().refCnt());
+		cachedFile.release();
+		assertEquals(0, cachedFile.getContent().refCnt());
+	}
+
+	private File createCompressedFile(File file) throws Exception {
+		File compressedFile = FilePrecompressor.getCompressedFile(file);
+		OutputStream os = new GZIPOutputStream(new FileOutputStream(compressedFile));
+		try {
+			FileUtils.copyFile(file, os);
+		} finally {
+			os.close();
+		}
+		assertTrue(compressedFile.setLastModified(file.lastModified()));
+		return compressedFile;
+	}
+
+	@Test
+	public void testCompressedVariant() throws Exception {
+		Mockito.when(mimeHelper.isCompressible(Matchers.any(File.class))).thenReturn(true);
+		File file = temporaryFolder.newFile("file.txt");
+		FileUtils.writeStringToFile(file, "hello");
+		File compressedFile = createCompressedFile(file);
+		ByteBuf compressed = Unpooled.wrappedBuffer(FileUtils.readFileToByteArray(compressedFile));
+
+		load(file).release();
+		CachedFile cachedFile = cdnFileCache.get(file);
+		assertEquals("hello", cachedFile.getContent().toString(CharsetUtil.UTF_8));
+		assertEquals(compressed, cachedFile.getCompressedContent());
+		assertEquals(5 + compressedFile.length(), cdnFileCache.size());
+
+		// the other representation is released
+		ByteBuf content = cachedFile.takeContent(true);
+		assertEquals(1, cachedFile.getContent().refCnt());
+		assertEquals(compressed, content);
+		content.release();
+	}
+
+	@Test
+	public void testInvalidatedByCompressedVariant() throws Exception {
+		Mockito.when(mimeHelper.isCompressible(Matchers.any(File.class))).thenReturn(true);
+		File file = temporaryFolder.newFile("file.txt");
+		FileUtils.writeStringToFile(file, "hello");
+		load(file).release();
+
+		// precompressed after the file was cached
+		createCompressedFile(file);
+		assertNull(cdnFileCache.get(file));
+		assertEquals(0, cdnFileCache.count());
+	}
+
+	@Test
+	public void testNotCompressibleWithoutCompressedVariant() throws Exception {
+		File file = temporaryFolder.newFile("file.txt");
+		FileUtils.writeStringToFile(file, "hello");
+		createCompressedFile(file);
+
+		load(file).release();
+		CachedFile cachedFile = cdnFileCache.get(file);
+		assertNull(cachedFile.getCompressedContent());
+		cachedFile.release();
+		assertEquals(5, cdnFileCache.size());
+	}
+
+	@Test
+	public void testFrequencySketch() {
+		FrequencySketch sketch = new FrequencySketch(64);
+		assertEquals(0, sketch.frequency("a"));
+		for (int i = 0; i < 3; i++) {
+			sketch.increment("a");
+		}
+		assertEquals(3, sketch.frequency("a"));
+		for (int i = 0; i < 100; i++) {
+			sketch.increment("b");
+		}
+		// counters are saturated and then aged
+		assertTrue(sketch.frequency("b") <= 15);
+		assertFalse(sketch.frequency("a") > 3);
+	}
+
+	private static void release(CachedFile cachedFile) {
+		if (cachedFile != null) {
+			cachedFile.release();
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+package com.euromoby.cdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.agent.AgentManager;
+import com.euromoby.agent.Config;
+import com.euromoby.agent.model.AgentStatus;
+import com.euromoby.cdn.CdnLocationCache.CachedLocation;
+import com.euromoby.model.AgentId;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CdnLocationCacheTest {
+
+	private static final AgentId AGENT1 = new AgentId("agent1:21000");
+	private static final String PATH1 = "/path1";
+	private static final String PATH2 = "/path2";
+	private static final String PATH3 = "/path3";
+
+	@Mock
+	Config config;
+	@Mock
+	AgentManager agentManager;
+	@Mock
+	AgentStatus agentStatus;
+
+	CdnLocationCache cdnLocationCache;
+
+	@Before
+	public void init() {
+		Mockito.when(config.getCdnLocationCacheSize()).thenReturn(Long.MAX_VALUE);
+		Mockito.when(config.getCdnLocationTtl()).thenReturn(60000L);
+		Mockito.when(config.getCdnLocationNegativeTtl()).thenReturn(60000L);
+		Mockito.when(agentManager.getAgentStatus(AGENT1)).thenReturn(agentStatus);
+		Mockito.when(agentStatus.isActive()).thenReturn(true);
+		cdnLocationCache = new CdnLocationCache(config, agentManager);
+	}
+
+	@Test
+	public void testPositiveAndNegative() {
+		assertNull(cdnLocationCache.get(PATH1));
+		cdnLocationCache.put(PATH1, AGENT1);
+		cdnLocationCache.put(PATH2, null);
+
+		CachedLocation found = cdnLocationCache.get(PATH1);
+		assertTrue(found.isFound());
+		assertEquals(AGENT1, found.getAgentId());
+
+		CachedLocation notFound = cdnLocationCache.get(PATH2);
+		assertNotNull(notFound);
+		assertFalse(notFound.isFound());
+	}
+
+	@Test
+	public void testExpired() throws Exception {
+		Mockito.when(config.getCdnLocationNegativeTtl()).thenReturn(1L);
+		cdnLocationCache.put(PATH1, null);
+		Thread.sleep(5);
+		assertNull(cdnLocationCache.get(PATH1));
+		assertEquals(0, cdnLocationCache.count());
+		assertEquals(0, cdnLocationCache.size());
+	}
+
+	@Test
+	public void testNegativeCachingDisabled() {
+		Mockito.when(config.getCdnLocationNegativeTtl()).thenReturn(0L);
+		cdnLocationCache.put(PATH1, null);
+		assertNull(cdnLocationCache.get(PATH1));
+	}
+
+	@Test
+	public void testInactiveAgentDropped() {
+		cdnLocationCache.put(PATH1, AGENT1);
+		Mockito.when(agentStatus.isActive()).thenReturn(false);
+		assertNull(cdnLocationCache.get(PATH1));
+		assertEquals(0, cdnLocationCache.count());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() {
+		Mockito.when(config.getCdnLocationCacheSize()).thenReturn(2 * CdnLocationCache.weight(PATH1));
+		cdnLocationCache.put(PATH1, AGENT1);
+		cdnLocationCache.put(PATH2, AGENT1);
+		// PATH1 becomes most recently used
+		assertNotNull(cdnLocationCache.get(PATH1));
+		cdnLocationCache.put(PATH3, AGENT1);
+
+		assertEquals(2, cdnLocationCache.count());
+		assertEquals(2 * CdnLocationCache.weight(PATH1), cdnLocationCache.size());
+		assertNotNull(cdnLocationCache.get(PATH1));
+		assertNull(cdnLocationCache.get(PATH2));
+		assertNotNull(cdnLocationCache.get(PATH3));
+	}
+
+	@Test
+	public void testInvalidate() {
+		cdnLocationCache.put(PATH1, AGENT1);
+		cdnLocationCache.put(PATH1, AGENT1);
+		assertEquals(CdnLocationCache.weight(PATH1), cdnLocationCache.size());
+		cdnLocationCache.invalidate(PATH1);
+		assertNull(cdnLocationCache.get(PATH1));
+		assertEquals(0, cdnLocationCache.size());
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.euromoby.cdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CdnMappingWatcherTest {
+
+	private static final int WAIT_MILLIS = 10000;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Mock
+	CdnResourceMapping cdnResourceMapping;
+
+	File mappingFile;
+	CdnMappingWatcher cdnMappingWatcher;
+
+	@Before
+	public void init() throws Exception {
+		mappingFile = new File(temporaryFolder.getRoot(), "cdn.json");
+		Mockito.when(cdnResourceMapping.getMappingFile()).thenReturn(mappingFile);
+		cdnMappingWatcher = new CdnMappingWatcher(cdnResourceMapping);
+	}
+
+	@After
+	public void destroy() {
+		cdnMappingWatcher.closeWatchService();
+	}
+
+	@Test
+	public void testGetServiceName() {
+		assertEquals(CdnMappingWatcher.SERVICE_NAME, cdnMappingWatcher.getServiceName());
+	}
+
+	@Test
+	public void testReloadOnChange() throws Exception {
+		cdnMappingWatcher.executeInternal();
+		// loaded once when the watch is registered
+		Mockito.verify(cdnResourceMapping, Mockito.times(1)).loadMappingFile();
+
+		cdnMappingWatcher.executeInternal();
+		Mockito.verify(cdnResourceMapping, Mockito.times(1)).loadMappingFile();
+
+		FileUtils.writeStringToFile(mappingFile, "[]");
+		long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+		boolean changed = false;
+		while (!changed && System.currentTimeMillis() < deadline) {
+			changed = cdnMappingWatcher.pollChanges();
+			Thread.sleep(10);
+		}
+		assertTrue(changed);
+	}
+
+	@Test
+	public void testOtherFilesIgnored() throws Exception {
+		cdnMappingWatcher.executeInternal();
+		FileUtils.writeStringToFile(new File(temporaryFolder.getRoot(), "other.json"), "[]");
+		Thread.sleep(100);
+		assertFalse(cdnMappingWatcher.pollChanges());
+	}
+
+}
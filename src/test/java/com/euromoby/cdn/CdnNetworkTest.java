@@ -1,25 +1,24 @@
 package com.euromoby.cdn;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeoutException;
 
-import org.apache.http.HttpStatus;
-import org.apache.http.HttpVersion;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.message.BasicStatusLine;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -27,12 +26,19 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import com.euromoby.agent.AgentManager;
 import com.euromoby.agent.Config;
+import com.euromoby.cdn.CdnLocationCache.CachedLocation;
 import com.euromoby.cdn.model.CdnResource;
-import com.euromoby.http.HttpClientProvider;
+import com.euromoby.file.FileProvider;
+import com.euromoby.http.AsyncHttpClientProvider;
 import com.euromoby.model.AgentId;
 import com.euromoby.model.Tuple;
 import com.euromoby.rest.handler.fileinfo.FileInfo;
 import com.google.gson.Gson;
+import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient.BoundRequestBuilder;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.Response;
 
 @RunWith(MockitoJUnitRunner.class)
 public class CdnNetworkTest {
@@ -40,127 +46,284 @@ public class CdnNetworkTest {
 	private static final Gson GSON = new Gson();
 	private static final AgentId AGENT1 = new AgentId("agent1:21000");
 	private static final AgentId AGENT2 = new AgentId("agent2:21000");
-	
+
 	@Mock
 	Config config;
 	@Mock
 	AgentManager agentManager;
 	@Mock
-	HttpClientProvider httpClientProvider;
+	AsyncHttpClientProvider asyncHttpClientProvider;
 	@Mock
 	CdnResourceMapping cdnResourceMapping;
 	@Mock
 	CdnResource cdnResource;
-	@Mock 
-	RequestConfig.Builder requestConfigBuilder;
 	@Mock
-	CloseableHttpResponse response;
+	BoundRequestBuilder boundRequestBuilder;
+	@Mock
+	ListenableFuture<FileInfo> listenableFuture;
+	@Mock
+	Response response;
+	@Mock
+	CdnLocationCache cdnLocationCache;
+	@Mock
+	CdnPlacement cdnPlacement;
+	@Mock
+	FileProvider fileProvider;
 
 	CdnNetwork cdnNetwork;
+	Promise<Tuple<CdnResource, FileInfo>> promise;
 
 	private static final String GOOD_URL = "/good";
-	private static final String BAD_URL = "/bad";	
-	
+	private static final String BAD_URL = "/bad";
+
 	@Before
-	public void init() {
-		Mockito.when(config.getCdnPoolSize()).thenReturn(2);
+	public void init() throws Exception {
+		Mockito.when(config.getCdnTimeout()).thenReturn(500);
+		Mockito.when(config.getCdnHedgeDelay()).thenReturn(60000L);
 		Mockito.when(cdnResourceMapping.findByUrl(Matchers.eq(GOOD_URL))).thenReturn(cdnResource);
-		Mockito.when(cdnResourceMapping.findByUrl(Matchers.eq(BAD_URL))).thenReturn(null);		
-		cdnNetwork = new CdnNetwork(config, agentManager, httpClientProvider, cdnResourceMapping);
+		Mockito.when(cdnResourceMapping.findByUrl(Matchers.eq(BAD_URL))).thenReturn(null);
+		Mockito.when(cdnResource.isAvailableInNetwork()).thenReturn(true);
+		Mockito.when(asyncHttpClientProvider.prepareAgentGet(Matchers.anyString())).thenReturn(boundRequestBuilder);
+		Mockito.when(boundRequestBuilder.execute(Matchers.<AsyncHandler<FileInfo>> any())).thenReturn(listenableFuture);
+		Mockito.when(fileProvider.getRelativeLocation("good")).thenReturn("good.agentfile.html");
+		cdnNetwork = new CdnNetwork(config, agentManager, asyncHttpClientProvider, cdnResourceMapping, cdnLocationCache, cdnPlacement, fileProvider);
+		promise = ImmediateEventExecutor.INSTANCE.newPromise();
 	}
-	
-	@Test
-	public void testSendAndReceiveNotFound() throws Exception {
-		List<AgentId> agentList = Collections.singletonList(AGENT1);
-		Mockito.when(agentManager.getActive()).thenReturn(agentList);
-		Mockito.when(httpClientProvider.createRequestConfigBuilder(Matchers.eq(AGENT1.getHost()), Matchers.eq(false))).thenReturn(requestConfigBuilder);
-		Mockito.when(httpClientProvider.executeRequest(Matchers.any(HttpUriRequest.class))).thenReturn(response);
-		Mockito.when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_NOT_FOUND, "Not found"));
-		Mockito.when(config.getCdnTimeout()).thenReturn(500);
-		
-		int agentCount = cdnNetwork.sendRequestsToActiveAgents(GOOD_URL);
-		assertEquals(agentList.size(), agentCount);
-		List<FileInfo> fileInfoList = cdnNetwork.getResponsesFromAgents(agentCount);
-		// 404 not found = null
-		assertTrue(fileInfoList.isEmpty());
+
+	@After
+	public void destroy() throws Exception {
+		cdnNetwork.destroy();
 	}
 
-	@Test
-	public void testSendAndReceiveNoAgents() throws Exception {
-		List<AgentId> agentList = Collections.emptyList();
-		Mockito.when(agentManager.getActive()).thenReturn(agentList);
-		
-		int agentCount = cdnNetwork.sendRequestsToActiveAgents(GOOD_URL);
-		assertEquals(agentList.size(), agentCount);
-		List<FileInfo> fileInfoList = cdnNetwork.getResponsesFromAgents(agentCount);
-		// 404 not found = null
-		assertTrue(fileInfoList.isEmpty());
-	}	
-	
-	@Test
-	public void testSendAndReceiveFound() throws Exception {
-		List<AgentId> agentList = Arrays.asList(AGENT1, AGENT2);
-		Mockito.when(agentManager.getActive()).thenReturn(agentList);
-		Mockito.when(httpClientProvider.createRequestConfigBuilder(Matchers.anyString(),Matchers.eq(false))).thenReturn(requestConfigBuilder);
-		Mockito.when(httpClientProvider.executeRequest(Matchers.any(HttpUriRequest.class))).thenReturn(response);
-		Mockito.when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "Found"));
-		FileInfo fileInfo = new FileInfo();
-		fileInfo.setAgentId(AGENT1);		
-		ByteArrayEntity bae = new ByteArrayEntity(GSON.toJson(fileInfo).getBytes());
-		Mockito.when(response.getEntity()).thenReturn(bae);
-		Mockito.when(config.getCdnTimeout()).thenReturn(500);
-		
-		int agentCount = cdnNetwork.sendRequestsToActiveAgents(GOOD_URL);
-		assertEquals(agentList.size(), agentCount);
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private List<AsyncCompletionHandler<FileInfo>> captureHandlers(int count) {
+		ArgumentCaptor<AsyncCompletionHandler> captor = ArgumentCaptor.forClass(AsyncCompletionHandler.class);
+		Mockito.verify(boundRequestBuilder, Mockito.times(count)).execute(captor.capture());
+		return (List) captor.getAllValues();
+	}
 
-		List<FileInfo> fileInfoList = cdnNetwork.getResponsesFromAgents(agentCount);
-		// should be found
-		assertEquals(agentList.size(), fileInfoList.size());
-	}	
-	
-	@Test
-	public void testChooseBestSource() {
+	private void mockFoundResponse(boolean complete) throws Exception {
 		FileInfo fileInfo = new FileInfo();
-		List<FileInfo> fileInfoList = new ArrayList<FileInfo>();
-		assertNull(cdnNetwork.chooseBestSource(fileInfoList));
-		fileInfoList.add(fileInfo);
-		assertEquals(fileInfo, cdnNetwork.chooseBestSource(fileInfoList));
+		fileInfo.setComplete(complete);
+		Mockito.when(response.getStatusCode()).thenReturn(200);
+		Mockito.when(response.getResponseBody()).thenReturn(GSON.toJson(fileInfo));
 	}
 
 	@Test
 	public void testMappingNotExist() {
-		Tuple<CdnResource, FileInfo> result = cdnNetwork.find(BAD_URL);
-		assertNull(result.getFirst());
-		assertNull(result.getSecond());			
-	}	
-	
+		cdnNetwork.find(BAD_URL, promise);
+		assertTrue(promise.isSuccess());
+		assertNull(promise.getNow().getFirst());
+		assertNull(promise.getNow().getSecond());
+	}
+
 	@Test
 	public void testUrlNotAvailable() {
 		Mockito.when(cdnResource.isAvailableInNetwork()).thenReturn(false);
-		Tuple<CdnResource, FileInfo> result = cdnNetwork.find(GOOD_URL); 
-		assertNotNull(result.getFirst());
-		assertNull(result.getSecond());		
-	}	
-	
+		cdnNetwork.find(GOOD_URL, promise);
+		assertTrue(promise.isSuccess());
+		assertNotNull(promise.getNow().getFirst());
+		assertNull(promise.getNow().getSecond());
+		Mockito.verifyZeroInteractions(agentManager);
+	}
 
 	@Test
-	public void testUrlIsAvailableInNetwork() throws Exception {
-		Mockito.when(cdnResource.isAvailableInNetwork()).thenReturn(true);
-		
-		List<AgentId> agentList = Arrays.asList(AGENT1, AGENT2);
-		Mockito.when(agentManager.getActive()).thenReturn(agentList);
-		Mockito.when(httpClientProvider.createRequestConfigBuilder(Matchers.anyString(), Matchers.eq(false))).thenReturn(requestConfigBuilder);
-		Mockito.when(httpClientProvider.executeRequest(Matchers.any(HttpUriRequest.class))).thenReturn(response);
-		Mockito.when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "Found"));
-		FileInfo fileInfo = new FileInfo();
-		fileInfo.setAgentId(AGENT1);		
-		ByteArrayEntity bae = new ByteArrayEntity(GSON.toJson(fileInfo).getBytes());
-		Mockito.when(response.getEntity()).thenReturn(bae);
-		Mockito.when(config.getCdnTimeout()).thenReturn(500);		
-		
-		Tuple<CdnResource, FileInfo> result = cdnNetwork.find(GOOD_URL); 
-		assertNotNull(result.getFirst());
-		assertNotNull(result.getSecond());
-	}	
-	
+	public void testNoAgents() {
+		List<AgentId> agentList = Collections.emptyList();
+		Mockito.when(agentManager.getActiveWithFile(Matchers.anyString())).thenReturn(agentList);
+		cdnNetwork.find(GOOD_URL, promise);
+		assertTrue(promise.isSuccess());
+		assertEquals(cdnResource, promise.getNow().getFirst());
+		assertNull(promise.getNow().getSecond());
+	}
+
+	@Test
+	public void testNotFoundInNetwork() throws Exception {
+		Mockito.when(agentManager.getActiveWithFile(Matchers.anyString())).thenReturn(Arrays.asList(AGENT1, AGENT2));
+		Mockito.when(response.getStatusCode()).thenReturn(404);
+
+		cdnNetwork.find(GOOD_URL, promise);
+		List<AsyncCompletionHandler<FileInfo>> handlers = captureHandlers(2);
+
+		handlers.get(0).onCompleted(response);
+		// still waiting for the second agent
+		assertFalse(promise.isDone());
+		handlers.get(1).onCompleted(response);
+		assertTrue(promise.isSuccess());
+		assertNull(promise.getNow().getSecond());
+		// negative result is cached
+		Mockito.verify(cdnLocationCache).put(GOOD_URL, null);
+	}
+
+	@Test
+	public void testFailedAgentIsNotCachedAsMiss() throws Exception {
+		Mockito.when(agentManager.getActiveWithFile(Matchers.anyString())).thenReturn(Arrays.asList(AGENT1, AGENT2));
+		Mockito.when(response.getStatusCode()).thenReturn(404);
+
+		cdnNetwork.find(GOOD_URL, promise);
+		List<AsyncCompletionHandler<FileInfo>> handlers = captureHandlers(2);
+
+		handlers.get(0).onCompleted(response);
+		handlers.get(1).onThrowable(new TimeoutException());
+		assertTrue(promise.isSuccess());
+		assertNull(promise.getNow().getSecond());
+		// the agent which timed out may have the file
+		Mockito.verify(cdnLocationCache, Mockito.never()).put(Matchers.anyString(), Matchers.any(AgentId.class));
+	}
+
+	@Test
+	public void testFirstCompleteWins() throws Exception {
+		Mockito.when(agentManager.getActiveWithFile(Matchers.anyString())).thenReturn(Arrays.asList(AGENT1, AGENT2));
+		mockFoundResponse(true);
+
+		cdnNetwork.find(GOOD_URL, promise);
+		List<AsyncCompletionHandler<FileInfo>> handlers = captureHandlers(2);
+
+		handlers.get(1).onCompleted(response);
+		assertTrue(promise.isSuccess());
+		assertEquals(AGENT2, promise.getNow().getSecond().getAgentId());
+		// other request is cancelled
+		Mockito.verify(listenableFuture, Mockito.times(2)).cancel(true);
+
+		// late response is ignored
+		handlers.get(0).onCompleted(response);
+		assertEquals(AGENT2, promise.getNow().getSecond().getAgentId());
+		Mockito.verify(cdnLocationCache).put(GOOD_URL, AGENT2);
+	}
+
+	@Test
+	public void testOwnerAskedFirst() throws Exception {
+		Mockito.when(agentManager.getActiveWithFile(Matchers.anyString())).thenReturn(new ArrayList<AgentId>(Arrays.asList(AGENT1, AGENT2)));
+		Mockito.when(cdnPlacement.findRemoteOwner(GOOD_URL)).thenReturn(AGENT2);
+		mockFoundResponse(true);
+
+		cdnNetwork.find(GOOD_URL, promise);
+		Mockito.verify(asyncHttpClientProvider).prepareAgentGet(cdnNetwork.getFileInfoUrl(AGENT2, GOOD_URL));
+		captureHandlers(1).get(0).onCompleted(response);
+
+		assertTrue(promise.isSuccess());
+		assertEquals(AGENT2, promise.getNow().getSecond().getAgentId());
+		// other agents are not asked
+		Mockito.verify(asyncHttpClientProvider, Mockito.times(1)).prepareAgentGet(Matchers.anyString());
+	}
+
+	@Test
+	public void testOwnerAskedDespiteDigest() throws Exception {
+		// the digest of the owner does not list the file yet
+		Mockito.when(agentManager.getActiveWithFile(Matchers.anyString())).thenReturn(new ArrayList<AgentId>(Arrays.asList(AGENT1)));
+		Mockito.when(cdnPlacement.findRemoteOwner(GOOD_URL)).thenReturn(AGENT2);
+		mockFoundResponse(true);
+
+		cdnNetwork.find(GOOD_URL, promise);
+		Mockito.verify(asyncHttpClientProvider).prepareAgentGet(cdnNetwork.getFileInfoUrl(AGENT2, GOOD_URL));
+		captureHandlers(1).get(0).onCompleted(response);
+		assertTrue(promise.isSuccess());
+		assertEquals(AGENT2, promise.getNow().getSecond().getAgentId());
+	}
+
+	@Test
+	public void testOwnerMissAsksOthers() throws Exception {
+		Mockito.when(agentManager.getActiveWithFile(Matchers.anyString())).thenReturn(new ArrayList<AgentId>(Arrays.asList(AGENT1, AGENT2)));
+		Mockito.when(cdnPlacement.findRemoteOwner(GOOD_URL)).thenReturn(AGENT2);
+		Mockito.when(response.getStatusCode()).thenReturn(404);
+
+		cdnNetwork.find(GOOD_URL, promise);
+		captureHandlers(1).get(0).onCompleted(response);
+		assertFalse(promise.isDone());
+		Mockito.verify(asyncHttpClientProvider).prepareAgentGet(cdnNetwork.getFileInfoUrl(AGENT1, GOOD_URL));
+
+		mockFoundResponse(true);
+		captureHandlers(2).get(1).onCompleted(response);
+		assertTrue(promise.isSuccess());
+		assertEquals(AGENT1, promise.getNow().getSecond().getAgentId());
+	}
+
+	@Test
+	public void testSlowOwnerIsHedged() throws Exception {
+		Mockito.when(config.getCdnHedgeDelay()).thenReturn(10L);
+		Mockito.when(agentManager.getActiveWithFile(Matchers.anyString())).thenReturn(new ArrayList<AgentId>(Arrays.asList(AGENT1, AGENT2)));
+		Mockito.when(cdnPlacement.findRemoteOwner(GOOD_URL)).thenReturn(AGENT2);
+		Mockito.when(response.getStatusCode()).thenReturn(404);
+
+		cdnNetwork.find(GOOD_URL, promise);
+		// the owner has not answered yet
+		Mockito.verify(asyncHttpClientProvider, Mockito.timeout(5000)).prepareAgentGet(cdnNetwork.getFileInfoUrl(AGENT1, GOOD_URL));
+		List<AsyncCompletionHandler<FileInfo>> handlers = captureHandlers(2);
+
+		handlers.get(1).onCompleted(response);
+		// the late owner is still waited for
+		assertFalse(promise.isDone());
+		handlers.get(0).onCompleted(response);
+		assertTrue(promise.isSuccess());
+		assertNull(promise.getNow().getSecond());
+		// the owner miss does not ask the other agents again
+		Mockito.verify(asyncHttpClientProvider, Mockito.times(2)).prepareAgentGet(Matchers.anyString());
+	}
+
+	@Test
+	public void testOwnerFoundBeforeHedge() throws Exception {
+		Mockito.when(config.getCdnHedgeDelay()).thenReturn(200L);
+		Mockito.when(agentManager.getActiveWithFile(Matchers.anyString())).thenReturn(new ArrayList<AgentId>(Arrays.asList(AGENT1, AGENT2)));
+		Mockito.when(cdnPlacement.findRemoteOwner(GOOD_URL)).thenReturn(AGENT2);
+		mockFoundResponse(true);
+
+		cdnNetwork.find(GOOD_URL, promise);
+		captureHandlers(1).get(0).onCompleted(response);
+		assertEquals(AGENT2, promise.getNow().getSecond().getAgentId());
+		Thread.sleep(300);
+		// the hedge is cancelled
+		Mockito.verify(asyncHttpClientProvider, Mockito.times(1)).prepareAgentGet(Matchers.anyString());
+	}
+
+	@Test
+	public void testCachedLocation() throws Exception {
+		Mockito.when(cdnLocationCache.get(GOOD_URL)).thenReturn(new CachedLocation(AGENT1, Long.MAX_VALUE));
+		cdnNetwork.find(GOOD_URL, promise);
+		assertTrue(promise.isSuccess());
+		assertEquals(AGENT1, promise.getNow().getSecond().getAgentId());
+		Mockito.verifyZeroInteractions(agentManager, asyncHttpClientProvider);
+	}
+
+	@Test
+	public void testCachedNegativeLocation() throws Exception {
+		Mockito.when(cdnLocationCache.get(GOOD_URL)).thenReturn(new CachedLocation(null, Long.MAX_VALUE));
+		cdnNetwork.find(GOOD_URL, promise);
+		assertTrue(promise.isSuccess());
+		assertEquals(cdnResource, promise.getNow().getFirst());
+		assertNull(promise.getNow().getSecond());
+		Mockito.verifyZeroInteractions(agentManager, asyncHttpClientProvider);
+	}
+
+	@Test
+	public void testIncompleteIsNotChosen() throws Exception {
+		Mockito.when(agentManager.getActiveWithFile(Matchers.anyString())).thenReturn(Collections.singletonList(AGENT1));
+		mockFoundResponse(false);
+
+		cdnNetwork.find(GOOD_URL, promise);
+		captureHandlers(1).get(0).onCompleted(response);
+		assertTrue(promise.isSuccess());
+		assertNull(promise.getNow().getSecond());
+	}
+
+	@Test
+	public void testCancelledLookup() throws Exception {
+		Mockito.when(agentManager.getActiveWithFile(Matchers.anyString())).thenReturn(Collections.singletonList(AGENT1));
+		cdnNetwork.find(GOOD_URL, promise);
+		promise.cancel(false);
+		Mockito.verify(listenableFuture).cancel(true);
+	}
+
+	@Test
+	public void testOnlyAgentsWithFileAreAsked() throws Exception {
+		Mockito.when(agentManager.getActiveWithFile("good.agentfile.html")).thenReturn(Collections.singletonList(AGENT2));
+		cdnNetwork.find(GOOD_URL, promise);
+		Mockito.verify(asyncHttpClientProvider).prepareAgentGet(cdnNetwork.getFileInfoUrl(AGENT2, GOOD_URL));
+		Mockito.verify(asyncHttpClientProvider, Mockito.times(1)).prepareAgentGet(Matchers.anyString());
+	}
+
+	@Test
+	public void testFileInfoUrl() {
+		assertEquals("https://agent1:21443/filesinfo/good", cdnNetwork.getFileInfoUrl(AGENT1, GOOD_URL));
+	}
+
 }
@@ -0,0 +1,167 @@
+package com.euromoby.cdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.agent.AgentManager;
+import com.euromoby.agent.Config;
+import com.euromoby.agent.model.AgentStatus;
+import com.euromoby.model.AgentId;
+import com.euromoby.ping.PingInfoProvider;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CdnPlacementTest {
+
+	private static final long GB = 1024L * 1024 * 1024;
+	private static final AgentId AGENT1 = new AgentId("agent1:21000");
+	private static final AgentId AGENT2 = new AgentId("agent2:21000");
+	private static final AgentId AGENT3 = new AgentId("agent3:21000");
+
+	@Mock
+	Config config;
+	@Mock
+	AgentManager agentManager;
+	@Mock
+	PingInfoProvider pingInfoProvider;
+
+	Map<AgentId, AgentStatus> statuses = new HashMap<AgentId, AgentStatus>();
+
+	CdnPlacement cdnPlacement;
+
+	@Before
+	public void init() {
+		Mockito.when(config.getAgentId()).thenReturn(new AgentId("localhost:21000"));
+		Mockito.when(config.getDownloadFreespaceMin()).thenReturn(500 * 1024 * 1024);
+		Mockito.when(config.getCdnPlacement()).thenReturn(CdnPlacement.PLACEMENT_RENDEZVOUS);
+		Mockito.when(agentManager.getAgentStatus(Matchers.any(AgentId.class))).thenAnswer(new org.mockito.stubbing.Answer<AgentStatus>() {
+			@Override
+			public AgentStatus answer(org.mockito.invocation.InvocationOnMock invocation) throws Throwable {
+				return statuses.get(invocation.getArguments()[0]);
+			}
+		});
+		cdnPlacement = Mockito.spy(new CdnPlacement(config, agentManager, pingInfoProvider));
+		// local agent is not a candidate
+		Mockito.doReturn(0L).when(cdnPlacement).getLocalFreeSpace();
+	}
+
+	private void activeAgents(AgentId... agentIds) {
+		Mockito.when(agentManager.getActive()).thenReturn(new ArrayList<AgentId>(Arrays.asList(agentIds)));
+	}
+
+	private void freeSpace(AgentId agentId, long freeSpace) {
+		AgentStatus agentStatus = new AgentStatus();
+		agentStatus.setFreeSpace(freeSpace);
+		statuses.put(agentId, agentStatus);
+	}
+
+	@Test
+	public void testNoAgents() {
+		activeAgents();
+		assertNull(cdnPlacement.findOwner("/file.jpg"));
+	}
+
+	@Test
+	public void testNotEnoughFreeSpace() {
+		activeAgents(AGENT1);
+		freeSpace(AGENT1, 100);
+		assertNull(cdnPlacement.findOwner("/file.jpg"));
+	}
+
+	@Test
+	public void testFreeSpacePlacement() {
+		Mockito.when(config.getCdnPlacement()).thenReturn(CdnPlacement.PLACEMENT_FREESPACE);
+		activeAgents(AGENT1, AGENT2, AGENT3);
+		freeSpace(AGENT1, 10 * GB);
+		freeSpace(AGENT2, 30 * GB);
+		freeSpace(AGENT3, 20 * GB);
+		assertFalse(cdnPlacement.isRendezvous());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(AGENT2, cdnPlacement.findOwner("/file" + i + ".jpg"));
+		}
+		assertNull(cdnPlacement.findRemoteOwner("/file.jpg"));
+	}
+
+	@Test
+	public void testLocalOwner() {
+		activeAgents(AGENT1);
+		freeSpace(AGENT1, 10 * GB);
+		Mockito.doReturn(10 * GB).when(cdnPlacement).getLocalFreeSpace();
+		int local = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (cdnPlacement.findOwner("/file" + i) == null) {
+				local++;
+			}
+		}
+		assertEquals(500, local, 100);
+	}
+
+	@Test
+	public void testLocalFreeSpaceIsReported() {
+		// the others weigh this agent by its last ping
+		Mockito.when(pingInfoProvider.getReportedFreeSpace()).thenReturn(10 * GB);
+		CdnPlacement placement = new CdnPlacement(config, agentManager, pingInfoProvider);
+		assertEquals(10 * GB, placement.getLocalFreeSpace());
+	}
+
+	@Test
+	public void testRendezvousSpreadsByWeight() {
+		activeAgents(AGENT1, AGENT2, AGENT3);
+		freeSpace(AGENT1, 10 * GB);
+		freeSpace(AGENT2, 10 * GB);
+		freeSpace(AGENT3, 20 * GB);
+		assertTrue(cdnPlacement.isRendezvous());
+
+		Map<AgentId, Integer> counts = new HashMap<AgentId, Integer>();
+		int files = 20000;
+		for (int i = 0; i < files; i++) {
+			AgentId owner = cdnPlacement.findOwner("/images/file" + i + ".jpg");
+			Integer count = counts.get(owner);
+			counts.put(owner, count == null ? 1 : count + 1);
+		}
+		assertEquals(files / 4, counts.get(AGENT1), files / 40);
+		assertEquals(files / 4, counts.get(AGENT2), files / 40);
+		assertEquals(files / 2, counts.get(AGENT3), files / 40);
+	}
+
+	@Test
+	public void testRendezvousIsStable() {
+		activeAgents(AGENT1, AGENT2, AGENT3);
+		freeSpace(AGENT1, 10 * GB);
+		freeSpace(AGENT2, 10 * GB);
+		freeSpace(AGENT3, 10 * GB);
+
+		List<AgentId> owners = new ArrayList<AgentId>();
+		for (int i = 0; i < 1000; i++) {
+			owners.add(cdnPlacement.findOwner("/file" + i));
+		}
+		// same answer every time
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(owners.get(i), cdnPlacement.findOwner("/file" + i));
+		}
+
+		// only files of the removed agent move
+		activeAgents(AGENT1, AGENT2);
+		for (int i = 0; i < 1000; i++) {
+			if (!AGENT3.equals(owners.get(i))) {
+				assertEquals(owners.get(i), cdnPlacement.findOwner("/file" + i));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package com.euromoby.cdn;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.euromoby.cdn.model.CdnResource;
+
+/**
+ * Lookup cost of the CDN mapping depending on the number of entries: the
+ * former linear scan (String.matches on every entry) against
+ * {@link CdnRoutingIndex}.
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.euromoby.cdn.CdnResourceMappingBenchmark</code>
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CdnResourceMappingBenchmark {
+
+	private static final int URL_COUNT = 1024;
+
+	@Param({ "10", "100", "1000", "10000" })
+	public int entries;
+
+	private CdnResource[] cdnResources;
+	private CdnRoutingIndex routingIndex;
+	private String[] urls;
+	private int next;
+
+	@Setup
+	public void setup() {
+		cdnResources = new CdnResource[entries];
+		for (int i = 0; i < entries - 1; i++) {
+			CdnResource cdnResource = new CdnResource();
+			cdnResource.setUrlPathPrefix("/site" + i + "/");
+			cdnResource.setUrlPathPattern(".*\\.(jpg|png)");
+			cdnResources[i] = cdnResource;
+		}
+		// catch-all entry at the end of the mapping
+		cdnResources[entries - 1] = new CdnResource();
+		routingIndex = new CdnRoutingIndex(cdnResources);
+
+		Random random = new Random(42);
+		urls = new String[URL_COUNT];
+		for (int i = 0; i < URL_COUNT; i++) {
+			String extension = random.nextBoolean() ? ".jpg" : ".css";
+			urls[i] = "/site" + random.nextInt(entries) + "/images/file" + i + extension;
+		}
+	}
+
+	private String nextUrl() {
+		next = (next + 1) & (URL_COUNT - 1);
+		return urls[next];
+	}
+
+	@Benchmark
+	public CdnResource linearScan() {
+		String url = nextUrl();
+		for (CdnResource cdnResource : cdnResources) {
+			String urlPath = url;
+			String prefix = cdnResource.getUrlPathPrefix();
+			if (!prefix.isEmpty()) {
+				if (!urlPath.startsWith(prefix)) {
+					continue;
+				}
+				urlPath = urlPath.substring(prefix.length());
+			}
+			if (urlPath.matches(cdnResource.getUrlPathPattern())) {
+				return cdnResource;
+			}
+		}
+		return null;
+	}
+
+	@Benchmark
+	public CdnResource routingIndex() {
+		return routingIndex.find(nextUrl());
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder().include(CdnResourceMappingBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+
+}
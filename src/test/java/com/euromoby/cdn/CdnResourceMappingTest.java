@@ -0,0 +1,83 @@
+package com.euromoby.cdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.agent.Config;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CdnResourceMappingTest {
+
+	private static final String MAPPING_V1 = "[{\"urlPathPrefix\":\"/images/\",\"urlPathPattern\":\".*\\\\.jpg\"}]";
+	private static final String MAPPING_V2 = "[{\"urlPathPrefix\":\"/video/\",\"urlPathPattern\":\".*\\\\.mp4\"},{\"urlPathPrefix\":\"/images\"}]";
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Mock
+	Config config;
+
+	File mappingFile;
+
+	@Before
+	public void init() throws Exception {
+		mappingFile = new File(temporaryFolder.getRoot(), "cdn.json");
+		Mockito.when(config.getAgentCdnMappingFile()).thenReturn(mappingFile.getAbsolutePath());
+	}
+
+	@Test
+	public void testNoMappingFile() {
+		CdnResourceMapping cdnResourceMapping = new CdnResourceMapping(config);
+		assertEquals(0, cdnResourceMapping.size());
+		assertNull(cdnResourceMapping.findByUrl("/images/a.jpg"));
+	}
+
+	@Test
+	public void testReload() throws Exception {
+		FileUtils.writeStringToFile(mappingFile, MAPPING_V1);
+		CdnResourceMapping cdnResourceMapping = new CdnResourceMapping(config);
+		assertEquals(1, cdnResourceMapping.size());
+		assertNull(cdnResourceMapping.findByUrl("/video/a.mp4"));
+
+		FileUtils.writeStringToFile(mappingFile, MAPPING_V2);
+		assertTrue(cdnResourceMapping.loadMappingFile());
+		assertEquals(2, cdnResourceMapping.size());
+		assertNotNull(cdnResourceMapping.findByUrl("/video/a.mp4"));
+		assertNotNull(cdnResourceMapping.findByUrl("/images/a.png"));
+	}
+
+	@Test
+	public void testBadFileKeepsLastGoodMapping() throws Exception {
+		FileUtils.writeStringToFile(mappingFile, MAPPING_V1);
+		CdnResourceMapping cdnResourceMapping = new CdnResourceMapping(config);
+
+		String[] badMappings = { "[{\"urlPathPrefix\":\"/vid", "[{\"urlPathPattern\":\"(\"}]", "[{\"urlPathPrefix\":\"video\"}]", "[null]",
+				"" };
+		for (String badMapping : badMappings) {
+			FileUtils.writeStringToFile(mappingFile, badMapping);
+			assertFalse(badMapping, cdnResourceMapping.loadMappingFile());
+			assertEquals(1, cdnResourceMapping.size());
+			assertNotNull(cdnResourceMapping.findByUrl("/images/a.jpg"));
+		}
+
+		assertTrue(mappingFile.delete());
+		assertFalse(cdnResourceMapping.loadMappingFile());
+		assertNotNull(cdnResourceMapping.findByUrl("/images/a.jpg"));
+	}
+
+}
@@ -0,0 +1,88 @@
+package com.euromoby.cdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.euromoby.cdn.model.CdnResource;
+
+public class CdnRoutingIndexTest {
+
+	private static CdnResource cdnResource(String urlPathPrefix, String urlPathPattern) {
+		CdnResource cdnResource = new CdnResource();
+		cdnResource.setUrlPathPrefix(urlPathPrefix);
+		cdnResource.setUrlPathPattern(urlPathPattern);
+		return cdnResource;
+	}
+
+	private static CdnResource linearScan(CdnResource[] cdnResources, String url) {
+		for (CdnResource cdnResource : cdnResources) {
+			if (cdnResource.matches(url)) {
+				return cdnResource;
+			}
+		}
+		return null;
+	}
+
+	@Test
+	public void testEmpty() {
+		CdnRoutingIndex index = new CdnRoutingIndex(new CdnResource[0]);
+		assertEquals(0, index.size());
+		assertNull(index.find("/foo"));
+		assertNull(index.find(null));
+	}
+
+	@Test
+	public void testFirstMatchWins() {
+		CdnResource images = cdnResource("/img", ".*\\.jpg");
+		CdnResource imagesAll = cdnResource("/img/", ".*");
+		CdnResource all = cdnResource(null, "/.*");
+		CdnResource[] cdnResources = new CdnResource[] { images, imagesAll, all };
+		CdnRoutingIndex index = new CdnRoutingIndex(cdnResources);
+
+		assertSame(images, index.find("/img/a.jpg"));
+		assertSame(imagesAll, index.find("/img/a.png"));
+		assertSame(all, index.find("/css/a.css"));
+		assertNull(index.find("nonslash"));
+	}
+
+	@Test
+	public void testLongerPrefixDoesNotOverrideOrder() {
+		CdnResource all = cdnResource("", "/.*");
+		CdnResource images = cdnResource("/img", ".*");
+		CdnRoutingIndex index = new CdnRoutingIndex(new CdnResource[] { all, images });
+		assertSame(all, index.find("/img/a.jpg"));
+	}
+
+	@Test
+	public void testPrefixEqualsUrl() {
+		CdnResource exact = cdnResource("/robots.txt", "");
+		CdnRoutingIndex index = new CdnRoutingIndex(new CdnResource[] { exact });
+		assertSame(exact, index.find("/robots.txt"));
+		assertNull(index.find("/robots.txt2"));
+	}
+
+	@Test
+	public void testSameAsLinearScan() {
+		String[] prefixes = new String[] { null, "", "/a", "/a/", "/a/b", "/b", "/ab" };
+		String[] patterns = new String[] { ".*", "/.*", ".*\\.jpg", "[^/]*", "/b/.*\\.png" };
+		String[] urls = new String[] { "/", "/a", "/a/", "/a/x.jpg", "/a/b/x.png", "/ab/x.jpg", "/b/b/x.png", "/bx", "/c/x.jpg" };
+
+		Random random = new Random(42);
+		for (int run = 0; run < 200; run++) {
+			CdnResource[] cdnResources = new CdnResource[1 + random.nextInt(6)];
+			for (int i = 0; i < cdnResources.length; i++) {
+				cdnResources[i] = cdnResource(prefixes[random.nextInt(prefixes.length)], patterns[random.nextInt(patterns.length)]);
+			}
+			CdnRoutingIndex index = new CdnRoutingIndex(cdnResources);
+			for (String url : urls) {
+				assertSame(url, linearScan(cdnResources, url), index.find(url));
+			}
+		}
+	}
+
+}
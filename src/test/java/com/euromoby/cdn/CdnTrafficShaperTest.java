@@ -0,0 +1,149 @@
+package com.euromoby.cdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.agent.AgentManager;
+import com.euromoby.agent.Config;
+import com.euromoby.cdn.model.TrafficMetrics;
+import com.euromoby.model.AgentId;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CdnTrafficShaperTest {
+
+	private static final long TOTAL = 1000000;
+	private static final long RESERVED = 200000;
+	private static final String AGENT = "10.0.0.1";
+	private static final String CLIENT1 = "10.0.0.2";
+	private static final String CLIENT2 = "10.0.0.3";
+
+	@Mock
+	Config config;
+	@Mock
+	AgentManager agentManager;
+
+	CdnTrafficShaper shaper;
+
+	@Before
+	public void init() {
+		Mockito.when(config.getCdnShapingTotal()).thenReturn(TOTAL);
+		Mockito.when(config.getCdnShapingAgentsReserved()).thenReturn(RESERVED);
+		Mockito.when(config.getCdnShapingInterval()).thenReturn(1000L);
+		Mockito.when(agentManager.getAll()).thenReturn(Arrays.asList(new AgentId(AGENT, 21000)));
+	}
+
+	@After
+	public void destroy() throws Exception {
+		if (shaper != null) {
+			shaper.destroy();
+		}
+	}
+
+	private EmbeddedChannel channel(String host) {
+		final SocketAddress remoteAddress = new InetSocketAddress(host, 12345);
+		EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter()) {
+			@Override
+			protected SocketAddress remoteAddress0() {
+				return remoteAddress;
+			}
+		};
+		shaper.initPipeline(channel);
+		return channel;
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		Mockito.when(config.getCdnShapingTotal()).thenReturn(0L);
+		shaper = new CdnTrafficShaper(config, agentManager);
+		assertFalse(shaper.isEnabled());
+		EmbeddedChannel channel = channel(CLIENT1);
+		assertNull(channel.pipeline().get("shaping-total"));
+		assertFalse(shaper.getMetrics().isEnabled());
+		assertTrue(shaper.getMetrics().getClasses().isEmpty());
+	}
+
+	@Test
+	public void testReservedNotBelowTotal() {
+		Mockito.when(config.getCdnShapingAgentsReserved()).thenReturn(TOTAL);
+		shaper = new CdnTrafficShaper(config, agentManager);
+		assertEquals(TOTAL, shaper.getClientBudget());
+	}
+
+	@Test
+	public void testClientShare() {
+		shaper = new CdnTrafficShaper(config, agentManager);
+		assertEquals(TOTAL - RESERVED, shaper.getClientBudget());
+		assertEquals(TOTAL - RESERVED, shaper.getClientShare(1));
+		assertEquals((TOTAL - RESERVED) / 4, shaper.getClientShare(4));
+
+		Mockito.when(config.getCdnShapingClientMax()).thenReturn(1000L);
+		shaper = new CdnTrafficShaper(config, agentManager);
+		assertEquals(1000, shaper.getClientShare(4));
+
+		// per client limit only
+		Mockito.when(config.getCdnShapingTotal()).thenReturn(0L);
+		shaper = new CdnTrafficShaper(config, agentManager);
+		assertTrue(shaper.isEnabled());
+		assertEquals(0, shaper.getClientBudget());
+		assertEquals(1000, shaper.getClientShare(4));
+	}
+
+	@Test
+	public void testFairShareRecomputed() {
+		shaper = new CdnTrafficShaper(config, agentManager);
+		EmbeddedChannel channel1 = channel(CLIENT1);
+		EmbeddedChannel channel1b = channel(CLIENT1);
+		assertSame(channel1.pipeline().get("shaping-client"), channel1b.pipeline().get("shaping-client"));
+		assertEquals(TOTAL - RESERVED, shaper.getClientLimit(CLIENT1));
+
+		EmbeddedChannel channel2 = channel(CLIENT2);
+		assertEquals(2, shaper.getClientCount());
+		assertEquals((TOTAL - RESERVED) / 2, shaper.getClientLimit(CLIENT1));
+		assertEquals((TOTAL - RESERVED) / 2, shaper.getClientLimit(CLIENT2));
+
+		channel2.close();
+		assertEquals(-1, shaper.getClientLimit(CLIENT2));
+		assertEquals(TOTAL - RESERVED, shaper.getClientLimit(CLIENT1));
+
+		// the IP is released with its last channel
+		channel1.close();
+		assertEquals(1, shaper.getClientCount());
+		channel1b.close();
+		assertEquals(0, shaper.getClientCount());
+	}
+
+	@Test
+	public void testAgentTraffic() {
+		shaper = new CdnTrafficShaper(config, agentManager);
+		shaper.refreshAgentAddresses();
+		assertTrue(shaper.isAgent(AGENT));
+		EmbeddedChannel channel = channel(AGENT);
+		assertNotNull(channel.pipeline().get("shaping-total"));
+		assertNull(channel.pipeline().get("shaping-client"));
+		assertEquals(0, shaper.getClientCount());
+
+		TrafficMetrics metrics = shaper.getMetrics();
+		assertEquals(TOTAL, metrics.getClasses().get(CdnTrafficShaper.TRAFFIC_TOTAL).getWriteLimit());
+		assertEquals(0, metrics.getClasses().get(CdnTrafficShaper.TRAFFIC_AGENTS).getWriteLimit());
+		assertEquals(TOTAL - RESERVED, metrics.getClasses().get(CdnTrafficShaper.TRAFFIC_CLIENTS).getWriteLimit());
+	}
+
+}
@@ -0,0 +1,106 @@
+package com.euromoby.cdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.util.EntityUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.http.HttpClientProvider;
+import com.euromoby.model.AgentId;
+import com.euromoby.rest.RestServer;
+import com.euromoby.rest.handler.fileinfo.FileInfo;
+import com.euromoby.rest.handler.fileinfo.FileInfoBatchHandler;
+import com.google.gson.Gson;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FileInfoClientTest {
+
+	@Mock
+	HttpClientProvider httpClientProvider;
+	@Mock
+	RequestConfig.Builder requestConfigBuilder;
+	@Mock
+	CloseableHttpResponse response;
+
+	Gson gson = new Gson();
+
+	AgentId agentId = new AgentId("target:21000");
+	List<String> fileLocations = Arrays.asList("a/b.jpg", "c d.txt");
+	boolean NO_PROXY = false;
+
+	FileInfoClient fileInfoClient;
+
+	@Before
+	public void init() throws Exception {
+		Mockito.when(httpClientProvider.createRequestConfigBuilder(Matchers.eq(agentId.getHost()), Matchers.eq(NO_PROXY))).thenReturn(requestConfigBuilder);
+		Mockito.when(requestConfigBuilder.build()).thenReturn(null);
+		Mockito.when(httpClientProvider.executeRequest(Matchers.any(HttpUriRequest.class))).thenReturn(response);
+		fileInfoClient = new FileInfoClient(httpClientProvider);
+	}
+
+	@Test
+	public void testCreateRequest() throws Exception {
+		HttpUriRequest request = fileInfoClient.createRequest(agentId, fileLocations, requestConfigBuilder);
+		URI requestUri = request.getURI();
+
+		assertEquals("POST", request.getMethod());
+		assertEquals("https", requestUri.getScheme());
+		assertEquals(agentId.getHost(), requestUri.getHost());
+		assertEquals(agentId.getBasePort() + RestServer.REST_PORT, requestUri.getPort());
+		assertEquals(FileInfoBatchHandler.URL, requestUri.getPath());
+		String body = EntityUtils.toString(((HttpEntityEnclosingRequest) request).getEntity());
+		assertEquals("path=a%2Fb.jpg&path=c+d.txt", body);
+	}
+
+	@Test
+	public void testBadResponseCode() throws Exception {
+		Mockito.when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_BAD_REQUEST, "Error"));
+		try {
+			fileInfoClient.getFileInfos(agentId, fileLocations, NO_PROXY);
+			fail();
+		} catch (Exception e) {
+			assertEquals(HttpStatus.SC_BAD_REQUEST + " Error", e.getMessage());
+		}
+		Mockito.verify(response).close();
+	}
+
+	@Test
+	public void testGetFileInfos() throws Exception {
+		Mockito.when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK"));
+		FileInfo fileInfo = new FileInfo();
+		fileInfo.setAgentId(agentId);
+		fileInfo.setFileLocation("a/b.jpg");
+		fileInfo.setLength(10);
+		HttpEntity entity = new ByteArrayEntity(gson.toJson(new FileInfo[] { fileInfo }).getBytes(), ContentType.APPLICATION_JSON);
+		Mockito.when(response.getEntity()).thenReturn(entity);
+
+		FileInfo[] fileInfos = fileInfoClient.getFileInfos(agentId, fileLocations, NO_PROXY);
+		assertEquals(1, fileInfos.length);
+		assertEquals("a/b.jpg", fileInfos[0].getFileLocation());
+		assertEquals(agentId, fileInfos[0].getAgentId());
+		assertEquals(10, fileInfos[0].getLength());
+		Mockito.verify(response).close();
+	}
+
+}
@@ -1,11 +1,15 @@
 package com.euromoby.cdn.service;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.DefaultFileRegion;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.DefaultLastHttpContent;
 import io.netty.handler.codec.http.FullHttpRequest;
@@ -15,6 +19,9 @@ import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
 
 import java.io.File;
 import java.net.URI;
@@ -30,20 +37,27 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
-import com.euromoby.agent.AgentManager;
 import com.euromoby.agent.Config;
+import com.euromoby.cdn.CdnFileCache;
+import com.euromoby.cdn.CdnFileCache.CachedFile;
 import com.euromoby.cdn.CdnNetwork;
+import com.euromoby.cdn.CdnPlacement;
 import com.euromoby.cdn.model.CdnResource;
 import com.euromoby.download.DownloadManager;
+import com.euromoby.file.FileIndex;
+import com.euromoby.file.FileMetadata;
 import com.euromoby.file.FileProvider;
 import com.euromoby.file.MimeHelper;
-import com.euromoby.http.AsyncHttpClientProvider;
 import com.euromoby.http.HttpUtils;
+import com.euromoby.http.ProxyFlightManager;
+import com.euromoby.http.ProxyResponse;
+import com.euromoby.http.SmartHttpContentCompressor;
 import com.euromoby.model.AgentId;
 import com.euromoby.model.Tuple;
-import com.euromoby.rest.ChunkedInputAdapter;
 import com.euromoby.rest.handler.fileinfo.FileInfo;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -62,7 +76,7 @@ public class CdnServerHandlerTest {
 	@Mock
 	DownloadManager downloadManager;
 	@Mock
-	AgentManager agentManager;
+	CdnPlacement cdnPlacement;
 	@Mock
 	ChannelHandlerContext ctx;
 	@Mock
@@ -76,20 +90,40 @@ public class CdnServerHandlerTest {
 	@Mock
 	ChannelPipeline channelPipeline;
 	@Mock
+	ChannelConfig channelConfig;
+	@Mock
 	File targetFile;
 	@Mock
-	AsyncHttpClientProvider asyncHttpClientProvider;
+	ProxyFlightManager proxyFlightManager;
+	@Mock
+	CdnFileCache cdnFileCache;
 
 	CdnServerHandler handler;
 
 	@Before
 	public void init() {
+		Mockito.when(ctx.alloc()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
 		Mockito.when(ctx.channel()).thenReturn(channel);
+		Mockito.when(ctx.executor()).thenReturn(ImmediateEventExecutor.INSTANCE);
+		Mockito.when(channel.config()).thenReturn(channelConfig);
 		Mockito.when(request.headers()).thenReturn(headers);
 		Mockito.when(request.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);
-		handler = new CdnServerHandler(config, fileProvider, mimeHelper, cdnNetwork, downloadManager, agentManager, asyncHttpClientProvider);
+		// not running, files are looked up on the file system
+		FileIndex fileIndex = new FileIndex(config, mimeHelper);
+		handler = new CdnServerHandler(config, fileProvider, mimeHelper, cdnNetwork, downloadManager, cdnPlacement, proxyFlightManager, cdnFileCache, fileIndex);
 	}
 
+
+	@SuppressWarnings("unchecked")
+	private void mockSearchResult(String uriPath, final Tuple<CdnResource, FileInfo> searchResult) {
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				((Promise<Tuple<CdnResource, FileInfo>>) invocation.getArguments()[1]).setSuccess(searchResult);
+				return null;
+			}
+		}).when(cdnNetwork).find(Matchers.eq(uriPath), Matchers.any(Promise.class));
+	}
 	
 	@Test
 	public void testGetPathWithQuery() throws Exception {
@@ -131,7 +165,7 @@ public class CdnServerHandlerTest {
 	@Test
 	public void testManageFileResponseNotFound() {
 		Mockito.when(channel.writeAndFlush(Matchers.any(FullHttpResponse.class))).thenReturn(channelFuture);
-		handler.manageFileResponse(ctx, request, targetFile);
+		handler.manageFileResponse(ctx, request, targetFile, null);
 		ArgumentCaptor<FullHttpResponse> captor = ArgumentCaptor.forClass(FullHttpResponse.class);
 		Mockito.verify(channel).writeAndFlush(captor.capture());
 		FullHttpResponse response = captor.getValue();
@@ -144,13 +178,14 @@ public class CdnServerHandlerTest {
 		tmpFile.deleteOnExit();
 		Mockito.when(ctx.writeAndFlush(Matchers.any(DefaultLastHttpContent.class))).thenReturn(channelFuture);
 		Mockito.when(channel.pipeline()).thenReturn(channelPipeline);
-		handler.manageFileResponse(ctx, request, tmpFile);
+		handler.manageFileResponse(ctx, request, tmpFile, FileMetadata.of(tmpFile, mimeHelper));
 		ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
 		Mockito.verify(ctx, Mockito.times(2)).write(captor.capture());
 		List<Object> responseParts= captor.getAllValues();
 		HttpResponse response = (HttpResponse)responseParts.get(0);
 		assertEquals(HttpResponseStatus.OK, response.getStatus());
-		assertTrue(responseParts.get(1) instanceof ChunkedInputAdapter);
+		// sent as is with Content-Length
+		assertTrue(responseParts.get(1) instanceof DefaultFileRegion);
 	}
 
 	
@@ -245,7 +280,92 @@ public class CdnServerHandlerTest {
 		
 		HttpResponse response = (HttpResponse)responseParts.get(1);		
 		assertEquals(HttpResponseStatus.OK, response.getStatus());
-		assertTrue(responseParts.get(2) instanceof ChunkedInputAdapter);		
+		assertTrue(responseParts.get(2) instanceof DefaultFileRegion);		
+	}
+
+	@Test
+	public void testSendFileFromCache() throws Exception {
+		String FILE = "file.txt";
+		long lastModified = System.currentTimeMillis();
+		FileMetadata metadata = new FileMetadata(5, lastModified, "\"etag\"", "text/plain", false, false);
+		CachedFile cachedFile = new CachedFile(FILE, metadata, HttpUtils.fromString("hello"), null, 0);
+		Mockito.when(request.getMethod()).thenReturn(HttpMethod.GET);
+		Mockito.when(request.getUri()).thenReturn("/" + FILE);
+		Mockito.when(fileProvider.getFileByLocation(Matchers.eq(FILE))).thenReturn(targetFile);
+		Mockito.when(cdnFileCache.get(targetFile)).thenReturn(cachedFile);
+		Mockito.when(ctx.writeAndFlush(Matchers.any(FullHttpResponse.class))).thenReturn(channelFuture);
+
+		handler.channelRead0(ctx, request);
+
+		ArgumentCaptor<FullHttpResponse> responseCaptor = ArgumentCaptor.forClass(FullHttpResponse.class);
+		Mockito.verify(ctx).writeAndFlush(responseCaptor.capture());
+		FullHttpResponse response = responseCaptor.getValue();
+		assertEquals(HttpResponseStatus.OK, response.getStatus());
+		assertEquals("5", response.headers().get(HttpHeaders.Names.CONTENT_LENGTH));
+		assertEquals(HttpHeaders.Values.IDENTITY, response.headers().get(HttpHeaders.Names.CONTENT_ENCODING));
+		assertEquals(HttpHeaders.Values.BYTES, response.headers().get(HttpHeaders.Names.ACCEPT_RANGES));
+		assertEquals("\"etag\"", response.headers().get(HttpHeaders.Names.ETAG));
+		assertEquals("hello", response.content().toString(CharsetUtil.UTF_8));
+		// no file system access
+		Mockito.verifyZeroInteractions(targetFile);
+		response.release();
+	}
+
+	@Test
+	public void testSendCompressedVariantFromCache() throws Exception {
+		String FILE = "file.txt";
+		FileMetadata metadata = new FileMetadata(5, System.currentTimeMillis(), "\"etag\"", "text/plain", true, false);
+		CachedFile cachedFile = new CachedFile(FILE, metadata, HttpUtils.fromString("hello"), HttpUtils.fromString("gz"), 0);
+		Mockito.when(request.getMethod()).thenReturn(HttpMethod.GET);
+		Mockito.when(request.getUri()).thenReturn("/" + FILE);
+		Mockito.when(headers.get(HttpHeaders.Names.ACCEPT_ENCODING)).thenReturn("gzip, deflate");
+		Mockito.when(fileProvider.getFileByLocation(Matchers.eq(FILE))).thenReturn(targetFile);
+		Mockito.when(cdnFileCache.get(targetFile)).thenReturn(cachedFile);
+		Mockito.when(ctx.writeAndFlush(Matchers.any(FullHttpResponse.class))).thenReturn(channelFuture);
+
+		handler.channelRead0(ctx, request);
+
+		ArgumentCaptor<FullHttpResponse> responseCaptor = ArgumentCaptor.forClass(FullHttpResponse.class);
+		Mockito.verify(ctx).writeAndFlush(responseCaptor.capture());
+		FullHttpResponse response = responseCaptor.getValue();
+		assertEquals("2", response.headers().get(HttpHeaders.Names.CONTENT_LENGTH));
+		assertEquals(HttpHeaders.Values.GZIP, response.headers().get(HttpHeaders.Names.CONTENT_ENCODING));
+		assertEquals(HttpHeaders.Names.ACCEPT_ENCODING, response.headers().get(HttpHeaders.Names.VARY));
+		assertEquals(HttpUtils.gzipEtag("\"etag\""), response.headers().get(HttpHeaders.Names.ETAG));
+		assertEquals("gz", response.content().toString(CharsetUtil.UTF_8));
+		// the identity content is released
+		assertEquals(0, cachedFile.getContent().refCnt());
+		response.release();
+	}
+
+	@Test
+	public void testCachedFileIsNotSentWhenCompressedOnTheFly() throws Exception {
+		FileMetadata metadata = new FileMetadata(SmartHttpContentCompressor.MIN_COMPRESSIBLE_LENGTH, System.currentTimeMillis(), "\"etag\"", "text/plain", true, false);
+		CachedFile cachedFile = new CachedFile("file.txt", metadata, HttpUtils.fromString("hello"), null, 0);
+		Mockito.when(channel.pipeline()).thenReturn(channelPipeline);
+		Mockito.when(headers.get(HttpHeaders.Names.ACCEPT_ENCODING)).thenReturn("gzip");
+
+		assertFalse(handler.manageCachedFileResponse(ctx, request, cachedFile));
+		assertEquals(0, cachedFile.getContent().refCnt());
+		Mockito.verify(ctx, Mockito.never()).writeAndFlush(Matchers.any());
+	}
+
+	@Test
+	public void testRangeIsNotServedFromCache() throws Exception {
+		String FILE = "file.txt";
+		Mockito.when(request.getMethod()).thenReturn(HttpMethod.GET);
+		Mockito.when(request.getUri()).thenReturn("/" + FILE);
+		Mockito.when(headers.contains(HttpHeaders.Names.RANGE)).thenReturn(true);
+		Mockito.when(fileProvider.getFileByLocation(Matchers.eq(FILE))).thenReturn(targetFile);
+		Mockito.when(targetFile.exists()).thenReturn(true);
+		long lastModified = System.currentTimeMillis();
+		Mockito.when(targetFile.lastModified()).thenReturn(lastModified);
+		Mockito.when(headers.get(Matchers.eq(HttpHeaders.Names.IF_MODIFIED_SINCE))).thenReturn(
+				new SimpleDateFormat(HttpUtils.HTTP_DATE_FORMAT, Locale.US).format(new Date(lastModified)));
+		Mockito.when(channel.writeAndFlush(Matchers.any(DefaultFullHttpResponse.class))).thenReturn(channelFuture);
+
+		handler.channelRead0(ctx, request);
+		Mockito.verifyZeroInteractions(cdnFileCache);
 	}
 
 	@Test
@@ -260,7 +380,7 @@ public class CdnServerHandlerTest {
 		cdnResource.setResourceOrigin(ORIGIN_URL);
 		cdnResource.setProxyable(false); // do redirect
 		searchResult.setFirst(cdnResource);
-		Mockito.when(cdnNetwork.find(uri.getPath())).thenReturn(searchResult);
+		mockSearchResult(uri.getPath(), searchResult);
 		Mockito.when(config.getAgentFilesPath()).thenReturn(FILES_PATH);
 		Mockito.when(ctx.writeAndFlush(Matchers.any(DefaultLastHttpContent.class))).thenReturn(channelFuture);
 		Mockito.when(channel.pipeline()).thenReturn(channelPipeline);		
@@ -299,20 +419,28 @@ public class CdnServerHandlerTest {
 	public void testScheduleDownloadJob() {
 		String FILE = "file.html";
 		String SOURCE_URL = "http://example.com/" + FILE;
-		Mockito.when(config.getAgentFilesPath()).thenReturn(File.listRoots()[0].getAbsolutePath());
-		handler.addToDownloadScheduler(SOURCE_URL, FILE);
+		handler.addToDownloadScheduler("/" + FILE, SOURCE_URL, FILE);
 		Mockito.verify(downloadManager).scheduleDownloadFile(Mockito.eq(SOURCE_URL), Mockito.eq(FILE), Mockito.eq(false));
 	}
+
+	@Test
+	public void testAskOwnerToDownload() {
+		String FILE = "file.html";
+		String SOURCE_URL = "http://example.com/" + FILE;
+		AgentId owner = new AgentId("agent1:21000");
+		Mockito.when(cdnPlacement.findOwner("/" + FILE)).thenReturn(owner);
+		handler.addToDownloadScheduler("/" + FILE, SOURCE_URL, FILE);
+		Mockito.verify(downloadManager).askAgentToDownloadFile(owner, SOURCE_URL, FILE);
+		Mockito.verify(downloadManager, Mockito.never()).scheduleDownloadFile(Matchers.anyString(), Matchers.anyString(), Matchers.anyBoolean());
+	}
 	
 	@Test
 	public void testManageContentProxying() {
 		String SOURCE_URL = "http://example.com/file.html";		
 		
-		Mockito.when(channel.writeAndFlush(Matchers.any(DefaultFullHttpResponse.class))).thenReturn(channelFuture);
-		handler.manageContentProxying(ctx, request, SOURCE_URL);
-		// TODO
-		//Mockito.verify(proxyResponseProvider).proxy(Matchers.eq(ctx), Matchers.eq(request), Matchers.eq(SOURCE_URL));
-		
+		Mockito.when(proxyFlightManager.proxy(ctx, request, SOURCE_URL, null)).thenReturn(true);
+		assertTrue(handler.manageContentProxying(ctx, request, SOURCE_URL, null));
+		Mockito.verify(proxyFlightManager).proxy(Matchers.eq(ctx), Matchers.eq(request), Matchers.eq(SOURCE_URL), Matchers.isNull(File.class));
 	}
 	
 	@Test
@@ -320,7 +448,7 @@ public class CdnServerHandlerTest {
 		String FILE = "file.html";
 		URI uri = new URI("http://example.com/file.html");
 		Tuple<CdnResource, FileInfo> searchResult = Tuple.empty();
-		Mockito.when(cdnNetwork.find(uri.getPath())).thenReturn(searchResult);
+		mockSearchResult(uri.getPath(), searchResult);
 		Mockito.when(channel.writeAndFlush(Matchers.any(DefaultFullHttpResponse.class))).thenReturn(channelFuture);
 
 		handler.manageCdnRequest(ctx, request, uri, FILE);
@@ -341,7 +469,7 @@ public class CdnServerHandlerTest {
 		AgentId agentId = new AgentId("agent1:21000");
 		fileInfo.setAgentId(agentId);
 		searchResult.setSecond(fileInfo);
-		Mockito.when(cdnNetwork.find(uri.getPath())).thenReturn(searchResult);
+		mockSearchResult(uri.getPath(), searchResult);
 		Mockito.when(channel.writeAndFlush(Matchers.any(DefaultFullHttpResponse.class))).thenReturn(channelFuture);
 		Mockito.when(headers.contains(Matchers.eq(HttpHeaders.Names.CONNECTION), Matchers.eq(HttpHeaders.Values.CLOSE), Matchers.eq(true))).thenReturn(true);
 
@@ -355,6 +483,66 @@ public class CdnServerHandlerTest {
 		assertEquals(agentUrl, response.headers().get(HttpHeaders.Names.LOCATION));
 	}
 
+	@Test
+	public void testFoundInNetworkPeerFill() throws Exception {
+		String FILE = "file.html";
+		String FILES_PATH = File.listRoots()[0].getAbsolutePath();
+		URI uri = new URI("http://example.com" + "/" + FILE);
+		Tuple<CdnResource, FileInfo> searchResult = Tuple.empty();
+		CdnResource cdnResource = new CdnResource();
+		cdnResource.setPeerFill(true);
+		searchResult.setFirst(cdnResource);
+		FileInfo fileInfo = new FileInfo();
+		AgentId agentId = new AgentId("agent1:21000");
+		fileInfo.setAgentId(agentId);
+		searchResult.setSecond(fileInfo);
+		mockSearchResult(uri.getPath(), searchResult);
+		Mockito.when(config.getAgentFilesPath()).thenReturn(FILES_PATH);
+		Mockito.when(proxyFlightManager.isCacheFillable(request)).thenReturn(true);
+
+		handler.manageCdnRequest(ctx, request, uri, FILE);
+
+		String agentUrl = handler.buildAgentUrlLocation(agentId, uri.getPath());
+		Mockito.verify(proxyFlightManager).proxyFromAgent(ctx, request, agentUrl, new File(new File(FILES_PATH), FILE));
+		Mockito.verify(channel, Mockito.never()).writeAndFlush(Matchers.any());
+	}
+
+	@Test
+	public void testAgentRequestIsNotSearched() throws Exception {
+		String FILE = "file.html";
+		Mockito.when(request.getMethod()).thenReturn(HttpMethod.GET);
+		Mockito.when(request.getUri()).thenReturn("/" + FILE);
+		Mockito.when(headers.contains(ProxyResponse.AGENT_REQUEST_HEADER)).thenReturn(true);
+		Mockito.when(fileProvider.getFileByLocation(FILE)).thenReturn(targetFile);
+		Mockito.when(targetFile.exists()).thenReturn(false);
+		Mockito.when(channel.writeAndFlush(Matchers.any())).thenReturn(channelFuture);
+
+		handler.channelRead0(ctx, request);
+
+		ArgumentCaptor<DefaultFullHttpResponse> responseCaptor = ArgumentCaptor.forClass(DefaultFullHttpResponse.class);
+		Mockito.verify(channel).writeAndFlush(responseCaptor.capture());
+		assertEquals(HttpResponseStatus.NOT_FOUND, responseCaptor.getValue().getStatus());
+		Mockito.verifyZeroInteractions(cdnNetwork);
+	}
+
+	@Test
+	public void testSearchCancelledOnClose() throws Exception {
+		String FILE = "file.html";
+		URI uri = new URI("http://example.com/file.html");
+		Mockito.when(channel.writeAndFlush(Matchers.any(DefaultFullHttpResponse.class))).thenReturn(channelFuture);
+
+		handler.manageCdnRequest(ctx, request, uri, FILE);
+
+		// search is not completed yet
+		Mockito.verify(request).retain();
+		Mockito.verify(channel, Mockito.never()).writeAndFlush(Matchers.any());
+
+		// connection is closed before the search completes
+		handler.channelInactive(ctx);
+		Mockito.verify(request).release();
+		Mockito.verify(channel, Mockito.never()).writeAndFlush(Matchers.any());
+	}
+
 	@Test
 	public void testExistInCdnButNotFoundInNetwork() throws Exception {
 		String FILE = "file.html";
@@ -362,7 +550,7 @@ public class CdnServerHandlerTest {
 		Tuple<CdnResource, FileInfo> searchResult = Tuple.empty();
 		searchResult.setFirst(new CdnResource());
 
-		Mockito.when(cdnNetwork.find(uri.getPath())).thenReturn(searchResult);
+		mockSearchResult(uri.getPath(), searchResult);
 		Mockito.when(channel.writeAndFlush(Matchers.any(DefaultFullHttpResponse.class))).thenReturn(channelFuture);
 		Mockito.when(headers.contains(Matchers.eq(HttpHeaders.Names.CONNECTION), Matchers.eq(HttpHeaders.Values.CLOSE), Matchers.eq(true))).thenReturn(true);
 
@@ -385,7 +573,7 @@ public class CdnServerHandlerTest {
 		cdnResource.setResourceOrigin(ORIGIN_URL);
 		cdnResource.setProxyable(false); // do redirect
 		searchResult.setFirst(cdnResource);
-		Mockito.when(cdnNetwork.find(uri.getPath())).thenReturn(searchResult);
+		mockSearchResult(uri.getPath(), searchResult);
 		Mockito.when(channel.writeAndFlush(Matchers.any(DefaultFullHttpResponse.class))).thenReturn(channelFuture);
 		Mockito.when(headers.contains(Matchers.eq(HttpHeaders.Names.CONNECTION), Matchers.eq(HttpHeaders.Values.CLOSE), Matchers.eq(true))).thenReturn(true);
 
@@ -411,17 +599,61 @@ public class CdnServerHandlerTest {
 		cdnResource.setProxyable(true); // do redirect
 		cdnResource.setDownloadIfMissing(true); // create download job
 		searchResult.setFirst(cdnResource);
-		Mockito.when(cdnNetwork.find(uri.getPath())).thenReturn(searchResult);
+		mockSearchResult(uri.getPath(), searchResult);
 		Mockito.when(channel.writeAndFlush(Matchers.any(DefaultFullHttpResponse.class))).thenReturn(channelFuture);
 		Mockito.when(headers.contains(Matchers.eq(HttpHeaders.Names.CONNECTION), Matchers.eq(HttpHeaders.Values.CLOSE), Matchers.eq(true))).thenReturn(true);
 		Mockito.when(config.getAgentFilesPath()).thenReturn(File.listRoots()[0].getAbsolutePath());
+		Mockito.when(proxyFlightManager.proxy(ctx, request, ORIGIN_FILE_URL, null)).thenReturn(true);
 		handler.manageCdnRequest(ctx, request, uri, FILE);
 		
 		Mockito.verify(downloadManager).scheduleDownloadFile(Mockito.eq(ORIGIN_FILE_URL), Mockito.eq(FILE), Mockito.eq(false));
-		// TODO
-		//Mockito.verify(proxyResponseProvider).proxy(Matchers.eq(ctx), Matchers.eq(request), Matchers.eq(ORIGIN_FILE_URL));
-		
-	}	
+		Mockito.verify(proxyFlightManager).proxy(Matchers.eq(ctx), Matchers.eq(request), Matchers.eq(ORIGIN_FILE_URL), Matchers.isNull(File.class));
+	}
+
+	@Test
+	public void testJoinedProxyDoesNotScheduleDownload() throws Exception {
+		String FILE = "file.html";
+		String ORIGIN_URL = "http://example.com";
+		String ORIGIN_FILE_URL = ORIGIN_URL + "/" + FILE;
+		URI uri = new URI(ORIGIN_FILE_URL);
+		Tuple<CdnResource, FileInfo> searchResult = Tuple.empty();
+		CdnResource cdnResource = new CdnResource();
+		cdnResource.setResourceOrigin(ORIGIN_URL);
+		cdnResource.setProxyable(true);
+		cdnResource.setDownloadIfMissing(true);
+		searchResult.setFirst(cdnResource);
+		mockSearchResult(uri.getPath(), searchResult);
+		// another client already requested the origin
+		Mockito.when(proxyFlightManager.proxy(ctx, request, ORIGIN_FILE_URL, null)).thenReturn(false);
+		handler.manageCdnRequest(ctx, request, uri, FILE);
+
+		Mockito.verify(proxyFlightManager).proxy(Matchers.eq(ctx), Matchers.eq(request), Matchers.eq(ORIGIN_FILE_URL), Matchers.isNull(File.class));
+		Mockito.verifyZeroInteractions(downloadManager);
+	}
+
+	@Test
+	public void testCacheFillDoesNotScheduleDownload() throws Exception {
+		String FILE = "file.html";
+		String ORIGIN_URL = "http://example.com";
+		String ORIGIN_FILE_URL = ORIGIN_URL + "/" + FILE;
+		URI uri = new URI(ORIGIN_FILE_URL);
+		Tuple<CdnResource, FileInfo> searchResult = Tuple.empty();
+		CdnResource cdnResource = new CdnResource();
+		cdnResource.setResourceOrigin(ORIGIN_URL);
+		cdnResource.setProxyable(true);
+		cdnResource.setDownloadIfMissing(true);
+		cdnResource.setCacheFill(true);
+		searchResult.setFirst(cdnResource);
+		mockSearchResult(uri.getPath(), searchResult);
+		String filesPath = File.listRoots()[0].getAbsolutePath();
+		Mockito.when(config.getAgentFilesPath()).thenReturn(filesPath);
+		Mockito.when(proxyFlightManager.isCacheFillable(request)).thenReturn(true);
+		Mockito.when(proxyFlightManager.proxy(Matchers.eq(ctx), Matchers.eq(request), Matchers.eq(ORIGIN_FILE_URL), Matchers.any(File.class))).thenReturn(true);
+		handler.manageCdnRequest(ctx, request, uri, FILE);
+
+		Mockito.verify(proxyFlightManager).proxy(ctx, request, ORIGIN_FILE_URL, new File(new File(filesPath), FILE));
+		Mockito.verifyZeroInteractions(downloadManager);
+	}
 	
 	
 }
@@ -0,0 +1,298 @@
+package com.euromoby.cdn.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseDecoder;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.Promise;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.euromoby.agent.AgentManager;
+import com.euromoby.agent.Config;
+import com.euromoby.cdn.CdnFileCache;
+import com.euromoby.cdn.CdnNetwork;
+import com.euromoby.cdn.CdnPlacement;
+import com.euromoby.cdn.CdnTrafficShaper;
+import com.euromoby.cdn.model.CdnResource;
+import com.euromoby.download.DownloadManager;
+import com.euromoby.file.FileIndex;
+import com.euromoby.file.FileProvider;
+import com.euromoby.file.MimeHelper;
+import com.euromoby.http.HttpUtils;
+import com.euromoby.http.ProxyFlightManager;
+import com.euromoby.model.Tuple;
+import com.euromoby.rest.handler.fileinfo.FileInfo;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CdnServerInitializerTest {
+
+	private static final int REQUESTS = 1000;
+	private static final String CONTENT = "hello";
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Mock
+	Config config;
+	@Mock
+	MimeHelper mimeHelper;
+	@Mock
+	CdnNetwork cdnNetwork;
+	@Mock
+	DownloadManager downloadManager;
+	@Mock
+	CdnPlacement cdnPlacement;
+	@Mock
+	ProxyFlightManager proxyFlightManager;
+	@Mock
+	CdnFileCache cdnFileCache;
+	@Mock
+	CdnTrafficShaper trafficShaper;
+	@Mock
+	AgentManager agentManager;
+
+	CdnServerInitializer initializer;
+	FileProvider fileProvider;
+	FileIndex fileIndex;
+	String etag;
+	List<Promise<Tuple<CdnResource, FileInfo>>> pendingSearches = new ArrayList<Promise<Tuple<CdnResource, FileInfo>>>();
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void init() throws Exception {
+		File root = temporaryFolder.newFolder("files");
+		File file = new File(root, "a.txt");
+		FileUtils.writeStringToFile(file, CONTENT);
+		etag = HttpUtils.etag(file);
+
+		Mockito.when(config.getAgentFilesPath()).thenReturn(root.getPath());
+		Mockito.when(config.getServerTimeout()).thenReturn(30);
+		Mockito.when(mimeHelper.getContentType(Matchers.any(File.class))).thenReturn("text/plain");
+
+		final CdnResource redirectResource = new CdnResource();
+		redirectResource.setResourceOrigin("http://example.com");
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				String uriPath = (String) invocation.getArguments()[0];
+				Promise<Tuple<CdnResource, FileInfo>> promise = (Promise<Tuple<CdnResource, FileInfo>>) invocation.getArguments()[1];
+				if (uriPath.equals("/redirect.txt")) {
+					promise.setSuccess(Tuple.of(redirectResource, (FileInfo) null));
+				} else if (uriPath.equals("/slow.txt")) {
+					pendingSearches.add(promise);
+				} else {
+					promise.setSuccess(Tuple.<CdnResource, FileInfo> empty());
+				}
+				return null;
+			}
+		}).when(cdnNetwork).find(Matchers.anyString(), Matchers.any(Promise.class));
+
+		fileProvider = new FileProvider(config);
+		fileIndex = new FileIndex(config, mimeHelper);
+		initializer = new CdnServerInitializer(config, fileProvider, mimeHelper, cdnNetwork, downloadManager, cdnPlacement, proxyFlightManager, cdnFileCache,
+				fileIndex, trafficShaper);
+	}
+
+	class Connection {
+		EmbeddedChannel server = new EmbeddedChannel(new ChannelInitializer<Channel>() {
+			@Override
+			protected void initChannel(Channel ch) throws Exception {
+				// files are read while they are open, as the socket does
+				ch.pipeline().addLast(new ChannelOutboundHandlerAdapter() {
+					@Override
+					public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+						if (msg instanceof FileRegion) {
+							FileRegion region = (FileRegion) msg;
+							ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+							WritableByteChannel target = Channels.newChannel(bytes);
+							while (region.transfered() < region.count()) {
+								region.transferTo(target, region.transfered());
+							}
+							region.release();
+							msg = Unpooled.wrappedBuffer(bytes.toByteArray());
+						}
+						ctx.write(msg, promise);
+					}
+				});
+				initializer.initPipeline(ch.pipeline());
+			}
+		});
+		EmbeddedChannel client = new EmbeddedChannel(new HttpResponseDecoder(), new HttpObjectAggregator(65536));
+
+		void send(String requests) {
+			server.writeInbound(Unpooled.copiedBuffer(requests, CharsetUtil.US_ASCII));
+			server.runPendingTasks();
+		}
+
+		/**
+		 * @return the next complete response or null
+		 */
+		FullHttpResponse receive() throws Exception {
+			Object msg;
+			while ((msg = server.readOutbound()) != null) {
+				client.writeInbound((ByteBuf) msg);
+			}
+			return (FullHttpResponse) client.readInbound();
+		}
+	}
+
+	private String request(String method, String uri, String... headers) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(method).append(' ').append(uri).append(" HTTP/1.1\r\nHost: localhost\r\n");
+		for (String header : headers) {
+			sb.append(header).append("\r\n");
+		}
+		return sb.append("\r\n").toString();
+	}
+
+	/**
+	 * 200, 304, 404 (search), 302, 404 (invalid location), 501
+	 */
+	private String mixedRequest(int i) {
+		switch (i % 6) {
+		case 0:
+			return request("GET", "/a.txt");
+		case 1:
+			return request("GET", "/a.txt", HttpHeaders.Names.IF_NONE_MATCH + ": " + etag);
+		case 2:
+			return request("GET", "/missing.txt");
+		case 3:
+			return request("GET", "/redirect.txt");
+		case 4:
+			return request("GET", "/.hidden");
+		default:
+			return request("POST", "/a.txt", HttpHeaders.Names.CONTENT_LENGTH + ": 0");
+		}
+	}
+
+	private HttpResponseStatus expectedStatus(int i) {
+		HttpResponseStatus[] statuses = { HttpResponseStatus.OK, HttpResponseStatus.NOT_MODIFIED, HttpResponseStatus.NOT_FOUND, HttpResponseStatus.FOUND,
+				HttpResponseStatus.NOT_FOUND, HttpResponseStatus.NOT_IMPLEMENTED };
+		return statuses[i % statuses.length];
+	}
+
+	private int connectionsPerMixedRequests(String extraHeader) throws Exception {
+		int connections = 0;
+		Connection connection = null;
+		for (int i = 0; i < REQUESTS; i++) {
+			if (connection == null || !connection.server.isOpen()) {
+				connection = new Connection();
+				connections++;
+			}
+			String request = mixedRequest(i);
+			if (extraHeader != null) {
+				request = request.replace("Host: localhost\r\n", "Host: localhost\r\n" + extraHeader + "\r\n");
+			}
+			connection.send(request);
+			FullHttpResponse response = connection.receive();
+			assertEquals(expectedStatus(i), response.getStatus());
+			if (response.getStatus().equals(HttpResponseStatus.OK)) {
+				assertEquals(CONTENT, response.content().toString(CharsetUtil.UTF_8));
+			}
+			response.release();
+		}
+		return connections;
+	}
+
+	@Test
+	public void testConnectionsPerMixedRequests() throws Exception {
+		// errors, redirects and 304 do not close the connection
+		assertEquals(1, connectionsPerMixedRequests(null));
+	}
+
+	@Test
+	public void testConnectionsPerMixedRequestsWithClose() throws Exception {
+		assertEquals(REQUESTS, connectionsPerMixedRequests(HttpHeaders.Names.CONNECTION + ": " + HttpHeaders.Values.CLOSE));
+	}
+
+	@Test
+	public void testPipelinedResponsesInOrder() throws Exception {
+		Connection connection = new Connection();
+		connection.send(request("GET", "/slow.txt") + request("GET", "/a.txt") + request("GET", "/missing.txt"));
+
+		// the search for the first request is not completed
+		assertNull(connection.receive());
+		assertEquals(1, pendingSearches.size());
+		assertFalse(connection.server.config().isAutoRead());
+
+		pendingSearches.get(0).setSuccess(Tuple.<CdnResource, FileInfo> empty());
+		connection.server.runPendingTasks();
+
+		FullHttpResponse response = connection.receive();
+		assertEquals(HttpResponseStatus.NOT_FOUND, response.getStatus());
+		response.release();
+		response = connection.receive();
+		assertEquals(HttpResponseStatus.OK, response.getStatus());
+		assertEquals(CONTENT, response.content().toString(CharsetUtil.UTF_8));
+		response.release();
+		response = connection.receive();
+		assertEquals(HttpResponseStatus.NOT_FOUND, response.getStatus());
+		response.release();
+
+		assertTrue(connection.server.isOpen());
+		assertTrue(connection.server.config().isAutoRead());
+	}
+
+	@Test
+	public void testShapedConnection() throws Exception {
+		Mockito.when(config.getCdnShapingTotal()).thenReturn(1024L * 1024);
+		Mockito.when(config.getCdnShapingInterval()).thenReturn(1000L);
+		CdnTrafficShaper shaper = new CdnTrafficShaper(config, agentManager);
+		initializer = new CdnServerInitializer(config, fileProvider, mimeHelper, cdnNetwork, downloadManager, cdnPlacement, proxyFlightManager, cdnFileCache,
+				fileIndex, shaper);
+		try {
+			Connection connection = new Connection();
+			assertNotNull(connection.server.pipeline().get("shaping-client"));
+			assertEquals(1, shaper.getClientCount());
+
+			// the file is sent in chunks the shaping handlers can measure
+			connection.send(request("GET", "/a.txt"));
+			FullHttpResponse response = connection.receive();
+			assertEquals(HttpResponseStatus.OK, response.getStatus());
+			assertEquals(CONTENT, response.content().toString(CharsetUtil.UTF_8));
+			response.release();
+			assertTrue(shaper.getMetrics().getClasses().get(CdnTrafficShaper.TRAFFIC_CLIENTS).getWrittenBytes() > CONTENT.length());
+
+			connection.server.close();
+			assertEquals(0, shaper.getClientCount());
+		} finally {
+			shaper.destroy();
+		}
+	}
+
+}
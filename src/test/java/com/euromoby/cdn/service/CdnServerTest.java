@@ -10,6 +10,9 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import com.euromoby.agent.Config;
+import com.euromoby.cdn.CdnMappingWatcher;
+import com.euromoby.network.ByteBufAllocatorProvider;
+import com.euromoby.network.EventLoopManager;
 
 @RunWith(MockitoJUnitRunner.class)
 public class CdnServerTest {
@@ -17,14 +20,20 @@ public class CdnServerTest {
 	@Mock
 	Config config;
 	@Mock
+	EventLoopManager eventLoopManager;
+	@Mock
+	ByteBufAllocatorProvider allocatorProvider;
+	@Mock
 	CdnServerInitializer cdnServerInitializer;
+	@Mock
+	CdnMappingWatcher cdnMappingWatcher;
 
 	CdnServer server;
 
 	@Before
 	public void init() {
 		Mockito.when(config.getBasePort()).thenReturn(Integer.parseInt(Config.DEFAULT_AGENT_BASE_PORT));
-		server = new CdnServer(config, cdnServerInitializer);
+		server = new CdnServer(config, eventLoopManager, allocatorProvider, cdnServerInitializer, cdnMappingWatcher);
 	}
 
 	@Test
@@ -32,4 +41,10 @@ public class CdnServerTest {
 		assertEquals(CdnServer.SERVICE_NAME, server.getServiceName());
 	}
 
+	@Test
+	public void testStopStopsMappingWatcher() {
+		server.stopService();
+		Mockito.verify(cdnMappingWatcher).stopService();
+	}
+
 }
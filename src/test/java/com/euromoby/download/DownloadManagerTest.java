@@ -0,0 +1,194 @@
+package com.euromoby.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.agent.Config;
+import com.euromoby.download.client.DownloadException;
+import com.euromoby.download.client.DownloadRequestSender;
+import com.euromoby.download.dao.DownloadFileDao;
+import com.euromoby.download.model.DownloadFile;
+import com.euromoby.download.model.DownloadState;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DownloadManagerTest {
+
+	private static final String URL = "http://example.com/file.zip";
+	private static final String FILE_LOCATION = "file.zip";
+	private static final int RETRY_MAX = 3;
+	private static final long RETRY_DELAY = 1000;
+	private static final long RETRY_DELAY_MAX = 5000;
+
+	@Mock
+	Config config;
+	@Mock
+	DownloadFileDao downloadFileDao;
+	@Mock
+	DownloadRequestSender downloadRequestSender;
+	@Mock
+	Runnable scheduleListener;
+
+	DownloadManager downloadManager;
+
+	@Before
+	public void init() {
+		Mockito.when(config.getAgentFilesPath()).thenReturn(System.getProperty("java.io.tmpdir"));
+		Mockito.when(config.getDownloadRetryMax()).thenReturn(RETRY_MAX);
+		Mockito.when(config.getDownloadRetryDelay()).thenReturn(RETRY_DELAY);
+		Mockito.when(config.getDownloadRetryDelayMax()).thenReturn(RETRY_DELAY_MAX);
+		downloadManager = new DownloadManager(config, downloadFileDao, downloadRequestSender);
+		downloadManager.setScheduleListener(scheduleListener);
+	}
+
+	private DownloadFile createDownloadFile() {
+		DownloadFile downloadFile = new DownloadFile();
+		downloadFile.setId(1);
+		downloadFile.setUrl(URL);
+		downloadFile.setFileLocation(FILE_LOCATION);
+		return downloadFile;
+	}
+
+	@Test
+	public void testScheduleDownloadFile() {
+		DownloadFile downloadFile = downloadManager.scheduleDownloadFile(URL, FILE_LOCATION, false);
+		assertEquals(URL, downloadFile.getUrl());
+		assertEquals("example.com", downloadFile.getHost());
+		assertEquals(DownloadState.QUEUED, downloadFile.getState());
+		Mockito.verify(downloadFileDao).save(downloadFile);
+		Mockito.verify(scheduleListener).run();
+	}
+
+	@Test
+	public void testScheduleDeadFileAgain() {
+		DownloadFile downloadFile = createDownloadFile();
+		downloadFile.setState(DownloadState.DEAD);
+		Mockito.when(downloadFileDao.findByUrl(URL)).thenReturn(downloadFile);
+		Mockito.when(downloadFileDao.requeueDead(downloadFile.getId())).thenReturn(true);
+
+		assertSame(downloadFile, downloadManager.scheduleDownloadFile(URL, FILE_LOCATION, false));
+		assertEquals(DownloadState.QUEUED, downloadFile.getState());
+		Mockito.verify(scheduleListener).run();
+		Mockito.verify(downloadFileDao, Mockito.never()).save(downloadFile);
+	}
+
+	@Test
+	public void testFindScheduledFileLocation() {
+		DownloadFile downloadFile = createDownloadFile();
+		Mockito.when(downloadFileDao.findByFileLocation(FILE_LOCATION)).thenReturn(downloadFile);
+		assertSame(downloadFile, downloadManager.findScheduledFileLocation(FILE_LOCATION));
+		downloadFile.setState(DownloadState.DEAD);
+		assertNull(downloadManager.findScheduledFileLocation(FILE_LOCATION));
+	}
+
+	@Test
+	public void testClaimScheduledFile() {
+		DownloadFile downloadFile = createDownloadFile();
+		assertFalse(downloadManager.claimScheduledFile(downloadFile));
+		assertEquals(DownloadState.QUEUED, downloadFile.getState());
+		Mockito.when(downloadFileDao.claim(downloadFile)).thenReturn(true);
+		assertTrue(downloadManager.claimScheduledFile(downloadFile));
+		assertEquals(DownloadState.RUNNING, downloadFile.getState());
+	}
+
+	@Test
+	public void testFailScheduledFile() {
+		DownloadFile downloadFile = createDownloadFile();
+		downloadFile.setState(DownloadState.RUNNING);
+		long before = System.currentTimeMillis();
+		downloadManager.failScheduledFile(downloadFile, new IOException("Connection reset"));
+
+		assertEquals(DownloadState.QUEUED, downloadFile.getState());
+		assertEquals(1, downloadFile.getAttempts());
+		assertEquals("IOException: Connection reset", downloadFile.getLastError());
+		assertTrue(downloadFile.getNextAttemptAt() >= before + RETRY_DELAY / 2);
+		assertTrue(downloadFile.getNextAttemptAt() <= System.currentTimeMillis() + RETRY_DELAY);
+		Mockito.verify(downloadFileDao).updateAttempt(downloadFile);
+	}
+
+	@Test
+	public void testFailScheduledFileRetryMax() {
+		DownloadFile downloadFile = createDownloadFile();
+		downloadFile.setAttempts(RETRY_MAX - 1);
+		downloadManager.failScheduledFile(downloadFile, new IOException("Connection reset"));
+		assertEquals(DownloadState.DEAD, downloadFile.getState());
+		assertEquals(RETRY_MAX, downloadFile.getAttempts());
+		Mockito.verify(downloadFileDao).updateAttempt(downloadFile);
+	}
+
+	@Test
+	public void testFailScheduledFilePermanent() {
+		DownloadFile downloadFile = createDownloadFile();
+		downloadManager.failScheduledFile(downloadFile, new DownloadException(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), HttpStatus.SC_NOT_FOUND, "Not Found")));
+		assertEquals(DownloadState.DEAD, downloadFile.getState());
+		assertEquals(1, downloadFile.getAttempts());
+		assertTrue(downloadFile.getLastError().startsWith("DownloadException"));
+	}
+
+	@Test
+	public void testRequeueDeadFile() {
+		assertFalse(downloadManager.requeueDeadFile(1));
+		Mockito.verifyZeroInteractions(scheduleListener);
+		Mockito.when(downloadFileDao.requeueDead(1)).thenReturn(true);
+		assertTrue(downloadManager.requeueDeadFile(1));
+		Mockito.verify(scheduleListener).run();
+	}
+
+	@Test
+	public void testGetRetryDelay() {
+		Random random = new Random(42);
+		for (int i = 0; i < 100; i++) {
+			long delay = DownloadManager.getRetryDelay(1, RETRY_DELAY, RETRY_DELAY_MAX, random);
+			assertTrue(delay >= RETRY_DELAY / 2 && delay < RETRY_DELAY);
+			delay = DownloadManager.getRetryDelay(3, RETRY_DELAY, RETRY_DELAY_MAX, random);
+			assertTrue(delay >= 2000 && delay < 4000);
+			// capped, without overflow for a large number of attempts
+			delay = DownloadManager.getRetryDelay(4, RETRY_DELAY, RETRY_DELAY_MAX, random);
+			assertTrue(delay >= RETRY_DELAY_MAX / 2 && delay < RETRY_DELAY_MAX);
+			delay = DownloadManager.getRetryDelay(100, RETRY_DELAY, RETRY_DELAY_MAX, random);
+			assertTrue(delay >= RETRY_DELAY_MAX / 2 && delay < RETRY_DELAY_MAX);
+		}
+		assertEquals(0, DownloadManager.getRetryDelay(1, 0, RETRY_DELAY_MAX, random));
+	}
+
+	@Test
+	public void testGetScheduledFilesOfIdleHosts() {
+		List<String> busyHosts = Arrays.asList("busy.com");
+		downloadManager.getScheduledFiles(busyHosts, 10);
+		Mockito.verify(downloadFileDao).findReady(Matchers.anyLong(), Matchers.eq(busyHosts), Matchers.eq(10));
+	}
+
+	@Test
+	public void testGetHost() {
+		assertEquals("example.com", DownloadManager.getHost("https://Example.com:8443/file.zip"));
+		assertEquals("not a url", DownloadManager.getHost("not a url"));
+	}
+
+	@Test
+	public void testAssignMissingHosts() {
+		DownloadFile downloadFile = createDownloadFile();
+		Mockito.when(downloadFileDao.findWithoutHost()).thenReturn(Arrays.asList(downloadFile));
+		downloadManager.assignMissingHosts();
+		assertEquals("example.com", downloadFile.getHost());
+		Mockito.verify(downloadFileDao).updateHost(downloadFile);
+	}
+
+}
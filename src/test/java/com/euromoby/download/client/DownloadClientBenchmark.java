@@ -0,0 +1,128 @@
+package com.euromoby.download.client;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.euromoby.agent.AgentManager;
+import com.euromoby.agent.Config;
+import com.euromoby.cdn.CdnFileCache;
+import com.euromoby.download.client.RangeOrigin.Ranges;
+import com.euromoby.file.FileIndex;
+import com.euromoby.file.FilePrecompressor;
+import com.euromoby.file.MimeHelper;
+import com.euromoby.http.HttpClientProvider;
+import com.euromoby.http.SSLContextProvider;
+import com.euromoby.network.ByteBufAllocatorProvider;
+
+/**
+ * Downloads a 16 MB file from a local {@link RangeOrigin} whose connections
+ * are limited to "connectionLimit" bytes per second (0 - loopback speed), over
+ * 1 (single stream) to 8 concurrent range segments.
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.euromoby.download.client.DownloadClientBenchmark</code>
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DownloadClientBenchmark {
+
+	private static final int FILE_SIZE = 16 * 1024 * 1024;
+
+	@Param({ "1", "2", "4", "8" })
+	public int segments;
+
+	@Param({ "0", "4194304" })
+	public long connectionLimit;
+
+	private RangeOrigin origin;
+	private HttpClientProvider httpClientProvider;
+	private DownloadClient downloadClient;
+	private File targetFile;
+
+	@Setup
+	public void setup() throws Exception {
+		// the wire log of the http client would dominate the measurement
+		((Logger) LoggerFactory.getLogger("org.apache.http")).setLevel(Level.INFO);
+
+		byte[] content = new byte[FILE_SIZE];
+		new Random(42).nextBytes(content);
+		origin = new RangeOrigin(content, Ranges.SUPPORTED, connectionLimit);
+		origin.start();
+
+		Properties properties = new Properties();
+		properties.setProperty(Config.DOWNLOAD_SEGMENTS, String.valueOf(segments));
+		properties.setProperty(Config.DOWNLOAD_SEGMENT_MIN, String.valueOf(1024 * 1024));
+		Config config = new Config(properties);
+		MimeHelper mimeHelper = new MimeHelper();
+
+		httpClientProvider = new HttpClientProvider(config, new AgentManager(config), new SSLContextProvider(config) {
+			@Override
+			public SSLContext getSSLContext() {
+				return null;
+			}
+		});
+		downloadClient = new DownloadClient(config, httpClientProvider, new FilePrecompressor(config, mimeHelper) {
+			@Override
+			public void schedule(File file) {
+			}
+		}, new FileIndex(config, mimeHelper) {
+			@Override
+			public void update(File file) {
+			}
+		}, new CdnFileCache(config, new ByteBufAllocatorProvider(config)));
+		targetFile = File.createTempFile("benchmark", ".bin");
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		downloadClient.destroy();
+		httpClientProvider.destroy();
+		origin.stop();
+		FileUtils.deleteQuietly(targetFile);
+	}
+
+	@Benchmark
+	public long download() throws Exception {
+		downloadClient.download(origin.getUrl(), targetFile, true);
+		if (targetFile.length() != FILE_SIZE) {
+			throw new IllegalStateException("Received " + targetFile.length() + " of " + FILE_SIZE);
+		}
+		return targetFile.length();
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder().include(DownloadClientBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+
+}
@@ -2,12 +2,18 @@ package com.euromoby.download.client;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpStatus;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.client.config.RequestConfig;
@@ -16,16 +22,27 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.entity.BasicHttpEntity;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.message.BasicStatusLine;
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.euromoby.agent.AgentManager;
 import com.euromoby.agent.Config;
+import com.euromoby.cdn.CdnFileCache;
+import com.euromoby.download.client.RangeOrigin.Ranges;
+import com.euromoby.download.model.DownloadFile;
+import com.euromoby.file.FileIndex;
+import com.euromoby.file.FilePrecompressor;
 import com.euromoby.http.HttpClientProvider;
+import com.euromoby.http.SSLContextProvider;
 
 @RunWith(MockitoJUnitRunner.class)
 public class DownloadClientTest {
@@ -40,12 +57,31 @@ public class DownloadClientTest {
 	
 	@Mock
 	HttpClientProvider httpClientProvider;
+	@Mock
+	FilePrecompressor filePrecompressor;
+	@Mock
+	FileIndex fileIndex;
+	@Mock
+	CdnFileCache cdnFileCache;
 	
 	DownloadClient downloadClient;
 
+	@Mock
+	AgentManager agentManager;
+	@Mock
+	SSLContextProvider sslContextProvider;
+	@Mock
+	DownloadListener downloadListener;
+
+	HttpClientProvider realHttpClientProvider;
+	DownloadClient originClient;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
 	@Before
 	public void init() {
-		downloadClient = new DownloadClient(httpClientProvider);
+		downloadClient = new DownloadClient(config, httpClientProvider, filePrecompressor, fileIndex, cdnFileCache);
 		Mockito.when(httpClientProvider.createRequestConfigBuilder(Matchers.anyString(), Matchers.eq(true))).thenReturn(RequestConfig.custom());
 	}	
 
@@ -82,8 +118,259 @@ public class DownloadClientTest {
 		tmpFile.deleteOnExit();
 		Mockito.when(config.getAgentFilesPath()).thenReturn(System.getProperty("java.io.tmpdir"));		
 		downloadClient.download(URL, tmpFile, NO_PROXY);
+		Mockito.verify(fileIndex).update(tmpFile);
+		Mockito.verify(cdnFileCache).invalidate(tmpFile);
 		assertEquals(responseContent.length, tmpFile.length());
 		assertArrayEquals(responseContent, FileUtils.readFileToByteArray(tmpFile));
+		Mockito.verify(filePrecompressor).schedule(tmpFile);
+	}
+
+	private byte[] content(int size) {
+		byte[] content = new byte[size];
+		new Random(42).nextBytes(content);
+		return content;
+	}
+
+	/**
+	 * Client of a local origin with the real http client
+	 */
+	private DownloadClient createOriginClient(int segments, long segmentMin) throws Exception {
+		Mockito.when(config.getRestLogin()).thenReturn("login");
+		Mockito.when(config.getRestPassword()).thenReturn("password");
+		Mockito.when(config.getDownloadSegments()).thenReturn(segments);
+		Mockito.when(config.getDownloadSegmentMin()).thenReturn(segmentMin);
+		Mockito.when(config.getHttpClientMaxRoute()).thenReturn(segments);
+		realHttpClientProvider = new HttpClientProvider(config, agentManager, sslContextProvider);
+		originClient = new DownloadClient(config, realHttpClientProvider, filePrecompressor, fileIndex, cdnFileCache);
+		return originClient;
+	}
+
+	@After
+	public void destroyOriginClient() throws Exception {
+		if (originClient != null) {
+			originClient.destroy();
+			realHttpClientProvider.destroy();
+		}
+	}
+
+	/**
+	 * Downloads the content from a local origin with the real http client
+	 */
+	private File downloadFromOrigin(RangeOrigin origin, int segments, long segmentMin) throws Exception {
+		DownloadClient client = createOriginClient(segments, segmentMin);
+		File targetFile = new File(temporaryFolder.getRoot(), "file.bin");
+		origin.start();
+		try {
+			client.download(origin.getUrl(), targetFile, NO_PROXY);
+		} finally {
+			origin.stop();
+		}
+		assertFalse(new File(targetFile.getPath() + DownloadClient.DOWNLOADING_EXT).exists());
+		return targetFile;
+	}
+
+	/**
+	 * Downloads the content in two attempts, the first one is cut at the offset
+	 * 
+	 * @return the file state after the first attempt
+	 */
+	private DownloadFile resumeFromOrigin(RangeOrigin origin, int segments, long cutAt, byte[] changedContent) throws Exception {
+		DownloadClient client = createOriginClient(segments, 16 * 1024);
+		File targetFile = new File(temporaryFolder.getRoot(), "file.bin");
+		File downloadingFile = new File(targetFile.getPath() + DownloadClient.DOWNLOADING_EXT);
+		origin.start();
+		try {
+			DownloadFile downloadFile = new DownloadFile();
+			downloadFile.setUrl(origin.getUrl());
+			downloadFile.setNoProxy(NO_PROXY);
+			origin.cutAt(cutAt);
+			try {
+				client.download(downloadFile, targetFile, downloadListener);
+				fail();
+			} catch (Exception e) {
+				assertTrue(downloadingFile.exists());
+			}
+			Mockito.verify(downloadListener, Mockito.atLeastOnce()).onProgress(downloadFile);
+			DownloadFile failed = new DownloadFile();
+			failed.setReceived(downloadFile.getReceived());
+			failed.setContentLength(downloadFile.getContentLength());
+			failed.setEtag(downloadFile.getEtag());
+
+			if (changedContent != null) {
+				origin.setContent(changedContent);
+			}
+			client.download(downloadFile, targetFile, downloadListener);
+			assertFalse(downloadingFile.exists());
+			return failed;
+		} finally {
+			origin.stop();
+		}
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		byte[] content = content(64 * 1024);
+		RangeOrigin origin = new RangeOrigin(content, Ranges.SUPPORTED, 0);
+		DownloadFile failed = resumeFromOrigin(origin, 1, 20000, null);
+		assertEquals(20000, failed.getReceived());
+		assertEquals(content.length, failed.getContentLength());
+		assertEquals(origin.getEtag(), failed.getEtag());
+		assertArrayEquals(content, FileUtils.readFileToByteArray(new File(temporaryFolder.getRoot(), "file.bin")));
+		assertEquals(2, origin.getGetRequests());
+		assertEquals(1, origin.getRangeRequests());
+	}
+
+	@Test
+	public void testResumeChangedFile() throws Exception {
+		byte[] content = content(64 * 1024);
+		byte[] changedContent = Arrays.copyOf(content, 48 * 1024);
+		RangeOrigin origin = new RangeOrigin(content, Ranges.SUPPORTED, 0);
+		resumeFromOrigin(origin, 1, 20000, changedContent);
+		// If-Range does not match, the whole file is sent
+		assertArrayEquals(changedContent, FileUtils.readFileToByteArray(new File(temporaryFolder.getRoot(), "file.bin")));
+		assertEquals(0, origin.getRangeRequests());
+	}
+
+	@Test
+	public void testResumeSegments() throws Exception {
+		byte[] content = content(256 * 1024);
+		RangeOrigin origin = new RangeOrigin(content, Ranges.SUPPORTED, 0);
+		DownloadFile failed = resumeFromOrigin(origin, 4, 40000, null);
+		// the contiguous data of the first segment
+		assertEquals(40000, failed.getReceived());
+		assertArrayEquals(content, FileUtils.readFileToByteArray(new File(temporaryFolder.getRoot(), "file.bin")));
+		// the segments aborted before they start send no request
+		List<String> ranges = origin.getRequestedRanges();
+		assertEquals("bytes=0-", ranges.get(0));
+		assertTrue(ranges.contains("bytes=40000-"));
+	}
+
+	private File createPartialFile(DownloadFile downloadFile) throws Exception {
+		File targetFile = new File(temporaryFolder.getRoot(), "file.bin");
+		File downloadingFile = new File(targetFile.getPath() + DownloadClient.DOWNLOADING_EXT);
+		FileUtils.writeByteArrayToFile(downloadingFile, content(100));
+		downloadFile.setUrl(URL);
+		downloadFile.setNoProxy(NO_PROXY);
+		downloadFile.setReceived(100);
+		downloadFile.setContentLength(1000);
+		downloadFile.setEtag("\"abc\"");
+		return targetFile;
+	}
+
+	@Test
+	public void testPermanentErrorDeletesPartialFile() throws Exception {
+		Mockito.when(httpClientProvider.executeRequest(Matchers.any(HttpGet.class))).thenReturn(closeableHttpResponse);
+		Mockito.when(closeableHttpResponse.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), HttpStatus.SC_NOT_FOUND, "Not found"));
+		DownloadFile downloadFile = new DownloadFile();
+		File targetFile = createPartialFile(downloadFile);
+		try {
+			downloadClient.download(downloadFile, targetFile, downloadListener);
+			fail();
+		} catch (DownloadException e) {
+			assertTrue(e.isPermanent());
+		}
+		assertFalse(new File(targetFile.getPath() + DownloadClient.DOWNLOADING_EXT).exists());
+		Mockito.verifyZeroInteractions(downloadListener);
+	}
+
+	@Test
+	public void testRetryableErrorKeepsPartialFile() throws Exception {
+		ArgumentCaptor<HttpGet> request = ArgumentCaptor.forClass(HttpGet.class);
+		Mockito.when(httpClientProvider.executeRequest(request.capture())).thenReturn(closeableHttpResponse);
+		Mockito.when(closeableHttpResponse.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), HttpStatus.SC_SERVICE_UNAVAILABLE, "Unavailable"));
+		DownloadFile downloadFile = new DownloadFile();
+		File targetFile = createPartialFile(downloadFile);
+		try {
+			downloadClient.download(downloadFile, targetFile, downloadListener);
+			fail();
+		} catch (DownloadException e) {
+			assertFalse(e.isPermanent());
+		}
+		assertEquals("bytes=100-", request.getValue().getFirstHeader(HttpHeaders.RANGE).getValue());
+		assertEquals("\"abc\"", request.getValue().getFirstHeader(HttpHeaders.IF_RANGE).getValue());
+		assertTrue(new File(targetFile.getPath() + DownloadClient.DOWNLOADING_EXT).exists());
+		Mockito.verify(downloadListener).onProgress(downloadFile);
+	}
+
+	@Test
+	public void testMissingPartialFile() throws Exception {
+		ArgumentCaptor<HttpGet> request = ArgumentCaptor.forClass(HttpGet.class);
+		Mockito.when(httpClientProvider.executeRequest(request.capture())).thenReturn(closeableHttpResponse);
+		Mockito.when(closeableHttpResponse.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), HttpStatus.SC_OK, "OK"));
+		Mockito.when(closeableHttpResponse.getEntity()).thenReturn(new ByteArrayEntity(content(1000)));
+		DownloadFile downloadFile = new DownloadFile();
+		File targetFile = createPartialFile(downloadFile);
+		new File(targetFile.getPath() + DownloadClient.DOWNLOADING_EXT).delete();
+		downloadClient.download(downloadFile, targetFile, downloadListener);
+		assertNull(request.getValue().getFirstHeader(HttpHeaders.RANGE));
+		assertEquals(1000, targetFile.length());
+	}
+
+	@Test
+	public void testGetValidator() {
+		DownloadFile downloadFile = new DownloadFile();
+		assertNull(DownloadClient.getValidator(downloadFile));
+		downloadFile.setLastModified("Wed, 21 Oct 2015 07:28:00 GMT");
+		assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", DownloadClient.getValidator(downloadFile));
+		downloadFile.setEtag("W/\"abc\"");
+		assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", DownloadClient.getValidator(downloadFile));
+		downloadFile.setEtag("\"abc\"");
+		assertEquals("\"abc\"", DownloadClient.getValidator(downloadFile));
+	}
+
+	@Test
+	public void testSegmentedDownload() throws Exception {
+		byte[] content = content(256 * 1024);
+		RangeOrigin origin = new RangeOrigin(content, Ranges.SUPPORTED, 0);
+		File targetFile = downloadFromOrigin(origin, 4, 16 * 1024);
+		assertArrayEquals(content, FileUtils.readFileToByteArray(targetFile));
+		// the first request asks for the open range, its response tells the length
+		assertEquals(0, origin.getHeadRequests());
+		assertEquals(4, origin.getGetRequests());
+		assertEquals(4, origin.getRangeRequests());
+		Mockito.verify(fileIndex).update(targetFile);
+	}
+
+	@Test
+	public void testSmallFileSingleStream() throws Exception {
+		byte[] content = content(24 * 1024);
+		RangeOrigin origin = new RangeOrigin(content, Ranges.SUPPORTED, 0);
+		File targetFile = downloadFromOrigin(origin, 4, 16 * 1024);
+		assertArrayEquals(content, FileUtils.readFileToByteArray(targetFile));
+		assertEquals(0, origin.getHeadRequests());
+		assertEquals(1, origin.getGetRequests());
+		assertEquals(1, origin.getRangeRequests());
+	}
+
+	@Test
+	public void testRangesNotSupported() throws Exception {
+		byte[] content = content(256 * 1024);
+		RangeOrigin origin = new RangeOrigin(content, Ranges.NONE, 0);
+		File targetFile = downloadFromOrigin(origin, 4, 16 * 1024);
+		assertArrayEquals(content, FileUtils.readFileToByteArray(targetFile));
+		assertEquals(0, origin.getHeadRequests());
+		assertEquals(1, origin.getGetRequests());
+	}
+
+	@Test
+	public void testRangesIgnored() throws Exception {
+		// the whole file is sent for the open range, it is read as one stream
+		byte[] content = content(256 * 1024);
+		RangeOrigin origin = new RangeOrigin(content, Ranges.IGNORED, 0);
+		File targetFile = downloadFromOrigin(origin, 4, 16 * 1024);
+		assertArrayEquals(content, FileUtils.readFileToByteArray(targetFile));
+		assertEquals(1, origin.getGetRequests());
+		assertEquals(0, origin.getRangeRequests());
+	}
+
+	@Test
+	public void testGetSegmentCount() {
+		Mockito.when(config.getDownloadSegments()).thenReturn(4);
+		Mockito.when(config.getDownloadSegmentMin()).thenReturn(1000L);
+		assertEquals(1, downloadClient.getSegmentCount(-1));
+		assertEquals(1, downloadClient.getSegmentCount(1999));
+		assertEquals(2, downloadClient.getSegmentCount(2000));
+		assertEquals(4, downloadClient.getSegmentCount(1000000));
 	}
 
 }
@@ -0,0 +1,206 @@
+package com.euromoby.download.client;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.traffic.ChannelTrafficShapingHandler;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for a download origin: serves one file from memory over
+ * HTTP/1.1 keep-alive, answers HEAD and single byte ranges. Each connection
+ * can be limited to a number of bytes per second, as the per stream
+ * throughput of a remote origin is. The file has an ETag, a range with a
+ * different If-Range gets the whole file. A response can be cut once at an
+ * offset of the file to simulate a broken connection.
+ */
+public class RangeOrigin {
+
+	public enum Ranges {
+		// Accept-Ranges and 206 responses
+		SUPPORTED,
+		// neither advertised nor served
+		NONE,
+		// advertised, but the whole file is sent
+		IGNORED
+	}
+
+	private static final Pattern RANGE_REGEX = Pattern.compile("bytes=(\\d+)-(\\d*)");
+	private static final int CHUNK_SIZE = 16 * 1024;
+
+	private volatile byte[] content;
+	private final Ranges ranges;
+	private final long connectionLimit;
+
+	private final AtomicInteger headRequests = new AtomicInteger();
+	private final AtomicInteger getRequests = new AtomicInteger();
+	private final AtomicInteger rangeRequests = new AtomicInteger();
+	private final List<String> requestedRanges = new CopyOnWriteArrayList<String>();
+	private final AtomicLong cutAt = new AtomicLong(-1);
+
+	private EventLoopGroup group;
+	private Channel serverChannel;
+
+	/**
+	 * @param connectionLimit bytes per second of a connection, 0 - unlimited
+	 */
+	public RangeOrigin(byte[] content, Ranges ranges, long connectionLimit) {
+		this.content = content;
+		this.ranges = ranges;
+		this.connectionLimit = connectionLimit;
+	}
+
+	public void start() throws Exception {
+		group = new NioEventLoopGroup();
+		ServerBootstrap b = new ServerBootstrap();
+		b.group(group);
+		b.channel(NioServerSocketChannel.class);
+		b.childHandler(new ChannelInitializer<SocketChannel>() {
+			@Override
+			protected void initChannel(SocketChannel ch) throws Exception {
+				ChannelPipeline p = ch.pipeline();
+				if (connectionLimit > 0) {
+					p.addLast("shaping", new ChannelTrafficShapingHandler(connectionLimit, 0, 100));
+				}
+				p.addLast("decoder", new HttpRequestDecoder());
+				p.addLast("encoder", new HttpResponseEncoder());
+				p.addLast("aggregator", new HttpObjectAggregator(65536));
+				p.addLast("origin", new SimpleChannelInboundHandler<FullHttpRequest>() {
+					@Override
+					protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+						respond(ctx, request);
+					}
+				});
+			}
+		});
+		serverChannel = b.bind("127.0.0.1", 0).sync().channel();
+	}
+
+	public void stop() {
+		serverChannel.close().syncUninterruptibly();
+		group.shutdownGracefully();
+	}
+
+	public String getUrl() {
+		return "http://127.0.0.1:" + ((InetSocketAddress) serverChannel.localAddress()).getPort() + "/file.bin";
+	}
+
+	public int getHeadRequests() {
+		return headRequests.get();
+	}
+
+	public int getGetRequests() {
+		return getRequests.get();
+	}
+
+	public int getRangeRequests() {
+		return rangeRequests.get();
+	}
+
+	/**
+	 * @return Range headers of the GET requests in the order they came
+	 */
+	public List<String> getRequestedRanges() {
+		return requestedRanges;
+	}
+
+	/**
+	 * Replaces the file, its ETag changes
+	 */
+	public void setContent(byte[] content) {
+		this.content = content;
+	}
+
+	public String getEtag() {
+		return "\"" + Integer.toHexString(Arrays.hashCode(content)) + "\"";
+	}
+
+	/**
+	 * The next response which contains the offset closes the connection
+	 * before it
+	 */
+	public void cutAt(long offset) {
+		cutAt.set(offset);
+	}
+
+	private void respond(ChannelHandlerContext ctx, FullHttpRequest request) {
+		byte[] content = this.content;
+		String etag = getEtag();
+		HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+		if (ranges != Ranges.NONE) {
+			response.headers().set(HttpHeaders.Names.ACCEPT_RANGES, HttpHeaders.Values.BYTES);
+		}
+		response.headers().set(HttpHeaders.Names.ETAG, etag);
+		int start = 0;
+		int end = content.length - 1;
+
+		if (request.getMethod().equals(HttpMethod.GET)) {
+			getRequests.incrementAndGet();
+			String range = request.headers().get(HttpHeaders.Names.RANGE);
+			String ifRange = request.headers().get(HttpHeaders.Names.IF_RANGE);
+			if (range != null) {
+				requestedRanges.add(range);
+			}
+			Matcher m = range != null ? RANGE_REGEX.matcher(range) : null;
+			if (ranges == Ranges.SUPPORTED && m != null && m.matches() && (ifRange == null || ifRange.equals(etag))) {
+				rangeRequests.incrementAndGet();
+				start = Integer.parseInt(m.group(1));
+				if (!m.group(2).isEmpty()) {
+					end = Math.min(Integer.parseInt(m.group(2)), end);
+				}
+				response.setStatus(HttpResponseStatus.PARTIAL_CONTENT);
+				response.headers().set(HttpHeaders.Names.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + content.length);
+			}
+		}
+		HttpHeaders.setContentLength(response, end - start + 1);
+		ctx.write(response);
+
+		if (!request.getMethod().equals(HttpMethod.GET)) {
+			headRequests.incrementAndGet();
+			ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+			return;
+		}
+		long cut = cutAt.get();
+		boolean broken = cut >= start && cut <= end && cutAt.compareAndSet(cut, -1);
+		int last = broken ? (int) cut - 1 : end;
+		for (int offset = start; offset <= last; offset += CHUNK_SIZE) {
+			int length = Math.min(CHUNK_SIZE, last - offset + 1);
+			ctx.write(new DefaultHttpContent(Unpooled.wrappedBuffer(content, offset, length)));
+		}
+		if (broken) {
+			ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+		} else {
+			ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+		}
+	}
+
+}
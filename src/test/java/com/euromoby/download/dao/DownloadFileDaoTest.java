@@ -0,0 +1,76 @@
+package com.euromoby.download.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import com.euromoby.download.DownloadManager;
+import com.euromoby.download.model.DownloadFile;
+
+public class DownloadFileDaoTest {
+
+	SingleConnectionDataSource dataSource;
+	DownloadFileDao downloadFileDao;
+
+	@Before
+	public void init() {
+		// save() reads the identity on the same connection
+		dataSource = new SingleConnectionDataSource("jdbc:h2:mem:download_file", "sa", "", true);
+		new ResourceDatabasePopulator(new ClassPathResource("com/euromoby/agent/schema.sql")).execute(dataSource);
+		downloadFileDao = new DownloadFileDao(dataSource);
+	}
+
+	@After
+	public void destroy() {
+		dataSource.destroy();
+	}
+
+	private DownloadFile save(String url) {
+		DownloadFile downloadFile = new DownloadFile();
+		downloadFile.setUrl(url);
+		downloadFile.setHost(DownloadManager.getHost(url));
+		downloadFile.setFileLocation(url);
+		downloadFileDao.save(downloadFile);
+		return downloadFile;
+	}
+
+	@Test
+	public void testFindReadyExcludesHosts() {
+		for (int i = 0; i < 5; i++) {
+			save("http://busy.com/" + i);
+		}
+		save("http://other.com/1");
+		DownloadFile legacy = save("http://third.com/1");
+		new JdbcTemplate(dataSource).update("update download_file set host = null where id = ?", legacy.getId());
+
+		long now = System.currentTimeMillis();
+		assertEquals(3, downloadFileDao.findReady(now, Collections.<String> emptySet(), 3).size());
+		List<DownloadFile> files = downloadFileDao.findReady(now, Arrays.asList("busy.com", "example.com"), 3);
+		assertEquals(2, files.size());
+		assertEquals("other.com", files.get(0).getHost());
+		// the host of a file stored before the column is not known yet
+		assertNull(files.get(1).getHost());
+	}
+
+	@Test
+	public void testUpdateHost() {
+		DownloadFile downloadFile = save("http://example.com/1");
+		new JdbcTemplate(dataSource).update("update download_file set host = null");
+		assertEquals(1, downloadFileDao.findWithoutHost().size());
+		downloadFileDao.updateHost(downloadFile);
+		assertEquals(0, downloadFileDao.findWithoutHost().size());
+		assertEquals("example.com", downloadFileDao.findByUrl("http://example.com/1").getHost());
+	}
+
+}
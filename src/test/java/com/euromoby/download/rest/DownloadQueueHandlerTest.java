@@ -0,0 +1,124 @@
+package com.euromoby.download.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.download.DownloadManager;
+import com.euromoby.download.model.DownloadFile;
+import com.euromoby.download.model.DownloadState;
+import com.euromoby.rest.RestException;
+import com.google.gson.Gson;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DownloadQueueHandlerTest {
+
+	@Mock
+	DownloadManager downloadManager;
+	@Mock
+	HttpRequest request;
+	@Mock
+	HttpHeaders headers;
+	@Mock
+	ChannelHandlerContext ctx;
+
+	DownloadQueueHandler handler;
+
+	@Before
+	public void init() {
+		Mockito.when(ctx.alloc()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
+		Mockito.when(request.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);
+		Mockito.when(request.headers()).thenReturn(headers);
+		handler = new DownloadQueueHandler(downloadManager);
+	}
+
+	@Test
+	public void shouldMatchUri() throws Exception {
+		assertTrue(handler.matchUri(new URI("http://example.com" + DownloadQueueHandler.URL)));
+		assertFalse(handler.matchUri(new URI("http://example.com" + DownloadQueueHandler.URL + "/other")));
+	}
+
+	@Test
+	public void testDeadFiles() throws Exception {
+		DownloadFile downloadFile = new DownloadFile();
+		downloadFile.setId(1);
+		downloadFile.setUrl("http://example.com/file.zip");
+		downloadFile.setState(DownloadState.DEAD);
+		downloadFile.setAttempts(8);
+		downloadFile.setLastError("IOException: Connection reset");
+		Mockito.when(downloadManager.getFiles(DownloadState.DEAD, 100)).thenReturn(Arrays.asList(downloadFile));
+
+		FullHttpResponse response = handler.doGet(ctx, request, new HashMap<String, List<String>>());
+		assertEquals(HttpResponseStatus.OK, response.getStatus());
+		DownloadFile[] result = new Gson().fromJson(response.content().toString(CharsetUtil.UTF_8), DownloadFile[].class);
+		assertEquals(1, result.length);
+		assertEquals(DownloadState.DEAD, result[0].getState());
+		assertEquals(8, result[0].getAttempts());
+		assertEquals(downloadFile.getLastError(), result[0].getLastError());
+		response.release();
+	}
+
+	@Test
+	public void testFilesByState() throws Exception {
+		Map<String, List<String>> queryParameters = new HashMap<String, List<String>>();
+		queryParameters.put(DownloadQueueHandler.PARAM_STATE, Arrays.asList("queued"));
+		queryParameters.put(DownloadQueueHandler.PARAM_LIMIT, Arrays.asList("10"));
+		Mockito.when(downloadManager.getFiles(DownloadState.QUEUED, 10)).thenReturn(Collections.<DownloadFile> emptyList());
+		FullHttpResponse response = handler.doGet(ctx, request, queryParameters);
+		assertEquals("[]", response.content().toString(CharsetUtil.UTF_8));
+		response.release();
+
+		queryParameters.put(DownloadQueueHandler.PARAM_STATE, Arrays.asList("unknown"));
+		try {
+			handler.doGet(ctx, request, queryParameters);
+			fail();
+		} catch (RestException e) {
+		}
+	}
+
+	@Test
+	public void testRequeue() throws Exception {
+		Map<String, List<String>> postParameters = new HashMap<String, List<String>>();
+		postParameters.put(DownloadQueueHandler.REQUEST_INPUT_ID, Arrays.asList("1"));
+		Mockito.when(downloadManager.requeueDeadFile(1)).thenReturn(true);
+		FullHttpResponse response = handler.doPost(ctx, request, null, postParameters, null);
+		assertEquals("OK", response.content().toString(CharsetUtil.UTF_8));
+		response.release();
+
+		postParameters.put(DownloadQueueHandler.REQUEST_INPUT_ID, Arrays.asList("2"));
+		response = handler.doPost(ctx, request, null, postParameters, null);
+		assertEquals("ERROR", response.content().toString(CharsetUtil.UTF_8));
+		response.release();
+
+		postParameters.put(DownloadQueueHandler.REQUEST_INPUT_ID, Arrays.asList("abc"));
+		try {
+			handler.doPost(ctx, request, null, postParameters, null);
+			fail();
+		} catch (RestException e) {
+		}
+	}
+
+}
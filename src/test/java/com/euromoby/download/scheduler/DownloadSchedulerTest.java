@@ -0,0 +1,311 @@
+package com.euromoby.download.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.euromoby.agent.Config;
+import com.euromoby.download.DownloadManager;
+import com.euromoby.download.client.DownloadClient;
+import com.euromoby.download.client.DownloadException;
+import com.euromoby.download.client.DownloadListener;
+import com.euromoby.download.model.DownloadFile;
+import com.euromoby.file.FileProvider;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DownloadSchedulerTest {
+
+	private static final int POOL_SIZE = 2;
+	private static final int INTERVAL = 60000;
+
+	@Mock
+	Config config;
+	@Mock
+	DownloadManager downloadManager;
+	@Mock
+	DownloadClient downloadClient;
+	@Mock
+	FileProvider fileProvider;
+
+	DownloadScheduler downloadScheduler;
+
+	// the queue of the download manager: queued files, the running ones are not returned
+	final List<DownloadFile> queue = new CopyOnWriteArrayList<DownloadFile>();
+	final Set<DownloadFile> running = Collections.newSetFromMap(new ConcurrentHashMap<DownloadFile, Boolean>());
+
+	@Before
+	public void init() throws Exception {
+		Mockito.when(config.getDownloadPoolSize()).thenReturn(POOL_SIZE);
+		Mockito.when(config.getDownloadSchedulerInterval()).thenReturn(INTERVAL);
+		Mockito.when(fileProvider.getTargetFile(Matchers.anyString())).thenReturn(new File("target"));
+		Mockito.when(downloadManager.getScheduledFiles(Matchers.anyCollectionOf(String.class), Matchers.anyInt())).thenAnswer(new Answer<List<DownloadFile>>() {
+			@Override
+			public List<DownloadFile> answer(InvocationOnMock invocation) throws Throwable {
+				List<DownloadFile> files = new ArrayList<DownloadFile>(queue);
+				files.removeAll(running);
+				Collection<?> busyHosts = (Collection<?>) invocation.getArguments()[0];
+				for (Iterator<DownloadFile> it = files.iterator(); it.hasNext();) {
+					if (busyHosts.contains(DownloadScheduler.getHost(it.next()))) {
+						it.remove();
+					}
+				}
+				int limit = (Integer) invocation.getArguments()[1];
+				return new ArrayList<DownloadFile>(files.subList(0, Math.min(limit, files.size())));
+			}
+		});
+		Mockito.when(downloadManager.claimScheduledFile(Matchers.any(DownloadFile.class))).thenAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				return running.add((DownloadFile) invocation.getArguments()[0]);
+			}
+		});
+		Answer<Void> dequeue = new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				// a failed file waits for its next attempt
+				queue.remove(invocation.getArguments()[0]);
+				running.remove(invocation.getArguments()[0]);
+				return null;
+			}
+		};
+		Mockito.doAnswer(dequeue).when(downloadManager).deleteScheduledFile(Matchers.any(DownloadFile.class));
+		Mockito.doAnswer(dequeue).when(downloadManager).failScheduledFile(Matchers.any(DownloadFile.class), Matchers.any(Exception.class));
+		downloadScheduler = new DownloadScheduler(config, downloadManager, downloadClient, fileProvider);
+	}
+
+	private DownloadFile createDownloadFile(int id) {
+		DownloadFile downloadFile = new DownloadFile();
+		downloadFile.setId(id);
+		downloadFile.setUrl("http://localhost/" + id);
+		downloadFile.setFileLocation(String.valueOf(id));
+		return downloadFile;
+	}
+
+	private void awaitIdle() throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (downloadScheduler.getActiveCount() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, downloadScheduler.getActiveCount());
+	}
+
+	@Test
+	public void testGetServiceName() {
+		assertEquals(DownloadScheduler.SERVICE_NAME, downloadScheduler.getServiceName());
+	}
+
+	@Test
+	public void testRequeueRunningOnce() throws Exception {
+		downloadScheduler.dispatch();
+		downloadScheduler.dispatch();
+		Mockito.verify(downloadManager, Mockito.times(1)).requeueRunningFiles();
+	}
+
+	@Test
+	public void testFailedDownloadIsRetried() throws Exception {
+		final DownloadFile done = createDownloadFile(1);
+		final DownloadFile partial = createDownloadFile(2);
+		final DownloadFile notFound = createDownloadFile(3);
+		queue.addAll(Arrays.asList(done, partial, notFound));
+		final IOException reset = new IOException("Connection reset");
+		final DownloadException notFoundError = new DownloadException(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), HttpStatus.SC_NOT_FOUND, "Not found"));
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				DownloadFile downloadFile = (DownloadFile) invocation.getArguments()[0];
+				DownloadListener listener = (DownloadListener) invocation.getArguments()[2];
+				if (downloadFile == partial) {
+					downloadFile.setReceived(100);
+					listener.onProgress(downloadFile);
+					throw reset;
+				}
+				if (downloadFile == notFound) {
+					throw notFoundError;
+				}
+				return null;
+			}
+		}).when(downloadClient).download(Matchers.any(DownloadFile.class), Matchers.any(File.class), Matchers.any(DownloadListener.class));
+
+		for (int i = 0; i < 3; i++) {
+			downloadScheduler.dispatch();
+			awaitIdle();
+		}
+
+		Mockito.verify(downloadManager).updateProgress(partial);
+		Mockito.verify(downloadManager).deleteScheduledFile(done);
+		Mockito.verify(downloadManager).failScheduledFile(partial, reset);
+		Mockito.verify(downloadManager).failScheduledFile(notFound, notFoundError);
+		Mockito.verify(downloadManager, Mockito.never()).deleteScheduledFile(partial);
+		Mockito.verify(downloadManager, Mockito.never()).deleteScheduledFile(notFound);
+	}
+
+	@Test
+	public void testFreeSlotClaimsNextFile() throws Exception {
+		final DownloadFile slow = createDownloadFile(1);
+		DownloadFile first = createDownloadFile(2);
+		DownloadFile second = createDownloadFile(3);
+		queue.addAll(Arrays.asList(slow, first, second));
+		final CountDownLatch slowRelease = new CountDownLatch(1);
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				if (invocation.getArguments()[0] == slow) {
+					slowRelease.await();
+				}
+				return null;
+			}
+		}).when(downloadClient).download(Matchers.any(DownloadFile.class), Matchers.any(File.class), Matchers.any(DownloadListener.class));
+
+		downloadScheduler.dispatch();
+		assertEquals(POOL_SIZE, downloadScheduler.getActiveCount());
+		// the finished download wakes the dispatcher
+		downloadScheduler.awaitWakeUp(5000);
+		Mockito.verify(downloadManager, Mockito.timeout(5000)).deleteScheduledFile(first);
+
+		downloadScheduler.dispatch();
+		Mockito.verify(downloadManager, Mockito.timeout(5000)).deleteScheduledFile(second);
+		Mockito.verify(downloadManager, Mockito.never()).deleteScheduledFile(slow);
+		// the claimed file is not submitted twice
+		Mockito.verify(downloadClient, Mockito.times(1)).download(Matchers.eq(slow), Matchers.any(File.class), Matchers.any(DownloadListener.class));
+
+		slowRelease.countDown();
+		awaitIdle();
+		Mockito.verify(downloadManager).deleteScheduledFile(slow);
+	}
+
+	@Test
+	public void testClaimedElsewhere() throws Exception {
+		DownloadFile downloadFile = createDownloadFile(1);
+		queue.add(downloadFile);
+		Mockito.when(downloadManager.claimScheduledFile(downloadFile)).thenReturn(false);
+		downloadScheduler.dispatch();
+		assertEquals(0, downloadScheduler.getActiveCount());
+		assertEquals(0, downloadScheduler.getHostActiveCount("localhost"));
+		Mockito.verifyZeroInteractions(downloadClient);
+	}
+
+	@Test
+	public void testHostMax() throws Exception {
+		Mockito.when(config.getDownloadHostMax()).thenReturn(1);
+		DownloadFile first = createDownloadFile(1);
+		DownloadFile second = createDownloadFile(2);
+		DownloadFile otherHost = createDownloadFile(3);
+		otherHost.setUrl("http://example.com/3");
+		queue.addAll(Arrays.asList(first, second, otherHost));
+		final CountDownLatch release = new CountDownLatch(1);
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				release.await();
+				return null;
+			}
+		}).when(downloadClient).download(Matchers.any(DownloadFile.class), Matchers.any(File.class), Matchers.any(DownloadListener.class));
+
+		downloadScheduler.dispatch();
+		// the second file of localhost waits, the file of the other host is claimed past it
+		assertEquals(1, downloadScheduler.getHostActiveCount("localhost"));
+		assertEquals(1, downloadScheduler.getHostActiveCount("example.com"));
+		Mockito.verify(downloadClient, Mockito.timeout(5000)).download(Matchers.eq(otherHost), Matchers.any(File.class), Matchers.any(DownloadListener.class));
+		Mockito.verify(downloadClient, Mockito.never()).download(Matchers.eq(second), Matchers.any(File.class), Matchers.any(DownloadListener.class));
+
+		release.countDown();
+		awaitIdle();
+		assertEquals(0, downloadScheduler.getHostActiveCount("localhost"));
+	}
+
+	@Test
+	public void testBusyHostDoesNotBlockQueue() throws Exception {
+		Mockito.when(config.getDownloadHostMax()).thenReturn(1);
+		// more files of one host than a page holds, queued before the other host
+		List<DownloadFile> busyHost = new ArrayList<DownloadFile>();
+		for (int i = 1; i <= POOL_SIZE * 8 * 2 + 1; i++) {
+			busyHost.add(createDownloadFile(i));
+		}
+		DownloadFile otherHost = createDownloadFile(100);
+		otherHost.setUrl("http://example.com/100");
+		queue.addAll(busyHost);
+		queue.add(otherHost);
+		final CountDownLatch release = new CountDownLatch(1);
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				release.await();
+				return null;
+			}
+		}).when(downloadClient).download(Matchers.any(DownloadFile.class), Matchers.any(File.class), Matchers.any(DownloadListener.class));
+
+		downloadScheduler.dispatch();
+		assertEquals(1, downloadScheduler.getHostActiveCount("localhost"));
+		assertEquals(1, downloadScheduler.getHostActiveCount("example.com"));
+		Mockito.verify(downloadClient, Mockito.timeout(5000)).download(Matchers.eq(otherHost), Matchers.any(File.class), Matchers.any(DownloadListener.class));
+		// the busy host is left out by the query instead of being read through
+		Mockito.verify(downloadManager).getScheduledFiles(Collections.singleton("localhost"), POOL_SIZE * 8);
+		Mockito.verify(downloadManager, Mockito.times(2)).getScheduledFiles(Matchers.anyCollectionOf(String.class), Matchers.anyInt());
+
+		release.countDown();
+		awaitIdle();
+	}
+
+	@Test
+	public void testGetHost() {
+		DownloadFile downloadFile = createDownloadFile(1);
+		downloadFile.setUrl("https://Example.com:8443/file.zip");
+		assertEquals("example.com", DownloadScheduler.getHost(downloadFile));
+		downloadFile.setUrl("not a url");
+		assertEquals("not a url", DownloadScheduler.getHost(downloadFile));
+		// stored when the file is scheduled
+		downloadFile.setHost("example.com");
+		assertEquals("example.com", DownloadScheduler.getHost(downloadFile));
+	}
+
+	@Test
+	public void testScheduledFileWakesDispatcher() throws Exception {
+		ArgumentCaptor<Runnable> scheduleListener = ArgumentCaptor.forClass(Runnable.class);
+		Mockito.verify(downloadManager).setScheduleListener(scheduleListener.capture());
+
+		final CountDownLatch awake = new CountDownLatch(1);
+		Thread dispatcher = new Thread() {
+			@Override
+			public void run() {
+				try {
+					downloadScheduler.awaitWakeUp(INTERVAL);
+					awake.countDown();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		dispatcher.start();
+		scheduleListener.getValue().run();
+		assertTrue(awake.await(5, TimeUnit.SECONDS));
+		dispatcher.join();
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.euromoby.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FileDigestTest {
+
+	private static final int ENTRIES = 10000;
+
+	@Test
+	public void testNoFalseNegatives() {
+		FileDigest fileDigest = new FileDigest(ENTRIES);
+		for (int i = 0; i < ENTRIES; i++) {
+			fileDigest.add("dir/file" + i + ".txt");
+		}
+		for (int i = 0; i < ENTRIES; i++) {
+			assertTrue(fileDigest.mightContain("dir/file" + i + ".txt"));
+		}
+	}
+
+	@Test
+	public void testFalsePositiveRate() {
+		FileDigest fileDigest = new FileDigest(ENTRIES);
+		for (int i = 0; i < ENTRIES; i++) {
+			fileDigest.add("dir/file" + i + ".txt");
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < ENTRIES; i++) {
+			if (fileDigest.mightContain("other/file" + i + ".txt")) {
+				falsePositives++;
+			}
+		}
+		// about 1% expected
+		assertTrue(falsePositives < ENTRIES / 50);
+	}
+
+	@Test
+	public void testEmpty() {
+		FileDigest fileDigest = new FileDigest(0);
+		assertFalse(fileDigest.mightContain("a.txt"));
+		assertEquals(FileDigest.MIN_BITS / FileDigest.BITS_PER_ENTRY, fileDigest.getCapacity());
+	}
+
+	@Test
+	public void testSerialize() {
+		FileDigest fileDigest = new FileDigest(100);
+		fileDigest.add("a.txt");
+		FileDigest parsed = FileDigest.parse(fileDigest.serialize());
+		assertTrue(parsed.mightContain("a.txt"));
+		assertFalse(parsed.mightContain("b.txt"));
+		assertEquals(fileDigest.serialize(), parsed.serialize());
+	}
+
+	@Test
+	public void testParseInvalid() {
+		assertNull(FileDigest.parse(null));
+		assertNull(FileDigest.parse(""));
+		assertNull(FileDigest.parse("abc"));
+		assertNull(FileDigest.parse("x:AAAAAAAAAAA="));
+		assertNull(FileDigest.parse("7:AAAA"));
+	}
+
+}
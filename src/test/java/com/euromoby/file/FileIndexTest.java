@@ -0,0 +1,214 @@
+package com.euromoby.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.agent.Config;
+import com.euromoby.download.client.DownloadClient;
+import com.euromoby.http.HttpUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FileIndexTest {
+
+	private static final int WAIT_MILLIS = 10000;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Mock
+	Config config;
+	@Mock
+	MimeHelper mimeHelper;
+
+	File root;
+	FileIndex fileIndex;
+
+	@Before
+	public void init() throws Exception {
+		root = temporaryFolder.newFolder("files");
+		Mockito.when(config.getAgentFilesPath()).thenReturn(root.getPath());
+		Mockito.when(mimeHelper.getContentType(Matchers.any(File.class))).thenReturn("text/plain");
+		Mockito.when(mimeHelper.isCompressible(Matchers.any(File.class))).thenReturn(true);
+		fileIndex = new FileIndex(config, mimeHelper);
+	}
+
+	@After
+	public void destroy() {
+		fileIndex.closeWatchService();
+	}
+
+	private void waitForSize(int size) throws Exception {
+		long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+		while (fileIndex.size() != size && System.currentTimeMillis() < deadline) {
+			fileIndex.pollChanges();
+			Thread.sleep(10);
+		}
+		assertEquals(size, fileIndex.size());
+	}
+
+	@Test
+	public void testGetServiceName() {
+		assertEquals(FileIndex.SERVICE_NAME, fileIndex.getServiceName());
+	}
+
+	@Test
+	public void testScanOnStart() throws Exception {
+		File file = new File(root, "a.txt");
+		FileUtils.writeStringToFile(file, "hello");
+		FileUtils.writeStringToFile(new File(root, "dir/b.txt"), "world!");
+
+		fileIndex.executeInternal();
+		assertEquals(2, fileIndex.size());
+
+		FileMetadata metadata = fileIndex.get(file);
+		assertEquals(5, metadata.getLength());
+		assertEquals(file.lastModified(), metadata.getLastModified());
+		assertEquals(HttpUtils.etag(file), metadata.getEtag());
+		assertEquals("text/plain", metadata.getContentType());
+		assertTrue(metadata.isCompressible());
+		// answered from memory
+		Mockito.verify(mimeHelper, Mockito.times(2)).getContentType(Matchers.any(File.class));
+	}
+
+	@Test
+	public void testNotRunning() throws Exception {
+		File file = new File(root, "a.txt");
+		FileUtils.writeStringToFile(file, "hello");
+		assertEquals(5, fileIndex.get(file).getLength());
+		assertNull(fileIndex.get(new File(root, "missing.txt")));
+		assertNull(fileIndex.get(root));
+		assertEquals(0, fileIndex.size());
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		File file = new File(root, "a.txt");
+		FileUtils.writeStringToFile(file, "hello");
+		fileIndex.executeInternal();
+
+		FileUtils.writeStringToFile(file, "hello world");
+		fileIndex.update(file);
+		assertEquals(11, fileIndex.get(file).getLength());
+
+		file.delete();
+		fileIndex.update(file);
+		assertEquals(0, fileIndex.size());
+	}
+
+	@Test
+	public void testWatchChanges() throws Exception {
+		fileIndex.executeInternal();
+		assertEquals(0, fileIndex.size());
+
+		File file = new File(root, "dir/a.txt");
+		FileUtils.writeStringToFile(file, "hello");
+		// the new directory is watched too
+		waitForSize(1);
+		FileUtils.writeStringToFile(new File(root, "dir/b.txt"), "world");
+		waitForSize(2);
+
+		FileUtils.deleteDirectory(file.getParentFile());
+		waitForSize(0);
+	}
+
+	@Test
+	public void testDigest() throws Exception {
+		assertNull(fileIndex.getDigest());
+		FileUtils.writeStringToFile(new File(root, "dir/a.txt"), "hello");
+		fileIndex.executeInternal();
+
+		String digest = fileIndex.getDigest();
+		assertTrue(FileDigest.parse(digest).mightContain("dir/a.txt"));
+		// not changed
+		assertTrue(digest == fileIndex.getDigest());
+
+		File file = new File(root, "b.txt");
+		FileUtils.writeStringToFile(file, "world");
+		fileIndex.update(file);
+		assertTrue(FileDigest.parse(fileIndex.getDigest()).mightContain("b.txt"));
+
+		// removed files are gone after the rebuild
+		file.delete();
+		fileIndex.update(file);
+		FileDigest fileDigest = FileDigest.parse(fileIndex.getDigest());
+		assertTrue(fileDigest.mightContain("dir/a.txt"));
+		assertFalse(fileDigest.mightContain("b.txt"));
+	}
+
+	@Test
+	public void testOutsideFilesAreNotIndexed() throws Exception {
+		fileIndex.executeInternal();
+		File file = temporaryFolder.newFile("other.txt");
+		assertNotNull(fileIndex.get(file));
+		fileIndex.update(file);
+		assertEquals(0, fileIndex.size());
+	}
+
+	@Test
+	public void testTemporaryFilesAreNotIndexed() throws Exception {
+		File file = new File(root, "a.txt");
+		FileUtils.writeStringToFile(file, "hello");
+		File partial = new File(root, "b.txt" + DownloadClient.DOWNLOADING_EXT);
+		FileUtils.writeStringToFile(partial, "world");
+		FileUtils.writeStringToFile(new File(root, "a.txt" + FilePrecompressor.TEMP_EXT), "compressing");
+		fileIndex.executeInternal();
+		assertEquals(1, fileIndex.size());
+		String digest = fileIndex.getDigest();
+
+		// a temporary file created, renamed and deleted while watched
+		File temp = File.createTempFile("c.txt.", DownloadClient.DOWNLOADING_EXT, root);
+		FileUtils.writeStringToFile(temp, "again");
+		fileIndex.update(temp);
+		FileUtils.forceDelete(partial);
+		FileUtils.forceDelete(temp);
+		for (int i = 0; i < 10; i++) {
+			fileIndex.pollChanges();
+			Thread.sleep(10);
+		}
+		assertEquals(1, fileIndex.size());
+		// the digest is not rebuilt
+		assertTrue(digest == fileIndex.getDigest());
+		assertFalse(FileDigest.parse(digest).mightContain("b.txt" + DownloadClient.DOWNLOADING_EXT));
+	}
+
+	@Test
+	public void testCompressedCopyIsDeletedWithOriginal() throws Exception {
+		File file = new File(root, "a.txt");
+		FileUtils.writeStringToFile(file, "hello");
+		File compressedFile = FilePrecompressor.getCompressedFile(file);
+		FileUtils.writeStringToFile(compressedFile, "compressed");
+		compressedFile.setLastModified(file.lastModified());
+		// a file.gz of its own
+		File other = new File(root, "b.txt");
+		FileUtils.writeStringToFile(other, "world");
+		File otherGz = FilePrecompressor.getCompressedFile(other);
+		FileUtils.writeStringToFile(otherGz, "archive");
+		otherGz.setLastModified(other.lastModified() - 60000);
+		fileIndex.executeInternal();
+
+		file.delete();
+		fileIndex.update(file);
+		assertFalse(compressedFile.exists());
+		other.delete();
+		fileIndex.update(other);
+		assertTrue(otherGz.exists());
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.euromoby.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.agent.Config;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FilePrecompressorTest {
+
+	@Mock
+	Config config;
+	@Mock
+	MimeHelper mimeHelper;
+
+	FilePrecompressor filePrecompressor;
+	File file;
+
+	@Before
+	public void init() throws Exception {
+		Mockito.when(config.isAgentFilesPrecompress()).thenReturn(true);
+		Mockito.when(mimeHelper.isCompressible(Matchers.any(File.class))).thenReturn(true);
+		filePrecompressor = new FilePrecompressor(config, mimeHelper);
+		file = File.createTempFile("prefix", ".txt");
+		byte[] content = new byte[8192];
+		Arrays.fill(content, (byte) 'a');
+		FileUtils.writeByteArrayToFile(file, content);
+	}
+
+	@After
+	public void destroy() throws Exception {
+		filePrecompressor.destroy();
+		FilePrecompressor.getCompressedFile(file).delete();
+		file.delete();
+	}
+
+	@Test
+	public void testCompress() throws Exception {
+		assertNull(FilePrecompressor.findCompressedFile(file));
+		filePrecompressor.compress(file);
+		File compressedFile = FilePrecompressor.findCompressedFile(file);
+		assertEquals(FilePrecompressor.getCompressedFile(file), compressedFile);
+		assertTrue(compressedFile.length() < file.length());
+
+		InputStream is = new GZIPInputStream(new FileInputStream(compressedFile));
+		try {
+			assertArrayEquals(FileUtils.readFileToByteArray(file), IOUtils.toByteArray(is));
+		} finally {
+			is.close();
+		}
+	}
+
+	@Test
+	public void testModifiedFileIsNotFresh() throws Exception {
+		filePrecompressor.compress(file);
+		file.setLastModified(file.lastModified() + 60000);
+		assertNull(FilePrecompressor.findCompressedFile(file));
+	}
+
+	@Test
+	public void testResizedFileIsNotFresh() throws Exception {
+		filePrecompressor.compress(file);
+		long lastModified = file.lastModified();
+		// rewritten within the same second
+		FileUtils.writeByteArrayToFile(file, new byte[(int) file.length() + 1]);
+		file.setLastModified(lastModified);
+		assertNull(FilePrecompressor.findCompressedFile(file));
+	}
+
+	@Test
+	public void testCompressedFileWithoutTrailer() throws Exception {
+		File compressedFile = FilePrecompressor.getCompressedFile(file);
+		FileUtils.writeByteArrayToFile(compressedFile, new byte[2]);
+		compressedFile.setLastModified(file.lastModified());
+		assertEquals(-1, FilePrecompressor.readOriginalLength(compressedFile));
+		assertNull(FilePrecompressor.findCompressedFile(file));
+	}
+
+	@Test
+	public void testIsCompressible() throws Exception {
+		assertTrue(filePrecompressor.isCompressible(file));
+		assertFalse(filePrecompressor.isCompressible(FilePrecompressor.getCompressedFile(file)));
+		FileUtils.writeByteArrayToFile(file, new byte[10]);
+		assertFalse(filePrecompressor.isCompressible(file));
+		Mockito.when(mimeHelper.isCompressible(file)).thenReturn(false);
+		FileUtils.writeByteArrayToFile(file, new byte[8192]);
+		assertFalse(filePrecompressor.isCompressible(file));
+	}
+
+	@Test
+	public void testScheduleDisabled() throws Exception {
+		Mockito.when(config.isAgentFilesPrecompress()).thenReturn(false);
+		filePrecompressor.schedule(file);
+		filePrecompressor.destroy();
+		assertFalse(FilePrecompressor.getCompressedFile(file).exists());
+	}
+
+}
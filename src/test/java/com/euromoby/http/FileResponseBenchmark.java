@@ -0,0 +1,162 @@
+package com.euromoby.http;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.euromoby.file.FileMetadata;
+import com.euromoby.file.MimeHelper;
+import com.euromoby.model.Tuple;
+
+/**
+ * Serves a binary file over plain HTTP/1.1 (keep-alive) through the CDN
+ * pipeline: "zerocopy" is the FileRegion path with Content-Length, "chunked"
+ * is the former path (ChunkedFile in chunked transfer encoding).
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.euromoby.http.FileResponseBenchmark</code>, the
+ * throughput in bytes is ops/s multiplied by the file size.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileResponseBenchmark {
+
+	@Param({ "zerocopy", "chunked" })
+	public String mode;
+
+	@Param({ "65536", "1048576", "16777216" })
+	public int fileSize;
+
+	private File file;
+	private EventLoopGroup bossGroup;
+	private EventLoopGroup workerGroup;
+	private Channel serverChannel;
+	private URL url;
+	private byte[] buffer = new byte[64 * 1024];
+
+	@Setup
+	public void setup() throws Exception {
+		file = File.createTempFile("benchmark", ".bin");
+		byte[] content = new byte[fileSize];
+		new Random(42).nextBytes(content);
+		FileUtils.writeByteArrayToFile(file, content);
+
+		final MimeHelper mimeHelper = new MimeHelper();
+		final boolean chunked = "chunked".equals(mode);
+
+		bossGroup = new NioEventLoopGroup(1);
+		workerGroup = new NioEventLoopGroup();
+		ServerBootstrap b = new ServerBootstrap();
+		b.group(bossGroup, workerGroup);
+		b.channel(NioServerSocketChannel.class);
+		b.childHandler(new ChannelInitializer<SocketChannel>() {
+			@Override
+			protected void initChannel(SocketChannel ch) throws Exception {
+				ChannelPipeline p = ch.pipeline();
+				p.addLast("decoder", new HttpRequestDecoder());
+				p.addLast("encoder", new AgentHttpResponseEncoder());
+				p.addLast("aggregator", new HttpObjectAggregator(65536));
+				p.addLast("compressor", new SmartHttpContentCompressor());
+				p.addLast("chunked", new ChunkedWriteHandler());
+				p.addLast("file", new SimpleChannelInboundHandler<FullHttpRequest>() {
+					@Override
+					protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+						createFileResponse(request, mimeHelper, chunked).send(ctx, file);
+					}
+				});
+			}
+		});
+		serverChannel = b.bind(0).sync().channel();
+		int port = ((InetSocketAddress) serverChannel.localAddress()).getPort();
+		url = new URL("http://127.0.0.1:" + port + "/" + file.getName());
+	}
+
+	private static FileResponse createFileResponse(HttpRequest request, MimeHelper mimeHelper, boolean chunked) {
+		if (!chunked) {
+			return new FileResponse(request, mimeHelper);
+		}
+		return new FileResponse(request, mimeHelper) {
+			@Override
+			protected boolean isCompressionApplied(FileMetadata metadata, boolean ssl, Tuple<Long, Long> range) {
+				// former behaviour: always chunked for HTTP/1.1
+				return supportChunks();
+			}
+		};
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		serverChannel.close().sync();
+		bossGroup.shutdownGracefully();
+		workerGroup.shutdownGracefully();
+		FileUtils.deleteQuietly(file);
+	}
+
+	@Benchmark
+	public long download() throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		long total = 0;
+		InputStream is = connection.getInputStream();
+		try {
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				total += read;
+			}
+		} finally {
+			// keeps the connection alive for the next request
+			is.close();
+		}
+		if (total != fileSize) {
+			throw new IllegalStateException("Received " + total + " of " + fileSize);
+		}
+		return total;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder().include(FileResponseBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+
+}
@@ -7,6 +7,8 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.atLeastOnce;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
@@ -22,6 +24,8 @@ import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.stream.ChunkedFile;
+import io.netty.handler.traffic.AbstractTrafficShapingHandler;
+import io.netty.util.CharsetUtil;
 
 import java.io.File;
 import java.io.RandomAccessFile;
@@ -41,6 +45,8 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.euromoby.file.FileMetadata;
+import com.euromoby.file.FilePrecompressor;
 import com.euromoby.file.MimeHelper;
 import com.euromoby.model.Tuple;
 import com.euromoby.rest.ChunkedInputAdapter;
@@ -75,8 +81,13 @@ public class FileResponseTest {
 	@Mock
 	RandomAccessFile raf;
 
+	private static FileMetadata metadata(long length, long lastModified, String etag, String contentType) {
+		return new FileMetadata(length, lastModified, etag, contentType, contentType.startsWith("text/"), contentType.equals("application/octet-stream"));
+	}
+
 	@Before
 	public void init() {
+		Mockito.when(ctx.alloc()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
 		Mockito.when(ctx.channel()).thenReturn(channel);
 		Mockito.when(channel.pipeline()).thenReturn(channelPipeline);
 		Mockito.when(httpRequest.headers()).thenReturn(requestHeaders);
@@ -116,13 +127,14 @@ public class FileResponseTest {
 		dateFormatter.setTimeZone(TimeZone.getTimeZone(HttpUtils.HTTP_DATE_GMT_TIMEZONE));
 
 		long lastModified = System.currentTimeMillis();
-		Mockito.when(file.lastModified()).thenReturn(lastModified);
-		fileResponse.setDateAndCacheHeaders(file);
+		String etag = HttpUtils.etag(1, 2, lastModified);
+		fileResponse.setDateAndCacheHeaders(metadata(2, lastModified, etag, "text/plain"));
 
 		assertNotNull(fileResponse.getHeader(HttpHeaders.Names.DATE));
 		assertNotNull(fileResponse.getHeader(HttpHeaders.Names.EXPIRES));
 		assertEquals(FileResponse.MAX_AGE_VALUE + HttpUtils.HTTP_CACHE_SECONDS, fileResponse.getHeader(HttpHeaders.Names.CACHE_CONTROL));
 		assertEquals(dateFormatter.format(new Date(lastModified)), fileResponse.getHeader(HttpHeaders.Names.LAST_MODIFIED));
+		assertEquals(etag, fileResponse.getHeader(HttpHeaders.Names.ETAG));
 	}
 
 	@Test
@@ -182,55 +194,78 @@ public class FileResponseTest {
 	}	
 
 	
+	@Test
+	public void testMultipleRangesHeader() {
+		Mockito.when(requestHeaders.get(Matchers.eq(HttpHeaders.Names.RANGE))).thenReturn("bytes=0-4, 10-, -30");
+		List<Tuple<Long, Long>> ranges = fileResponse.parseRanges(25);
+		assertEquals(3, ranges.size());
+		assertRange(0, 4, ranges.get(0));
+		assertRange(10, 24, ranges.get(1));
+		// suffix is clamped to the file
+		assertRange(0, 24, ranges.get(2));
+	}
+
+	private void assertRange(long first, long second, Tuple<Long, Long> range) {
+		assertEquals(first, range.getFirst().longValue());
+		assertEquals(second, range.getSecond().longValue());
+	}
+
+	@Test
+	public void testTooManyRangesAreIgnored() {
+		StringBuilder sb = new StringBuilder("bytes=0-0");
+		for (int i = 1; i <= FileResponse.MAX_RANGES; i++) {
+			sb.append(",").append(i).append("-").append(i);
+		}
+		Mockito.when(requestHeaders.get(Matchers.eq(HttpHeaders.Names.RANGE))).thenReturn(sb.toString());
+		assertNull(fileResponse.parseRanges(100));
+	}
+
 	@Test
 	public void testSetHeaderContentDisposition() {
 		String filename = "foo";
 		Mockito.when(file.getName()).thenReturn(filename);
-		Mockito.when(mimeHelper.isBinary(file)).thenReturn(true);
-		fileResponse.setHeaderContentDisposition(file);
+		fileResponse.setHeaderContentDisposition(file, metadata(0, 0, "", "application/octet-stream"));
 		assertEquals(FileResponse.CONTENT_DISPOSITION_ATTACHMENT + ";filename=\"" + filename + "\"", fileResponse.getHeader(FileResponse.CONTENT_DISPOSITION));
-		Mockito.when(mimeHelper.isBinary(file)).thenReturn(false);
-		fileResponse.setHeaderContentDisposition(file);
+		fileResponse.setHeaderContentDisposition(file, metadata(0, 0, "", "text/plain"));
 		assertEquals(FileResponse.CONTENT_DISPOSITION_INLINE + ";filename=\"" + filename + "\"", fileResponse.getHeader(FileResponse.CONTENT_DISPOSITION));
 	}
 
 	@Test
 	public void testSetHeaderContentType() {
 		String contentType = "text/foo";
-		Mockito.when(mimeHelper.getContentType(Matchers.eq(file))).thenReturn(contentType);
-		fileResponse.setHeaderContentType(file);
+		fileResponse.setHeaderContentType(metadata(0, 0, "", contentType));
 		assertEquals(contentType + "; charset=UTF-8", fileResponse.getHeader(HttpHeaders.Names.CONTENT_TYPE));
 	}
 	
 	@Test
 	public void testSetHeaderContentEncodingCompressible() {
-		Mockito.when(mimeHelper.isCompressible(file)).thenReturn(true);
+		FileMetadata metadata = metadata(0, 0, "", "text/plain");
 		boolean ssl = false;
-		fileResponse.setHeaderContentEncoding(file, ssl);
+		fileResponse.setHeaderContentEncoding(metadata, ssl);
 		assertNull(fileResponse.getHeader(HttpHeaders.Names.CONTENT_ENCODING));
 	}
 
 	@Test
 	public void testSetHeaderContentEncodingNonCompressibleNoSsl() {
-		Mockito.when(mimeHelper.isCompressible(file)).thenReturn(false);
+		FileMetadata metadata = metadata(0, 0, "", "image/jpeg");
 		boolean ssl = false;
-		fileResponse.setHeaderContentEncoding(file, ssl);
+		fileResponse.setHeaderContentEncoding(metadata, ssl);
 		assertEquals(HttpHeaders.Values.IDENTITY, fileResponse.getHeader(HttpHeaders.Names.CONTENT_ENCODING));
 	}	
 
 	@Test
 	public void testSetHeaderContentEncodingNonCompressibleSsl() {
-		Mockito.when(mimeHelper.isCompressible(file)).thenReturn(false);
+		FileMetadata metadata = metadata(0, 0, "", "image/jpeg");
 		boolean ssl = true;
-		fileResponse.setHeaderContentEncoding(file, ssl);
+		fileResponse.setHeaderContentEncoding(metadata, ssl);
 		assertEquals(HttpHeaders.Values.IDENTITY, fileResponse.getHeader(HttpHeaders.Names.CONTENT_ENCODING));
 	}	
 
 	@Test
 	public void testSetHeaderContentEncodingCompressibleSsl() {
-		Mockito.when(mimeHelper.isCompressible(file)).thenReturn(true);
+		FileMetadata metadata = metadata(0, 0, "", "text/plain");
 		boolean ssl = true;
-		fileResponse.setHeaderContentEncoding(file, ssl);
+		fileResponse.setHeaderContentEncoding(metadata, ssl);
 		assertEquals(HttpHeaders.Values.IDENTITY, fileResponse.getHeader(HttpHeaders.Names.CONTENT_ENCODING));
 	}	
 
@@ -324,11 +359,26 @@ public class FileResponseTest {
 		assertEquals(offset + length, chunkedFile.endOffset());
 	}
 
+	@Test
+	public void testSendFileBodyShaped() throws Exception {
+		long offset = 56;
+		long length = 123;
+		Mockito.when(httpRequest.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_0);
+		Mockito.when(channelPipeline.get(Matchers.eq(AbstractTrafficShapingHandler.class))).thenReturn(Mockito.mock(AbstractTrafficShapingHandler.class));
+		fileResponse.sendFileBody(ctx, raf, offset, length);
+		ArgumentCaptor<ChunkedFile> responseCaptor = ArgumentCaptor.forClass(ChunkedFile.class);
+		Mockito.verify(ctx).write(responseCaptor.capture());
+		ChunkedFile chunkedFile = responseCaptor.getValue();
+		assertEquals(offset, chunkedFile.startOffset());
+		assertEquals(offset + length, chunkedFile.endOffset());
+	}
+
 	@Test
 	public void testSendFileBodyChunked() throws Exception {
 		long offset = 56;
 		long length = 123;
 		Mockito.when(httpRequest.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);		
+		fileResponse.setHeaderTransferEncoding();
 		fileResponse.sendFileBody(ctx, raf, offset, length);
 		Mockito.verify(ctx).write(Matchers.any(ChunkedInputAdapter.class));
 	}	
@@ -381,7 +431,7 @@ public class FileResponseTest {
 	}
 	
 	@Test
-	public void testSendSslChunkedNoRangeKeepAlive() throws Exception {
+	public void testSendSslNoRangeKeepAlive() throws Exception {
 		File tempFile = File.createTempFile("prefix", "suffix");
 		tempFile.deleteOnExit();
 
@@ -400,7 +450,8 @@ public class FileResponseTest {
 		DefaultHttpResponse response = arguments.get(0);
 
 		assertEquals(HttpResponseStatus.OK, response.getStatus());		
-		assertEquals(HttpHeaders.Values.CHUNKED, response.headers().get(HttpHeaders.Names.TRANSFER_ENCODING));
+		// not compressed, so not chunked
+		assertNull(response.headers().get(HttpHeaders.Names.TRANSFER_ENCODING));
 		assertEquals(HttpHeaders.Values.IDENTITY, response.headers().get(HttpHeaders.Names.CONTENT_ENCODING));
 		assertEquals(HttpHeaders.Values.KEEP_ALIVE, response.headers().get(HttpHeaders.Names.CONNECTION));		
 		assertEquals(String.valueOf(tempFile.length()), response.headers().get(HttpHeaders.Names.CONTENT_LENGTH));
@@ -413,6 +464,126 @@ public class FileResponseTest {
 		assertNotNull(response.headers().get(HttpHeaders.Names.LAST_MODIFIED));		
 	}
 
+	@Test
+	public void testSendZeroCopyHttp11() throws Exception {
+		File tempFile = File.createTempFile("prefix", ".jpg");
+		FileUtils.writeByteArrayToFile(tempFile, new byte[4096]);
+		tempFile.deleteOnExit();
+
+		Mockito.when(httpRequest.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);
+		Mockito.when(requestHeaders.get(Matchers.eq(HttpHeaders.Names.ACCEPT_ENCODING))).thenReturn("gzip, deflate");
+		Mockito.when(mimeHelper.getContentType(tempFile)).thenReturn("image/jpeg");
+		Mockito.when(mimeHelper.isCompressible(tempFile)).thenReturn(false);
+		Mockito.when(ctx.writeAndFlush(Matchers.eq(DefaultLastHttpContent.EMPTY_LAST_CONTENT))).thenReturn(lastContentFuture);
+		fileResponse.send(ctx, tempFile);
+
+		ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+		Mockito.verify(ctx, Mockito.times(2)).write(captor.capture());
+		HttpResponse response = (HttpResponse) captor.getAllValues().get(0);
+		assertNull(response.headers().get(HttpHeaders.Names.TRANSFER_ENCODING));
+		assertEquals(HttpHeaders.Values.IDENTITY, response.headers().get(HttpHeaders.Names.CONTENT_ENCODING));
+		assertEquals("4096", response.headers().get(HttpHeaders.Names.CONTENT_LENGTH));
+		DefaultFileRegion fileRegion = (DefaultFileRegion) captor.getAllValues().get(1);
+		assertEquals(4096, fileRegion.count());
+		fileRegion.release();
+	}
+
+	@Test
+	public void testSendCompressedHttp11() throws Exception {
+		File tempFile = File.createTempFile("prefix", ".txt");
+		FileUtils.writeByteArrayToFile(tempFile, new byte[4096]);
+		tempFile.deleteOnExit();
+
+		Mockito.when(httpRequest.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);
+		Mockito.when(requestHeaders.get(Matchers.eq(HttpHeaders.Names.ACCEPT_ENCODING))).thenReturn("gzip, deflate");
+		Mockito.when(mimeHelper.getContentType(tempFile)).thenReturn("text/plain");
+		Mockito.when(mimeHelper.isCompressible(tempFile)).thenReturn(true);
+		Mockito.when(ctx.writeAndFlush(Matchers.eq(DefaultLastHttpContent.EMPTY_LAST_CONTENT))).thenReturn(lastContentFuture);
+		fileResponse.send(ctx, tempFile);
+
+		ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+		Mockito.verify(ctx, Mockito.times(2)).write(captor.capture());
+		HttpResponse response = (HttpResponse) captor.getAllValues().get(0);
+		assertEquals(HttpHeaders.Values.CHUNKED, response.headers().get(HttpHeaders.Names.TRANSFER_ENCODING));
+		assertNull(response.headers().get(HttpHeaders.Names.CONTENT_ENCODING));
+		assertTrue(captor.getAllValues().get(1) instanceof ChunkedInputAdapter);
+	}
+
+	@Test
+	public void testSendPrecompressedVariant() throws Exception {
+		File tempFile = File.createTempFile("prefix", ".txt");
+		FileUtils.writeByteArrayToFile(tempFile, new byte[4096]);
+		tempFile.deleteOnExit();
+		File compressedFile = FilePrecompressor.getCompressedFile(tempFile);
+		byte[] compressed = new byte[100];
+		// gzip trailer with the original length (4096, little endian)
+		compressed[97] = 0x10;
+		FileUtils.writeByteArrayToFile(compressedFile, compressed);
+		compressedFile.setLastModified(tempFile.lastModified());
+		compressedFile.deleteOnExit();
+
+		Mockito.when(httpRequest.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);
+		Mockito.when(requestHeaders.get(Matchers.eq(HttpHeaders.Names.ACCEPT_ENCODING))).thenReturn("gzip, deflate");
+		Mockito.when(mimeHelper.getContentType(tempFile)).thenReturn("text/plain");
+		Mockito.when(mimeHelper.isCompressible(tempFile)).thenReturn(true);
+		Mockito.when(ctx.writeAndFlush(Matchers.eq(DefaultLastHttpContent.EMPTY_LAST_CONTENT))).thenReturn(lastContentFuture);
+		fileResponse.send(ctx, tempFile);
+
+		ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+		Mockito.verify(ctx, Mockito.times(2)).write(captor.capture());
+		HttpResponse response = (HttpResponse) captor.getAllValues().get(0);
+		assertEquals(HttpHeaders.Values.GZIP, response.headers().get(HttpHeaders.Names.CONTENT_ENCODING));
+		assertEquals("100", response.headers().get(HttpHeaders.Names.CONTENT_LENGTH));
+		assertEquals(HttpHeaders.Names.ACCEPT_ENCODING, response.headers().get(HttpHeaders.Names.VARY));
+		assertNull(response.headers().get(HttpHeaders.Names.TRANSFER_ENCODING));
+		DefaultFileRegion region = (DefaultFileRegion) captor.getAllValues().get(1);
+		assertEquals(100, region.count());
+		compressedFile.delete();
+	}
+
+	@Test
+	public void testStalePrecompressedVariantIsIgnored() throws Exception {
+		File tempFile = File.createTempFile("prefix", ".txt");
+		tempFile.deleteOnExit();
+		File compressedFile = FilePrecompressor.getCompressedFile(tempFile);
+		FileUtils.writeByteArrayToFile(compressedFile, new byte[100]);
+		compressedFile.setLastModified(tempFile.lastModified() - 60000);
+		compressedFile.deleteOnExit();
+
+		Mockito.when(requestHeaders.get(Matchers.eq(HttpHeaders.Names.ACCEPT_ENCODING))).thenReturn("gzip");
+		FileMetadata metadata = metadata(0, tempFile.lastModified(), "", "text/plain");
+		assertNull(fileResponse.findCompressedVariant(tempFile, metadata, null));
+		compressedFile.setLastModified(tempFile.lastModified());
+		assertEquals(compressedFile, fileResponse.findCompressedVariant(tempFile, metadata, null));
+		// ranges refer to the original content
+		assertNull(fileResponse.findCompressedVariant(tempFile, metadata, Tuple.of(0L, 10L)));
+		compressedFile.delete();
+	}
+
+	@Test
+	public void testAcceptsGzip() {
+		assertFalse(fileResponse.acceptsGzip());
+		Mockito.when(requestHeaders.get(Matchers.eq(HttpHeaders.Names.ACCEPT_ENCODING))).thenReturn("deflate, GZIP;q=0.5");
+		assertTrue(fileResponse.acceptsGzip());
+		Mockito.when(requestHeaders.get(Matchers.eq(HttpHeaders.Names.ACCEPT_ENCODING))).thenReturn("gzip;q=0, deflate");
+		assertFalse(fileResponse.acceptsGzip());
+		Mockito.when(requestHeaders.get(Matchers.eq(HttpHeaders.Names.ACCEPT_ENCODING))).thenReturn("*");
+		assertTrue(fileResponse.acceptsGzip());
+	}
+
+	@Test
+	public void testCompressionNotAccepted() throws Exception {
+		Mockito.when(httpRequest.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);
+		FileMetadata metadata = metadata(4096, 0, "", "text/plain");
+		assertFalse(fileResponse.isCompressionApplied(metadata, false, null));
+		Mockito.when(requestHeaders.get(Matchers.eq(HttpHeaders.Names.ACCEPT_ENCODING))).thenReturn("GZIP");
+		assertTrue(fileResponse.isCompressionApplied(metadata, false, null));
+		// small, SSL or range
+		assertFalse(fileResponse.isCompressionApplied(metadata(100, 0, "", "text/plain"), false, null));
+		assertFalse(fileResponse.isCompressionApplied(metadata, true, null));
+		assertFalse(fileResponse.isCompressionApplied(metadata, false, Tuple.of(0L, 10L)));
+	}
+
 	@Test
 	public void testSendHttp10WithRange() throws Exception {
 		File tempFile = File.createTempFile("prefix", "suffix");
@@ -469,4 +640,65 @@ public class FileResponseTest {
 		}
 	}
 	
+	@Test
+	public void testSendMultipleRanges() throws Exception {
+		File tempFile = File.createTempFile("prefix", "suffix");
+		FileUtils.write(tempFile, "FooBarString");
+		tempFile.deleteOnExit();
+
+		Mockito.when(httpRequest.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);
+		Mockito.when(mimeHelper.getContentType(tempFile)).thenReturn("text/plain");
+		Mockito.when(requestHeaders.get(Matchers.eq(HttpHeaders.Names.RANGE))).thenReturn("bytes=0-2,6-");
+		Mockito.when(ctx.writeAndFlush(Matchers.eq(DefaultLastHttpContent.EMPTY_LAST_CONTENT))).thenReturn(lastContentFuture);
+		fileResponse.send(ctx, tempFile);
+
+		ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+		Mockito.verify(ctx, Mockito.times(6)).write(captor.capture());
+		List<Object> writes = captor.getAllValues();
+		HttpResponse response = (HttpResponse) writes.get(0);
+		assertEquals(HttpResponseStatus.PARTIAL_CONTENT, response.getStatus());
+		String contentType = response.headers().get(HttpHeaders.Names.CONTENT_TYPE);
+		assertTrue(contentType.startsWith(FileResponse.MULTIPART_BYTERANGES + "; boundary="));
+		String boundary = contentType.substring(contentType.indexOf('=') + 1);
+
+		StringBuilder body = new StringBuilder();
+		for (Object write : writes.subList(1, writes.size())) {
+			if (write instanceof ByteBuf) {
+				body.append(((ByteBuf) write).toString(CharsetUtil.US_ASCII));
+				((ByteBuf) write).release();
+			} else {
+				DefaultFileRegion region = (DefaultFileRegion) write;
+				body.append(FileUtils.readFileToString(tempFile).substring((int) region.position(), (int) (region.position() + region.count())));
+				region.release();
+			}
+		}
+		String expected = "\r\n--" + boundary + "\r\nContent-Type: text/plain; charset=UTF-8\r\nContent-Range: bytes 0-2/12\r\n\r\nFoo"
+				+ "\r\n--" + boundary + "\r\nContent-Type: text/plain; charset=UTF-8\r\nContent-Range: bytes 6-11/12\r\n\r\nString"
+				+ "\r\n--" + boundary + "--\r\n";
+		assertEquals(expected, body.toString());
+		assertEquals(String.valueOf(expected.length()), response.headers().get(HttpHeaders.Names.CONTENT_LENGTH));
+	}
+
+	@Test
+	public void testIfRangeMismatchSendsWholeFile() throws Exception {
+		File tempFile = File.createTempFile("prefix", "suffix");
+		FileUtils.write(tempFile, "FooBarString");
+		tempFile.deleteOnExit();
+
+		Mockito.when(httpRequest.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);
+		Mockito.when(mimeHelper.getContentType(tempFile)).thenReturn("text/plain");
+		Mockito.when(requestHeaders.get(Matchers.eq(HttpHeaders.Names.RANGE))).thenReturn("bytes=0-2");
+		Mockito.when(requestHeaders.get(Matchers.eq(HttpHeaders.Names.IF_RANGE))).thenReturn("\"stale\"");
+		Mockito.when(ctx.writeAndFlush(Matchers.eq(DefaultLastHttpContent.EMPTY_LAST_CONTENT))).thenReturn(lastContentFuture);
+		fileResponse.send(ctx, tempFile);
+
+		ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+		Mockito.verify(ctx, Mockito.times(2)).write(captor.capture());
+		HttpResponse response = (HttpResponse) captor.getAllValues().get(0);
+		assertEquals(HttpResponseStatus.OK, response.getStatus());
+		assertEquals("12", response.headers().get(HttpHeaders.Names.CONTENT_LENGTH));
+		assertEquals(HttpUtils.etag(tempFile), response.headers().get(HttpHeaders.Names.ETAG));
+		((DefaultFileRegion) captor.getAllValues().get(1)).release();
+	}
+
 }
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.security.Principal;
 import java.util.Arrays;
@@ -11,16 +12,27 @@ import java.util.Arrays;
 import javax.net.ssl.SSLContext;
 
 import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
 import org.apache.http.auth.AuthSchemeProvider;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.Credentials;
 import org.apache.http.client.AuthCache;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.config.Registry;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -30,6 +42,8 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import com.euromoby.agent.AgentManager;
 import com.euromoby.agent.Config;
+import com.euromoby.download.client.RangeOrigin;
+import com.euromoby.download.client.RangeOrigin.Ranges;
 import com.euromoby.model.AgentId;
 import com.euromoby.rest.RestServer;
 
@@ -51,6 +65,11 @@ public class HttpClientProviderTest {
 		httpClientProvider = new HttpClientProvider(config, agentManager, sslContextProvider);
 	}
 
+	@After
+	public void destroy() throws Exception {
+		httpClientProvider.destroy();
+	}
+
 	@Test
 	public void testCreateHttpClient() throws Exception {
 		SSLContext sslContext = SSLContext.getDefault();
@@ -62,6 +81,99 @@ public class HttpClientProviderTest {
 	}
 
 
+	@Test
+	public void testCreateConnectionManager() throws Exception {
+		Mockito.when(config.getHttpClientMaxTotal()).thenReturn(10);
+		Mockito.when(config.getHttpClientMaxRoute()).thenReturn(3);
+		Mockito.when(config.getHttpClientValidateAfter()).thenReturn(500);
+		HttpClientPool pool = httpClientProvider.createConnectionManager();
+		try {
+			assertEquals(10, pool.getMaxTotal());
+			assertEquals(3, pool.getDefaultMaxPerRoute());
+			assertEquals(500, pool.getValidateAfterInactivity());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testKeepAliveStrategy() {
+		Mockito.when(config.getHttpClientKeepAlive()).thenReturn(10000L);
+		ConnectionKeepAliveStrategy strategy = httpClientProvider.createKeepAliveStrategy();
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		// the server does not say
+		assertEquals(10000, strategy.getKeepAliveDuration(response, null));
+		response.setHeader(HTTP.CONN_KEEP_ALIVE, "timeout=5");
+		assertEquals(5000, strategy.getKeepAliveDuration(response, null));
+		response.setHeader(HTTP.CONN_KEEP_ALIVE, "timeout=60");
+		assertEquals(10000, strategy.getKeepAliveDuration(response, null));
+	}
+
+	@Test
+	public void testPoolMetrics() throws Exception {
+		Mockito.when(config.getRestLogin()).thenReturn("login");
+		Mockito.when(config.getRestPassword()).thenReturn("password");
+		RangeOrigin origin = new RangeOrigin(new byte[1024], Ranges.SUPPORTED, 0);
+		origin.start();
+		try {
+			for (int i = 0; i < 2; i++) {
+				CloseableHttpResponse response = httpClientProvider.executeRequest(new HttpGet(origin.getUrl()));
+				try {
+					EntityUtils.consume(response.getEntity());
+				} finally {
+					response.close();
+				}
+			}
+		} finally {
+			origin.stop();
+		}
+		HttpPoolMetrics metrics = httpClientProvider.getPoolMetrics();
+		assertEquals(2, metrics.getLeases());
+		assertEquals(1, metrics.getConnectionsOpened());
+		// the second request reused the kept alive connection
+		assertEquals(1, metrics.getHits());
+		assertEquals(0, metrics.getLeased());
+		assertEquals(1, metrics.getRoutes().size());
+	}
+
+	@Test
+	public void testLeaseTimeout() throws Exception {
+		Mockito.when(config.getRestLogin()).thenReturn("login");
+		Mockito.when(config.getRestPassword()).thenReturn("password");
+		Mockito.when(config.getHttpClientLeaseTimeout()).thenReturn(100);
+		Mockito.when(config.getHttpClientMaxRoute()).thenReturn(1);
+		httpClientProvider.destroy();
+		httpClientProvider = new HttpClientProvider(config, agentManager, sslContextProvider);
+		RangeOrigin origin = new RangeOrigin(new byte[1024], Ranges.SUPPORTED, 0);
+		origin.start();
+		try {
+			// keeps the only connection of the route leased
+			CloseableHttpResponse response = httpClientProvider.executeRequest(new HttpGet(origin.getUrl()));
+			try {
+				httpClientProvider.executeRequest(new HttpGet(origin.getUrl()));
+				fail();
+			} catch (ConnectionPoolTimeoutException e) {
+				// expected
+			} finally {
+				response.close();
+			}
+		} finally {
+			origin.stop();
+		}
+		HttpPoolMetrics metrics = httpClientProvider.getPoolMetrics();
+		assertEquals(1, metrics.getTimeouts());
+		assertEquals(1, metrics.getLeases());
+		// the pool deadline has a millisecond precision
+		assertTrue(metrics.getWaitTimeMax() >= 90);
+	}
+
+	@Test
+	public void testRequestConfigLeaseTimeout() {
+		Mockito.when(config.getHttpClientLeaseTimeout()).thenReturn(100);
+		RequestConfig requestConfig = httpClientProvider.createRequestConfigBuilder(null, true).build();
+		assertEquals(100, requestConfig.getConnectionRequestTimeout());
+	}
+
 	@Test
 	public void testCreateHttpClientContext() {
 		
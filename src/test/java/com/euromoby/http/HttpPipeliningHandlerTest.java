@@ -0,0 +1,112 @@
+package com.euromoby.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpPipeliningHandlerTest {
+
+	private HttpPipeliningHandler pipeliningHandler;
+	private List<HttpRequest> received;
+	private EmbeddedChannel channel;
+
+	@Before
+	public void init() {
+		pipeliningHandler = new HttpPipeliningHandler();
+		received = new ArrayList<HttpRequest>();
+		channel = new EmbeddedChannel(pipeliningHandler, new ChannelInboundHandlerAdapter() {
+			@Override
+			public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+				received.add((HttpRequest) msg);
+			}
+		});
+	}
+
+	private FullHttpRequest request(String uri) {
+		return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+	}
+
+	@Test
+	public void testRequestsPassedAfterResponse() {
+		FullHttpRequest request2 = request("/2");
+		channel.writeInbound(request("/1"), request2);
+		assertEquals(1, received.size());
+		assertEquals(1, pipeliningHandler.getPendingRequestCount());
+		assertFalse(channel.config().isAutoRead());
+
+		// headers only, the response is not complete
+		channel.writeOutbound(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+		channel.runPendingTasks();
+		assertEquals(1, received.size());
+
+		channel.writeOutbound(LastHttpContent.EMPTY_LAST_CONTENT);
+		channel.runPendingTasks();
+		assertEquals(2, received.size());
+		assertEquals("/2", received.get(1).getUri());
+		assertEquals(0, pipeliningHandler.getPendingRequestCount());
+
+		channel.writeOutbound(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND));
+		channel.runPendingTasks();
+		assertTrue(channel.config().isAutoRead());
+		assertTrue(channel.isOpen());
+		channel.finish();
+	}
+
+	@Test
+	public void testContinueDoesNotCompleteResponse() {
+		channel.writeInbound(request("/1"), request("/2"));
+		channel.writeOutbound(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE));
+		channel.runPendingTasks();
+		assertEquals(1, received.size());
+		channel.finish();
+	}
+
+	@Test
+	public void testRequestsAfterCloseAreDropped() {
+		FullHttpRequest request1 = request("/1");
+		request1.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+		FullHttpRequest request2 = request("/2");
+		channel.writeInbound(request1, request2);
+
+		channel.writeOutbound(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+		channel.runPendingTasks();
+		assertEquals(1, received.size());
+		assertEquals(0, request2.refCnt());
+
+		FullHttpRequest request3 = request("/3");
+		channel.writeInbound(request3);
+		assertEquals(1, received.size());
+		assertEquals(0, request3.refCnt());
+		channel.finish();
+	}
+
+	@Test
+	public void testPendingRequestsReleasedOnClose() {
+		FullHttpRequest request2 = request("/2");
+		channel.writeInbound(request("/1"), request2);
+		channel.close();
+		channel.runPendingTasks();
+		assertEquals(0, request2.refCnt());
+		assertEquals(0, pipeliningHandler.getPendingRequestCount());
+	}
+
+}
@@ -1,7 +1,15 @@
 package com.euromoby.http;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.util.Date;
 
 import org.junit.Test;
 
@@ -26,4 +34,49 @@ public class HttpUtilsTest {
 		assertFalse(HttpUtils.bypassProxy(BYPASS_LIST, HOST));
 	}
 
+	@Test
+	public void shouldFormatEtag() {
+		String etag = HttpUtils.etag(0x1fL, 0x100L, 0xabcL);
+		assertEquals("\"1f-100-abc\"", etag);
+		assertEquals("\"1f-100-abc-gzip\"", HttpUtils.gzipEtag(etag));
+	}
+
+	@Test
+	public void shouldCheckIfNoneMatch() {
+		String etag = HttpUtils.etag(1, 2, 3000);
+		HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+		assertTrue(HttpUtils.isModified(request, etag, 3000));
+
+		request.headers().set(HttpHeaders.Names.IF_NONE_MATCH, "\"other\", W/" + etag);
+		assertFalse(HttpUtils.isModified(request, etag, 3000));
+		request.headers().set(HttpHeaders.Names.IF_NONE_MATCH, HttpUtils.gzipEtag(etag));
+		assertFalse(HttpUtils.isModified(request, etag, 3000));
+		request.headers().set(HttpHeaders.Names.IF_NONE_MATCH, "*");
+		assertFalse(HttpUtils.isModified(request, etag, 3000));
+
+		// If-None-Match takes precedence
+		request.headers().set(HttpHeaders.Names.IF_NONE_MATCH, "\"other\"");
+		request.headers().set(HttpHeaders.Names.IF_MODIFIED_SINCE, HttpUtils.formatDate(new Date(3000)));
+		assertTrue(HttpUtils.isModified(request, etag, 3000));
+		request.headers().remove(HttpHeaders.Names.IF_NONE_MATCH);
+		assertFalse(HttpUtils.isModified(request, etag, 3000));
+	}
+
+	@Test
+	public void shouldCheckIfRange() {
+		String etag = HttpUtils.etag(1, 2, 3000);
+		HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+		assertTrue(HttpUtils.ifRange(request, etag, 3000));
+
+		request.headers().set(HttpHeaders.Names.IF_RANGE, etag);
+		assertTrue(HttpUtils.ifRange(request, etag, 3000));
+		// weak tags never match
+		request.headers().set(HttpHeaders.Names.IF_RANGE, "W/" + etag);
+		assertFalse(HttpUtils.ifRange(request, etag, 3000));
+
+		request.headers().set(HttpHeaders.Names.IF_RANGE, HttpUtils.formatDate(new Date(3000)));
+		assertTrue(HttpUtils.ifRange(request, etag, 3000));
+		assertFalse(HttpUtils.ifRange(request, etag, 5000));
+	}
+
 }
@@ -0,0 +1,108 @@
+package com.euromoby.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.cdn.CdnFileCache;
+import com.euromoby.file.FileIndex;
+import com.euromoby.file.FilePrecompressor;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ProxyCacheWriterTest {
+
+	private static final byte[] CONTENT = "FooBarString".getBytes();
+
+	@Mock
+	FilePrecompressor filePrecompressor;
+	@Mock
+	FileIndex fileIndex;
+	@Mock
+	CdnFileCache cdnFileCache;
+
+	File dir;
+	File targetFile;
+
+	@Before
+	public void init() throws Exception {
+		dir = File.createTempFile("proxy", "cache");
+		dir.delete();
+		targetFile = new File(new File(dir, "sub"), "file.html");
+	}
+
+	@After
+	public void destroy() throws Exception {
+		FileUtils.deleteQuietly(dir);
+	}
+
+	private Map<String, List<String>> headers(String name, String value) {
+		Map<String, List<String>> headers = new HashMap<String, List<String>>();
+		headers.put(name, Arrays.asList(value));
+		return headers;
+	}
+
+	@Test
+	public void testCommit() throws Exception {
+		ProxyCacheWriter cacheWriter = new ProxyCacheWriter(targetFile, filePrecompressor, fileIndex, cdnFileCache);
+		assertTrue(cacheWriter.acceptHeaders(headers("content-length", String.valueOf(CONTENT.length))));
+		cacheWriter.write(ByteBuffer.wrap(CONTENT, 0, 3));
+		cacheWriter.write(ByteBuffer.wrap(CONTENT, 3, CONTENT.length - 3));
+		// not visible until complete
+		assertFalse(targetFile.exists());
+
+		assertTrue(cacheWriter.commit());
+		assertArrayEquals(CONTENT, FileUtils.readFileToByteArray(targetFile));
+		assertEquals(1, targetFile.getParentFile().list().length);
+		Mockito.verify(fileIndex).update(targetFile);
+		// the old content is not served from memory
+		Mockito.verify(cdnFileCache).invalidate(targetFile);
+		Mockito.verify(filePrecompressor).schedule(targetFile);
+	}
+
+	@Test
+	public void testIncompleteIsDropped() throws Exception {
+		ProxyCacheWriter cacheWriter = new ProxyCacheWriter(targetFile, filePrecompressor, fileIndex, cdnFileCache);
+		cacheWriter.setExpectedLength(CONTENT.length + 1);
+		cacheWriter.write(ByteBuffer.wrap(CONTENT));
+		assertFalse(cacheWriter.commit());
+		assertFalse(targetFile.exists());
+		assertEquals(0, targetFile.getParentFile().list().length);
+		Mockito.verifyZeroInteractions(filePrecompressor, fileIndex, cdnFileCache);
+	}
+
+	@Test
+	public void testAbort() throws Exception {
+		ProxyCacheWriter cacheWriter = new ProxyCacheWriter(targetFile, filePrecompressor, fileIndex, cdnFileCache);
+		cacheWriter.write(ByteBuffer.wrap(CONTENT));
+		cacheWriter.abort();
+		assertFalse(cacheWriter.isOpen());
+		assertFalse(cacheWriter.commit());
+		assertEquals(0, targetFile.getParentFile().list().length);
+	}
+
+	@Test
+	public void testEncodedContentIsNotStored() throws Exception {
+		ProxyCacheWriter cacheWriter = new ProxyCacheWriter(targetFile, filePrecompressor, fileIndex, cdnFileCache);
+		assertFalse(cacheWriter.acceptHeaders(headers("Content-Encoding", "gzip")));
+		assertFalse(cacheWriter.isOpen());
+		assertEquals(0, targetFile.getParentFile().list().length);
+	}
+
+}
@@ -0,0 +1,171 @@
+package com.euromoby.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.agent.Config;
+import com.euromoby.cdn.CdnFileCache;
+import com.euromoby.file.FileIndex;
+import com.euromoby.file.FilePrecompressor;
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient.BoundRequestBuilder;
+import com.ning.http.client.ListenableFuture;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ProxyFlightManagerTest {
+
+	private static final String SOURCE_URL = "http://example.com/file.html";
+
+	@Mock
+	Config config;
+	@Mock
+	AsyncHttpClientProvider asyncHttpClientProvider;
+	@Mock
+	FilePrecompressor filePrecompressor;
+	@Mock
+	FileIndex fileIndex;
+	@Mock
+	CdnFileCache cdnFileCache;
+	@Mock
+	BoundRequestBuilder boundRequestBuilder;
+	@Mock
+	ChannelHandlerContext ctx;
+	@Mock
+	Channel channel;
+	@Mock
+	ChannelFuture channelFuture;
+	@Mock
+	FullHttpRequest request;
+
+	HttpHeaders requestHeaders = new DefaultHttpHeaders();
+
+	ProxyFlightManager proxyFlightManager;
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void init() throws Exception {
+		Mockito.when(ctx.alloc()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
+		Mockito.when(config.getCdnProxyBuffer()).thenReturn(1024L);
+		Mockito.when(config.getCdnProxyBufferTotal()).thenReturn(4096L);
+		Mockito.when(asyncHttpClientProvider.prepareGet(Matchers.anyString(), Matchers.anyBoolean())).thenReturn(boundRequestBuilder);
+		Mockito.when(boundRequestBuilder.setHeaders(Matchers.any(Map.class))).thenReturn(boundRequestBuilder);
+		Mockito.when(ctx.channel()).thenReturn(channel);
+		Mockito.when(ctx.writeAndFlush(Matchers.any())).thenReturn(channelFuture);
+		Mockito.when(channel.closeFuture()).thenReturn(channelFuture);
+		Mockito.when(channel.writeAndFlush(Matchers.any())).thenReturn(channelFuture);
+		Mockito.when(request.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);
+		Mockito.when(request.headers()).thenReturn(requestHeaders);
+		proxyFlightManager = new ProxyFlightManager(config, asyncHttpClientProvider, filePrecompressor, fileIndex, cdnFileCache);
+	}
+
+	@Test
+	public void testBufferBudget() {
+		assertEquals(4096, proxyFlightManager.getBufferBudget().getLimit());
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void testConcurrentRequestsShareOriginRequest() throws Exception {
+		requestHeaders.set(HttpHeaders.Names.COOKIE, "secret");
+		assertTrue(proxyFlightManager.proxy(ctx, request, SOURCE_URL));
+		assertFalse(proxyFlightManager.proxy(ctx, request, SOURCE_URL));
+		assertEquals(1, proxyFlightManager.getFlightCount());
+		Mockito.verify(asyncHttpClientProvider, Mockito.times(1)).prepareGet(SOURCE_URL, false);
+
+		ArgumentCaptor<Map> headersCaptor = ArgumentCaptor.forClass(Map.class);
+		Mockito.verify(boundRequestBuilder).setHeaders(headersCaptor.capture());
+		assertFalse(((Map<String, Collection<String>>) headersCaptor.getValue()).containsKey(HttpHeaders.Names.COOKIE));
+
+		ArgumentCaptor<AsyncHandler> handlerCaptor = ArgumentCaptor.forClass(AsyncHandler.class);
+		Mockito.verify(boundRequestBuilder).execute(handlerCaptor.capture());
+		handlerCaptor.getValue().onCompleted();
+		assertEquals(0, proxyFlightManager.getFlightCount());
+
+		// next request goes to the origin again
+		assertTrue(proxyFlightManager.proxy(ctx, request, SOURCE_URL));
+		Mockito.verify(asyncHttpClientProvider, Mockito.times(2)).prepareGet(SOURCE_URL, false);
+	}
+
+	@Test
+	public void testProxyFromAgent() throws Exception {
+		String agentUrl = "http://agent1:21080/file.html";
+		assertTrue(proxyFlightManager.proxyFromAgent(ctx, request, agentUrl, null));
+		// direct connection, marked as an agent request
+		Mockito.verify(asyncHttpClientProvider).prepareGet(agentUrl, true);
+		Mockito.verify(boundRequestBuilder).setHeader(ProxyResponse.AGENT_REQUEST_HEADER, "true");
+	}
+
+	@Test
+	public void testNotShareableRequestDoesNotWait() throws Exception {
+		ListenableFuture<?> responseFuture = Mockito.mock(ListenableFuture.class);
+		Mockito.doReturn(responseFuture).when(boundRequestBuilder).execute(Matchers.any(AsyncHandler.class));
+		requestHeaders.set(HttpHeaders.Names.RANGE, "bytes=0-10");
+		assertTrue(proxyFlightManager.proxyFromAgent(ctx, request, SOURCE_URL, null));
+		assertEquals(0, proxyFlightManager.getFlightCount());
+		Mockito.verify(boundRequestBuilder).execute(Matchers.isA(ProxyResponse.ProxyAsyncHandler.class));
+		// the event loop is not blocked until the response is complete
+		Mockito.verify(responseFuture, Mockito.never()).get();
+	}
+
+	@Test
+	public void testFailedRequestIsRemoved() throws Exception {
+		Mockito.when(asyncHttpClientProvider.prepareGet(Matchers.anyString(), Matchers.anyBoolean())).thenThrow(new RuntimeException());
+		assertTrue(proxyFlightManager.proxy(ctx, request, SOURCE_URL));
+		assertEquals(0, proxyFlightManager.getFlightCount());
+		Mockito.verify(channel).writeAndFlush(Matchers.any());
+	}
+
+	@Test
+	public void testCacheFillableRequest() throws Exception {
+		assertTrue(proxyFlightManager.isCacheFillable(request));
+		// conditional request is proxied alone but the response is complete
+		requestHeaders.set(HttpHeaders.Names.IF_MODIFIED_SINCE, "Sat, 01 Jan 2000 00:00:00 GMT");
+		assertTrue(proxyFlightManager.isCacheFillable(request));
+		requestHeaders.set(HttpHeaders.Names.RANGE, "bytes=0-10");
+		assertFalse(proxyFlightManager.isCacheFillable(request));
+	}
+
+	@Test
+	public void testCreateCacheWriter() throws Exception {
+		assertNull(proxyFlightManager.createCacheWriter(null));
+		File targetFile = File.createTempFile("prefix", ".html");
+		targetFile.delete();
+		ProxyCacheWriter cacheWriter = proxyFlightManager.createCacheWriter(targetFile);
+		assertTrue(cacheWriter.isOpen());
+		cacheWriter.abort();
+	}
+
+	@Test
+	public void testIsShareable() {
+		assertTrue(proxyFlightManager.isShareable(request));
+		requestHeaders.set(HttpHeaders.Names.RANGE, "bytes=0-10");
+		assertFalse(proxyFlightManager.isShareable(request));
+		requestHeaders.remove(HttpHeaders.Names.RANGE);
+		requestHeaders.set(HttpHeaders.Names.IF_NONE_MATCH, "\"etag\"");
+		assertFalse(proxyFlightManager.isShareable(request));
+	}
+
+}
@@ -0,0 +1,291 @@
+package com.euromoby.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.stream.ChunkedFile;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.ning.http.client.AsyncHandler.STATE;
+import com.ning.http.client.FluentCaseInsensitiveStringsMap;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ProxyFlightTest {
+
+	private static final String SOURCE_URL = "http://example.com/file.html";
+
+	@Mock
+	ChannelHandlerContext ctx1;
+	@Mock
+	ChannelHandlerContext ctx2;
+	@Mock
+	Channel channel;
+	@Mock
+	ChannelFuture closeFuture;
+	@Mock
+	ChannelFuture channelFuture;
+	@Mock
+	FullHttpRequest request;
+	@Mock
+	com.ning.http.client.HttpResponseStatus responseStatus;
+	@Mock
+	HttpResponseHeaders responseHeaders;
+	@Mock
+	HttpResponseBodyPart bodyPart;
+
+	ProxyFlight flight;
+
+	@Before
+	public void init() {
+		for (ChannelHandlerContext ctx : new ChannelHandlerContext[] { ctx1, ctx2 }) {
+			Mockito.when(ctx.alloc()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
+			Mockito.when(ctx.channel()).thenReturn(channel);
+			Mockito.when(ctx.writeAndFlush(Matchers.any())).thenReturn(channelFuture);
+		}
+		Mockito.when(channel.closeFuture()).thenReturn(closeFuture);
+		Mockito.when(channel.isWritable()).thenReturn(true);
+		Mockito.when(channel.writeAndFlush(Matchers.any())).thenReturn(channelFuture);
+		Mockito.when(request.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);
+		Mockito.when(request.headers()).thenReturn(new DefaultHttpHeaders());
+		FluentCaseInsensitiveStringsMap headersMap = new FluentCaseInsensitiveStringsMap();
+		headersMap.add(HttpHeaders.Names.CONTENT_TYPE, "text/html");
+		headersMap.add("X-Origin", "hidden");
+		Mockito.when(responseHeaders.getHeaders()).thenReturn(headersMap);
+		Mockito.when(responseStatus.getStatusCode()).thenReturn(200);
+		flight = new ProxyFlight(SOURCE_URL, 1024);
+	}
+
+	private void mockBodyPart(int size) {
+		Mockito.when(bodyPart.getBodyByteBuffer()).thenReturn(ByteBuffer.wrap(new byte[size]));
+	}
+
+	@Test
+	public void testSubscribersShareResponse() throws Exception {
+		assertTrue(flight.join(ctx1, request));
+		assertTrue(flight.join(ctx2, request));
+		assertEquals(2, flight.getSubscriberCount());
+
+		mockBodyPart(10);
+		assertEquals(STATE.CONTINUE, flight.onStatusReceived(responseStatus));
+		assertEquals(STATE.CONTINUE, flight.onHeadersReceived(responseHeaders));
+		assertEquals(STATE.CONTINUE, flight.onBodyPartReceived(bodyPart));
+		flight.onCompleted();
+
+		for (ChannelHandlerContext ctx : new ChannelHandlerContext[] { ctx1, ctx2 }) {
+			ArgumentCaptor<HttpResponse> responseCaptor = ArgumentCaptor.forClass(HttpResponse.class);
+			Mockito.verify(ctx).write(responseCaptor.capture());
+			HttpResponse response = responseCaptor.getValue();
+			assertEquals(HttpResponseStatus.OK, response.getStatus());
+			assertEquals("text/html", response.headers().get(HttpHeaders.Names.CONTENT_TYPE));
+			assertFalse(response.headers().contains("X-Origin"));
+			assertEquals(HttpHeaders.Values.CHUNKED, response.headers().get(HttpHeaders.Names.TRANSFER_ENCODING));
+			ArgumentCaptor<Object> contentCaptor = ArgumentCaptor.forClass(Object.class);
+			Mockito.verify(ctx, Mockito.times(2)).writeAndFlush(contentCaptor.capture());
+			assertTrue(contentCaptor.getAllValues().get(0) instanceof DefaultHttpContent);
+			assertEquals(LastHttpContent.EMPTY_LAST_CONTENT, contentCaptor.getAllValues().get(1));
+		}
+		assertTrue(flight.getDonePromise().isDone());
+		assertFalse(flight.join(ctx1, request));
+	}
+
+	@Test
+	public void testLateJoinerGetsBufferedContent() throws Exception {
+		flight.join(ctx1, request);
+		mockBodyPart(10);
+		flight.onStatusReceived(responseStatus);
+		flight.onHeadersReceived(responseHeaders);
+		flight.onBodyPartReceived(bodyPart);
+
+		assertTrue(flight.join(ctx2, request));
+		Mockito.verify(ctx2).write(Matchers.any(HttpResponse.class));
+		Mockito.verify(ctx2).writeAndFlush(Matchers.any(DefaultHttpContent.class));
+	}
+
+	@Test
+	public void testBufferExceeded() throws Exception {
+		flight.join(ctx1, request);
+		mockBodyPart(2048);
+		flight.onStatusReceived(responseStatus);
+		flight.onHeadersReceived(responseHeaders);
+		assertEquals(STATE.CONTINUE, flight.onBodyPartReceived(bodyPart));
+		// content is not complete anymore
+		assertFalse(flight.join(ctx2, request));
+	}
+
+	@Test
+	public void testBufferBudgetIsShared() throws Exception {
+		ProxyBufferBudget bufferBudget = new ProxyBufferBudget(15);
+		ProxyFlight otherFlight = new ProxyFlight("http://example.com/other.html", 1024, bufferBudget, null);
+		flight = new ProxyFlight(SOURCE_URL, 1024, bufferBudget, null);
+		mockBodyPart(10);
+		for (ProxyFlight proxyFlight : new ProxyFlight[] { flight, otherFlight }) {
+			proxyFlight.join(ctx1, request);
+			proxyFlight.onStatusReceived(responseStatus);
+			proxyFlight.onHeadersReceived(responseHeaders);
+			proxyFlight.onBodyPartReceived(bodyPart);
+		}
+		assertEquals(10, bufferBudget.getUsed());
+		assertTrue(flight.join(ctx2, request));
+		// the budget is exhausted
+		assertFalse(otherFlight.join(ctx2, request));
+
+		flight.onCompleted();
+		assertEquals(0, bufferBudget.getUsed());
+	}
+
+	private ProxyCacheWriter mockCacheWriter(int size) throws Exception {
+		File downloadingFile = File.createTempFile("file.html.", ".downloading");
+		downloadingFile.deleteOnExit();
+		FileUtils.writeByteArrayToFile(downloadingFile, new byte[size]);
+		ProxyCacheWriter cacheWriter = Mockito.mock(ProxyCacheWriter.class);
+		Mockito.when(cacheWriter.acceptHeaders(Matchers.<Map<String, List<String>>> any())).thenReturn(true);
+		Mockito.when(cacheWriter.isOpen()).thenReturn(true);
+		Mockito.when(cacheWriter.getDownloadingFile()).thenReturn(downloadingFile);
+		return cacheWriter;
+	}
+
+	@Test
+	public void testLateJoinerReadsStoredFile() throws Exception {
+		ProxyBufferBudget bufferBudget = new ProxyBufferBudget(1024);
+		flight = new ProxyFlight(SOURCE_URL, 1024, bufferBudget, mockCacheWriter(10));
+		flight.join(ctx1, request);
+		mockBodyPart(10);
+		flight.onStatusReceived(responseStatus);
+		flight.onHeadersReceived(responseHeaders);
+		flight.onBodyPartReceived(bodyPart);
+		// nothing kept in memory
+		assertEquals(0, bufferBudget.getUsed());
+
+		assertTrue(flight.join(ctx2, request));
+		Mockito.verify(ctx2).write(Matchers.isA(HttpResponse.class));
+		ArgumentCaptor<Object> contentCaptor = ArgumentCaptor.forClass(Object.class);
+		Mockito.verify(ctx2).writeAndFlush(contentCaptor.capture());
+		ChunkedFile chunkedFile = (ChunkedFile) contentCaptor.getValue();
+		assertEquals(0, chunkedFile.startOffset());
+		assertEquals(10, chunkedFile.endOffset());
+		chunkedFile.close();
+	}
+
+	@Test
+	public void testSlowClientCatchesUpFromStoredFile() throws Exception {
+		flight = new ProxyFlight(SOURCE_URL, 1024, mockCacheWriter(20));
+		flight.join(ctx1, request);
+		mockBodyPart(10);
+		flight.onStatusReceived(responseStatus);
+		flight.onHeadersReceived(responseHeaders);
+		Mockito.when(channel.isWritable()).thenReturn(false);
+		flight.onBodyPartReceived(bodyPart);
+		Mockito.verify(ctx1, Mockito.never()).writeAndFlush(Matchers.any());
+
+		Mockito.when(channel.isWritable()).thenReturn(true);
+		flight.onBodyPartReceived(bodyPart);
+		ArgumentCaptor<Object> contentCaptor = ArgumentCaptor.forClass(Object.class);
+		Mockito.verify(ctx1, Mockito.times(2)).writeAndFlush(contentCaptor.capture());
+		ChunkedFile chunkedFile = (ChunkedFile) contentCaptor.getAllValues().get(0);
+		assertEquals(0, chunkedFile.startOffset());
+		assertEquals(10, chunkedFile.endOffset());
+		chunkedFile.close();
+		assertTrue(contentCaptor.getAllValues().get(1) instanceof DefaultHttpContent);
+	}
+
+	@Test
+	public void testSlowClientIsClosed() throws Exception {
+		flight.join(ctx1, request);
+		mockBodyPart(600);
+		flight.onStatusReceived(responseStatus);
+		flight.onHeadersReceived(responseHeaders);
+		Mockito.when(channel.isWritable()).thenReturn(false);
+		// nothing is sent
+		flight.onBodyPartReceived(bodyPart);
+		flight.onBodyPartReceived(bodyPart);
+		Mockito.verify(channel, Mockito.never()).close();
+		flight.onBodyPartReceived(bodyPart);
+		Mockito.verify(channel).close();
+		Mockito.verify(ctx1, Mockito.times(2)).writeAndFlush(Matchers.isA(DefaultHttpContent.class));
+	}
+
+	@Test
+	public void testOriginError() throws Exception {
+		flight.join(ctx1, request);
+		flight.join(ctx2, request);
+		Mockito.when(responseStatus.getStatusCode()).thenReturn(404);
+		assertEquals(STATE.ABORT, flight.onStatusReceived(responseStatus));
+
+		ArgumentCaptor<FullHttpResponse> responseCaptor = ArgumentCaptor.forClass(FullHttpResponse.class);
+		Mockito.verify(channel, Mockito.times(2)).writeAndFlush(responseCaptor.capture());
+		assertEquals(HttpResponseStatus.NOT_FOUND, responseCaptor.getValue().getStatus());
+		assertTrue(flight.getDonePromise().isDone());
+	}
+
+	@Test
+	public void testCacheFill() throws Exception {
+		ProxyCacheWriter cacheWriter = Mockito.mock(ProxyCacheWriter.class);
+		Mockito.when(cacheWriter.acceptHeaders(Matchers.<Map<String, List<String>>> any())).thenReturn(true);
+		flight = new ProxyFlight(SOURCE_URL, 1024, cacheWriter);
+		flight.join(ctx1, request);
+		mockBodyPart(10);
+		flight.onStatusReceived(responseStatus);
+		flight.onHeadersReceived(responseHeaders);
+		flight.onBodyPartReceived(bodyPart);
+		flight.onCompleted();
+
+		Mockito.verify(cacheWriter).write(Matchers.any(ByteBuffer.class));
+		Mockito.verify(cacheWriter).commit();
+		Mockito.verify(cacheWriter, Mockito.never()).abort();
+	}
+
+	@Test
+	public void testCacheFillOfFailedResponse() throws Exception {
+		ProxyCacheWriter cacheWriter = Mockito.mock(ProxyCacheWriter.class);
+		flight = new ProxyFlight(SOURCE_URL, 1024, cacheWriter);
+		flight.join(ctx1, request);
+		flight.onThrowable(new Exception());
+		Mockito.verify(cacheWriter).abort();
+		Mockito.verify(cacheWriter, Mockito.never()).commit();
+	}
+
+	@Test
+	public void testAbandoned() throws Exception {
+		flight.join(ctx1, request);
+		ArgumentCaptor<ChannelFutureListener> listenerCaptor = ArgumentCaptor.forClass(ChannelFutureListener.class);
+		Mockito.verify(closeFuture).addListener(listenerCaptor.capture());
+		// client has gone
+		listenerCaptor.getValue().operationComplete(closeFuture);
+		assertEquals(0, flight.getSubscriberCount());
+
+		flight.onStatusReceived(responseStatus);
+		assertEquals(STATE.ABORT, flight.onHeadersReceived(responseHeaders));
+		assertFalse(flight.join(ctx2, request));
+	}
+
+}
@@ -1,13 +1,22 @@
 package com.euromoby.http;
 
 import static org.junit.Assert.assertEquals;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -20,6 +29,9 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import com.euromoby.http.AsyncHttpClientProvider;
 import com.euromoby.http.ProxyResponse;
+import com.ning.http.client.FluentCaseInsensitiveStringsMap;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ProxyResponseTest {
@@ -34,18 +46,27 @@ public class ProxyResponseTest {
 	FullHttpRequest request;
 	@Mock
 	ChannelFuture channelFuture;	
+	@Mock
+	com.ning.http.client.HttpResponseStatus responseStatus;
+	@Mock
+	HttpResponseHeaders responseHeaders;
+	@Mock
+	HttpResponseBodyPart bodyPart;
 
 	ProxyResponse proxyResponse;
 
 	
 	@Before
 	public void init() {
+		Mockito.when(ctx.alloc()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
 		Mockito.when(ctx.channel()).thenReturn(channel);
 		proxyResponse = new ProxyResponse(asyncHttpClientProvider);
 	}
 	
 	@Test
 	public void testProxy() {
+		Mockito.when(request.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);
+		Mockito.when(request.headers()).thenReturn(new DefaultHttpHeaders());
 		Mockito.when(channel.writeAndFlush(Matchers.any(FullHttpResponse.class))).thenReturn(channelFuture);
 		proxyResponse.proxy(ctx, request, "http://example.com");
 
@@ -53,6 +74,46 @@ public class ProxyResponseTest {
 		Mockito.verify(channel).writeAndFlush(responseCaptor.capture());
 		FullHttpResponse response = responseCaptor.getValue();
 		assertEquals(HttpResponseStatus.INTERNAL_SERVER_ERROR, response.getStatus());
+		// the connection is kept
+		assertEquals(response.content().readableBytes(), HttpHeaders.getContentLength(response));
+		Mockito.verify(channelFuture, Mockito.never()).addListener(ChannelFutureListener.CLOSE);
+	}
+
+	@Test
+	public void testBodyIsStored() throws Exception {
+		ProxyCacheWriter cacheWriter = Mockito.mock(ProxyCacheWriter.class);
+		Mockito.when(cacheWriter.acceptHeaders(Matchers.<Map<String, List<String>>> any())).thenReturn(true);
+		Mockito.when(request.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);
+		Mockito.when(request.headers()).thenReturn(new DefaultHttpHeaders());
+		Mockito.when(ctx.writeAndFlush(Matchers.any())).thenReturn(channelFuture);
+		Mockito.when(responseStatus.getStatusCode()).thenReturn(200);
+		Mockito.when(responseHeaders.getHeaders()).thenReturn(new FluentCaseInsensitiveStringsMap());
+		Mockito.when(bodyPart.getBodyByteBuffer()).thenReturn(ByteBuffer.wrap(new byte[10]));
+
+		ProxyResponse.ProxyAsyncHandler handler = proxyResponse.new ProxyAsyncHandler(ctx, request, cacheWriter);
+		handler.onStatusReceived(responseStatus);
+		handler.onHeadersReceived(responseHeaders);
+		handler.onBodyPartReceived(bodyPart);
+		handler.onCompleted();
+
+		ArgumentCaptor<ByteBuffer> bufferCaptor = ArgumentCaptor.forClass(ByteBuffer.class);
+		Mockito.verify(cacheWriter).write(bufferCaptor.capture());
+		assertEquals(10, bufferCaptor.getValue().remaining());
+		Mockito.verify(cacheWriter).commit();
+	}
+
+	@Test
+	public void testPartialContentIsNotStored() throws Exception {
+		ProxyCacheWriter cacheWriter = Mockito.mock(ProxyCacheWriter.class);
+		Mockito.when(responseStatus.getStatusCode()).thenReturn(206);
+		Mockito.when(request.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);
+		Mockito.when(request.headers()).thenReturn(new DefaultHttpHeaders());
+		Mockito.when(ctx.writeAndFlush(Matchers.any())).thenReturn(channelFuture);
+		ProxyResponse.ProxyAsyncHandler handler = proxyResponse.new ProxyAsyncHandler(ctx, request, cacheWriter);
+		handler.onStatusReceived(responseStatus);
+		Mockito.verify(cacheWriter).abort();
+		handler.onCompleted();
+		Mockito.verify(cacheWriter, Mockito.never()).commit();
 	}
 	
 }
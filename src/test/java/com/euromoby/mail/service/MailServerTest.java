@@ -11,6 +11,8 @@ import org.mockito.runners.MockitoJUnitRunner;
 import com.euromoby.agent.Config;
 import com.euromoby.mail.service.MailServer;
 import com.euromoby.mail.service.MailServerInitializer;
+import com.euromoby.network.ByteBufAllocatorProvider;
+import com.euromoby.network.EventLoopManager;
 
 @RunWith(MockitoJUnitRunner.class)
 public class MailServerTest {
@@ -18,13 +20,17 @@ public class MailServerTest {
 	@Mock
 	Config config;
 	@Mock
+	EventLoopManager eventLoopManager;
+	@Mock
+	ByteBufAllocatorProvider allocatorProvider;
+	@Mock
 	MailServerInitializer mailServerInitializer;
 
 	MailServer server;
 
 	@Before
 	public void init() {
-		server = new MailServer(mailServerInitializer);
+		server = new MailServer(config, eventLoopManager, allocatorProvider, mailServerInitializer);
 	}
 
 	@Test
@@ -0,0 +1,93 @@
+package com.euromoby.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import com.euromoby.agent.Config;
+
+public class ByteBufAllocatorProviderTest {
+
+	Properties properties;
+	ResourceLeakDetector.Level level;
+	ByteBufAllocatorProvider provider;
+
+	@Before
+	public void init() {
+		properties = new Properties();
+		level = ResourceLeakDetector.getLevel();
+	}
+
+	@After
+	public void destroy() throws Exception {
+		if (provider != null) {
+			provider.destroy();
+		}
+		ResourceLeakDetector.setLevel(level);
+	}
+
+	@Test
+	public void testPooled() {
+		properties.put(Config.NETTY_ALLOCATOR_ARENAS, "2");
+		provider = new ByteBufAllocatorProvider(new Config(properties));
+		MeteredByteBufAllocator allocator = (MeteredByteBufAllocator) provider.getAllocator();
+		assertTrue(allocator.getAllocator() instanceof PooledByteBufAllocator);
+
+		ByteBuf heap = allocator.heapBuffer(100);
+		ByteBuf direct = allocator.directBuffer(200);
+		heap.release();
+		direct.release();
+
+		AllocatorMetrics metrics = provider.getMetrics();
+		assertEquals(ByteBufAllocatorProvider.POOLED, metrics.getType());
+		assertEquals(2, metrics.getHeapArenas());
+		assertEquals(2, metrics.getDirectArenas());
+		assertEquals(ByteBufAllocatorProvider.CHUNK_SIZE, metrics.getChunkSize());
+		assertEquals(1, metrics.getHeapAllocations());
+		assertEquals(100, metrics.getHeapAllocatedBytes());
+		assertEquals(1, metrics.getDirectAllocations());
+		assertEquals(200, metrics.getDirectAllocatedBytes());
+		// the chunk stays in the arena
+		assertTrue(metrics.getDirectMemoryUsed() >= ByteBufAllocatorProvider.CHUNK_SIZE);
+		assertEquals(Config.DEFAULT_NETTY_LEAK_DETECTION, metrics.getLeakDetectionLevel());
+	}
+
+	@Test
+	public void testUnpooled() {
+		properties.put(Config.NETTY_ALLOCATOR, ByteBufAllocatorProvider.UNPOOLED);
+		properties.put(Config.NETTY_ALLOCATOR_DIRECT, "false");
+		properties.put(Config.NETTY_LEAK_DETECTION, "disabled");
+		provider = new ByteBufAllocatorProvider(new Config(properties));
+		MeteredByteBufAllocator allocator = (MeteredByteBufAllocator) provider.getAllocator();
+		assertTrue(allocator.getAllocator() instanceof UnpooledByteBufAllocator);
+		assertFalse(allocator.isDirectBufferPooled());
+		allocator.buffer(10).release();
+
+		AllocatorMetrics metrics = provider.getMetrics();
+		assertEquals(ByteBufAllocatorProvider.UNPOOLED, metrics.getType());
+		assertFalse(metrics.isDirectPreferred());
+		assertEquals(0, metrics.getDirectArenas());
+		assertEquals(1, metrics.getHeapAllocations());
+		assertEquals("disabled", metrics.getLeakDetectionLevel());
+	}
+
+	@Test
+	public void testLeaksCounted() {
+		provider = new ByteBufAllocatorProvider(new Config(properties));
+		LoggerFactory.getLogger(ResourceLeakDetector.class).error("LEAK: ByteBuf.release() was not called before it's garbage-collected.");
+		LoggerFactory.getLogger(ResourceLeakDetector.class).error("Other error");
+		assertEquals(1, provider.getMetrics().getLeaksReported());
+	}
+
+}
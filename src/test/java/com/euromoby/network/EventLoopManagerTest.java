@@ -0,0 +1,153 @@
+package com.euromoby.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.euromoby.agent.Config;
+import com.euromoby.network.EventLoopManager.GroupInfo;
+
+public class EventLoopManagerTest {
+
+	private static final String CDN = "cdn";
+	private static final String MAIL = "mail";
+	private static final String REST = "rest";
+
+	Properties properties;
+	EventLoopManager eventLoopManager;
+
+	@Before
+	public void init() {
+		properties = new Properties();
+		properties.put(Config.NETTY_TRANSPORT, NettyTransport.NIO.getName());
+		properties.put(Config.NETTY_WORKER_THREADS, "2");
+		eventLoopManager = new EventLoopManager(new Config(properties));
+	}
+
+	@After
+	public void destroy() throws Exception {
+		eventLoopManager.destroy();
+	}
+
+	@Test
+	public void testSharedGroups() {
+		EventLoopGroup mailWorkers = eventLoopManager.acquireWorkerGroup(MAIL);
+		EventLoopGroup restWorkers = eventLoopManager.acquireWorkerGroup(REST);
+		assertSame(mailWorkers, restWorkers);
+		assertSame(eventLoopManager.acquireBossGroup(MAIL, 1), eventLoopManager.acquireBossGroup(REST, 1));
+		assertEquals(3, eventLoopManager.getThreadCount());
+
+		List<GroupInfo> groups = eventLoopManager.getGroups();
+		assertEquals(2, groups.size());
+		GroupInfo workers = groups.get(0);
+		assertEquals(EventLoopManager.SHARED_WORKER, workers.getName());
+		assertEquals(2, workers.getThreads());
+		assertTrue(workers.isShared());
+		assertEquals(Arrays.asList(MAIL, REST), Arrays.asList(workers.getServices().toArray()));
+
+		// still used by rest
+		eventLoopManager.release(MAIL);
+		assertFalse(mailWorkers.isShuttingDown());
+		assertEquals(1, eventLoopManager.getGroups().get(0).getServices().size());
+
+		eventLoopManager.release(REST);
+		assertTrue(mailWorkers.isShuttingDown());
+		assertEquals(0, eventLoopManager.getThreadCount());
+	}
+
+	@Test
+	public void testIsolatedGroups() {
+		EventLoopGroup cdnWorkers = eventLoopManager.acquireWorkerGroup(CDN);
+		assertNotSame(cdnWorkers, eventLoopManager.acquireWorkerGroup(REST));
+		assertEquals(2 + 2, eventLoopManager.getThreadCount());
+		GroupInfo cdnGroup = eventLoopManager.getGroups().get(0);
+		assertEquals("netty-cdn-worker", cdnGroup.getThreadName());
+		assertEquals(2, cdnGroup.getThreads());
+		assertFalse(cdnGroup.isShared());
+
+		// not isolated any more
+		properties.put(Config.NETTY_ISOLATED_SERVICES, "proxy");
+		assertSame(eventLoopManager.acquireWorkerGroup(MAIL), eventLoopManager.acquireWorkerGroup(REST));
+	}
+
+	@Test
+	public void testSlowRestDoesNotDelayCdnReads() throws Exception {
+		EventLoopGroup restWorkers = eventLoopManager.acquireWorkerGroup(REST);
+		final CountDownLatch restRelease = new CountDownLatch(1);
+		final CountDownLatch cdnRead = new CountDownLatch(1);
+		// every rest loop is busy with a blocking handler
+		for (EventExecutor restLoop : restWorkers) {
+			restLoop.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						restRelease.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+
+		ServerBootstrap bootstrap = new ServerBootstrap();
+		bootstrap.group(eventLoopManager.acquireBossGroup(CDN, 1), eventLoopManager.acquireWorkerGroup(CDN));
+		bootstrap.channel(eventLoopManager.getTransport().getServerChannelClass());
+		bootstrap.childHandler(new ChannelInboundHandlerAdapter() {
+			@Override
+			public void channelRead(ChannelHandlerContext ctx, Object msg) {
+				ReferenceCountUtil.release(msg);
+				cdnRead.countDown();
+			}
+		});
+		Channel serverChannel = bootstrap.bind(InetAddress.getLoopbackAddress(), 0).sync().channel();
+		Socket socket = new Socket();
+		try {
+			socket.connect(serverChannel.localAddress());
+			socket.getOutputStream().write("GET / HTTP/1.1\r\n\r\n".getBytes("US-ASCII"));
+			assertTrue(cdnRead.await(5, TimeUnit.SECONDS));
+		} finally {
+			restRelease.countDown();
+			socket.close();
+			serverChannel.close().sync();
+		}
+	}
+
+	@Test
+	public void testDedicatedGroups() {
+		properties.put(String.format(Config.SERVER_THREADS, CDN), "3");
+		EventLoopGroup cdnWorkers = eventLoopManager.acquireWorkerGroup(CDN);
+		EventLoopGroup cdnBoss = eventLoopManager.acquireBossGroup(CDN, 2);
+		assertNotSame(cdnWorkers, eventLoopManager.acquireWorkerGroup(REST));
+		assertNotSame(cdnBoss, eventLoopManager.acquireBossGroup(REST, 1));
+		assertEquals(3 + 2 + 2 + 1, eventLoopManager.getThreadCount());
+		assertFalse(eventLoopManager.getGroups().get(0).isShared());
+		assertEquals("netty-cdn-worker", eventLoopManager.getGroups().get(0).getThreadName());
+
+		eventLoopManager.release(CDN);
+		assertTrue(cdnWorkers.isShuttingDown());
+		assertTrue(cdnBoss.isShuttingDown());
+		assertEquals(2 + 1, eventLoopManager.getThreadCount());
+	}
+
+}
@@ -0,0 +1,45 @@
+package com.euromoby.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import org.junit.Test;
+
+public class NettyTransportTest {
+
+	private NettyTransport available() {
+		return NettyTransport.isEpollAvailable() ? NettyTransport.EPOLL : NettyTransport.NIO;
+	}
+
+	@Test
+	public void testSelect() {
+		assertEquals(NettyTransport.NIO, NettyTransport.select("nio"));
+		assertEquals(NettyTransport.NIO, NettyTransport.select("NIO"));
+		// epoll falls back to nio when the native library is not loaded
+		assertEquals(available(), NettyTransport.select("epoll"));
+		assertEquals(available(), NettyTransport.select(NettyTransport.AUTO));
+		assertEquals(available(), NettyTransport.select("unknown"));
+		assertEquals(available(), NettyTransport.select(null));
+	}
+
+	@Test
+	public void testNio() {
+		NettyTransport transport = NettyTransport.NIO;
+		assertEquals(NioServerSocketChannel.class, transport.getServerChannelClass());
+		assertEquals(NioSocketChannel.class, transport.getSocketChannelClass());
+		assertFalse(transport.isReusePortSupported());
+		EventLoopGroup group = transport.newEventLoopGroup(1, new DefaultThreadFactory("test"));
+		try {
+			assertTrue(group instanceof NioEventLoopGroup);
+		} finally {
+			group.shutdownGracefully();
+		}
+	}
+
+}
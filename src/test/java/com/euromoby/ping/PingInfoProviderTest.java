@@ -11,6 +11,7 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import com.euromoby.agent.Config;
+import com.euromoby.file.FileIndex;
 import com.euromoby.model.AgentId;
 import com.euromoby.ping.model.PingInfo;
 import com.euromoby.utils.SystemUtils;
@@ -20,20 +21,38 @@ public class PingInfoProviderTest {
 	
 	@Mock
 	Config config;
+	@Mock
+	FileIndex fileIndex;
 	PingInfoProvider pingInfoProvider;
 
 	@Before
 	public void init() {
-		pingInfoProvider = new PingInfoProvider(config);
+		pingInfoProvider = new PingInfoProvider(config, fileIndex);
 	}
 	@Test
 	public void testCreatePingInfo() {
 		AgentId agentId = new AgentId("host:12345");
 		Mockito.when(config.getAgentId()).thenReturn(agentId);
 		Mockito.when(config.getAgentFilesPath()).thenReturn(SystemUtils.getUserHome());
+		Mockito.when(fileIndex.getDigest()).thenReturn("7:AAAAAAAAAAA=");
 		PingInfo pingInfo = pingInfoProvider.createPingInfo();
 		assertEquals(agentId, pingInfo.getAgentId());
+		assertEquals("7:AAAAAAAAAAA=", pingInfo.getFileDigest());
 		assertTrue(pingInfo.getFreeSpace() > 0);
 	}
 
+	@Test
+	public void testReportedFreeSpace() {
+		Mockito.when(config.getAgentFilesPath()).thenReturn(SystemUtils.getUserHome());
+		// no ping yet, the current free space
+		assertTrue(pingInfoProvider.getReportedFreeSpace() > 0);
+		Mockito.verify(config, Mockito.times(1)).getAgentFilesPath();
+
+		PingInfo pingInfo = pingInfoProvider.createPingInfo();
+		Mockito.verify(config, Mockito.times(2)).getAgentFilesPath();
+		// the value of the ping, the disk is not checked again
+		assertEquals(pingInfo.getFreeSpace(), pingInfoProvider.getReportedFreeSpace());
+		Mockito.verify(config, Mockito.times(2)).getAgentFilesPath();
+	}
+
 }
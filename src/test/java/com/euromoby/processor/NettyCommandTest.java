@@ -0,0 +1,59 @@
+package com.euromoby.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.network.EventLoopManager;
+import com.euromoby.network.EventLoopManager.GroupInfo;
+import com.euromoby.network.NettyTransport;
+import com.euromoby.utils.StringUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NettyCommandTest {
+
+	@Mock
+	EventLoopManager eventLoopManager;
+	NettyCommand nettyCommand;
+
+	@Before
+	public void init() {
+		nettyCommand = new NettyCommand(eventLoopManager);
+	}
+
+	@Test
+	public void testMatchName() {
+		assertTrue(nettyCommand.match(NettyCommand.NAME));
+	}
+
+	@Test
+	public void testNotMatch() {
+		assertFalse(nettyCommand.match(NettyCommand.NAME + "aaa"));
+	}
+
+	@Test
+	public void testExecute() {
+		Mockito.when(eventLoopManager.getTransport()).thenReturn(NettyTransport.NIO);
+		Mockito.when(eventLoopManager.getThreadCount()).thenReturn(6);
+		Mockito.when(eventLoopManager.getGroups()).thenReturn(
+				Arrays.asList(new GroupInfo(EventLoopManager.SHARED_WORKER, 4, true, new TreeSet<String>(Arrays.asList("cdn", "rest"))),
+						new GroupInfo("cdn-boss", 2, false, new TreeSet<String>(Collections.singleton("cdn")))));
+		String expected = "transport: nio" + StringUtils.CRLF +
+				"threads: 6" + StringUtils.CRLF +
+				"worker: 4 threads shared netty-worker [cdn, rest]" + StringUtils.CRLF +
+				"cdn-boss: 2 threads dedicated netty-cdn-boss [cdn]" + StringUtils.CRLF;
+		assertEquals(expected, nettyCommand.execute(NettyCommand.NAME));
+	}
+
+}
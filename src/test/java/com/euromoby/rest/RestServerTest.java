@@ -10,6 +10,8 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import com.euromoby.agent.Config;
+import com.euromoby.network.ByteBufAllocatorProvider;
+import com.euromoby.network.EventLoopManager;
 
 @RunWith(MockitoJUnitRunner.class)
 public class RestServerTest {
@@ -18,6 +20,10 @@ public class RestServerTest {
 	@Mock
 	Config config;
 	@Mock
+	EventLoopManager eventLoopManager;
+	@Mock
+	ByteBufAllocatorProvider allocatorProvider;
+	@Mock
 	RestServerInitializer restServerInitializer;
 
 
@@ -26,7 +32,7 @@ public class RestServerTest {
 	@Before
 	public void init() {
 		Mockito.when(config.getBasePort()).thenReturn(Integer.parseInt(Config.DEFAULT_AGENT_BASE_PORT));
-		server = new RestServer(config, restServerInitializer);
+		server = new RestServer(config, eventLoopManager, allocatorProvider, restServerInitializer);
 	}
 
 	@Test
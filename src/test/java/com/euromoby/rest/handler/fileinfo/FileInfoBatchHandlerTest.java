@@ -0,0 +1,121 @@
+package com.euromoby.rest.handler.fileinfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.rest.RestException;
+import com.google.gson.Gson;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FileInfoBatchHandlerTest {
+
+	@Mock
+	FileInfoProvider fileInfoProvider;
+	@Mock
+	HttpRequest request;
+	@Mock
+	HttpHeaders headers;
+	@Mock
+	ChannelHandlerContext ctx;
+
+	FileInfoBatchHandler handler;
+
+	@Before
+	public void init() {
+		Mockito.when(request.getProtocolVersion()).thenReturn(HttpVersion.HTTP_1_1);
+		Mockito.when(request.headers()).thenReturn(headers);
+		Mockito.when(ctx.alloc()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
+		handler = new FileInfoBatchHandler(fileInfoProvider);
+	}
+
+	private Map<String, List<String>> postParameters(List<String> paths) {
+		Map<String, List<String>> postParameters = new HashMap<String, List<String>>();
+		postParameters.put(FileInfoBatchHandler.REQUEST_INPUT_PATH, paths);
+		return postParameters;
+	}
+
+	@Test
+	public void shouldMatchUri() throws Exception {
+		assertTrue(handler.matchUri(new URI("http://example.com" + FileInfoBatchHandler.URL)));
+		assertFalse(handler.matchUri(new URI("http://example.com" + FileInfoBatchHandler.URL + "/file.txt")));
+	}
+
+	@Test
+	public void testFileInfos() throws Exception {
+		FileInfo complete = new FileInfo();
+		complete.setFileLocation("a.txt");
+		complete.setLength(5);
+		FileInfo scheduled = new FileInfo();
+		scheduled.setFileLocation("b.txt");
+		scheduled.setComplete(false);
+		Mockito.when(fileInfoProvider.getFileInfo("a.txt")).thenReturn(complete);
+		Mockito.when(fileInfoProvider.getFileInfo("b.txt")).thenReturn(scheduled);
+
+		FullHttpResponse response = handler.doPost(ctx, request, null, postParameters(Arrays.asList("a.txt", "missing.txt", "b.txt")),
+				Collections.<String, File> emptyMap());
+		assertEquals(HttpResponseStatus.OK, response.getStatus());
+		assertEquals("application/json; charset=UTF-8", response.headers().get(HttpHeaders.Names.CONTENT_TYPE));
+
+		FileInfo[] fileInfos = new Gson().fromJson(response.content().toString(CharsetUtil.UTF_8), FileInfo[].class);
+		response.release();
+		// missing files are left out
+		assertEquals(2, fileInfos.length);
+		assertEquals("a.txt", fileInfos[0].getFileLocation());
+		assertEquals(5, fileInfos[0].getLength());
+		assertTrue(fileInfos[0].isComplete());
+		assertEquals("b.txt", fileInfos[1].getFileLocation());
+		assertFalse(fileInfos[1].isComplete());
+	}
+
+	@Test
+	public void testNoPaths() throws Exception {
+		try {
+			handler.doPost(ctx, request, null, new HashMap<String, List<String>>(), Collections.<String, File> emptyMap());
+			fail();
+		} catch (RestException e) {
+			assertEquals(HttpResponseStatus.BAD_REQUEST, e.getStatus());
+		}
+	}
+
+	@Test
+	public void testTooManyPaths() throws Exception {
+		List<String> paths = new ArrayList<String>();
+		for (int i = 0; i <= FileInfoBatchHandler.MAX_PATHS; i++) {
+			paths.add("file" + i);
+		}
+		try {
+			handler.doPost(ctx, request, null, postParameters(paths), Collections.<String, File> emptyMap());
+			fail();
+		} catch (RestException e) {
+			assertEquals(HttpResponseStatus.BAD_REQUEST, e.getStatus());
+		}
+		Mockito.verifyZeroInteractions(fileInfoProvider);
+	}
+
+}
@@ -0,0 +1,77 @@
+package com.euromoby.rest.handler.fileinfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.agent.Config;
+import com.euromoby.download.DownloadManager;
+import com.euromoby.download.model.DownloadFile;
+import com.euromoby.file.FileIndex;
+import com.euromoby.file.FileMetadata;
+import com.euromoby.file.FileProvider;
+import com.euromoby.model.AgentId;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FileInfoProviderTest {
+
+	private static final String LOCATION = "a/b.txt";
+	private static final AgentId AGENT_ID = new AgentId("agent:21000");
+
+	@Mock
+	Config config;
+	@Mock
+	DownloadManager downloadManager;
+	@Mock
+	FileProvider fileProvider;
+	@Mock
+	FileIndex fileIndex;
+	@Mock
+	File file;
+
+	FileInfoProvider fileInfoProvider;
+
+	@Before
+	public void init() {
+		Mockito.when(config.getAgentId()).thenReturn(AGENT_ID);
+		Mockito.when(fileProvider.getFileByLocation(LOCATION)).thenReturn(file);
+		fileInfoProvider = new FileInfoProvider(config, downloadManager, fileProvider, fileIndex);
+	}
+
+	@Test
+	public void testExistingFile() {
+		Mockito.when(fileIndex.get(file)).thenReturn(new FileMetadata(5, 1000, "\"e\"", "text/plain", true, false));
+		FileInfo fileInfo = fileInfoProvider.getFileInfo(LOCATION);
+		assertEquals(AGENT_ID, fileInfo.getAgentId());
+		assertEquals(LOCATION, fileInfo.getFileLocation());
+		assertEquals(5, fileInfo.getLength());
+		assertEquals(1000, fileInfo.getLastModified());
+		assertTrue(fileInfo.isComplete());
+		Mockito.verifyZeroInteractions(downloadManager);
+	}
+
+	@Test
+	public void testScheduledFile() {
+		Mockito.when(downloadManager.findScheduledFileLocation(LOCATION)).thenReturn(new DownloadFile());
+		FileInfo fileInfo = fileInfoProvider.getFileInfo(LOCATION);
+		assertEquals(LOCATION, fileInfo.getFileLocation());
+		assertFalse(fileInfo.isComplete());
+	}
+
+	@Test
+	public void testMissingFile() {
+		assertNull(fileInfoProvider.getFileInfo(LOCATION));
+		assertNull(fileInfoProvider.getFileInfo("invalid"));
+	}
+
+}
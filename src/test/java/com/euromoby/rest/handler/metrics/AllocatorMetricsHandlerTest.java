@@ -0,0 +1,32 @@
+package com.euromoby.rest.handler.metrics;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.network.AllocatorMetrics;
+import com.euromoby.network.ByteBufAllocatorProvider;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AllocatorMetricsHandlerTest {
+
+	@Mock
+	ByteBufAllocatorProvider allocatorProvider;
+
+	@Test
+	public void testMetrics() throws Exception {
+		AllocatorMetrics metrics = new AllocatorMetrics();
+		Mockito.when(allocatorProvider.getMetrics()).thenReturn(metrics);
+		AllocatorMetricsHandler handler = new AllocatorMetricsHandler(allocatorProvider);
+		assertTrue(handler.matchUri(new URI("http://example.com" + AllocatorMetricsHandler.URL)));
+		assertSame(metrics, handler.getMetrics());
+	}
+
+}
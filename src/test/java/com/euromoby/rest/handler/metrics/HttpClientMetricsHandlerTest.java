@@ -0,0 +1,32 @@
+package com.euromoby.rest.handler.metrics;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.http.HttpClientProvider;
+import com.euromoby.http.HttpPoolMetrics;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HttpClientMetricsHandlerTest {
+
+	@Mock
+	HttpClientProvider httpClientProvider;
+
+	@Test
+	public void testMetrics() throws Exception {
+		HttpPoolMetrics metrics = new HttpPoolMetrics();
+		Mockito.when(httpClientProvider.getPoolMetrics()).thenReturn(metrics);
+		HttpClientMetricsHandler handler = new HttpClientMetricsHandler(httpClientProvider);
+		assertTrue(handler.matchUri(new URI("http://example.com" + HttpClientMetricsHandler.URL)));
+		assertSame(metrics, handler.getMetrics());
+	}
+
+}
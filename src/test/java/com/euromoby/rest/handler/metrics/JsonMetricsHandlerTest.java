@@ -0,0 +1,76 @@
+package com.euromoby.rest.handler.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.CharsetUtil;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.google.gson.Gson;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JsonMetricsHandlerTest {
+
+	private static final String URL = "/metrics/test";
+
+	@Mock
+	HttpRequest request;
+	@Mock
+	ChannelHandlerContext ctx;
+
+	TestMetrics metrics = new TestMetrics();
+	JsonMetricsHandler handler;
+
+	static class TestMetrics {
+		long count;
+		Map<String, Long> items = new HashMap<String, Long>();
+	}
+
+	@Before
+	public void init() {
+		Mockito.when(ctx.alloc()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
+		handler = new JsonMetricsHandler(URL) {
+			@Override
+			protected Object getMetrics() {
+				return metrics;
+			}
+		};
+	}
+
+	@Test
+	public void shouldMatchUri() throws Exception {
+		assertTrue(handler.matchUri(new URI("http://example.com" + URL)));
+		assertFalse(handler.matchUri(new URI("http://example.com" + URL + "/other")));
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		metrics.count = 42;
+		metrics.items.put("item", 7L);
+
+		FullHttpResponse response = handler.doGet(ctx, request, null);
+		assertEquals(HttpResponseStatus.OK, response.getStatus());
+		assertEquals("application/json; charset=UTF-8", response.headers().get(HttpHeaders.Names.CONTENT_TYPE));
+		TestMetrics result = new Gson().fromJson(response.content().toString(CharsetUtil.UTF_8), TestMetrics.class);
+		assertEquals(42, result.count);
+		assertEquals(Long.valueOf(7), result.items.get("item"));
+		response.release();
+	}
+
+}
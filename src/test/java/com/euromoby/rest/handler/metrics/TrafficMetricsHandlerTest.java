@@ -0,0 +1,32 @@
+package com.euromoby.rest.handler.metrics;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.euromoby.cdn.CdnTrafficShaper;
+import com.euromoby.cdn.model.TrafficMetrics;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TrafficMetricsHandlerTest {
+
+	@Mock
+	CdnTrafficShaper trafficShaper;
+
+	@Test
+	public void testMetrics() throws Exception {
+		TrafficMetrics metrics = new TrafficMetrics();
+		Mockito.when(trafficShaper.getMetrics()).thenReturn(metrics);
+		TrafficMetricsHandler handler = new TrafficMetricsHandler(trafficShaper);
+		assertTrue(handler.matchUri(new URI("http://example.com" + TrafficMetricsHandler.URL)));
+		assertSame(metrics, handler.getMetrics());
+	}
+
+}
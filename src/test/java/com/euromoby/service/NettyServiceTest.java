@@ -4,6 +4,13 @@ import static org.junit.Assert.assertEquals;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.socket.SocketChannel;
 
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -11,6 +18,9 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import com.euromoby.agent.Config;
+import com.euromoby.network.ByteBufAllocatorProvider;
+import com.euromoby.network.EventLoopManager;
+import com.euromoby.network.NettyTransport;
 import com.euromoby.service.model.ServiceState;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -21,11 +31,26 @@ public class NettyServiceTest {
 	@Mock
 	ChannelInitializer<SocketChannel> initializer;
 
+	Properties properties;
+	EventLoopManager eventLoopManager;
 	NettyService server;
 
 	@Before
 	public void init() {
-		server = new NettyService(initializer) {
+		properties = new Properties();
+		server = createServer();
+	}
+
+	@After
+	public void destroy() throws Exception {
+		server.stopService();
+		eventLoopManager.destroy();
+	}
+
+	private NettyService createServer() {
+		Config config = new Config(properties);
+		eventLoopManager = new EventLoopManager(config);
+		return new NettyService(config, eventLoopManager, new ByteBufAllocatorProvider(config), initializer) {
 
 			@Override
 			public String getServiceName() {
@@ -63,6 +88,61 @@ public class NettyServiceTest {
 		server.stopService();
 		assertEquals(ServiceState.STOPPED, server.getServiceState());		
 	}
-	
-	
+
+	@Test
+	public void testNioTransport() throws Exception {
+		properties.put(Config.NETTY_TRANSPORT, NettyTransport.NIO.getName());
+		// SO_REUSEPORT is not available
+		properties.put(String.format(Config.SERVER_ACCEPTORS, SERVICE_NAME), "2");
+		server = createServer();
+		server.startService();
+		try {
+			assertEquals(ServiceState.RUNNING, server.getServiceState());
+			assertEquals(NettyTransport.NIO, server.getTransport());
+			assertEquals(1, server.getAcceptorCount());
+		} finally {
+			server.stopService();
+		}
+		assertEquals(0, server.getAcceptorCount());
+	}
+
+	@Test
+	public void testReusePortAcceptors() throws Exception {
+		Assume.assumeTrue(NettyTransport.isEpollAvailable());
+		properties.put(String.format(Config.SERVER_ACCEPTORS, SERVICE_NAME), "2");
+		properties.put(String.format(Config.SERVER_RCVBUF, SERVICE_NAME), "65536");
+		server.startService();
+		try {
+			assertEquals(ServiceState.RUNNING, server.getServiceState());
+			assertEquals(NettyTransport.EPOLL, server.getTransport());
+			assertEquals(2, server.getAcceptorCount());
+		} finally {
+			server.stopService();
+		}
+	}
+
+	@Test
+	public void testStopClosesConnections() throws Exception {
+		server.startService();
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+		try {
+			InputStream in = socket.getInputStream();
+			socket.setSoTimeout(5000);
+			// a connection still in the accept backlog would be reset
+			long deadline = System.currentTimeMillis() + 5000;
+			while (server.getConnectionCount() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, server.getConnectionCount());
+			server.stopService();
+			// the accepted connection is closed cleanly
+			assertEquals(-1, in.read());
+			assertEquals(0, server.getConnectionCount());
+			// the worker loops are released with the last service using them
+			assertEquals(0, eventLoopManager.getThreadCount());
+		} finally {
+			socket.close();
+		}
+	}
+
 }
@@ -10,6 +10,8 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import com.euromoby.agent.Config;
+import com.euromoby.network.ByteBufAllocatorProvider;
+import com.euromoby.network.EventLoopManager;
 
 @RunWith(MockitoJUnitRunner.class)
 public class TelnetServerTest {
@@ -17,6 +19,10 @@ public class TelnetServerTest {
 	@Mock
 	Config config;
 	@Mock
+	EventLoopManager eventLoopManager;
+	@Mock
+	ByteBufAllocatorProvider allocatorProvider;
+	@Mock
 	TelnetServerInitializer telnetServerInitializer;
 
 	TelnetServer server;
@@ -24,7 +30,7 @@ public class TelnetServerTest {
 	@Before
 	public void init() {
 		Mockito.when(config.getBasePort()).thenReturn(Integer.parseInt(Config.DEFAULT_AGENT_BASE_PORT));
-		server = new TelnetServer(config, telnetServerInitializer);
+		server = new TelnetServer(config, eventLoopManager, allocatorProvider, telnetServerInitializer);
 	}
 
 	@Test